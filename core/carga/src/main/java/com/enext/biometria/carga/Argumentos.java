@@ -0,0 +1,54 @@
+package com.enext.biometria.carga;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Argumentos de linea de comandos de la forma --clave valor (o --bandera sin valor).
+ */
+final class Argumentos {
+
+    private final Map<String, String> valores = new HashMap<>();
+
+    Argumentos(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Argumento invalido: " + args[i]);
+            }
+            String clave = args[i].substring(2);
+            if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                valores.put(clave, args[++i]);
+            } else {
+                valores.put(clave, "true");
+            }
+        }
+    }
+
+    String texto(String clave, String porDefecto) {
+        String valor = valores.get(clave);
+        return valor != null ? valor : porDefecto;
+    }
+
+    int entero(String clave, int porDefecto) {
+        String valor = valores.get(clave);
+        return valor != null ? Integer.parseInt(valor) : porDefecto;
+    }
+
+    long largo(String clave, long porDefecto) {
+        String valor = valores.get(clave);
+        return valor != null ? Long.parseLong(valor) : porDefecto;
+    }
+
+    double decimal(String clave, double porDefecto) {
+        String valor = valores.get(clave);
+        return valor != null ? Double.parseDouble(valor) : porDefecto;
+    }
+
+    boolean bandera(String clave) {
+        return Boolean.parseBoolean(valores.get(clave));
+    }
+
+    boolean contiene(String clave) {
+        return valores.containsKey(clave);
+    }
+}
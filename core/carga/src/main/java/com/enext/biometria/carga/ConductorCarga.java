@@ -0,0 +1,609 @@
+package com.enext.biometria.carga;
+
+import com.enext.biometria.core.CargaValidacion;
+import com.enext.biometria.core.Circuito;
+import com.enext.biometria.core.CuerpoJson;
+import com.enext.biometria.core.LimitadorTasa;
+import com.enext.biometria.core.PoliticaReintento;
+import com.enext.biometria.core.ResultadoValidacion;
+import com.enext.biometria.core.SolicitudCompartida;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.MediaType;
+import okhttp3.MultipartBody;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Ejecuta N validaciones (token + envio de la imagen) con la concurrencia indicada y reporta
+ * throughput y percentiles de latencia.
+ *
+ * Recorre el mismo flujo que el plugin con las politicas del nucleo: configuracion base de OkHttp
+ * (ConnectionPool(5, 5 min), Dispatcher por defecto, llamadas asincronas), timeout total por llamada,
+ * token compartido entre validaciones con agrupamiento de solicitudes simultaneas
+ * (SolicitudCompartida), vigencia segun expires_in, reintentos con espera exponencial
+ * (PoliticaReintento) e invalidacion y un reenvio ante HTTP 401/403, limite de tasa por endpoint
+ * (LimitadorTasa), circuit breaker del endpoint de biometria (Circuito), envio de la foto sin
+ * reintento automatico de OkHttp, y cuerpos e interpretacion de respuestas del nucleo (CuerpoJson,
+ * CargaValidacion, ResultadoValidacion). No pasa por ProcesadorImagen, que depende de Android: envia
+ * siempre los mismos bytes de imagen.
+ *
+ * <pre>
+ * java -jar carga.jar --servidor-local [opciones del servidor] [--concurrencia 8] [--validaciones 200]
+ *   [--bytes-imagen 61440] [--modo json|multipart|binario] [--sin-reusar-token]
+ *   [--timeout-conexion-ms 10000] [--timeout-lectura-ms 30000] [--timeout-token-ms 15000]
+ *   [--timeout-biometria-ms 45000] [--reintentos-token 2] [--umbral-circuito 5]
+ *   [--apertura-circuito-ms 30000] [--tasa-por-segundo 0] [--capacidad-tasa 5]
+ *   [--espera-maxima-tasa-ms 10000] [--calentamiento 10]
+ * java -jar carga.jar --url-base http://host:puerto [...]
+ * </pre>
+ */
+public final class ConductorCarga {
+
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+    private static final MediaType JPEG = MediaType.get("image/jpeg");
+
+    private static final String MODO_JSON = "json";
+    private static final String MODO_MULTIPART = "multipart";
+    private static final String MODO_BINARIO = "binario";
+
+    // Errores locales, con los mismos codigos que BiometriaHttpClient
+    private static final String CIRCUIT_OPEN = "CIRCUIT_OPEN";
+    private static final String RATE_LIMITED = "RATE_LIMITED";
+    private static final String NETWORK_ERROR = "NETWORK_ERROR";
+
+    private static final int HTTP_OK = 200;
+    private static final int HTTP_UNAUTHORIZED = 401;
+    private static final int HTTP_FORBIDDEN = 403;
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    // Vigencia del token como en TokenCache: por defecto si el servidor no la informa, y margen de uso
+    private static final long VIGENCIA_POR_DEFECTO_MS = 60000;
+    private static final long MARGEN_USO_MS = 5000;
+    private static final long ESPERA_REINTENTO_MS = 500;
+    private static final long ESPERA_REINTENTO_MAXIMA_MS = 8000;
+
+    // Buffer nuevo por cuerpo: el conductor no tiene el BufferPool del plugin
+    private static final CargaValidacion.Bloques SIN_POOL = new CargaValidacion.Bloques() {
+        @Override
+        public byte[] obtener(int capacidad) {
+            return new byte[capacidad];
+        }
+
+        @Override
+        public void devolver(byte[] arreglo) {
+        }
+    };
+
+    /**
+     * Parametros del conductor. Los valores por defecto son los del plugin, salvo el limite de tasa:
+     * el del plugin es por equipo y el conductor representa muchos equipos, por lo que viene desactivado.
+     */
+    static final class Configuracion {
+        String modo = MODO_JSON;
+        boolean reusarToken = true;
+        int timeoutTokenMs = 15000;
+        int timeoutBiometriaMs = 45000;
+        int reintentosToken = 2;
+        int umbralCircuito = Circuito.UMBRAL_FALLOS;
+        long aperturaCircuitoMs = Circuito.APERTURA_MS;
+        double tasaPorSegundo = 0;
+        int capacidadTasa = LimitadorTasa.CAPACIDAD;
+        long esperaMaximaTasaMs = LimitadorTasa.ESPERA_MAXIMA_MS;
+
+        static Configuracion desde(Argumentos args) {
+            Configuracion config = new Configuracion();
+            config.modo = args.texto("modo", config.modo);
+            if (!MODO_JSON.equals(config.modo) && !MODO_MULTIPART.equals(config.modo)
+                    && !MODO_BINARIO.equals(config.modo)) {
+                throw new IllegalArgumentException("Modo invalido: " + config.modo);
+            }
+            config.reusarToken = !args.bandera("sin-reusar-token");
+            config.timeoutTokenMs = args.entero("timeout-token-ms", config.timeoutTokenMs);
+            config.timeoutBiometriaMs = args.entero("timeout-biometria-ms", config.timeoutBiometriaMs);
+            config.reintentosToken = args.entero("reintentos-token", config.reintentosToken);
+            config.umbralCircuito = args.entero("umbral-circuito", config.umbralCircuito);
+            config.aperturaCircuitoMs = args.largo("apertura-circuito-ms", config.aperturaCircuitoMs);
+            config.tasaPorSegundo = args.decimal("tasa-por-segundo", config.tasaPorSegundo);
+            config.capacidadTasa = args.entero("capacidad-tasa", config.capacidadTasa);
+            config.esperaMaximaTasaMs = args.largo("espera-maxima-tasa-ms", config.esperaMaximaTasaMs);
+            return config;
+        }
+    }
+
+    /**
+     * Token obtenido o codigo del error que impidio obtenerlo.
+     */
+    private interface DestinoToken {
+        void alObtener(String token);
+        void alFallar(String codigo);
+    }
+
+    /**
+     * Codigo y cuerpo de la respuesta, o codigo local del error (transitorio o no) si no la hubo.
+     */
+    private interface DestinoRespuesta {
+        void alResponder(int codigo, String cuerpo);
+        void alFallar(String codigo, boolean transitorio);
+    }
+
+    private final OkHttpClient client;
+    private final OkHttpClient clientValidacion;
+    private final String urlToken;
+    private final String urlBiometria;
+    private final Configuracion config;
+    private final byte[] imagen;
+    private final RequestBody credenciales;
+
+    private final Circuito circuito;
+    private final LimitadorTasa limitadorToken;
+    private final LimitadorTasa limitadorBiometria;
+    private final PoliticaReintento politicaReintento = new PoliticaReintento(ESPERA_REINTENTO_MS,
+            ESPERA_REINTENTO_MAXIMA_MS);
+    private final SolicitudCompartida<DestinoToken> tokenEnCurso = new SolicitudCompartida<>();
+    private final Random aleatorio = new Random();
+    private final ScheduledExecutorService programador = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread hilo = new Thread(r, "ConductorCarga");
+            hilo.setDaemon(true);
+            return hilo;
+        }
+    });
+
+    private final Latencias latenciasToken = new Latencias();
+    private final Latencias latenciasValidacion = new Latencias();
+    private final Latencias latenciasTotal = new Latencias();
+    private final Map<String, AtomicInteger> resultados = new ConcurrentHashMap<>();
+    private final AtomicInteger solicitudesToken = new AtomicInteger();
+    private final AtomicInteger agrupadasToken = new AtomicInteger();
+    private final AtomicInteger reintentosToken = new AtomicInteger();
+    private final AtomicInteger invalidadosToken = new AtomicInteger();
+    private final AtomicLong esperaAgrupadasMs = new AtomicLong();
+
+    private String tokenVigente;
+    private long tokenExpiraEn;
+
+    private ConductorCarga(OkHttpClient client, String urlBase, Configuracion config, byte[] imagen) {
+        this.client = client;
+        // Como BiometriaHttpClient: la foto no se reenvia sola si el servidor ya pudo recibirla
+        this.clientValidacion = client.newBuilder().retryOnConnectionFailure(false).build();
+        this.urlToken = urlBase + ServidorSimulado.RUTA_TOKEN;
+        this.urlBiometria = urlBase + ServidorSimulado.RUTA_BIOMETRIA;
+        this.config = config;
+        this.imagen = imagen;
+        this.credenciales = cuerpoToken();
+        this.circuito = new Circuito(config.umbralCircuito, config.aperturaCircuitoMs);
+        this.limitadorToken = new LimitadorTasa(config.tasaPorSegundo, config.capacidadTasa, config.esperaMaximaTasaMs);
+        this.limitadorBiometria = new LimitadorTasa(config.tasaPorSegundo, config.capacidadTasa,
+                config.esperaMaximaTasaMs);
+    }
+
+    /**
+     * Lanza las validaciones y espera a que terminen todas. Retorna la duracion en ms.
+     */
+    private long ejecutar(int validaciones, int concurrencia) throws InterruptedException {
+        final Semaphore enCurso = new Semaphore(concurrencia);
+        final CountDownLatch pendientes = new CountDownLatch(validaciones);
+        long inicio = System.nanoTime();
+        for (int i = 0; i < validaciones; i++) {
+            enCurso.acquire();
+            validar(String.format("%010d", i), new Runnable() {
+                @Override
+                public void run() {
+                    enCurso.release();
+                    pendientes.countDown();
+                }
+            });
+        }
+        pendientes.await();
+        programador.shutdownNow();
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inicio);
+    }
+
+    /**
+     * Una validacion: token (el vigente si se reusa) y envio de la imagen.
+     */
+    private void validar(final String cedula, final Runnable alTerminar) {
+        final long inicio = System.nanoTime();
+        obtenerToken(new DestinoToken() {
+            @Override
+            public void alObtener(String token) {
+                enviarImagen(cedula, token, true, inicio, alTerminar);
+            }
+
+            @Override
+            public void alFallar(String codigo) {
+                terminar(codigo, alTerminar);
+            }
+        });
+    }
+
+    /**
+     * Entrega el token vigente o lo solicita. Si se reusa, las solicitudes simultaneas se agrupan en
+     * una sola llamada como en TokenCache; con --sin-reusar-token cada validacion pide el suyo.
+     */
+    private void obtenerToken(DestinoToken destino) {
+        if (!config.reusarToken) {
+            solicitudesToken.incrementAndGet();
+            solicitarToken(0, System.nanoTime(), destino);
+            return;
+        }
+        synchronized (this) {
+            if (tokenVigente != null && ahoraMs() + MARGEN_USO_MS < tokenExpiraEn) {
+                destino.alObtener(tokenVigente);
+                return;
+            }
+        }
+        if (!tokenEnCurso.sumar(destino, ahoraMs())) {
+            agrupadasToken.incrementAndGet();
+            return;
+        }
+        solicitudesToken.incrementAndGet();
+        solicitarToken(0, System.nanoTime(), new DestinoToken() {
+            @Override
+            public void alObtener(String token) {
+                for (DestinoToken solicitante : terminarToken()) {
+                    solicitante.alObtener(token);
+                }
+            }
+
+            @Override
+            public void alFallar(String codigo) {
+                for (DestinoToken solicitante : terminarToken()) {
+                    solicitante.alFallar(codigo);
+                }
+            }
+        });
+    }
+
+    private List<DestinoToken> terminarToken() {
+        SolicitudCompartida.Grupo<DestinoToken> grupo = tokenEnCurso.terminar(ahoraMs());
+        esperaAgrupadasMs.addAndGet(grupo.esperaAgrupadosMs);
+        return grupo.solicitantes;
+    }
+
+    /**
+     * Solicita el token; intento es la cantidad de reintentos ya realizados. Los fallos transitorios
+     * (red, timeout, HTTP 5xx/429, limite de tasa) se reintentan con la espera de PoliticaReintento.
+     */
+    private void solicitarToken(final int intento, final long inicio, final DestinoToken destino) {
+        Request request = new Request.Builder().url(urlToken).post(credenciales).build();
+        enviar(limitadorToken, client, request, config.timeoutTokenMs, new DestinoRespuesta() {
+            @Override
+            public void alResponder(int codigo, String cuerpo) {
+                if (codigo != HTTP_OK) {
+                    alFallar("TOKEN_REQUEST_ERROR", esTransitorio(codigo));
+                    return;
+                }
+                latenciasToken.registrar(msDesde(inicio));
+                JSONObject respuesta;
+                try {
+                    respuesta = new JSONObject(cuerpo);
+                } catch (JSONException e) {
+                    destino.alFallar("TOKEN_PARSE_ERROR");
+                    return;
+                }
+                String token = respuesta.optString("access_token", "");
+                if (token.isEmpty()) {
+                    destino.alFallar("TOKEN_ERROR");
+                    return;
+                }
+                if (config.reusarToken) {
+                    long expiresIn = respuesta.optLong("expires_in", 0);
+                    synchronized (ConductorCarga.this) {
+                        tokenVigente = token;
+                        tokenExpiraEn = ahoraMs() + (expiresIn > 0 ? expiresIn * 1000 : VIGENCIA_POR_DEFECTO_MS);
+                    }
+                }
+                destino.alObtener(token);
+            }
+
+            @Override
+            public void alFallar(String codigo, boolean transitorio) {
+                if (!transitorio || intento >= config.reintentosToken) {
+                    destino.alFallar(NETWORK_ERROR.equals(codigo) ? "TOKEN_NETWORK_ERROR" : codigo);
+                    return;
+                }
+                reintentosToken.incrementAndGet();
+                programar(new Runnable() {
+                    @Override
+                    public void run() {
+                        solicitarToken(intento + 1, inicio, destino);
+                    }
+                }, politicaReintento.espera(intento + 1, aleatorio));
+            }
+        });
+    }
+
+    /**
+     * Descarta el token rechazado por el servidor, salvo que otra validacion ya lo haya renovado.
+     */
+    private synchronized void invalidarToken(String rechazado) {
+        if (rechazado.equals(tokenVigente)) {
+            tokenVigente = null;
+            tokenExpiraEn = 0;
+            invalidadosToken.incrementAndGet();
+        }
+    }
+
+    /**
+     * Envia la foto con el circuit breaker del endpoint. Si el servidor rechaza el token (HTTP
+     * 401/403) y renovar es true, se pide otro y la foto se envia una vez mas, como en el plugin.
+     */
+    private void enviarImagen(final String cedula, final String token, final boolean renovar, final long inicio,
+                              final Runnable alTerminar) {
+        if (!circuito.permitir(ahoraMs())) {
+            terminar(CIRCUIT_OPEN, alTerminar);
+            return;
+        }
+        final long inicioEnvio = System.nanoTime();
+        Request.Builder request = new Request.Builder().url(urlBiometria);
+        if (MODO_BINARIO.equals(config.modo)) {
+            request.post(RequestBody.create(imagen, JPEG))
+                    .header("X-Cedula", cedula)
+                    .header("X-Cod-Dactilar", "V1234")
+                    .header("Authorization", "Bearer " + token);
+        } else if (MODO_MULTIPART.equals(config.modo)) {
+            request.post(new MultipartBody.Builder()
+                    .setType(MultipartBody.FORM)
+                    .addFormDataPart("datos", null,
+                            RequestBody.create(CargaValidacion.datosMultipart(cedula, "V1234", token), JSON))
+                    .addFormDataPart("imagen", "rostro.jpg", RequestBody.create(imagen, JPEG))
+                    .build());
+        } else {
+            request.post(new CuerpoJson(cedula, "V1234", token, imagen, imagen.length, SIN_POOL));
+        }
+
+        enviar(limitadorBiometria, clientValidacion, request.build(), config.timeoutBiometriaMs,
+                new DestinoRespuesta() {
+                    @Override
+                    public void alResponder(int codigo, String cuerpo) {
+                        latenciasValidacion.registrar(msDesde(inicioEnvio));
+                        if (esTransitorio(codigo)) {
+                            circuito.registrarFallo(ahoraMs());
+                        } else {
+                            circuito.registrarExito();
+                        }
+                        if ((codigo == HTTP_UNAUTHORIZED || codigo == HTTP_FORBIDDEN) && renovar) {
+                            invalidarToken(token);
+                            obtenerToken(new DestinoToken() {
+                                @Override
+                                public void alObtener(String nuevo) {
+                                    enviarImagen(cedula, nuevo, false, inicio, alTerminar);
+                                }
+
+                                @Override
+                                public void alFallar(String codigoToken) {
+                                    terminar(codigoToken, alTerminar);
+                                }
+                            });
+                            return;
+                        }
+                        ResultadoValidacion resultado = ResultadoValidacion.interpretar(codigo, cuerpo);
+                        if (resultado.esExito()) {
+                            latenciasTotal.registrar(msDesde(inicio));
+                            terminar("OK", alTerminar);
+                        } else {
+                            terminar(resultado.getCodigoError(), alTerminar);
+                        }
+                    }
+
+                    @Override
+                    public void alFallar(String codigo, boolean transitorio) {
+                        // El limite de tasa es local: no indica que el servidor este fallando
+                        if (transitorio && !RATE_LIMITED.equals(codigo)) {
+                            circuito.registrarFallo(ahoraMs());
+                        }
+                        terminar(codigo, alTerminar);
+                    }
+                });
+    }
+
+    /**
+     * Espera el turno de la solicitud segun el limite de tasa y la ejecuta; si la espera superaria
+     * el maximo, el destino recibe RATE_LIMITED (transitorio).
+     */
+    private void enviar(final LimitadorTasa limitador, final OkHttpClient cliente, final Request request,
+                        final int timeoutMs, final DestinoRespuesta destino) {
+        long espera = limitador.reservar(ahoraMs());
+        if (espera == 0) {
+            ejecutar(cliente, request, timeoutMs, destino);
+        } else if (espera == LimitadorTasa.RECHAZADA) {
+            destino.alFallar(RATE_LIMITED, true);
+        } else {
+            programar(new Runnable() {
+                @Override
+                public void run() {
+                    limitador.terminarEspera();
+                    ejecutar(cliente, request, timeoutMs, destino);
+                }
+            }, espera);
+        }
+    }
+
+    /**
+     * Ejecuta la solicitud con el tiempo maximo indicado para la llamada completa (0 = sin limite).
+     */
+    private void ejecutar(OkHttpClient cliente, Request request, int timeoutMs, final DestinoRespuesta destino) {
+        Call call = cliente.newCall(request);
+        if (timeoutMs > 0) {
+            call.timeout().timeout(timeoutMs, TimeUnit.MILLISECONDS);
+        }
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                destino.alFallar(NETWORK_ERROR, !call.isCanceled());
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                String cuerpo;
+                try (ResponseBody body = response.body()) {
+                    cuerpo = body != null ? body.string() : "";
+                } catch (IOException e) {
+                    onFailure(call, e);
+                    return;
+                }
+                destino.alResponder(response.code(), cuerpo);
+            }
+        });
+    }
+
+    private void programar(Runnable tarea, long esperaMs) {
+        programador.schedule(tarea, esperaMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Respuestas que pueden resolverse reintentando mas tarde: errores del servidor y limite de tasa.
+     */
+    private static boolean esTransitorio(int codigoHttp) {
+        return codigoHttp >= 500 || codigoHttp == HTTP_TOO_MANY_REQUESTS;
+    }
+
+    private static RequestBody cuerpoToken() {
+        JSONObject credenciales = new JSONObject();
+        try {
+            credenciales.put("username", "carga");
+            credenciales.put("password", "carga");
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+        return RequestBody.create(credenciales.toString(), JSON);
+    }
+
+    private void terminar(String codigo, Runnable alTerminar) {
+        AtomicInteger contador = resultados.get(codigo);
+        if (contador == null) {
+            AtomicInteger nuevo = new AtomicInteger();
+            contador = resultados.putIfAbsent(codigo, nuevo);
+            if (contador == null) {
+                contador = nuevo;
+            }
+        }
+        contador.incrementAndGet();
+        alTerminar.run();
+    }
+
+    private void reportar(int validaciones, int concurrencia, long duracionMs) {
+        System.out.println();
+        System.out.printf("validaciones=%d concurrencia=%d modo=%s imagen=%dB duracion=%dms%n",
+                validaciones, concurrencia, config.modo, imagen.length, duracionMs);
+        System.out.printf("throughput=%.1f validaciones/s%n", validaciones * 1000.0 / Math.max(1, duracionMs));
+        System.out.println("resultados " + new TreeMap<>(resultados));
+        System.out.println("token (ms)       " + latenciasToken.resumen());
+        System.out.println("validacion (ms)  " + latenciasValidacion.resumen());
+        System.out.println("total OK (ms)    " + latenciasTotal.resumen());
+        int agrupadas = agrupadasToken.get();
+        System.out.printf("token: %d solicitudes, %d agrupadas (espera promedio %dms), %d reintentos, %d invalidados%n",
+                solicitudesToken.get(), agrupadas, agrupadas > 0 ? esperaAgrupadasMs.get() / agrupadas : 0,
+                reintentosToken.get(), invalidadosToken.get());
+        System.out.printf("circuito: %s, %d aperturas%n", circuito.getEstado(ahoraMs()), circuito.getAperturas());
+        if (config.tasaPorSegundo > 0) {
+            System.out.println("limite de tasa token       " + resumen(limitadorToken));
+            System.out.println("limite de tasa biometria   " + resumen(limitadorBiometria));
+        }
+        System.out.printf("conexiones: %d abiertas, %d ociosas%n",
+                client.connectionPool().connectionCount(), client.connectionPool().idleConnectionCount());
+    }
+
+    private static String resumen(LimitadorTasa limitador) {
+        return String.format("inmediatas=%d esperadas=%d rechazadas=%d esperaPromedio=%dms esperaMaxima=%dms",
+                limitador.getInmediatas(), limitador.getEsperadas(), limitador.getRechazadas(),
+                limitador.getEsperaPromedioMs(), limitador.getEsperaMaximaObservadaMs());
+    }
+
+    private static long ahoraMs() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    private static long msDesde(long inicioNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inicioNanos);
+    }
+
+    /**
+     * Bytes pseudoaleatorios con cabecera JPEG: el servidor no decodifica la imagen.
+     */
+    private static byte[] imagenSintetica(int bytes) {
+        byte[] imagen = new byte[Math.max(bytes, 4)];
+        new Random(42).nextBytes(imagen);
+        imagen[0] = (byte) 0xFF;
+        imagen[1] = (byte) 0xD8;
+        imagen[imagen.length - 2] = (byte) 0xFF;
+        imagen[imagen.length - 1] = (byte) 0xD9;
+        return imagen;
+    }
+
+    public static void main(String[] argumentos) throws Exception {
+        Argumentos args = new Argumentos(argumentos);
+        int concurrencia = args.entero("concurrencia", 8);
+        int validaciones = args.entero("validaciones", 200);
+        int calentamiento = args.entero("calentamiento", Math.min(10, validaciones));
+        Configuracion configuracion = Configuracion.desde(args);
+
+        ServidorSimulado servidor = null;
+        String urlBase = args.texto("url-base", null);
+        if (args.bandera("servidor-local") || urlBase == null) {
+            ServidorSimulado.Configuracion config = ServidorSimulado.Configuracion.desde(args);
+            if (!args.contiene("puerto")) {
+                config.puerto = 0;
+            }
+            servidor = new ServidorSimulado(config);
+            servidor.iniciar();
+            urlBase = "http://localhost:" + servidor.getPuerto();
+        }
+
+        // Misma configuracion que BiometriaHttpClient
+        OkHttpClient client = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(5, 5, TimeUnit.MINUTES))
+                .connectTimeout(args.entero("timeout-conexion-ms", 10000), TimeUnit.MILLISECONDS)
+                .readTimeout(args.entero("timeout-lectura-ms", 30000), TimeUnit.MILLISECONDS)
+                .writeTimeout(args.entero("timeout-lectura-ms", 30000), TimeUnit.MILLISECONDS)
+                .retryOnConnectionFailure(true)
+                .build();
+
+        byte[] imagen = imagenSintetica(args.entero("bytes-imagen", 60 * 1024));
+        System.out.println("Objetivo " + urlBase + " (maxRequestsPerHost="
+                + client.dispatcher().getMaxRequestsPerHost() + ")");
+        try {
+            if (calentamiento > 0) {
+                new ConductorCarga(client, urlBase, configuracion, imagen).ejecutar(calentamiento, concurrencia);
+            }
+            ConductorCarga conductor = new ConductorCarga(client, urlBase, configuracion, imagen);
+            long duracion = conductor.ejecutar(validaciones, concurrencia);
+            conductor.reportar(validaciones, concurrencia, duracion);
+            if (servidor != null) {
+                System.out.println("servidor " + servidor.resumen());
+            }
+        } finally {
+            client.dispatcher().executorService().shutdown();
+            client.connectionPool().evictAll();
+            if (servidor != null) {
+                servidor.detener();
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.enext.biometria.carga;
+
+import java.util.Arrays;
+
+/**
+ * Latencias registradas durante una corrida (en ms), con percentiles por rango mas cercano.
+ */
+final class Latencias {
+
+    private long[] valores = new long[1024];
+    private int cantidad;
+
+    synchronized void registrar(long ms) {
+        if (cantidad == valores.length) {
+            valores = Arrays.copyOf(valores, cantidad * 2);
+        }
+        valores[cantidad++] = ms;
+    }
+
+    synchronized int getCantidad() {
+        return cantidad;
+    }
+
+    /**
+     * "n p50 p95 p99 max" en una linea, o "-" sin muestras.
+     */
+    synchronized String resumen() {
+        if (cantidad == 0) {
+            return "-";
+        }
+        long[] ordenadas = Arrays.copyOf(valores, cantidad);
+        Arrays.sort(ordenadas);
+        return String.format("n=%-6d p50=%-6d p95=%-6d p99=%-6d max=%d",
+                cantidad, percentil(ordenadas, 50), percentil(ordenadas, 95), percentil(ordenadas, 99),
+                ordenadas[cantidad - 1]);
+    }
+
+    private static long percentil(long[] ordenadas, int p) {
+        int rango = (int) Math.ceil(p / 100.0 * ordenadas.length);
+        return ordenadas[Math.max(0, rango - 1)];
+    }
+}
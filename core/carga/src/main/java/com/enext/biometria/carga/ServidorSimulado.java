@@ -0,0 +1,280 @@
+package com.enext.biometria.carga;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Servidor local que implementa los contratos de los endpoints de token y biometria,
+ * con latencia, tasa de error y tamano de respuesta configurables.
+ *
+ * <pre>
+ * POST /token              {username, password} -> {access_token, expires_in}
+ * POST /validarbiometria   json {cedula, cod_dactilar, token, img_base64}
+ *                          multipart (partes "datos" e "imagen")
+ *                          binario (cabeceras X-Cedula, X-Cod-Dactilar, Authorization)
+ *                          -> {status: 'success', datos_RC} | {status: 'error', message}
+ * </pre>
+ *
+ * Las solicitudes se atienden con un pool de hilos fijo: con mas clientes que hilos las
+ * solicitudes hacen cola, como en un backend saturado.
+ */
+public final class ServidorSimulado {
+
+    static final String RUTA_TOKEN = "/token";
+    static final String RUTA_BIOMETRIA = "/validarbiometria";
+
+    /**
+     * Parametros del servidor.
+     */
+    public static final class Configuracion {
+        int puerto = 8089;
+        int hilos = 32;
+        long latenciaTokenMs = 50;
+        long latenciaMs = 400;
+        long variacionMs = 150;
+        double tasaError = 0;
+        double tasaRechazo = 0;
+        int bytesRespuesta = 0;
+        int expiraTokenS = 300;
+        boolean soloJson;
+
+        static Configuracion desde(Argumentos args) {
+            Configuracion config = new Configuracion();
+            config.puerto = args.entero("puerto", config.puerto);
+            config.hilos = args.entero("hilos-servidor", config.hilos);
+            config.latenciaTokenMs = args.largo("latencia-token-ms", config.latenciaTokenMs);
+            config.latenciaMs = args.largo("latencia-ms", config.latenciaMs);
+            config.variacionMs = args.largo("variacion-ms", config.variacionMs);
+            config.tasaError = args.decimal("tasa-error", config.tasaError);
+            config.tasaRechazo = args.decimal("tasa-rechazo", config.tasaRechazo);
+            config.bytesRespuesta = args.entero("bytes-respuesta", config.bytesRespuesta);
+            config.expiraTokenS = args.entero("expira-token-s", config.expiraTokenS);
+            config.soloJson = args.bandera("solo-json");
+            return config;
+        }
+    }
+
+    private final Configuracion config;
+    private final HttpServer servidor;
+    private final ExecutorService hilos;
+
+    private final AtomicLong tokens = new AtomicLong();
+    private final AtomicLong validaciones = new AtomicLong();
+    private final AtomicLong errores = new AtomicLong();
+    private final AtomicLong rechazos = new AtomicLong();
+    private final AtomicLong bytesRecibidos = new AtomicLong();
+
+    public ServidorSimulado(Configuracion config) throws IOException {
+        this.config = config;
+        servidor = HttpServer.create(new InetSocketAddress(config.puerto), 256);
+        hilos = Executors.newFixedThreadPool(config.hilos);
+        servidor.setExecutor(hilos);
+        servidor.createContext(RUTA_TOKEN, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange intercambio) throws IOException {
+                atenderToken(intercambio);
+            }
+        });
+        servidor.createContext(RUTA_BIOMETRIA, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange intercambio) throws IOException {
+                atenderBiometria(intercambio);
+            }
+        });
+    }
+
+    public void iniciar() {
+        servidor.start();
+    }
+
+    public void detener() {
+        servidor.stop(0);
+        hilos.shutdownNow();
+    }
+
+    public int getPuerto() {
+        return servidor.getAddress().getPort();
+    }
+
+    /**
+     * Contadores de la corrida en una linea.
+     */
+    public String resumen() {
+        return String.format("tokens=%d validaciones=%d errores=%d rechazos=%d recibidoMB=%.1f",
+                tokens.get(), validaciones.get(), errores.get(), rechazos.get(),
+                bytesRecibidos.get() / (1024.0 * 1024.0));
+    }
+
+    private void atenderToken(HttpExchange intercambio) throws IOException {
+        try {
+            byte[] cuerpo = leer(intercambio.getRequestBody());
+            esperar(config.latenciaTokenMs, config.latenciaTokenMs / 4);
+            tokens.incrementAndGet();
+            JSONObject credenciales = new JSONObject(new String(cuerpo, StandardCharsets.UTF_8));
+            if (credenciales.optString("username").isEmpty() || credenciales.optString("password").isEmpty()) {
+                responder(intercambio, 401, new JSONObject().put("message", "Credenciales invalidas"));
+                return;
+            }
+            JSONObject respuesta = new JSONObject();
+            respuesta.put("access_token", "simulado." + Long.toHexString(ThreadLocalRandom.current().nextLong()));
+            respuesta.put("expires_in", config.expiraTokenS);
+            responder(intercambio, 200, respuesta);
+        } catch (JSONException e) {
+            responderTexto(intercambio, 400, "{\"message\":\"JSON invalido\"}");
+        } finally {
+            intercambio.close();
+        }
+    }
+
+    private void atenderBiometria(HttpExchange intercambio) throws IOException {
+        try {
+            String tipo = intercambio.getRequestHeaders().getFirst("Content-Type");
+            byte[] cuerpo = leer(intercambio.getRequestBody());
+            bytesRecibidos.addAndGet(cuerpo.length);
+            validaciones.incrementAndGet();
+
+            String error = validarSolicitud(tipo, cuerpo, intercambio);
+            if (error != null) {
+                int codigo = error.startsWith("415") ? 415 : 400;
+                responder(intercambio, codigo, new JSONObject().put("status", "error").put("message", error));
+                return;
+            }
+
+            esperar(config.latenciaMs, config.variacionMs);
+            double sorteo = ThreadLocalRandom.current().nextDouble();
+            if (sorteo < config.tasaError) {
+                errores.incrementAndGet();
+                responder(intercambio, 500, new JSONObject().put("status", "error")
+                        .put("message", "Error interno simulado"));
+            } else if (sorteo < config.tasaError + config.tasaRechazo) {
+                rechazos.incrementAndGet();
+                responder(intercambio, 200, new JSONObject().put("status", "error")
+                        .put("message", "El rostro no coincide con el registro civil"));
+            } else {
+                responder(intercambio, 200, respuestaExitosa());
+            }
+        } catch (JSONException e) {
+            responderTexto(intercambio, 400, "{\"status\":\"error\",\"message\":\"JSON invalido\"}");
+        } finally {
+            intercambio.close();
+        }
+    }
+
+    /**
+     * Verifica el contrato del modo de envio. Retorna el mensaje de error o null si es valido.
+     */
+    private String validarSolicitud(String tipo, byte[] cuerpo, HttpExchange intercambio) throws JSONException {
+        if (tipo == null) {
+            return "Falta Content-Type";
+        }
+        if (tipo.startsWith("application/json")) {
+            JSONObject datos = new JSONObject(new String(cuerpo, StandardCharsets.UTF_8));
+            if (datos.optString("cedula").isEmpty() || datos.optString("token").isEmpty()
+                    || datos.optString("img_base64").isEmpty()) {
+                return "Faltan datos";
+            }
+            return null;
+        }
+        if (config.soloJson) {
+            return "415 Tipo de contenido no soportado";
+        }
+        if (tipo.startsWith("multipart/form-data")) {
+            String texto = new String(cuerpo, 0, Math.min(cuerpo.length, 4096), StandardCharsets.ISO_8859_1);
+            return texto.contains("name=\"datos\"") ? null : "Falta la parte datos";
+        }
+        if (intercambio.getRequestHeaders().getFirst("X-Cedula") == null
+                || intercambio.getRequestHeaders().getFirst("Authorization") == null) {
+            return "Faltan cabeceras";
+        }
+        return cuerpo.length > 0 ? null : "Imagen vacia";
+    }
+
+    private JSONObject respuestaExitosa() throws JSONException {
+        JSONObject datos = new JSONObject();
+        datos.put("nombre", "JUAN CARLOS");
+        datos.put("apellido", "PEREZ GOMEZ");
+        datos.put("fechaNacimiento", "1990-01-15");
+        datos.put("nacionalidad", "ECUATORIANA");
+        datos.put("similitud", 97.4);
+        if (config.bytesRespuesta > 0) {
+            char[] relleno = new char[config.bytesRespuesta];
+            Arrays.fill(relleno, 'x');
+            datos.put("relleno", new String(relleno));
+        }
+        return new JSONObject().put("status", "success").put("message", "Validacion exitosa").put("datos_RC", datos);
+    }
+
+    private static void esperar(long latenciaMs, long variacionMs) {
+        long espera = latenciaMs;
+        if (variacionMs > 0) {
+            espera += ThreadLocalRandom.current().nextLong(-variacionMs, variacionMs + 1);
+        }
+        if (espera <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.MILLISECONDS.sleep(espera);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static byte[] leer(InputStream entrada) throws IOException {
+        ByteArrayOutputStream salida = new ByteArrayOutputStream(64 * 1024);
+        byte[] bloque = new byte[16 * 1024];
+        int leidos;
+        while ((leidos = entrada.read(bloque)) != -1) {
+            salida.write(bloque, 0, leidos);
+        }
+        return salida.toByteArray();
+    }
+
+    private static void responder(HttpExchange intercambio, int codigo, JSONObject cuerpo) throws IOException {
+        responderTexto(intercambio, codigo, cuerpo.toString());
+    }
+
+    private static void responderTexto(HttpExchange intercambio, int codigo, String cuerpo) throws IOException {
+        byte[] bytes = cuerpo.getBytes(StandardCharsets.UTF_8);
+        intercambio.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        intercambio.sendResponseHeaders(codigo, bytes.length);
+        try (OutputStream salida = intercambio.getResponseBody()) {
+            salida.write(bytes);
+        }
+    }
+
+    /**
+     * java -cp carga.jar com.enext.biometria.carga.ServidorSimulado [--puerto 8089] [--latencia-ms 400]
+     *   [--variacion-ms 150] [--latencia-token-ms 50] [--tasa-error 0.05] [--tasa-rechazo 0.05]
+     *   [--bytes-respuesta 0] [--hilos-servidor 32] [--expira-token-s 300] [--solo-json]
+     */
+    public static void main(String[] args) throws IOException {
+        final ServidorSimulado servidor = new ServidorSimulado(Configuracion.desde(new Argumentos(args)));
+        servidor.iniciar();
+        System.out.println("Servidor simulado en http://localhost:" + servidor.getPuerto()
+                + " (" + RUTA_TOKEN + ", " + RUTA_BIOMETRIA + ")");
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                System.out.println(servidor.resumen());
+                servidor.detener();
+            }
+        }));
+    }
+}
@@ -0,0 +1,98 @@
+package com.enext.biometria.core.jmh;
+
+import com.enext.biometria.core.CargaValidacion;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Armado del cuerpo de validacion para imagenes de 12 KB (perfil minimo), 60 KB (presupuesto tipico)
+ * y 250 KB (1280x720 sin reducir). Compara la escritura por bloques con el armado original
+ * (string base64 completo dentro de un JSONObject).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CargaValidacionBenchmark {
+
+    private static final String CEDULA = "1712345678";
+    private static final String COD_DACTILAR = "V3331V2222";
+    private static final String TOKEN = "eyJhbGciOiJIUzI1NiIsInR5cCI6IkpXVCJ9.eyJzdWIiOiJlbmV4dCIsImV4cCI6MTc2MDAwMDAwMH0.firma";
+
+    @Param({"12288", "61440", "256000"})
+    public int bytesImagen;
+
+    private byte[] imagen;
+    private byte[] bloque;
+    private SalidaNula salida;
+
+    /**
+     * Destino que solo cuenta bytes, como el socket sin costo de red.
+     */
+    static final class SalidaNula extends OutputStream {
+        long bytes;
+
+        @Override
+        public void write(int b) {
+            bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int desde, int largo) {
+            bytes += largo;
+        }
+    }
+
+    @Setup
+    public void preparar() {
+        // Bytes aleatorios: tan poco compresibles como un JPEG
+        imagen = new byte[bytesImagen];
+        new Random(42).nextBytes(imagen);
+        bloque = new byte[CargaValidacion.BLOQUE_SALIDA];
+        salida = new SalidaNula();
+    }
+
+    @Benchmark
+    public long jsonPorBloques() throws IOException {
+        byte[] prefijo = CargaValidacion.prefijoJson(CEDULA, COD_DACTILAR, TOKEN);
+        salida.bytes = 0;
+        CargaValidacion.escribirJson(prefijo, imagen, imagen.length, bloque, salida);
+        return salida.bytes;
+    }
+
+    @Benchmark
+    public void jsonConStringBase64(Blackhole bh) throws Exception {
+        JSONObject cuerpo = new JSONObject();
+        cuerpo.put("cedula", CEDULA);
+        cuerpo.put("cod_dactilar", COD_DACTILAR);
+        cuerpo.put("token", TOKEN);
+        cuerpo.put("img_base64", Base64.getEncoder().encodeToString(imagen));
+        bh.consume(cuerpo.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public String datosMultipart() {
+        return CargaValidacion.datosMultipart(CEDULA, COD_DACTILAR, TOKEN);
+    }
+}
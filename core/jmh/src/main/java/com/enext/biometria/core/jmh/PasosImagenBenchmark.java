@@ -0,0 +1,82 @@
+package com.enext.biometria.core.jmh;
+
+import com.enext.biometria.core.PasosImagen;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pasos de imagen previos a la codificacion: rotacion, recorte y escalado del cuadro NV21 de la
+ * camara y nitidez de la muestra de ~240 px del control de calidad.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PasosImagenBenchmark {
+
+    private static final int LADO_MUESTRA = 240;
+    private static final int LADO_OBJETIVO = 480;
+
+    @Param({"640x480", "1280x720"})
+    public String resolucion;
+
+    private int ancho;
+    private int alto;
+    private byte[] nv21;
+    private byte[] rotado;
+    private byte[] recortado;
+    private int[] muestra;
+
+    @Setup
+    public void preparar() {
+        String[] partes = resolucion.split("x");
+        ancho = Integer.parseInt(partes[0]);
+        alto = Integer.parseInt(partes[1]);
+        Random aleatorio = new Random(42);
+        nv21 = new byte[ancho * alto * 3 / 2];
+        aleatorio.nextBytes(nv21);
+        rotado = new byte[nv21.length];
+        recortado = new byte[nv21.length];
+        muestra = new int[LADO_MUESTRA * LADO_MUESTRA];
+        for (int i = 0; i < muestra.length; i++) {
+            muestra[i] = aleatorio.nextInt(256);
+        }
+    }
+
+    @Benchmark
+    public byte[] rotarNv21Reutilizando() {
+        return PasosImagen.rotarNv21(nv21, ancho, alto, 270, rotado);
+    }
+
+    @Benchmark
+    public byte[] rotarNv21Asignando() {
+        return PasosImagen.rotarNv21(nv21, ancho, alto, 270);
+    }
+
+    @Benchmark
+    public byte[] recortarYEscalarNv21() {
+        int lado = Math.min(ancho, alto);
+        PasosImagen.recortarNv21(nv21, ancho, alto, (ancho - lado) / 2, (alto - lado) / 2, lado, lado, recortado);
+        return PasosImagen.escalarNv21(recortado, lado, lado, LADO_OBJETIVO, LADO_OBJETIVO, rotado);
+    }
+
+    @Benchmark
+    public double varianzaLaplaciano() {
+        return PasosImagen.varianzaLaplaciano(muestra, LADO_MUESTRA);
+    }
+}
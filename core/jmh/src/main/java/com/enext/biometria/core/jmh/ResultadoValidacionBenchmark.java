@@ -0,0 +1,85 @@
+package com.enext.biometria.core.jmh;
+
+import com.enext.biometria.core.ResultadoValidacion;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Interpretacion de la respuesta del endpoint de biometria y relectura de los datos del
+ * ciudadano al entregar el resultado al JavaScript.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ResultadoValidacionBenchmark {
+
+    private String respuestaExitosa;
+    private String respuestaRechazada;
+    private String datosBiometricos;
+
+    @Setup
+    public void preparar() throws Exception {
+        JSONObject datos = new JSONObject();
+        datos.put("cedula", "1712345678");
+        datos.put("nombre", "JUAN CARLOS");
+        datos.put("apellido", "PEREZ GOMEZ");
+        datos.put("fechaNacimiento", "1990-01-15");
+        datos.put("lugarNacimiento", "PICHINCHA/QUITO/BENALCAZAR");
+        datos.put("nacionalidad", "ECUATORIANA");
+        datos.put("estadoCivil", "CASADO");
+        datos.put("conyuge", "MARIA FERNANDA LOPEZ");
+        datos.put("domicilio", "PICHINCHA/QUITO/INAQUITO");
+        datos.put("calle", "AV. AMAZONAS N34-120 Y PEREIRA");
+        datos.put("profesion", "INGENIERO");
+        datos.put("instruccion", "SUPERIOR");
+        datos.put("fechaCedulacion", "2018-05-02");
+        datos.put("fechaExpiracion", "2028-05-02");
+        datos.put("similitud", 97.42);
+
+        JSONObject respuesta = new JSONObject();
+        respuesta.put("status", "success");
+        respuesta.put("message", "Validacion exitosa");
+        respuesta.put("transaccion", "9f1c2e7a-4b3d-4e8f-a1c6-2d5b7e9f0a13");
+        respuesta.put("datos_RC", datos);
+        respuestaExitosa = respuesta.toString();
+
+        respuestaRechazada = "{\"status\":\"error\",\"message\":\"El rostro no coincide con el registro civil\"}";
+        datosBiometricos = datos.toString();
+    }
+
+    @Benchmark
+    public Object interpretarExito() {
+        ResultadoValidacion resultado = ResultadoValidacion.interpretar(200, respuestaExitosa);
+        return ResultadoValidacion.datosBiometricos(resultado.getRespuesta());
+    }
+
+    @Benchmark
+    public Object interpretarRechazo() {
+        return ResultadoValidacion.interpretar(200, respuestaRechazada).getMensaje();
+    }
+
+    @Benchmark
+    public Object interpretarErrorServidor() {
+        return ResultadoValidacion.interpretar(502, "<html>Bad Gateway</html>").getMensaje();
+    }
+
+    @Benchmark
+    public Object leerDatosBiometricos() {
+        return ResultadoValidacion.leerDatosBiometricos(datosBiometricos);
+    }
+}
@@ -0,0 +1,59 @@
+package com.enext.biometria.core;
+
+import java.io.IOException;
+
+/**
+ * Busqueda binaria de la mayor calidad de codificacion cuyo resultado entra en un presupuesto de bytes.
+ * El codificador es del llamador (Bitmap.compress en Android), por lo que la busqueda no depende del formato.
+ */
+public final class BusquedaCalidad {
+
+    /**
+     * Codifica la imagen con la calidad indicada y retorna su tamano en bytes.
+     * La ultima codificacion queda como resultado.
+     */
+    public interface Codificador {
+        int codificar(int calidad) throws IOException;
+    }
+
+    public final int calidad;
+    public final int codificaciones;
+    public final boolean dentroPresupuesto;
+
+    private BusquedaCalidad(int calidad, int codificaciones, boolean dentroPresupuesto) {
+        this.calidad = calidad;
+        this.codificaciones = codificaciones;
+        this.dentroPresupuesto = dentroPresupuesto;
+    }
+
+    /**
+     * Busca entre calidadMinima y calidadMaxima. Si ni la minima entra en el presupuesto se usa la minima.
+     * Al terminar, la ultima codificacion hecha corresponde a la calidad elegida.
+     */
+    public static BusquedaCalidad buscar(Codificador codificador, int presupuestoBytes, int calidadMinima,
+                                         int calidadMaxima) throws IOException {
+        int bajo = calidadMinima;
+        int alto = calidadMaxima;
+        int mejor = -1;
+        int ultima = -1;
+        int codificaciones = 0;
+        while (bajo <= alto) {
+            int calidad = (bajo + alto) >>> 1;
+            int bytes = codificador.codificar(calidad);
+            codificaciones++;
+            ultima = calidad;
+            if (bytes <= presupuestoBytes) {
+                mejor = calidad;
+                bajo = calidad + 1;
+            } else {
+                alto = calidad - 1;
+            }
+        }
+        int elegida = mejor >= 0 ? mejor : calidadMinima;
+        if (elegida != ultima) {
+            codificador.codificar(elegida);
+            codificaciones++;
+        }
+        return new BusquedaCalidad(elegida, codificaciones, mejor >= 0);
+    }
+}
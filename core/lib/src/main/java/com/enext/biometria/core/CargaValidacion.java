@@ -0,0 +1,79 @@
+package com.enext.biometria.core;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Contenido de la solicitud al endpoint de biometria, independiente del cliente HTTP.
+ * El modo json conserva el contrato original {cedula, cod_dactilar, token, img_base64}
+ * y se escribe por bloques, sin construir el string base64 de la imagen.
+ */
+public final class CargaValidacion {
+
+    // Bytes de imagen codificados por bloque (multiplo de 3 para no partir grupos base64)
+    public static final int BLOQUE_ENTRADA = 3 * 1024;
+    // Tamano del buffer de salida que necesita escribirJson()
+    public static final int BLOQUE_SALIDA = BLOQUE_ENTRADA / 3 * 4;
+
+    private static final byte[] SUFIJO_JSON = "\"}".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Origen de los buffers de salida de escribirJson() (por ejemplo, un pool de arreglos).
+     */
+    public interface Bloques {
+        byte[] obtener(int capacidad);
+        void devolver(byte[] arreglo);
+    }
+
+    private CargaValidacion() {
+    }
+
+    /**
+     * Inicio del cuerpo json, hasta la comilla de apertura de img_base64.
+     */
+    public static byte[] prefijoJson(String cedula, String codDactilar, String token) {
+        return ("{\"cedula\":" + JSONObject.quote(cedula)
+                + ",\"cod_dactilar\":" + JSONObject.quote(codDactilar)
+                + ",\"token\":" + JSONObject.quote(token)
+                + ",\"img_base64\":\"").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Largo total del cuerpo json para una imagen de la cantidad de bytes indicada.
+     */
+    public static long longitudJson(byte[] prefijo, int bytesImagen) {
+        return prefijo.length + CodificadorBase64.longitud(bytesImagen) + SUFIJO_JSON.length;
+    }
+
+    /**
+     * Escribe el cuerpo json completo. bloque es un buffer de al menos BLOQUE_SALIDA bytes.
+     */
+    public static void escribirJson(byte[] prefijo, byte[] imagen, int largo, byte[] bloque, OutputStream salida)
+            throws IOException {
+        salida.write(prefijo);
+        for (int desde = 0; desde < largo; desde += BLOQUE_ENTRADA) {
+            int escritos = CodificadorBase64.codificar(imagen, desde, Math.min(BLOQUE_ENTRADA, largo - desde), bloque);
+            salida.write(bloque, 0, escritos);
+        }
+        salida.write(SUFIJO_JSON);
+    }
+
+    /**
+     * Parte "datos" del envio multipart: el JSON del contrato original sin la imagen.
+     */
+    public static String datosMultipart(String cedula, String codDactilar, String token) {
+        JSONObject datos = new JSONObject();
+        try {
+            datos.put("cedula", cedula);
+            datos.put("cod_dactilar", codDactilar);
+            datos.put("token", token);
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+        return datos.toString();
+    }
+}
@@ -0,0 +1,106 @@
+package com.enext.biometria.core;
+
+/**
+ * Circuit breaker de un endpoint. Tras umbralFallos fallos transitorios consecutivos se abre y
+ * rechaza las llamadas durante aperturaMs; luego deja pasar una llamada de prueba (semiabierto)
+ * que lo cierra si responde o lo vuelve a abrir si falla. Los tiempos se reciben como parametro
+ * (ms de un reloj monotono) para no depender de la plataforma.
+ */
+public final class Circuito {
+
+    public static final String CERRADO = "cerrado";
+    public static final String ABIERTO = "abierto";
+    public static final String SEMIABIERTO = "semiabierto";
+
+    public static final int UMBRAL_FALLOS = 5;
+    public static final long APERTURA_MS = 30000;
+
+    private final int umbralFallos;
+    private final long aperturaMs;
+
+    private int fallosConsecutivos;
+    private int aperturas;
+    private boolean abierto;
+    private long abiertoDesde;
+    // Inicio de la llamada de prueba en curso (-1 si no hay); si no termina en aperturaMs se permite otra
+    private long pruebaDesde = -1;
+
+    public Circuito(int umbralFallos, long aperturaMs) {
+        this.umbralFallos = Math.max(1, umbralFallos);
+        this.aperturaMs = aperturaMs;
+    }
+
+    /**
+     * Indica si se puede llamar al endpoint. Con el circuito semiabierto solo autoriza una llamada de prueba.
+     */
+    public synchronized boolean permitir(long ahoraMs) {
+        if (!abierto) {
+            return true;
+        }
+        if (ahoraMs - abiertoDesde < aperturaMs) {
+            return false;
+        }
+        if (pruebaDesde >= 0 && ahoraMs - pruebaDesde < aperturaMs) {
+            return false;
+        }
+        pruebaDesde = ahoraMs;
+        return true;
+    }
+
+    /**
+     * El endpoint respondio (aunque la validacion sea rechazada): se cierra el circuito.
+     */
+    public synchronized void registrarExito() {
+        fallosConsecutivos = 0;
+        abierto = false;
+        pruebaDesde = -1;
+    }
+
+    /**
+     * Fallo transitorio (red, timeout o HTTP 5xx). Abre el circuito al llegar al umbral o si fallo la prueba.
+     */
+    public synchronized void registrarFallo(long ahoraMs) {
+        fallosConsecutivos++;
+        if (pruebaDesde >= 0 || (!abierto && fallosConsecutivos >= umbralFallos)) {
+            if (!abierto) {
+                aperturas++;
+            }
+            abierto = true;
+            abiertoDesde = ahoraMs;
+            pruebaDesde = -1;
+        }
+    }
+
+    public synchronized String getEstado(long ahoraMs) {
+        if (!abierto) {
+            return CERRADO;
+        }
+        return ahoraMs - abiertoDesde < aperturaMs ? ABIERTO : SEMIABIERTO;
+    }
+
+    /**
+     * Tiempo que falta para permitir una llamada de prueba (0 si el circuito no esta abierto).
+     */
+    public synchronized long getEsperaRestante(long ahoraMs) {
+        return abierto ? Math.max(0, aperturaMs - (ahoraMs - abiertoDesde)) : 0;
+    }
+
+    public synchronized int getFallosConsecutivos() {
+        return fallosConsecutivos;
+    }
+
+    /**
+     * Cantidad de veces que el circuito paso de cerrado a abierto.
+     */
+    public synchronized int getAperturas() {
+        return aperturas;
+    }
+
+    public int getUmbralFallos() {
+        return umbralFallos;
+    }
+
+    public long getAperturaMs() {
+        return aperturaMs;
+    }
+}
@@ -0,0 +1,49 @@
+package com.enext.biometria.core;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Base64 estandar (con relleno) por tramos, sobre arreglos provistos por el llamador,
+ * para codificar la imagen sin crear el string base64 completo.
+ */
+public final class CodificadorBase64 {
+
+    private static final byte[] ALFABETO = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
+            .getBytes(StandardCharsets.US_ASCII);
+
+    private CodificadorBase64() {
+    }
+
+    /**
+     * Largo en base64 de la cantidad de bytes indicada.
+     */
+    public static long longitud(int bytes) {
+        return 4L * ((bytes + 2) / 3);
+    }
+
+    /**
+     * Codifica un tramo y retorna los bytes escritos en destino. Para codificar una imagen por
+     * bloques, cada bloque (salvo el ultimo) debe tener un largo multiplo de 3.
+     */
+    public static int codificar(byte[] origen, int desde, int largo, byte[] destino) {
+        int fin = desde + largo;
+        int i = desde;
+        int j = 0;
+        while (i + 2 < fin) {
+            int grupo = (origen[i++] & 0xff) << 16 | (origen[i++] & 0xff) << 8 | (origen[i++] & 0xff);
+            destino[j++] = ALFABETO[(grupo >>> 18) & 0x3f];
+            destino[j++] = ALFABETO[(grupo >>> 12) & 0x3f];
+            destino[j++] = ALFABETO[(grupo >>> 6) & 0x3f];
+            destino[j++] = ALFABETO[grupo & 0x3f];
+        }
+        int resto = fin - i;
+        if (resto > 0) {
+            int grupo = (origen[i] & 0xff) << 16 | (resto == 2 ? (origen[i + 1] & 0xff) << 8 : 0);
+            destino[j++] = ALFABETO[(grupo >>> 18) & 0x3f];
+            destino[j++] = ALFABETO[(grupo >>> 12) & 0x3f];
+            destino[j++] = resto == 2 ? ALFABETO[(grupo >>> 6) & 0x3f] : (byte) '=';
+            destino[j++] = '=';
+        }
+        return j;
+    }
+}
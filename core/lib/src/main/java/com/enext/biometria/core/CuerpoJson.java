@@ -0,0 +1,53 @@
+package com.enext.biometria.core;
+
+import java.io.IOException;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+/**
+ * Cuerpo OkHttp del modo json: contrato original {cedula, cod_dactilar, token, img_base64} con el
+ * base64 generado por bloques directamente sobre la conexion (CargaValidacion). El buffer de cada
+ * escritura se pide a Bloques y se devuelve al terminar. Lo usan el plugin y el conductor de carga.
+ */
+public final class CuerpoJson extends RequestBody {
+
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+
+    private final byte[] prefijo;
+    private final byte[] imagen;
+    private final int largo;
+    private final CargaValidacion.Bloques bloques;
+
+    /**
+     * Solo son validos los primeros largo bytes de imagen (puede ser un arreglo de un pool).
+     */
+    public CuerpoJson(String cedula, String codDactilar, String token, byte[] imagen, int largo,
+                      CargaValidacion.Bloques bloques) {
+        this.prefijo = CargaValidacion.prefijoJson(cedula, codDactilar, token);
+        this.imagen = imagen;
+        this.largo = largo;
+        this.bloques = bloques;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return JSON;
+    }
+
+    @Override
+    public long contentLength() {
+        return CargaValidacion.longitudJson(prefijo, largo);
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        byte[] bloque = bloques.obtener(CargaValidacion.BLOQUE_SALIDA);
+        try {
+            CargaValidacion.escribirJson(prefijo, imagen, largo, bloque, sink.outputStream());
+        } finally {
+            bloques.devolver(bloque);
+        }
+    }
+}
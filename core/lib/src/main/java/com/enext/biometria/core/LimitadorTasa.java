@@ -0,0 +1,119 @@
+package com.enext.biometria.core;
+
+/**
+ * Limite de tasa de un endpoint con cubeta de fichas: admite rafagas de hasta capacidad llamadas y
+ * luego tasaPorSegundo llamadas por segundo. Una llamada sin ficha reserva la siguiente y espera su
+ * turno (cola FIFO implicita); si la espera superaria esperaMaximaMs se rechaza. Los tiempos se
+ * reciben como parametro (ms de un reloj monotono) para no depender de la plataforma.
+ */
+public final class LimitadorTasa {
+
+    public static final double TASA_POR_SEGUNDO = 1;
+    public static final int CAPACIDAD = 5;
+    public static final long ESPERA_MAXIMA_MS = 10000;
+
+    // Valor de reservar() cuando la llamada se rechaza
+    public static final long RECHAZADA = -1;
+
+    private final double tasaPorSegundo;
+    private final int capacidad;
+    private final long esperaMaximaMs;
+
+    private double fichas;
+    private long ultimaRecarga = -1;
+    private int enEspera;
+    private int inmediatas;
+    private int esperadas;
+    private int rechazadas;
+    private long esperaTotalMs;
+    private long esperaMaximaObservadaMs;
+
+    public LimitadorTasa(double tasaPorSegundo, int capacidad, long esperaMaximaMs) {
+        this.tasaPorSegundo = tasaPorSegundo;
+        this.capacidad = Math.max(1, capacidad);
+        this.esperaMaximaMs = Math.max(0, esperaMaximaMs);
+        this.fichas = this.capacidad;
+    }
+
+    /**
+     * Reserva una ficha. Retorna 0 si la llamada puede salir ya, la espera en ms hasta su turno o
+     * RECHAZADA si la espera superaria el maximo. Con espera, al salir debe llamarse terminarEspera().
+     * Con tasa 0 o negativa el limite esta desactivado.
+     */
+    public synchronized long reservar(long ahoraMs) {
+        if (tasaPorSegundo <= 0) {
+            inmediatas++;
+            return 0;
+        }
+        if (ultimaRecarga >= 0) {
+            fichas = Math.min(capacidad, fichas + (ahoraMs - ultimaRecarga) * tasaPorSegundo / 1000);
+        }
+        ultimaRecarga = ahoraMs;
+        if (fichas >= 1) {
+            fichas -= 1;
+            inmediatas++;
+            return 0;
+        }
+        long espera = (long) Math.ceil((1 - fichas) * 1000 / tasaPorSegundo);
+        if (espera > esperaMaximaMs) {
+            rechazadas++;
+            return RECHAZADA;
+        }
+        // La ficha queda tomada a cuenta: las siguientes llamadas esperan detras de esta
+        fichas -= 1;
+        enEspera++;
+        esperadas++;
+        esperaTotalMs += espera;
+        esperaMaximaObservadaMs = Math.max(esperaMaximaObservadaMs, espera);
+        return espera;
+    }
+
+    /**
+     * Una llamada que esperaba su turno salio o se cancelo.
+     */
+    public synchronized void terminarEspera() {
+        enEspera = Math.max(0, enEspera - 1);
+    }
+
+    /**
+     * Llamadas esperando su turno en este momento.
+     */
+    public synchronized int getEnEspera() {
+        return enEspera;
+    }
+
+    public synchronized int getInmediatas() {
+        return inmediatas;
+    }
+
+    public synchronized int getEsperadas() {
+        return esperadas;
+    }
+
+    public synchronized int getRechazadas() {
+        return rechazadas;
+    }
+
+    /**
+     * Espera promedio de las llamadas que tuvieron que esperar, en ms.
+     */
+    public synchronized long getEsperaPromedioMs() {
+        return esperadas > 0 ? esperaTotalMs / esperadas : 0;
+    }
+
+    public synchronized long getEsperaMaximaObservadaMs() {
+        return esperaMaximaObservadaMs;
+    }
+
+    public double getTasaPorSegundo() {
+        return tasaPorSegundo;
+    }
+
+    public int getCapacidad() {
+        return capacidad;
+    }
+
+    public long getEsperaMaximaMs() {
+        return esperaMaximaMs;
+    }
+}
@@ -0,0 +1,162 @@
+package com.enext.biometria.core;
+
+/**
+ * Pasos de la cadena de imagen que solo operan sobre arreglos: rotacion, recorte y escalado de
+ * cuadros NV21, luminancia a partir de pixeles ARGB y nitidez (varianza del laplaciano).
+ */
+public final class PasosImagen {
+
+    private PasosImagen() {
+    }
+
+    /**
+     * Rota un cuadro NV21 en multiplos de 90 grados (sentido horario). Sin rotacion retorna la entrada.
+     */
+    public static byte[] rotarNv21(byte[] entrada, int ancho, int alto, int grados) {
+        if (((grados % 360) + 360) % 360 == 0) {
+            return entrada;
+        }
+        return rotarNv21(entrada, ancho, alto, grados, new byte[entrada.length]);
+    }
+
+    /**
+     * Igual que rotarNv21(byte[], int, int, int), escribiendo sobre un arreglo existente.
+     * Los arreglos pueden ser mas largos que la imagen.
+     */
+    public static byte[] rotarNv21(byte[] entrada, int ancho, int alto, int grados, byte[] salida) {
+        grados = ((grados % 360) + 360) % 360;
+        if (grados == 0) {
+            System.arraycopy(entrada, 0, salida, 0, ancho * alto * 3 / 2);
+            return salida;
+        }
+        boolean intercambia = grados % 180 != 0;
+        int anchoSalida = intercambia ? alto : ancho;
+        int tamanoY = ancho * alto;
+
+        for (int fila = 0; fila < alto; fila++) {
+            for (int col = 0; col < ancho; col++) {
+                salida[indiceRotado(col, fila, ancho, alto, anchoSalida, grados)] = entrada[fila * ancho + col];
+            }
+        }
+
+        int anchoUV = ancho / 2;
+        int altoUV = alto / 2;
+        int anchoSalidaUV = anchoSalida / 2;
+        for (int fila = 0; fila < altoUV; fila++) {
+            for (int col = 0; col < anchoUV; col++) {
+                int origen = tamanoY + (fila * anchoUV + col) * 2;
+                int destino = tamanoY + indiceRotado(col, fila, anchoUV, altoUV, anchoSalidaUV, grados) * 2;
+                salida[destino] = entrada[origen];
+                salida[destino + 1] = entrada[origen + 1];
+            }
+        }
+        return salida;
+    }
+
+    private static int indiceRotado(int x, int y, int ancho, int alto, int anchoSalida, int grados) {
+        switch (grados) {
+            case 90:
+                return x * anchoSalida + (alto - 1 - y);
+            case 180:
+                return (alto - 1 - y) * anchoSalida + (ancho - 1 - x);
+            default:
+                return (ancho - 1 - x) * anchoSalida + y;
+        }
+    }
+
+    /**
+     * Copia la region (x, y, anchoRecorte, altoRecorte) de un cuadro NV21 sobre salida. La region
+     * se ajusta a coordenadas y medidas pares para no partir las muestras de color.
+     */
+    public static byte[] recortarNv21(byte[] entrada, int ancho, int alto,
+                                      int x, int y, int anchoRecorte, int altoRecorte, byte[] salida) {
+        x &= ~1;
+        y &= ~1;
+        anchoRecorte &= ~1;
+        altoRecorte &= ~1;
+        for (int fila = 0; fila < altoRecorte; fila++) {
+            System.arraycopy(entrada, (y + fila) * ancho + x, salida, fila * anchoRecorte, anchoRecorte);
+        }
+        int tamanoY = ancho * alto;
+        int tamanoSalidaY = anchoRecorte * altoRecorte;
+        for (int fila = 0; fila < altoRecorte / 2; fila++) {
+            System.arraycopy(entrada, tamanoY + (y / 2 + fila) * ancho + x,
+                    salida, tamanoSalidaY + fila * anchoRecorte, anchoRecorte);
+        }
+        return salida;
+    }
+
+    /**
+     * Escala un cuadro NV21 a anchoSalida x altoSalida (pares) sobre salida, con interpolacion
+     * bilineal en punto fijo para la luminancia y el vecino mas cercano para el color.
+     */
+    public static byte[] escalarNv21(byte[] entrada, int ancho, int alto,
+                                     int anchoSalida, int altoSalida, byte[] salida) {
+        int pasoX = (ancho << 16) / anchoSalida;
+        int pasoY = (alto << 16) / altoSalida;
+        for (int fila = 0; fila < altoSalida; fila++) {
+            int fy = fila * pasoY;
+            int y0 = fy >> 16;
+            int y1 = Math.min(y0 + 1, alto - 1);
+            int dy = (fy >> 8) & 0xff;
+            int base0 = y0 * ancho;
+            int base1 = y1 * ancho;
+            int destino = fila * anchoSalida;
+            for (int col = 0; col < anchoSalida; col++) {
+                int fx = col * pasoX;
+                int x0 = fx >> 16;
+                int x1 = Math.min(x0 + 1, ancho - 1);
+                int dx = (fx >> 8) & 0xff;
+                int arriba = (entrada[base0 + x0] & 0xff) * (256 - dx) + (entrada[base0 + x1] & 0xff) * dx;
+                int abajo = (entrada[base1 + x0] & 0xff) * (256 - dx) + (entrada[base1 + x1] & 0xff) * dx;
+                salida[destino + col] = (byte) ((arriba * (256 - dy) + abajo * dy) >> 16);
+            }
+        }
+        int tamanoY = ancho * alto;
+        int tamanoSalidaY = anchoSalida * altoSalida;
+        for (int fila = 0; fila < altoSalida / 2; fila++) {
+            int origenFila = tamanoY + ((fila * pasoY) >> 16) * ancho;
+            int destino = tamanoSalidaY + fila * anchoSalida;
+            for (int col = 0; col < anchoSalida / 2; col++) {
+                int origen = origenFila + ((col * pasoX) >> 16) * 2;
+                salida[destino + col * 2] = entrada[origen];
+                salida[destino + col * 2 + 1] = entrada[origen + 1];
+            }
+        }
+        return salida;
+    }
+
+    /**
+     * Luminancia (BT.601 aproximada en enteros) de pixeles ARGB, en luma.
+     */
+    public static void lumaDesdeArgb(int[] pixeles, int cantidad, byte[] luma) {
+        for (int i = 0; i < cantidad; i++) {
+            int p = pixeles[i];
+            luma[i] = (byte) ((77 * ((p >> 16) & 0xff) + 150 * ((p >> 8) & 0xff) + 29 * (p & 0xff)) >> 8);
+        }
+    }
+
+    /**
+     * Varianza del laplaciano (4 vecinos) de una muestra cuadrada de lado n con valores 0-255:
+     * baja en fotos movidas o desenfocadas.
+     */
+    public static double varianzaLaplaciano(int[] muestra, int n) {
+        long suma = 0;
+        long sumaCuadrados = 0;
+        int total = 0;
+        for (int fila = 1; fila < n - 1; fila++) {
+            for (int col = 1; col < n - 1; col++) {
+                int i = fila * n + col;
+                int lap = muestra[i - n] + muestra[i + n] + muestra[i - 1] + muestra[i + 1] - 4 * muestra[i];
+                suma += lap;
+                sumaCuadrados += (long) lap * lap;
+                total++;
+            }
+        }
+        if (total == 0) {
+            return 0;
+        }
+        double media = (double) suma / total;
+        return (double) sumaCuadrados / total - media * media;
+    }
+}
@@ -0,0 +1,35 @@
+package com.enext.biometria.core;
+
+import java.util.Random;
+
+/**
+ * Espera exponencial con jitter entre reintentos: tras el fallo n se espera entre la mitad y el
+ * total de min(base * 2^(n-1), maxima), para no reintentar en sincronia desde muchos equipos.
+ */
+public final class PoliticaReintento {
+
+    private final long esperaBaseMs;
+    private final long esperaMaximaMs;
+
+    public PoliticaReintento(long esperaBaseMs, long esperaMaximaMs) {
+        this.esperaBaseMs = esperaBaseMs;
+        this.esperaMaximaMs = esperaMaximaMs;
+    }
+
+    /**
+     * Espera en ms antes del siguiente intento, despues de la cantidad de fallos consecutivos indicada (1 o mas).
+     */
+    public long espera(int fallos, Random aleatorio) {
+        long tope = esperaSinJitter(fallos);
+        return tope / 2 + (long) (aleatorio.nextDouble() * (tope / 2));
+    }
+
+    /**
+     * Tope de la espera tras la cantidad de fallos indicada.
+     */
+    public long esperaSinJitter(int fallos) {
+        int exponente = Math.max(0, Math.min(fallos - 1, 30));
+        long espera = esperaBaseMs << exponente;
+        return espera <= 0 || espera > esperaMaximaMs ? esperaMaximaMs : espera;
+    }
+}
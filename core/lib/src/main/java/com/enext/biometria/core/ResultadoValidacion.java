@@ -0,0 +1,92 @@
+package com.enext.biometria.core;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Interpretacion de la respuesta del endpoint de biometria: exito solo con HTTP 200 y
+ * status 'success'; en otro caso un codigo de error y el mensaje del servidor si lo informa.
+ */
+public final class ResultadoValidacion {
+
+    public static final String SERVER_ERROR = "SERVER_ERROR";
+    public static final String VALIDATION_FAILED = "VALIDATION_FAILED";
+    public static final String PARSE_ERROR = "PARSE_ERROR";
+
+    private static final int HTTP_OK = 200;
+
+    private final JSONObject respuesta;
+    private final String codigoError;
+    private final String mensaje;
+
+    private ResultadoValidacion(JSONObject respuesta, String codigoError, String mensaje) {
+        this.respuesta = respuesta;
+        this.codigoError = codigoError;
+        this.mensaje = mensaje;
+    }
+
+    public static ResultadoValidacion interpretar(int codigoHttp, String cuerpo) {
+        if (codigoHttp != HTTP_OK) {
+            String mensaje = "Error del servidor";
+            try {
+                mensaje = new JSONObject(cuerpo).optString("message", mensaje);
+            } catch (JSONException ignored) {
+                // Cuerpo de error no JSON: se usa el mensaje generico
+            }
+            return new ResultadoValidacion(null, SERVER_ERROR, mensaje);
+        }
+        JSONObject respuesta;
+        try {
+            respuesta = new JSONObject(cuerpo);
+        } catch (JSONException e) {
+            return new ResultadoValidacion(null, PARSE_ERROR, "Respuesta invalida");
+        }
+        if (!"success".equals(respuesta.optString("status"))) {
+            return new ResultadoValidacion(respuesta, VALIDATION_FAILED,
+                    respuesta.optString("message", "Validacion fallida"));
+        }
+        return new ResultadoValidacion(respuesta, null, null);
+    }
+
+    /**
+     * Datos del ciudadano en la respuesta: datos_RC si existe, si no la respuesta completa.
+     */
+    public static JSONObject datosBiometricos(JSONObject respuesta) {
+        JSONObject datosRC = respuesta.optJSONObject("datos_RC");
+        return datosRC != null ? datosRC : respuesta;
+    }
+
+    /**
+     * Datos biometricos recibidos como texto desde el WebView: el objeto JSON, o el texto
+     * tal cual si no es JSON. Retorna null si viene vacio.
+     */
+    public static Object leerDatosBiometricos(String texto) {
+        if (texto == null || texto.isEmpty()) {
+            return null;
+        }
+        try {
+            return new JSONObject(texto);
+        } catch (JSONException e) {
+            return texto;
+        }
+    }
+
+    public boolean esExito() {
+        return codigoError == null;
+    }
+
+    /**
+     * Respuesta completa del servidor (null si no era JSON o el HTTP fallo).
+     */
+    public JSONObject getRespuesta() {
+        return respuesta;
+    }
+
+    public String getCodigoError() {
+        return codigoError;
+    }
+
+    public String getMensaje() {
+        return mensaje;
+    }
+}
@@ -0,0 +1,70 @@
+package com.enext.biometria.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Agrupa las solicitudes simultaneas de un mismo recurso en una sola llamada (single-flight): el
+ * primer solicitante hace la llamada y los que llegan mientras esta en curso esperan su resultado.
+ * Los tiempos se reciben como parametro (ms de un reloj monotono) para no depender de la plataforma.
+ */
+public final class SolicitudCompartida<T> {
+
+    // Solicitantes de la llamada en curso (null si no hay una); el primero es quien la hace
+    private List<T> solicitantes;
+    // Momento en que se sumo cada solicitante agrupado
+    private final List<Long> llegadas = new ArrayList<>();
+
+    /**
+     * Suma un solicitante. Retorna true si no habia una llamada en curso: quien llama debe hacerla y
+     * entregar el resultado a los solicitantes de terminar(). Con false, espera la llamada en curso.
+     */
+    public synchronized boolean sumar(T solicitante, long ahoraMs) {
+        if (solicitantes != null) {
+            solicitantes.add(solicitante);
+            llegadas.add(ahoraMs);
+            return false;
+        }
+        solicitantes = new ArrayList<>();
+        solicitantes.add(solicitante);
+        return true;
+    }
+
+    /**
+     * Solicitantes agrupados esperando la llamada en curso (sin contar a quien la hace).
+     */
+    public synchronized int getEsperando() {
+        return llegadas.size();
+    }
+
+    /**
+     * Cierra la llamada en curso y entrega sus solicitantes. La siguiente solicitud hace una llamada nueva.
+     */
+    public synchronized Grupo<T> terminar(long ahoraMs) {
+        List<T> terminados = solicitantes != null ? solicitantes : Collections.<T>emptyList();
+        long espera = 0;
+        for (long llegada : llegadas) {
+            espera += ahoraMs - llegada;
+        }
+        Grupo<T> grupo = new Grupo<>(terminados, llegadas.size(), espera);
+        solicitantes = null;
+        llegadas.clear();
+        return grupo;
+    }
+
+    /**
+     * Solicitantes de una llamada terminada, con la cantidad de agrupados y la suma de sus esperas.
+     */
+    public static final class Grupo<T> {
+        public final List<T> solicitantes;
+        public final int agrupados;
+        public final long esperaAgrupadosMs;
+
+        Grupo(List<T> solicitantes, int agrupados, long esperaAgrupadosMs) {
+            this.solicitantes = solicitantes;
+            this.agrupados = agrupados;
+            this.esperaAgrupadosMs = esperaAgrupadosMs;
+        }
+    }
+}
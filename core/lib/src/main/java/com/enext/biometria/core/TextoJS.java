@@ -0,0 +1,62 @@
+package com.enext.biometria.core;
+
+/**
+ * Escape de texto para incluirlo dentro de un literal de string JavaScript ('...' o "...").
+ */
+public final class TextoJS {
+
+    private TextoJS() {
+    }
+
+    /**
+     * Escapa barras, comillas, saltos de linea y los separadores U+2028/U+2029 (terminan
+     * la linea en JavaScript). null se convierte en "". Recorre el texto una sola vez y
+     * retorna el mismo string si no hay nada que escapar.
+     */
+    public static String escapar(String texto) {
+        if (texto == null) {
+            return "";
+        }
+        int largo = texto.length();
+        int i = 0;
+        while (i < largo && reemplazo(texto.charAt(i)) == null) {
+            i++;
+        }
+        if (i == largo) {
+            return texto;
+        }
+        StringBuilder salida = new StringBuilder(largo + 16);
+        salida.append(texto, 0, i);
+        for (; i < largo; i++) {
+            char c = texto.charAt(i);
+            String escapado = reemplazo(c);
+            if (escapado != null) {
+                salida.append(escapado);
+            } else {
+                salida.append(c);
+            }
+        }
+        return salida.toString();
+    }
+
+    private static String reemplazo(char c) {
+        switch (c) {
+            case '\\':
+                return "\\\\";
+            case '\'':
+                return "\\'";
+            case '"':
+                return "\\\"";
+            case '\n':
+                return "\\n";
+            case '\r':
+                return "\\r";
+            case '\u2028':
+                return "\\u2028";
+            case '\u2029':
+                return "\\u2029";
+            default:
+                return null;
+        }
+    }
+}
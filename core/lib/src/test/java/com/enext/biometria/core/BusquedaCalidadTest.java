@@ -0,0 +1,89 @@
+package com.enext.biometria.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BusquedaCalidadTest {
+
+    /**
+     * Codificador simulado: el tamano crece con la calidad (100 bytes por punto).
+     */
+    private static class Simulado implements BusquedaCalidad.Codificador {
+        final List<Integer> calidades = new ArrayList<>();
+
+        @Override
+        public int codificar(int calidad) {
+            calidades.add(calidad);
+            return calidad * 100;
+        }
+
+        int ultima() {
+            return calidades.get(calidades.size() - 1);
+        }
+    }
+
+    @Test
+    void eligeLaMayorCalidadDentroDelPresupuesto() throws Exception {
+        Simulado codificador = new Simulado();
+        BusquedaCalidad busqueda = BusquedaCalidad.buscar(codificador, 6050, 30, 95);
+        assertEquals(60, busqueda.calidad);
+        assertTrue(busqueda.dentroPresupuesto);
+        // La imagen que queda codificada es la elegida
+        assertEquals(60, codificador.ultima());
+        assertEquals(codificador.calidades.size(), busqueda.codificaciones);
+    }
+
+    @Test
+    void presupuestoExactoEntra() throws Exception {
+        Simulado codificador = new Simulado();
+        BusquedaCalidad busqueda = BusquedaCalidad.buscar(codificador, 7000, 30, 95);
+        assertEquals(70, busqueda.calidad);
+        assertEquals(70, codificador.ultima());
+    }
+
+    @Test
+    void siTodoEntraUsaLaMaxima() throws Exception {
+        Simulado codificador = new Simulado();
+        BusquedaCalidad busqueda = BusquedaCalidad.buscar(codificador, Integer.MAX_VALUE, 30, 95);
+        assertEquals(95, busqueda.calidad);
+        assertTrue(busqueda.dentroPresupuesto);
+        assertEquals(95, codificador.ultima());
+    }
+
+    @Test
+    void sinCalidadQueEntreUsaLaMinimaYLoInforma() throws Exception {
+        Simulado codificador = new Simulado();
+        BusquedaCalidad busqueda = BusquedaCalidad.buscar(codificador, 100, 30, 95);
+        assertEquals(30, busqueda.calidad);
+        assertFalse(busqueda.dentroPresupuesto);
+        // Lo que queda codificado es la minima, aunque exceda el presupuesto
+        assertEquals(30, codificador.ultima());
+        assertEquals(codificador.calidades.size(), busqueda.codificaciones);
+    }
+
+    @Test
+    void cantidadDeCodificacionesLogaritmica() throws Exception {
+        for (int presupuesto = 0; presupuesto <= 10000; presupuesto += 137) {
+            Simulado codificador = new Simulado();
+            BusquedaCalidad busqueda = BusquedaCalidad.buscar(codificador, presupuesto, 1, 100);
+            // ceil(log2(100)) pasos de la busqueda y a lo sumo una codificacion final
+            assertTrue(busqueda.codificaciones <= 8, "presupuesto " + presupuesto);
+            assertEquals(busqueda.calidad, codificador.ultima());
+        }
+    }
+
+    @Test
+    void rangoDeUnaSolaCalidad() throws Exception {
+        Simulado codificador = new Simulado();
+        BusquedaCalidad busqueda = BusquedaCalidad.buscar(codificador, 1, 80, 80);
+        assertEquals(80, busqueda.calidad);
+        assertFalse(busqueda.dentroPresupuesto);
+        assertEquals(1, busqueda.codificaciones);
+    }
+}
@@ -0,0 +1,74 @@
+package com.enext.biometria.core;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CargaValidacionTest {
+
+    @Test
+    void escribeElContratoJsonOriginal() throws IOException {
+        // Mas de un bloque y un largo que no es multiplo de 3
+        byte[] imagen = new byte[CargaValidacion.BLOQUE_ENTRADA * 2 + 1];
+        new Random(3).nextBytes(imagen);
+
+        JSONObject cuerpo = new JSONObject(escribir("1234567890", "V3331V2222", "tok", imagen, imagen.length));
+        assertEquals("1234567890", cuerpo.getString("cedula"));
+        assertEquals("V3331V2222", cuerpo.getString("cod_dactilar"));
+        assertEquals("tok", cuerpo.getString("token"));
+        assertEquals(Base64.getEncoder().encodeToString(imagen), cuerpo.getString("img_base64"));
+    }
+
+    @Test
+    void soloCodificaElLargoIndicadoDelBuffer() throws IOException {
+        // Buffer del pool mas largo que la imagen
+        byte[] buffer = new byte[5000];
+        new Random(5).nextBytes(buffer);
+        int largo = 1234;
+
+        JSONObject cuerpo = new JSONObject(escribir("1", "A1111A1111", "t", buffer, largo));
+        assertEquals(Base64.getEncoder().encodeToString(Arrays.copyOf(buffer, largo)), cuerpo.getString("img_base64"));
+    }
+
+    @Test
+    void longitudJsonCoincideConLoEscrito() throws IOException {
+        for (int largo : new int[]{0, 1, 2, 3, CargaValidacion.BLOQUE_ENTRADA, CargaValidacion.BLOQUE_ENTRADA + 2}) {
+            byte[] prefijo = CargaValidacion.prefijoJson("1", "A1111A1111", "t");
+            ByteArrayOutputStream salida = new ByteArrayOutputStream();
+            CargaValidacion.escribirJson(prefijo, new byte[largo], largo, new byte[CargaValidacion.BLOQUE_SALIDA], salida);
+            assertEquals(CargaValidacion.longitudJson(prefijo, largo), salida.size(), "largo " + largo);
+        }
+    }
+
+    @Test
+    void escapaLosCamposDeTexto() throws IOException {
+        JSONObject cuerpo = new JSONObject(escribir("12\"34", "V3331V2222", "a\\b\nc", new byte[3], 3));
+        assertEquals("12\"34", cuerpo.getString("cedula"));
+        assertEquals("a\\b\nc", cuerpo.getString("token"));
+    }
+
+    @Test
+    void datosMultipartSinImagen() {
+        JSONObject datos = new JSONObject(CargaValidacion.datosMultipart("1234567890", "V3331V2222", "tok"));
+        assertEquals(3, datos.length());
+        assertEquals("1234567890", datos.getString("cedula"));
+        assertEquals("V3331V2222", datos.getString("cod_dactilar"));
+        assertEquals("tok", datos.getString("token"));
+    }
+
+    private static String escribir(String cedula, String codDactilar, String token, byte[] imagen, int largo)
+            throws IOException {
+        ByteArrayOutputStream salida = new ByteArrayOutputStream();
+        CargaValidacion.escribirJson(CargaValidacion.prefijoJson(cedula, codDactilar, token), imagen, largo,
+                new byte[CargaValidacion.BLOQUE_SALIDA], salida);
+        return new String(salida.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,119 @@
+package com.enext.biometria.core;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CircuitoTest {
+
+    // Reloj simulado en ms
+    private long ahora = 1000;
+
+    private final Circuito circuito = new Circuito(3, 30000);
+
+    @Test
+    void cerradoPermiteTodo() {
+        assertEquals(Circuito.CERRADO, circuito.getEstado(ahora));
+        for (int i = 0; i < 10; i++) {
+            assertTrue(circuito.permitir(ahora));
+        }
+        assertEquals(0, circuito.getEsperaRestante(ahora));
+    }
+
+    @Test
+    void seAbreAlLlegarAlUmbralDeFallosConsecutivos() {
+        fallar(2);
+        assertEquals(Circuito.CERRADO, circuito.getEstado(ahora));
+        assertTrue(circuito.permitir(ahora));
+
+        fallar(1);
+        assertEquals(Circuito.ABIERTO, circuito.getEstado(ahora));
+        assertFalse(circuito.permitir(ahora));
+        assertEquals(1, circuito.getAperturas());
+        assertEquals(30000, circuito.getEsperaRestante(ahora));
+    }
+
+    @Test
+    void unExitoReiniciaLaCuentaDeFallos() {
+        fallar(2);
+        circuito.registrarExito();
+        fallar(2);
+        assertEquals(Circuito.CERRADO, circuito.getEstado(ahora));
+        assertEquals(2, circuito.getFallosConsecutivos());
+    }
+
+    @Test
+    void pasadaLaAperturaQuedaSemiabiertoConUnaSolaPrueba() {
+        fallar(3);
+        ahora += 29999;
+        assertFalse(circuito.permitir(ahora));
+        assertEquals(1, circuito.getEsperaRestante(ahora));
+
+        ahora += 1;
+        assertEquals(Circuito.SEMIABIERTO, circuito.getEstado(ahora));
+        assertTrue(circuito.permitir(ahora));
+        // Mientras la prueba esta en curso no sale otra
+        assertFalse(circuito.permitir(ahora + 100));
+    }
+
+    @Test
+    void laPruebaExitosaCierraElCircuito() {
+        fallar(3);
+        ahora += 30000;
+        assertTrue(circuito.permitir(ahora));
+        circuito.registrarExito();
+        assertEquals(Circuito.CERRADO, circuito.getEstado(ahora));
+        assertEquals(0, circuito.getFallosConsecutivos());
+        assertTrue(circuito.permitir(ahora));
+        assertTrue(circuito.permitir(ahora));
+    }
+
+    @Test
+    void laPruebaFallidaLoReabrePorOtraApertura() {
+        fallar(3);
+        ahora += 30000;
+        assertTrue(circuito.permitir(ahora));
+        ahora += 500;
+        circuito.registrarFallo(ahora);
+        assertEquals(Circuito.ABIERTO, circuito.getEstado(ahora));
+        assertFalse(circuito.permitir(ahora + 29999));
+        assertTrue(circuito.permitir(ahora + 30000));
+        // Reabrir no cuenta como una apertura nueva desde cerrado
+        assertEquals(1, circuito.getAperturas());
+    }
+
+    @Test
+    void unaPruebaSinRespuestaDejaPasarOtraDespuesDeLaApertura() {
+        fallar(3);
+        ahora += 30000;
+        assertTrue(circuito.permitir(ahora));
+        assertFalse(circuito.permitir(ahora + 29999));
+        assertTrue(circuito.permitir(ahora + 30000));
+    }
+
+    @Test
+    void umbralMinimoEsUno() {
+        Circuito sensible = new Circuito(0, 1000);
+        assertEquals(1, sensible.getUmbralFallos());
+        sensible.registrarFallo(ahora);
+        assertEquals(Circuito.ABIERTO, sensible.getEstado(ahora));
+    }
+
+    @Test
+    void cuentaCadaAperturaDesdeCerrado() {
+        fallar(3);
+        ahora += 30000;
+        circuito.permitir(ahora);
+        circuito.registrarExito();
+        fallar(3);
+        assertEquals(2, circuito.getAperturas());
+    }
+
+    private void fallar(int veces) {
+        for (int i = 0; i < veces; i++) {
+            circuito.registrarFallo(ahora);
+        }
+    }
+}
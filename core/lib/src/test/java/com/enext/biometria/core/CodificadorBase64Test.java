@@ -0,0 +1,56 @@
+package com.enext.biometria.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CodificadorBase64Test {
+
+    @Test
+    void coincideConBase64EstandarEnCadaResto() {
+        Random aleatorio = new Random(7);
+        for (int largo = 0; largo <= 10; largo++) {
+            byte[] datos = new byte[largo];
+            aleatorio.nextBytes(datos);
+            assertEquals(Base64.getEncoder().encodeToString(datos), codificar(datos, 0, largo), "largo " + largo);
+        }
+    }
+
+    @Test
+    void longitudIncluyeElRelleno() {
+        assertEquals(0, CodificadorBase64.longitud(0));
+        assertEquals(4, CodificadorBase64.longitud(1));
+        assertEquals(4, CodificadorBase64.longitud(3));
+        assertEquals(8, CodificadorBase64.longitud(4));
+        assertEquals(1366668, CodificadorBase64.longitud(1025000));
+    }
+
+    @Test
+    void codificaUnTramoDesdeUnDesplazamiento() {
+        byte[] datos = "xxHola mundoyy".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(Base64.getEncoder().encodeToString("Hola mundo".getBytes(StandardCharsets.US_ASCII)),
+                codificar(datos, 2, 10));
+    }
+
+    @Test
+    void porBloquesMultiplosDeTresEsIgualAlTodo() {
+        byte[] datos = new byte[10000];
+        new Random(11).nextBytes(datos);
+        StringBuilder porBloques = new StringBuilder();
+        for (int desde = 0; desde < datos.length; desde += 300) {
+            porBloques.append(codificar(datos, desde, Math.min(300, datos.length - desde)));
+        }
+        assertEquals(Base64.getEncoder().encodeToString(datos), porBloques.toString());
+    }
+
+    private static String codificar(byte[] datos, int desde, int largo) {
+        byte[] destino = new byte[(int) CodificadorBase64.longitud(largo)];
+        int escritos = CodificadorBase64.codificar(datos, desde, largo, destino);
+        assertEquals(destino.length, escritos);
+        return new String(destino, 0, escritos, StandardCharsets.US_ASCII);
+    }
+}
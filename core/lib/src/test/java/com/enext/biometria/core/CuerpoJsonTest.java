@@ -0,0 +1,66 @@
+package com.enext.biometria.core;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+
+import okio.Buffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class CuerpoJsonTest {
+
+    @Test
+    void escribeElContratoJsonConLaLongitudDeclarada() throws IOException {
+        byte[] buffer = new byte[CargaValidacion.BLOQUE_ENTRADA * 3];
+        new Random(7).nextBytes(buffer);
+        int largo = CargaValidacion.BLOQUE_ENTRADA + 5;
+
+        CuerpoJson cuerpo = new CuerpoJson("1234567890", "V3331V2222", "tok", buffer, largo, new Registro());
+        Buffer salida = new Buffer();
+        cuerpo.writeTo(salida);
+
+        assertEquals(cuerpo.contentLength(), salida.size());
+        assertEquals("application/json; charset=utf-8", cuerpo.contentType().toString());
+        JSONObject json = new JSONObject(salida.readUtf8());
+        assertEquals("1234567890", json.getString("cedula"));
+        assertEquals(Base64.getEncoder().encodeToString(Arrays.copyOf(buffer, largo)), json.getString("img_base64"));
+    }
+
+    @Test
+    void devuelveElBloqueQuePidio() throws IOException {
+        Registro bloques = new Registro();
+        new CuerpoJson("1", "A1111A1111", "t", new byte[10], 10, bloques).writeTo(new Buffer());
+
+        assertEquals(1, bloques.entregados.size());
+        assertEquals(1, bloques.devueltos.size());
+        assertSame(bloques.entregados.get(0), bloques.devueltos.get(0));
+    }
+
+    /**
+     * Bloques que registra lo entregado y lo devuelto.
+     */
+    private static final class Registro implements CargaValidacion.Bloques {
+        final List<byte[]> entregados = new ArrayList<>();
+        final List<byte[]> devueltos = new ArrayList<>();
+
+        @Override
+        public byte[] obtener(int capacidad) {
+            byte[] bloque = new byte[capacidad];
+            entregados.add(bloque);
+            return bloque;
+        }
+
+        @Override
+        public void devolver(byte[] arreglo) {
+            devueltos.add(arreglo);
+        }
+    }
+}
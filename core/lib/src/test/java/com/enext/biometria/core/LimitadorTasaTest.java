@@ -0,0 +1,113 @@
+package com.enext.biometria.core;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LimitadorTasaTest {
+
+    // Reloj simulado en ms
+    private long ahora = 5000;
+
+    private final LimitadorTasa limitador = new LimitadorTasa(
+            LimitadorTasa.TASA_POR_SEGUNDO, LimitadorTasa.CAPACIDAD, LimitadorTasa.ESPERA_MAXIMA_MS);
+
+    @Test
+    void laRafagaSaleSinEspera() {
+        for (int i = 0; i < LimitadorTasa.CAPACIDAD; i++) {
+            assertEquals(0, limitador.reservar(ahora));
+        }
+        assertEquals(LimitadorTasa.CAPACIDAD, limitador.getInmediatas());
+        assertEquals(0, limitador.getEnEspera());
+    }
+
+    @Test
+    void sinFichasEsperanEnOrdenDeLlegada() {
+        agotarRafaga();
+        // Cada llamada reserva la ficha siguiente: esperan 1 s, 2 s, 3 s...
+        assertEquals(1000, limitador.reservar(ahora));
+        assertEquals(2000, limitador.reservar(ahora));
+        assertEquals(3000, limitador.reservar(ahora));
+        assertEquals(3, limitador.getEnEspera());
+        assertEquals(3, limitador.getEsperadas());
+        assertEquals(2000, limitador.getEsperaPromedioMs());
+        assertEquals(3000, limitador.getEsperaMaximaObservadaMs());
+
+        limitador.terminarEspera();
+        assertEquals(2, limitador.getEnEspera());
+    }
+
+    @Test
+    void rechazaSiLaEsperaSuperaElMaximo() {
+        agotarRafaga();
+        for (int i = 1; i <= 10; i++) {
+            assertEquals(i * 1000L, limitador.reservar(ahora));
+        }
+        assertEquals(LimitadorTasa.RECHAZADA, limitador.reservar(ahora));
+        assertEquals(1, limitador.getRechazadas());
+        // Una llamada rechazada no toma ficha: al recargarse una, la siguiente vuelve a esperar 10 s
+        ahora += 1000;
+        assertEquals(10000, limitador.reservar(ahora));
+    }
+
+    @Test
+    void recargaSegunElTiempoTranscurrido() {
+        agotarRafaga();
+        ahora += 1000;
+        assertEquals(0, limitador.reservar(ahora));
+        // Media ficha: espera el medio segundo que falta
+        ahora += 500;
+        assertEquals(500, limitador.reservar(ahora));
+    }
+
+    @Test
+    void laRecargaNoSuperaLaCapacidad() {
+        agotarRafaga();
+        ahora += 60000;
+        for (int i = 0; i < LimitadorTasa.CAPACIDAD; i++) {
+            assertEquals(0, limitador.reservar(ahora));
+        }
+        assertEquals(1000, limitador.reservar(ahora));
+    }
+
+    @Test
+    void lasEsperasReservadasSeDescuentanDeLaRecarga() {
+        agotarRafaga();
+        assertEquals(1000, limitador.reservar(ahora));
+        assertEquals(2000, limitador.reservar(ahora));
+        // Pasado 1 s la primera ya salio; la nueva queda detras de la segunda
+        ahora += 1000;
+        assertEquals(2000, limitador.reservar(ahora));
+    }
+
+    @Test
+    void conTasaCeroEstaDesactivado() {
+        LimitadorTasa desactivado = new LimitadorTasa(0, 1, 0);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, desactivado.reservar(ahora));
+        }
+        assertEquals(0, desactivado.getRechazadas());
+    }
+
+    @Test
+    void sinEsperaMaximaRechazaTodoLoQueNoEntraEnLaRafaga() {
+        LimitadorTasa estricto = new LimitadorTasa(2, 2, 0);
+        assertEquals(0, estricto.reservar(ahora));
+        assertEquals(0, estricto.reservar(ahora));
+        assertEquals(LimitadorTasa.RECHAZADA, estricto.reservar(ahora));
+        ahora += 500;
+        assertEquals(0, estricto.reservar(ahora));
+    }
+
+    @Test
+    void terminarEsperaNoBajaDeCero() {
+        limitador.terminarEspera();
+        assertEquals(0, limitador.getEnEspera());
+    }
+
+    private void agotarRafaga() {
+        for (int i = 0; i < LimitadorTasa.CAPACIDAD; i++) {
+            limitador.reservar(ahora);
+        }
+    }
+}
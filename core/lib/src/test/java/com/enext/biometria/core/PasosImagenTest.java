@@ -0,0 +1,195 @@
+package com.enext.biometria.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PasosImagenTest {
+
+    @Test
+    void sinRotacionRetornaLaEntrada() {
+        byte[] cuadro = cuadro(4, 2, 1);
+        assertSame(cuadro, PasosImagen.rotarNv21(cuadro, 4, 2, 0));
+        assertSame(cuadro, PasosImagen.rotarNv21(cuadro, 4, 2, 360));
+    }
+
+    @Test
+    void rota90GradosEnSentidoHorario() {
+        // Y 4x2 seguido de VU 2x1
+        byte[] cuadro = {1, 2, 3, 4, 5, 6, 7, 8, 10, 11, 12, 13};
+        byte[] rotado = PasosImagen.rotarNv21(cuadro, 4, 2, 90);
+        // Queda de 2x4: la columna izquierda es la fila de abajo
+        assertArrayEquals(new byte[]{5, 1, 6, 2, 7, 3, 8, 4, 10, 11, 12, 13}, rotado);
+    }
+
+    @Test
+    void rota180Y270Grados() {
+        byte[] cuadro = {1, 2, 3, 4, 5, 6, 7, 8, 10, 11, 12, 13};
+        assertArrayEquals(new byte[]{8, 7, 6, 5, 4, 3, 2, 1, 12, 13, 10, 11},
+                PasosImagen.rotarNv21(cuadro, 4, 2, 180));
+        assertArrayEquals(new byte[]{4, 8, 3, 7, 2, 6, 1, 5, 12, 13, 10, 11},
+                PasosImagen.rotarNv21(cuadro, 4, 2, 270));
+        // -90 equivale a 270
+        assertArrayEquals(PasosImagen.rotarNv21(cuadro, 4, 2, 270), PasosImagen.rotarNv21(cuadro, 4, 2, -90));
+    }
+
+    @Test
+    void cuatroRotacionesDe90VuelvenAlOriginal() {
+        int ancho = 8;
+        int alto = 6;
+        byte[] original = cuadro(ancho, alto, 9);
+        byte[] actual = original;
+        for (int i = 0; i < 4; i++) {
+            boolean vertical = i % 2 == 1;
+            actual = PasosImagen.rotarNv21(actual, vertical ? alto : ancho, vertical ? ancho : alto, 90);
+        }
+        assertArrayEquals(original, actual);
+    }
+
+    @Test
+    void rotaSobreUnArregloMasLargoQueLaImagen() {
+        byte[] cuadro = {1, 2, 3, 4, 5, 6, 7, 8, 10, 11, 12, 13};
+        byte[] salida = new byte[40];
+        Arrays.fill(salida, (byte) -1);
+        assertSame(salida, PasosImagen.rotarNv21(cuadro, 4, 2, 90, salida));
+        assertArrayEquals(new byte[]{5, 1, 6, 2, 7, 3, 8, 4, 10, 11, 12, 13}, Arrays.copyOf(salida, 12));
+        // Lo que sigue a la imagen no se toca
+        assertEquals(-1, salida[12]);
+        // Sin rotacion tambien copia sobre la salida
+        byte[] copia = PasosImagen.rotarNv21(cuadro, 4, 2, 0, new byte[20]);
+        assertArrayEquals(cuadro, Arrays.copyOf(copia, 12));
+    }
+
+    @Test
+    void rotaLaLuminanciaConMedidasImpares() {
+        // 3x3: las medidas impares no parten el plano Y
+        int ancho = 3;
+        int alto = 3;
+        byte[] cuadro = cuadro(ancho, alto, 5);
+        byte[] rotado = PasosImagen.rotarNv21(cuadro, ancho, alto, 90);
+        for (int fila = 0; fila < alto; fila++) {
+            for (int col = 0; col < ancho; col++) {
+                assertEquals(cuadro[fila * ancho + col], rotado[col * alto + (alto - 1 - fila)]);
+            }
+        }
+    }
+
+    @Test
+    void recortaLaRegionAjustadaACoordenadasPares() {
+        int ancho = 8;
+        int alto = 4;
+        byte[] cuadro = new byte[ancho * alto * 3 / 2];
+        for (int i = 0; i < cuadro.length; i++) {
+            cuadro[i] = (byte) i;
+        }
+        // (3, 1, 5, 3) se ajusta a (2, 0, 4, 2)
+        byte[] salida = PasosImagen.recortarNv21(cuadro, ancho, alto, 3, 1, 5, 3, new byte[4 * 2 * 3 / 2]);
+        assertArrayEquals(new byte[]{
+                2, 3, 4, 5,
+                10, 11, 12, 13,
+                // VU de la primera fila de color, columnas 2 a 5
+                34, 35, 36, 37}, salida);
+    }
+
+    @Test
+    void recortaElCuadroCompleto() {
+        byte[] cuadro = cuadro(6, 4, 2);
+        byte[] salida = PasosImagen.recortarNv21(cuadro, 6, 4, 0, 0, 6, 4, new byte[cuadro.length]);
+        assertArrayEquals(cuadro, salida);
+    }
+
+    @Test
+    void escalarAlMismoTamanoCopia() {
+        byte[] cuadro = cuadro(8, 6, 3);
+        assertArrayEquals(cuadro, PasosImagen.escalarNv21(cuadro, 8, 6, 8, 6, new byte[cuadro.length]));
+    }
+
+    @Test
+    void reducirUnaImagenUniformeLaConserva() {
+        int ancho = 16;
+        int alto = 12;
+        byte[] cuadro = new byte[ancho * alto * 3 / 2];
+        Arrays.fill(cuadro, 0, ancho * alto, (byte) 200);
+        Arrays.fill(cuadro, ancho * alto, cuadro.length, (byte) 90);
+        byte[] salida = PasosImagen.escalarNv21(cuadro, ancho, alto, 6, 4, new byte[6 * 4 * 3 / 2]);
+        for (int i = 0; i < 24; i++) {
+            assertEquals((byte) 200, salida[i]);
+        }
+        for (int i = 24; i < salida.length; i++) {
+            assertEquals((byte) 90, salida[i]);
+        }
+    }
+
+    @Test
+    void escalarAMedidasImparesNoSeSaleDeLaSalida() {
+        byte[] cuadro = cuadro(10, 8, 4);
+        byte[] salida = new byte[5 * 3 * 3 / 2];
+        PasosImagen.escalarNv21(cuadro, 10, 8, 5, 3, salida);
+        // Esquina superior izquierda sin interpolar
+        assertEquals(cuadro[0], salida[0]);
+    }
+
+    @Test
+    void ampliarInterpolaLaLuminancia() {
+        // Fila 0 -> 100, fila 1 -> 200 en una imagen de 2x2; ampliada a 2x4 la fila 1 queda a mitad de camino
+        byte[] cuadro = {(byte) 100, (byte) 100, (byte) 200, (byte) 200, 7, 8};
+        byte[] salida = PasosImagen.escalarNv21(cuadro, 2, 2, 2, 4, new byte[2 * 4 * 3 / 2]);
+        assertEquals(100, salida[0] & 0xff);
+        assertEquals(150, salida[2] & 0xff);
+        assertEquals(200, salida[4] & 0xff);
+        assertEquals(7, salida[8]);
+        assertEquals(8, salida[9]);
+    }
+
+    @Test
+    void lumaDesdeArgb() {
+        int[] pixeles = {0xFFFFFFFF, 0xFF000000, 0xFFFF0000, 0xFF00FF00, 0xFF0000FF, 0x00808080};
+        byte[] luma = new byte[pixeles.length + 1];
+        PasosImagen.lumaDesdeArgb(pixeles, pixeles.length, luma);
+        assertEquals(255, luma[0] & 0xff);
+        assertEquals(0, luma[1] & 0xff);
+        assertEquals(76, luma[2] & 0xff);
+        assertEquals(149, luma[3] & 0xff);
+        assertEquals(28, luma[4] & 0xff);
+        // El alfa no cuenta
+        assertEquals(128, luma[5] & 0xff);
+        assertEquals(0, luma[6]);
+    }
+
+    @Test
+    void varianzaLaplacianoDistingueNitidez() {
+        int n = 16;
+        int[] plana = new int[n * n];
+        Arrays.fill(plana, 128);
+        assertEquals(0, PasosImagen.varianzaLaplaciano(plana, n), 1e-9);
+
+        int[] tablero = new int[n * n];
+        for (int i = 0; i < tablero.length; i++) {
+            tablero[i] = ((i / n + i % n) % 2) * 255;
+        }
+        int[] suave = new int[n * n];
+        for (int i = 0; i < suave.length; i++) {
+            suave[i] = (i % n) * 8;
+        }
+        double nitida = PasosImagen.varianzaLaplaciano(tablero, n);
+        assertTrue(nitida > PasosImagen.varianzaLaplaciano(suave, n));
+        assertTrue(nitida > 1000);
+    }
+
+    @Test
+    void varianzaLaplacianoSinInteriorEsCero() {
+        assertEquals(0, PasosImagen.varianzaLaplaciano(new int[]{1, 2, 3, 4}, 2), 1e-9);
+    }
+
+    private static byte[] cuadro(int ancho, int alto, long semilla) {
+        byte[] datos = new byte[ancho * alto * 3 / 2];
+        new Random(semilla).nextBytes(datos);
+        return datos;
+    }
+}
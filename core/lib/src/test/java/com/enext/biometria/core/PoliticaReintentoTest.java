@@ -0,0 +1,61 @@
+package com.enext.biometria.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PoliticaReintentoTest {
+
+    private final PoliticaReintento politica = new PoliticaReintento(500, 5000);
+
+    @Test
+    void elTopeSeDuplicaHastaLaEsperaMaxima() {
+        assertEquals(500, politica.esperaSinJitter(1));
+        assertEquals(1000, politica.esperaSinJitter(2));
+        assertEquals(2000, politica.esperaSinJitter(3));
+        assertEquals(4000, politica.esperaSinJitter(4));
+        assertEquals(5000, politica.esperaSinJitter(5));
+        assertEquals(5000, politica.esperaSinJitter(40));
+    }
+
+    @Test
+    void ceroFallosSeTrataComoElPrimero() {
+        assertEquals(500, politica.esperaSinJitter(0));
+    }
+
+    @Test
+    void sinDesbordeConBaseGrande() {
+        PoliticaReintento grande = new PoliticaReintento(Long.MAX_VALUE / 4, Long.MAX_VALUE / 2);
+        assertEquals(Long.MAX_VALUE / 2, grande.esperaSinJitter(31));
+    }
+
+    @Test
+    void elJitterQuedaEntreLaMitadYElTope() {
+        Random aleatorio = new Random(42);
+        for (int fallos = 1; fallos <= 6; fallos++) {
+            long tope = politica.esperaSinJitter(fallos);
+            for (int i = 0; i < 200; i++) {
+                long espera = politica.espera(fallos, aleatorio);
+                assertTrue(espera >= tope / 2 && espera <= tope, "espera " + espera + " tope " + tope);
+            }
+        }
+    }
+
+    @Test
+    void losExtremosDelAleatorio() {
+        assertEquals(1000, politica.espera(3, fijo(0)));
+        assertEquals(1999, politica.espera(3, fijo(0.9995)));
+    }
+
+    private static Random fijo(final double valor) {
+        return new Random() {
+            @Override
+            public double nextDouble() {
+                return valor;
+            }
+        };
+    }
+}
@@ -0,0 +1,78 @@
+package com.enext.biometria.core;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResultadoValidacionTest {
+
+    @Test
+    void exitoConHttp200YStatusSuccess() {
+        ResultadoValidacion resultado = ResultadoValidacion.interpretar(200,
+                "{\"status\":\"success\",\"datos_RC\":{\"nombre\":\"ANA\"}}");
+        assertTrue(resultado.esExito());
+        assertNull(resultado.getCodigoError());
+        assertEquals("ANA", resultado.getRespuesta().getJSONObject("datos_RC").getString("nombre"));
+    }
+
+    @Test
+    void statusDistintoDeSuccessEsValidacionFallida() {
+        ResultadoValidacion conMensaje = ResultadoValidacion.interpretar(200,
+                "{\"status\":\"error\",\"message\":\"Rostro no coincide\"}");
+        assertFalse(conMensaje.esExito());
+        assertEquals(ResultadoValidacion.VALIDATION_FAILED, conMensaje.getCodigoError());
+        assertEquals("Rostro no coincide", conMensaje.getMensaje());
+        // La respuesta se conserva para el diagnostico
+        assertEquals("error", conMensaje.getRespuesta().getString("status"));
+
+        ResultadoValidacion sinMensaje = ResultadoValidacion.interpretar(200, "{}");
+        assertEquals(ResultadoValidacion.VALIDATION_FAILED, sinMensaje.getCodigoError());
+        assertEquals("Validacion fallida", sinMensaje.getMensaje());
+    }
+
+    @Test
+    void cuerpoNoJsonConHttp200EsErrorDeFormato() {
+        ResultadoValidacion resultado = ResultadoValidacion.interpretar(200, "<html>ok</html>");
+        assertEquals(ResultadoValidacion.PARSE_ERROR, resultado.getCodigoError());
+        assertNull(resultado.getRespuesta());
+    }
+
+    @Test
+    void httpDistintoDe200EsErrorDelServidor() {
+        ResultadoValidacion conMensaje = ResultadoValidacion.interpretar(500, "{\"message\":\"Base caida\"}");
+        assertEquals(ResultadoValidacion.SERVER_ERROR, conMensaje.getCodigoError());
+        assertEquals("Base caida", conMensaje.getMensaje());
+        assertNull(conMensaje.getRespuesta());
+
+        ResultadoValidacion sinJson = ResultadoValidacion.interpretar(503, "Service Unavailable");
+        assertEquals(ResultadoValidacion.SERVER_ERROR, sinJson.getCodigoError());
+        assertEquals("Error del servidor", sinJson.getMensaje());
+
+        // Un 201 con status success tampoco es exito
+        assertFalse(ResultadoValidacion.interpretar(201, "{\"status\":\"success\"}").esExito());
+    }
+
+    @Test
+    void datosBiometricosUsaDatosRcSiExiste() {
+        JSONObject conDatos = new JSONObject("{\"status\":\"success\",\"datos_RC\":{\"cedula\":\"1\"}}");
+        assertEquals("1", ResultadoValidacion.datosBiometricos(conDatos).getString("cedula"));
+
+        JSONObject sinDatos = new JSONObject("{\"status\":\"success\",\"cedula\":\"2\"}");
+        assertSame(sinDatos, ResultadoValidacion.datosBiometricos(sinDatos));
+    }
+
+    @Test
+    void leerDatosBiometricosDesdeTexto() {
+        assertNull(ResultadoValidacion.leerDatosBiometricos(null));
+        assertNull(ResultadoValidacion.leerDatosBiometricos(""));
+        Object json = ResultadoValidacion.leerDatosBiometricos("{\"nombre\":\"ANA\"}");
+        assertTrue(json instanceof JSONObject);
+        assertEquals("ANA", ((JSONObject) json).getString("nombre"));
+        assertEquals("texto plano", ResultadoValidacion.leerDatosBiometricos("texto plano"));
+    }
+}
@@ -0,0 +1,52 @@
+package com.enext.biometria.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SolicitudCompartidaTest {
+
+    private final SolicitudCompartida<String> solicitud = new SolicitudCompartida<>();
+
+    @Test
+    void soloElPrimeroHaceLaLlamada() {
+        assertTrue(solicitud.sumar("a", 1000));
+        assertFalse(solicitud.sumar("b", 1100));
+        assertFalse(solicitud.sumar("c", 1300));
+        assertEquals(2, solicitud.getEsperando());
+    }
+
+    @Test
+    void terminarEntregaATodosYSumaLaEsperaDeLosAgrupados() {
+        solicitud.sumar("a", 1000);
+        solicitud.sumar("b", 1100);
+        solicitud.sumar("c", 1300);
+
+        SolicitudCompartida.Grupo<String> grupo = solicitud.terminar(1500);
+        assertEquals(Arrays.asList("a", "b", "c"), grupo.solicitantes);
+        assertEquals(2, grupo.agrupados);
+        assertEquals(400 + 200, grupo.esperaAgrupadosMs);
+        assertEquals(0, solicitud.getEsperando());
+    }
+
+    @Test
+    void despuesDeTerminarLaSiguienteHaceOtraLlamada() {
+        solicitud.sumar("a", 1000);
+        solicitud.terminar(1200);
+
+        assertTrue(solicitud.sumar("b", 1300));
+        SolicitudCompartida.Grupo<String> grupo = solicitud.terminar(1400);
+        assertEquals(Arrays.asList("b"), grupo.solicitantes);
+        assertEquals(0, grupo.agrupados);
+        assertEquals(0, grupo.esperaAgrupadosMs);
+    }
+
+    @Test
+    void terminarSinLlamadaEnCursoNoEntregaANadie() {
+        assertTrue(solicitud.terminar(1000).solicitantes.isEmpty());
+    }
+}
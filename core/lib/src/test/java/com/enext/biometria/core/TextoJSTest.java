@@ -0,0 +1,39 @@
+package com.enext.biometria.core;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class TextoJSTest {
+
+    @Test
+    void nullSeConvierteEnVacio() {
+        assertEquals("", TextoJS.escapar(null));
+    }
+
+    @Test
+    void sinNadaQueEscaparRetornaElMismoString() {
+        String texto = "Validacion exitosa 123";
+        assertSame(texto, TextoJS.escapar(texto));
+    }
+
+    @Test
+    void escapaBarrasComillasYSaltos() {
+        assertEquals("a\\\\b", TextoJS.escapar("a\\b"));
+        assertEquals("\\'x\\'", TextoJS.escapar("'x'"));
+        assertEquals("\\\"x\\\"", TextoJS.escapar("\"x\""));
+        assertEquals("uno\\ndos\\rtres", TextoJS.escapar("uno\ndos\rtres"));
+    }
+
+    @Test
+    void escapaSeparadoresDeLineaUnicode() {
+        // U+2028 y U+2029 terminan un literal de string en JavaScript anterior a ES2019
+        assertEquals("a\\u2028b\\u2029c", TextoJS.escapar("a b c"));
+    }
+
+    @Test
+    void conservaElTextoAntesYDespuesDelPrimerEscape() {
+        assertEquals("token-abc\\'defñ", TextoJS.escapar("token-abc'defñ"));
+    }
+}
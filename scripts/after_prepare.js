@@ -6,6 +6,7 @@
 
 var fs = require('fs');
 var path = require('path');
+var ui = require('./ui');
 
 module.exports = function(context) {
     var platforms = context.opts.platforms || [];
@@ -19,7 +20,6 @@ module.exports = function(context) {
             var sourceFile = path.join(pluginWwwDir, 'biometria.html');
             
             var targetDir = path.join(projectRoot, 'platforms', 'android', 'app', 'src', 'main', 'assets', 'www', 'plugins', 'enext-biometria');
-            var targetFile = path.join(targetDir, 'biometria.html');
             
             // Solo copiar si la plataforma existe
             if (!fs.existsSync(path.join(projectRoot, 'platforms', 'android'))) {
@@ -28,14 +28,8 @@ module.exports = function(context) {
             
             console.log('Enext Biometria: Verificando archivos de UI...');
             
-            // Crear directorio si no existe
-            if (!fs.existsSync(targetDir)) {
-                fs.mkdirSync(targetDir, { recursive: true });
-            }
-            
-            // Copiar archivo si no existe o es diferente
-            if (fs.existsSync(sourceFile)) {
-                fs.copyFileSync(sourceFile, targetFile);
+            // Minificar y copiar la interfaz (BiometriaActivity la lee de los assets)
+            if (ui.copiarMinificado(sourceFile, targetDir)) {
                 console.log('Enext Biometria: biometria.html actualizado');
             }
         }
@@ -0,0 +1,54 @@
+/**
+ * Minifica la interfaz de BiometriaActivity (www/biometria.html) y la copia a los assets de Android.
+ * Se quitan la indentacion, las lineas en blanco y los comentarios que ocupan lineas completas;
+ * el resto de las lineas se conserva unido por saltos de linea.
+ */
+
+var fs = require('fs');
+var path = require('path');
+
+var COMENTARIO = /^(\/\/.*|\/\*.*\*\/|<!--.*-->)$/;
+
+function minificar(html) {
+    // Fin del comentario de varias lineas en curso ('*/' o '-->'), o null fuera de uno
+    var cierre = null;
+    return html.split('\n')
+        .map(function(linea) { return linea.trim(); })
+        .filter(function(linea) {
+            if (cierre) {
+                if (linea.slice(-cierre.length) === cierre) {
+                    cierre = null;
+                }
+                return false;
+            }
+            if (!linea || COMENTARIO.test(linea)) {
+                return false;
+            }
+            var fin = linea.indexOf('/*') === 0 ? '*/' : linea.indexOf('<!--') === 0 ? '-->' : null;
+            if (fin && linea.indexOf(fin) < 0) {
+                cierre = fin;
+                return false;
+            }
+            return true;
+        })
+        .join('\n');
+}
+
+/**
+ * Escribe la interfaz minificada en targetDir/biometria.html. Retorna false si no existe el fuente.
+ */
+function copiarMinificado(sourceFile, targetDir) {
+    if (!fs.existsSync(sourceFile)) {
+        return false;
+    }
+    if (!fs.existsSync(targetDir)) {
+        fs.mkdirSync(targetDir, { recursive: true });
+    }
+    fs.writeFileSync(path.join(targetDir, 'biometria.html'), minificar(fs.readFileSync(sourceFile, 'utf8')));
+    return true;
+}
+
+module.exports = {
+    minificar: minificar,
+    copiarMinificado: copiarMinificado
+};
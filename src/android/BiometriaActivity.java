@@ -2,40 +2,156 @@ package com.enext.biometria;
 
 import android.Manifest;
 import android.app.Activity;
+import android.content.BroadcastReceiver;
+import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.PackageManager;
+import android.graphics.Color;
+import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Debug;
+import android.os.ResultReceiver;
+import android.os.SystemClock;
 import android.util.Base64;
 import android.util.Log;
 import android.webkit.WebView;
 import android.webkit.WebViewClient;
 import android.webkit.WebChromeClient;
-import android.webkit.WebSettings;
+import android.webkit.WebMessage;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
 import android.webkit.JavascriptInterface;
 import android.webkit.PermissionRequest;
+import android.view.TextureView;
 import android.view.Window;
 import android.view.WindowManager;
+import android.widget.FrameLayout;
 
 import androidx.annotation.NonNull;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
+import com.enext.biometria.core.CodificadorBase64;
+import com.enext.biometria.core.ResultadoValidacion;
+import com.enext.biometria.core.TextoJS;
+
+import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 /**
  * Activity que muestra la interfaz de validacion biometrica.
  * Carga un WebView con la UI de captura de foto y validacion.
- * El HTML se carga directamente desde el codigo para evitar problemas de archivos externos.
+ * El HTML (www/biometria.html) lo sirve RecursosUI desde los assets de Android.
  */
 public class BiometriaActivity extends Activity {
 
     private static final String TAG = "BiometriaActivity";
     private static final int CAMERA_PERMISSION_REQUEST = 1001;
     
+    // Broadcast (restringido al paquete de la app) con el que el plugin cancela una sesion
+    static final String ACCION_CANCELAR = "com.enext.biometria.CANCELAR";
+
+    // Modos de captura disponibles (opcion modoCaptura)
+    static final String MODO_CAPTURA_WEBVIEW = "webview";
+    static final String MODO_CAPTURA_NATIVO = "nativo";
+    
+    // Resolucion de la vista previa cuando el sistema avisa que queda poca memoria
+    static final int ANCHO_MEMORIA_BAJA = 640;
+    static final int ALTO_MEMORIA_BAJA = 480;
+    
+    // Contenedor raiz: vista previa nativa detras del WebView
+    private FrameLayout contenedor;
+    
     // WebView que contiene la interfaz de usuario
     private WebView webView;
     
+    // Captura nativa con Camera2 (solo en modo 'nativo')
+    private TextureView vistaPreviaNativa;
+    private CamaraNativa camaraNativa;
+    // Posicion y tamano de la vista previa nativa, para reabrirla con menos resolucion
+    private int[] areaVistaPrevia;
+    
+    // Deteccion de rostro en el dispositivo para disparar la captura (solo en modo 'nativo')
+    private DetectorRostro detectorRostro;
+    private boolean deteccionRostro;
+    private int cuadrosEstables;
+    private String disparo;
+    private long esperaDisparoMs;
+    
+    // Rafaga de captura nativa: cuadros por captura y ventana en ms
+    private int cuadrosRafaga;
+    private int ventanaRafagaMs;
+    
+    // Metricas de captura que se devuelven al plugin en el resultado
+    private final JSONObject diagnostico = new JSONObject();
+    private long heapPicoBytes;
+    
+    // Pico de PSS de este proceso y avisos de poca memoria recibidos (onTrimMemory)
+    private final MonitorPss monitorPss = new MonitorPss();
+    private int recortesMemoria;
+    private int nivelMemoriaMaximo;
+    private boolean resolucionReducida;
+    
+    // Pantalla en el proceso ':biometria': el resultado y las validaciones encoladas van por este canal
+    private ResultReceiver canalResultado;
+    
+    // Sesion de validacion a la que pertenece esta pantalla
+    private String sesionId;
+    private volatile boolean cancelada;
+    private final BroadcastReceiver receptorPlugin = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (sesionId == null || !sesionId.equals(intent.getStringExtra("sesionId"))) {
+                return;
+            }
+            if (Kiosco.ACCION_PERSONA.equals(intent.getAction())) {
+                agregarPersona(new Persona(intent.getStringExtra("personaId"), intent.getStringExtra("cedula"),
+                    intent.getStringExtra("codDactilar")));
+            } else if (Kiosco.ACCION_TERMINAR.equals(intent.getAction())) {
+                terminarKiosco();
+            } else {
+                cancelarSesion();
+            }
+        }
+    };
+    
+    // Modo kiosco: varias personas seguidas con la camara y el token abiertos. El envio de una
+    // persona se superpone con la captura de la siguiente; los resultados vuelven por el ResultReceiver
+    private boolean kiosco;
+    private ResultReceiver resultadosKiosco;
+    private final ArrayDeque<Persona> personas = new ArrayDeque<>();
+    private Persona personaActual;
+    private boolean esperandoPersona;
+    private boolean terminandoKiosco;
+    private int enviosKiosco;
+    private int descartadasKiosco;
+    
+    /**
+     * Persona en la fila del kiosco, con los tiempos de su captura.
+     */
+    private static class Persona {
+        final String id;
+        final String cedula;
+        final String codDactilar;
+        long inicio;
+        long captura;
+        
+        Persona(String id, String cedula, String codDactilar) {
+            this.id = id;
+            this.cedula = cedula;
+            this.codDactilar = codDactilar;
+        }
+    }
+    
     // Datos recibidos del plugin principal
     private String cedula;
     private String codDactilar;
@@ -43,6 +159,38 @@ public class BiometriaActivity extends Activity {
     private String biometriaEndpoint;
     private String username;
     private String password;
+    private String modoCaptura;
+    private String modoEnvio;
+    private int anchoCaptura;
+    private int altoCaptura;
+    
+    // Recorte, reduccion y codificacion con presupuesto de bytes antes del envio
+    private ProcesadorImagen procesador;
+    private final ExecutorService procesamiento = Executors.newSingleThreadExecutor();
+    
+    // Control de calidad local antes del envio (null si no esta activo)
+    private EvaluadorCalidad evaluadorCalidad;
+    
+    // Token obtenido por el cliente HTTP nativo
+    private volatile String accessToken;
+    private int reintentosToken;
+    
+    // El token se pide al crear la pantalla, en paralelo con el WebView y el permiso; la respuesta
+    // (llamada JS lista para ejecutar) espera aqui hasta que la interfaz lo solicite
+    private String respuestaToken;
+    private boolean tokenEnCurso;
+    private boolean tokenSolicitadoJS;
+    
+    // Sin conexion la validacion se guarda en la cola persistente y se envia al volver la red
+    private boolean colaOffline;
+    
+    // Tiempos de cada etapa de la validacion, devueltos al plugin en el resultado
+    private MetricasEtapas metricas;
+    
+    // La configuracion se entrega al JavaScript una sola vez, con la pagina cargada y el permiso concedido
+    private boolean configEnviada;
+    private boolean paginaCargada;
+    private boolean permisoCamara;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -63,17 +211,119 @@ public class BiometriaActivity extends Activity {
         biometriaEndpoint = intent.getStringExtra("biometriaEndpoint");
         username = intent.getStringExtra("username");
         password = intent.getStringExtra("password");
+        sesionId = intent.getStringExtra("sesionId");
+        canalResultado = intent.getParcelableExtra(CanalResultado.EXTRA_CANAL);
+        monitorPss.iniciar();
+        metricas = new MetricasEtapas(intent.getLongExtra("inicioValidacion", SystemClock.elapsedRealtime()));
+        metricas.marcar(MetricasEtapas.INICIO_ACTIVIDAD);
+        kiosco = intent.getBooleanExtra("kiosco", false);
+        resultadosKiosco = intent.getParcelableExtra("resultadosKiosco");
+        registrarReceptor();
+        JSONObject opciones = leerOpciones(intent.getStringExtra("opciones"));
+        if (canalResultado != null) {
+            // En otro proceso el cliente HTTP y la cache de tokens son propios: se configuran aqui
+            EnextBiometria.configurarRed(opciones);
+        }
+        modoCaptura = opciones.optString("modoCaptura", MODO_CAPTURA_WEBVIEW);
+        modoEnvio = opciones.optString("modoEnvio", CuerpoValidacion.MODO_JSON);
+        anchoCaptura = opciones.optInt("anchoCaptura", CamaraNativa.ANCHO_OBJETIVO);
+        altoCaptura = opciones.optInt("altoCaptura", CamaraNativa.ALTO_OBJETIVO);
+        deteccionRostro = opciones.optBoolean("deteccionRostro", false);
+        cuadrosEstables = opciones.optInt("cuadrosEstables", DetectorRostro.CUADROS_ESTABLES);
+        cuadrosRafaga = opciones.optInt("cuadrosRafaga", CamaraNativa.CUADROS_RAFAGA);
+        ventanaRafagaMs = opciones.optInt("ventanaRafagaMs", CamaraNativa.VENTANA_RAFAGA_MS);
+        JSONObject red = opciones.optJSONObject("red");
+        if (red != null) {
+            try {
+                diagnostico.put("red", red);
+            } catch (JSONException e) {
+                Log.e(TAG, "Error al registrar perfil de red: " + e.getMessage());
+            }
+        }
+        JSONObject precalentamiento = opciones.optJSONObject("precalentamiento");
+        if (precalentamiento != null) {
+            try {
+                diagnostico.put("precalentamiento", precalentamiento);
+            } catch (JSONException e) {
+                Log.e(TAG, "Error al registrar precalentamiento: " + e.getMessage());
+            }
+        }
+        procesador = new ProcesadorImagen(opciones, EnextBiometria.getHttpClient().getBufferPool());
+        if (opciones.optBoolean("validarCalidad", false)) {
+            evaluadorCalidad = new EvaluadorCalidad(opciones.optJSONObject("umbralesCalidad"));
+        }
+        colaOffline = opciones.optBoolean("colaOffline", false);
         
         Log.d(TAG, "BiometriaActivity iniciada para cedula: " + cedula);
         
-        // Verificar permiso de camara antes de iniciar
-        if (checkCameraPermission()) {
-            initializeWebView();
-        } else {
+        // Token, WebView y permiso de camara en paralelo: la configuracion se envia cuando estan la
+        // pagina y el permiso, y el token se entrega cuando la interfaz lo pide
+        adelantarToken();
+        permisoCamara = checkCameraPermission();
+        initializeWebView();
+        if (!permisoCamara && !isFinishing()) {
             requestCameraPermission();
         }
     }
     
+    /**
+     * Escucha la cancelacion de la sesion enviada por el plugin y, en modo kiosco, las personas
+     * y el fin del kiosco. En modo kiosco avisa al plugin que ya puede enviar personas.
+     */
+    private void registrarReceptor() {
+        IntentFilter filtro = new IntentFilter(ACCION_CANCELAR);
+        if (kiosco) {
+            filtro.addAction(Kiosco.ACCION_PERSONA);
+            filtro.addAction(Kiosco.ACCION_TERMINAR);
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            registerReceiver(receptorPlugin, filtro, Context.RECEIVER_NOT_EXPORTED);
+        } else {
+            registerReceiver(receptorPlugin, filtro);
+        }
+        if (kiosco && resultadosKiosco != null) {
+            resultadosKiosco.send(Kiosco.LISTO, null);
+        }
+    }
+    
+    /**
+     * Cancela la sesion: aborta las llamadas HTTP en curso, libera la camara y cierra la pantalla.
+     * Si la cancelo el plugin, ya entrego CANCELLED al JavaScript y el resultado de esta pantalla se
+     * ignora; si la cancelo el usuario, el resultado lleva el diagnostico y las metricas. Debe
+     * llamarse en el hilo principal.
+     */
+    private void cancelarSesion() {
+        if (cancelada) {
+            return;
+        }
+        Log.d(TAG, "Sesion cancelada: " + sesionId);
+        cancelada = true;
+        int llamadas = EnextBiometria.getHttpClient().cancelar(sesionId);
+        Log.d(TAG, "Llamadas canceladas: " + llamadas);
+        cerrarCamaraNativa();
+        Intent resultIntent = new Intent();
+        resultIntent.putExtra("sesionId", sesionId);
+        resultIntent.putExtra("errorCode", "CANCELLED");
+        resultIntent.putExtra("errorMessage", "Validacion cancelada");
+        resultIntent.putExtra("diagnostico", cerrarDiagnostico());
+        resultIntent.putExtra("metricas", metricas.toJSON().toString());
+        terminar(Activity.RESULT_CANCELED, resultIntent);
+    }
+    
+    /**
+     * Convierte las opciones recibidas del plugin en JSON (vacio si no hay opciones)
+     */
+    private JSONObject leerOpciones(String opciones) {
+        if (opciones != null && !opciones.isEmpty()) {
+            try {
+                return new JSONObject(opciones);
+            } catch (JSONException e) {
+                Log.e(TAG, "Opciones invalidas: " + e.getMessage());
+            }
+        }
+        return new JSONObject();
+    }
+    
     /**
      * Verifica si el permiso de camara esta concedido
      */
@@ -106,15 +356,17 @@ public class BiometriaActivity extends Activity {
         if (requestCode == CAMERA_PERMISSION_REQUEST) {
             if (grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
                 Log.d(TAG, "Permiso de camara concedido");
-                initializeWebView();
+                permisoCamara = true;
+                enviarConfig();
             } else {
                 Log.e(TAG, "Permiso de camara denegado");
                 // Enviar error al plugin y cerrar
                 Intent resultIntent = new Intent();
+                resultIntent.putExtra("sesionId", sesionId);
                 resultIntent.putExtra("errorCode", "CAMERA_PERMISSION_DENIED");
                 resultIntent.putExtra("errorMessage", "Se requiere permiso de camara");
-                setResult(Activity.RESULT_CANCELED, resultIntent);
-                finish();
+                resultIntent.putExtra("metricas", metricas.toJSON().toString());
+                terminar(Activity.RESULT_CANCELED, resultIntent);
             }
         }
     }
@@ -123,47 +375,104 @@ public class BiometriaActivity extends Activity {
      * Inicializa el WebView con la interfaz de usuario
      */
     private void initializeWebView() {
-        webView = new WebView(this);
-        setContentView(webView);
+        try {
+            // Lee la interfaz de los assets (una vez por proceso) antes de crear el WebView
+            RecursosUI.getHtml(this);
+        } catch (IOException e) {
+            Log.e(TAG, "No se encontro la interfaz en los assets: " + e.getMessage());
+            Intent resultIntent = new Intent();
+            resultIntent.putExtra("sesionId", sesionId);
+            resultIntent.putExtra("errorCode", "UI_ERROR");
+            resultIntent.putExtra("errorMessage", "No se pudo cargar la interfaz de validacion");
+            resultIntent.putExtra("metricas", metricas.toJSON().toString());
+            terminar(Activity.RESULT_CANCELED, resultIntent);
+            return;
+        }
+        
+        // WebView precalentado por el plugin o uno nuevo (el primero del proceso es el mas lento)
+        long inicio = SystemClock.elapsedRealtime();
+        String arranque = PrecalentadorWebView.PRECALENTADO;
+        webView = PrecalentadorWebView.tomar(this);
+        if (webView == null) {
+            arranque = PrecalentadorWebView.tipoNuevo();
+            webView = PrecalentadorWebView.crear(this);
+        }
+        registrarArranque(arranque, SystemClock.elapsedRealtime() - inicio);
+        
+        contenedor = new FrameLayout(this);
+        contenedor.addView(webView, new FrameLayout.LayoutParams(
+            FrameLayout.LayoutParams.MATCH_PARENT, FrameLayout.LayoutParams.MATCH_PARENT));
+        setContentView(contenedor);
         setupWebView();
         
-        // Cargar el contenido HTML directamente (no desde archivo externo)
-        String htmlContent = getHtmlContent();
-        webView.loadDataWithBaseURL("file:///android_asset/", htmlContent, "text/html", "UTF-8", null);
+        // La interfaz se sirve desde memoria en shouldInterceptRequest
+        webView.loadUrl(RecursosUI.URL_UI);
+    }
+    
+    /**
+     * Registra en el diagnostico el origen del WebView y lo que tardo en obtenerse
+     */
+    private synchronized void registrarArranque(String webViewOrigen, long creacionMs) {
+        try {
+            JSONObject arranque = new JSONObject();
+            arranque.put("webView", webViewOrigen);
+            arranque.put("creacionWebViewMs", creacionMs);
+            diagnostico.put("arranque", arranque);
+        } catch (JSONException e) {
+            Log.e(TAG, "Error al registrar arranque: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Registra en el diagnostico si la camara nativa ya estaba abierta por precalentar()
+     */
+    private synchronized void registrarArranqueCamara(boolean preabierta) {
+        try {
+            JSONObject arranque = diagnostico.optJSONObject("arranque");
+            if (arranque == null) {
+                arranque = new JSONObject();
+                diagnostico.put("arranque", arranque);
+            }
+            arranque.put("camara", preabierta ? "preabierta" : "nueva");
+        } catch (JSONException e) {
+            Log.e(TAG, "Error al registrar arranque de camara: " + e.getMessage());
+        }
     }
 
     /**
      * Configura las opciones del WebView
      */
     private void setupWebView() {
-        WebSettings settings = webView.getSettings();
-        
-        // Habilitar JavaScript
-        settings.setJavaScriptEnabled(true);
-        
-        // Permitir acceso a archivos locales
-        settings.setAllowFileAccess(true);
-        settings.setAllowContentAccess(true);
-        settings.setAllowFileAccessFromFileURLs(true);
-        settings.setAllowUniversalAccessFromFileURLs(true);
+        // JavaScript, almacenamiento y reproduccion sin gesto ya vienen de PrecalentadorWebView.crear()
         
-        // Configuraciones adicionales
-        settings.setDomStorageEnabled(true);
-        settings.setMediaPlaybackRequiresUserGesture(false);
-        settings.setDatabaseEnabled(true);
-        settings.setCacheMode(WebSettings.LOAD_DEFAULT);
+        // En modo nativo la vista previa se dibuja detras del WebView, que debe ser transparente
+        if (MODO_CAPTURA_NATIVO.equals(modoCaptura)) {
+            webView.setBackgroundColor(Color.TRANSPARENT);
+        }
         
         // Agregar interfaz JavaScript para comunicacion con Android
         webView.addJavascriptInterface(new BiometriaJSInterface(), "AndroidBiometria");
         
         // Configurar WebViewClient
         webView.setWebViewClient(new WebViewClient() {
+            @Override
+            public WebResourceResponse shouldInterceptRequest(WebView view, WebResourceRequest request) {
+                return RecursosUI.interceptar(getApplicationContext(), request.getUrl());
+            }
+            
+            @Override
+            public void onPageCommitVisible(WebView view, String url) {
+                // Primer cuadro de la interfaz (API 23+)
+                metricas.marcarPrimera(MetricasEtapas.UI_VISIBLE);
+            }
+            
             @Override
             public void onPageFinished(WebView view, String url) {
                 super.onPageFinished(view, url);
                 Log.d(TAG, "Pagina cargada");
-                // Inyectar la configuracion en el JavaScript
-                injectConfig();
+                metricas.marcarPrimera(MetricasEtapas.WEBVIEW_LISTO);
+                paginaCargada = true;
+                enviarConfig();
             }
         });
         
@@ -184,149 +493,871 @@ public class BiometriaActivity extends Activity {
     }
 
     /**
-     * Inyecta la configuracion en el JavaScript del WebView
-     */
-    private void injectConfig() {
-        String js = String.format(
-            "window.BIOMETRIA_CONFIG = {" +
-            "  cedula: '%s'," +
-            "  codDactilar: '%s'," +
-            "  tokenEndpoint: '%s'," +
-            "  biometriaEndpoint: '%s'," +
-            "  username: '%s'," +
-            "  password: '%s'" +
-            "}; if(typeof onConfigReady === 'function') onConfigReady();",
-            escapeJS(cedula),
-            escapeJS(codDactilar),
-            escapeJS(tokenEndpoint),
-            escapeJS(biometriaEndpoint),
-            escapeJS(username),
-            escapeJS(password)
-        );
-        webView.evaluateJavascript(js, null);
+     * Entrega la configuracion al JavaScript una sola vez, con postWebMessage dirigido al origen de
+     * la interfaz (evaluateJavascript antes de Android 6). La pagina no se inicia hasta recibirla.
+     */
+    private void enviarConfig() {
+        if (configEnviada || !paginaCargada || !permisoCamara) {
+            return;
+        }
+        configEnviada = true;
+        String json;
+        try {
+            JSONObject config = new JSONObject();
+            config.put("cedula", cedula);
+            config.put("codDactilar", codDactilar);
+            config.put("modoCaptura", modoCaptura);
+            config.put("anchoCaptura", anchoCaptura);
+            config.put("altoCaptura", altoCaptura);
+            config.put("kiosco", kiosco);
+            json = config.toString();
+        } catch (JSONException e) {
+            Log.e(TAG, "Error al crear configuracion JSON: " + e.getMessage());
+            json = "{}";
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            webView.postWebMessage(new WebMessage(json), Uri.parse(RecursosUI.ORIGEN));
+        } else {
+            webView.evaluateJavascript("aplicarConfig('" + escapeJS(json) + "')", null);
+        }
     }
 
     /**
-     * Escapa caracteres especiales para JavaScript
+     * Abre la camara nativa y ubica la vista previa sobre el circulo guia del HTML.
+     * Las coordenadas llegan en pixeles fisicos desde getBoundingClientRect().
      */
-    private String escapeJS(String str) {
-        if (str == null) return "";
-        return str.replace("\\", "\\\\")
-                  .replace("'", "\\'")
-                  .replace("\"", "\\\"")
-                  .replace("\n", "\\n")
-                  .replace("\r", "\\r");
+    private void abrirCamaraNativa(int x, int y, int ancho, int alto) {
+        cerrarCamaraNativa();
+        areaVistaPrevia = new int[]{x, y, ancho, alto};
+        
+        FrameLayout.LayoutParams params = new FrameLayout.LayoutParams(ancho, alto);
+        params.leftMargin = x;
+        params.topMargin = y;
+        vistaPreviaNativa = new TextureView(this);
+        // Espejo igual que la vista previa del WebView (scaleX(-1))
+        vistaPreviaNativa.setScaleX(-1f);
+        contenedor.addView(vistaPreviaNativa, 0, params);
+        
+        camaraNativa = new CamaraNativa(this, EnextBiometria.getHttpClient().getBufferPool(), new CamaraNativa.Listener() {
+            @Override
+            public void onCamaraAbierta() {
+                Log.d(TAG, "Camara nativa abierta");
+                metricas.marcar(MetricasEtapas.CAMARA_ABIERTA);
+                registrarArranqueCamara(camaraNativa != null && camaraNativa.isPreabierta());
+            }
+            
+            @Override
+            public void onPrimerCuadro() {
+                metricas.marcar(MetricasEtapas.PRIMER_CUADRO);
+            }
+            
+            @Override
+            public void onCamaraError(String mensaje) {
+                ejecutarJS("onCamaraNativaError('" + escapeJS(mensaje) + "')");
+            }
+        });
+        camaraNativa.setResolucionObjetivo(anchoCaptura, altoCaptura);
+        camaraNativa.setEvaluadorCalidad(evaluadorCalidad);
+        if (procesador.esNecesario() && procesador.admiteNv21()) {
+            // Recorte, escalado y JPEG sobre el cuadro NV21, sin decodificar la foto a Bitmap
+            camaraNativa.setProcesador(procesador);
+        }
+        camaraNativa.setRafaga(cuadrosRafaga, ventanaRafagaMs);
+        if (deteccionRostro) {
+            detectorRostro = new DetectorRostro(cuadrosEstables, new DetectorRostro.Listener() {
+                @Override
+                public void onEstadoRostro(String estado) {
+                    ejecutarJS("onEstadoRostro('" + estado + "')");
+                }
+            });
+            camaraNativa.setDetectorRostro(detectorRostro);
+        }
+        camaraNativa.abrir(vistaPreviaNativa);
+    }
+    
+    /**
+     * Libera la camara nativa y retira la vista previa
+     */
+    private void cerrarCamaraNativa() {
+        if (camaraNativa != null) {
+            camaraNativa.cerrar();
+            camaraNativa = null;
+        }
+        if (detectorRostro != null) {
+            detectorRostro.cerrar();
+            detectorRostro = null;
+        }
+        if (vistaPreviaNativa != null) {
+            contenedor.removeView(vistaPreviaNativa);
+            vistaPreviaNativa = null;
+        }
+    }
+    
+    /**
+     * Captura una foto con la camara nativa y la envia directamente desde Java
+     */
+    private void capturarFotoNativa() {
+        if (camaraNativa == null) {
+            ejecutarJS("onCapturaNativaError('Camara no activa')");
+            return;
+        }
+        muestrearHeap();
+        final CamaraNativa camara = camaraNativa;
+        camara.capturar(new CamaraNativa.CapturaCallback() {
+            @Override
+            public void onFotoCapturada(ImagenJpeg imagen, int ancho, int alto, long tiempoMs,
+                                        EvaluadorCalidad.Resultado calidad) {
+                muestrearHeap();
+                registrarRafaga(camara.getUltimaRafaga());
+                registrarCaptura(MODO_CAPTURA_NATIVO, tiempoMs, imagen.getLongitud(), camara.getUltimasAsignaciones());
+                if (calidad != null) {
+                    registrarCalidad(calidad);
+                }
+                ProcesadorImagen.Resultado procesado = camara.getUltimoProcesado();
+                if (procesado != null) {
+                    registrarImagen(procesado);
+                }
+                aceptarFoto(imagen, procesado != null);
+            }
+            
+            @Override
+            public void onFotoRechazada(EvaluadorCalidad.Resultado calidad) {
+                registrarRafaga(camara.getUltimaRafaga());
+                rechazarFoto(calidad);
+            }
+            
+            @Override
+            public void onCapturaError(String mensaje) {
+                ejecutarJS("onCapturaNativaError('" + escapeJS(mensaje) + "')");
+            }
+            
+            @Override
+            public void onCapturaCancelada() {
+                // La camara solo se cierra al terminar la pantalla o por pedido del JavaScript
+                Log.d(TAG, "Captura nativa cancelada al cerrar la camara");
+            }
+        });
+    }
+    
+    /**
+     * Envia una foto capturada en el WebView, pasando antes por el control de calidad si esta activo
+     */
+    private void enviarFotoWebView(final ImagenJpeg imagen) {
+        if (evaluadorCalidad == null) {
+            aceptarFoto(imagen, false);
+            return;
+        }
+        procesamiento.execute(new Runnable() {
+            @Override
+            public void run() {
+                EvaluadorCalidad.Resultado calidad;
+                try {
+                    calidad = evaluadorCalidad.evaluar(imagen);
+                } catch (IOException | RuntimeException e) {
+                    // Si no se puede evaluar, la decision queda en manos del servidor
+                    Log.e(TAG, "Error al evaluar la calidad: " + e.getMessage());
+                    aceptarFoto(imagen, false);
+                    return;
+                }
+                if (!calidad.aceptada) {
+                    imagen.liberar();
+                    rechazarFoto(calidad);
+                    return;
+                }
+                registrarCalidad(calidad);
+                aceptarFoto(imagen, false);
+            }
+        });
+    }
+    
+    /**
+     * Rechaza localmente una foto que no cumple los umbrales; no consume un intento de validacion
+     */
+    private void rechazarFoto(EvaluadorCalidad.Resultado calidad) {
+        Log.d(TAG, "Foto rechazada por calidad: " + calidad.motivo);
+        registrarCalidad(calidad);
+        ejecutarJS("onCalidadRechazada('" + escapeJS(calidad.getSugerencia()) + "')");
+    }
+    
+    /**
+     * Registra las metricas de calidad de cada foto evaluada, aceptada o no
+     */
+    private synchronized void registrarCalidad(EvaluadorCalidad.Resultado calidad) {
+        try {
+            JSONArray evaluaciones = diagnostico.optJSONArray("calidad");
+            if (evaluaciones == null) {
+                evaluaciones = new JSONArray();
+                diagnostico.put("calidad", evaluaciones);
+            }
+            evaluaciones.put(calidad.toJSON());
+            if (!calidad.aceptada) {
+                diagnostico.put("rechazosLocales", diagnostico.optInt("rechazosLocales", 0) + 1);
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "Error al registrar calidad: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Pide el token antes de que la interfaz lo necesite
+     */
+    private void adelantarToken() {
+        synchronized (this) {
+            tokenEnCurso = true;
+        }
+        pedirToken();
+    }
+    
+    /**
+     * Llamado por la interfaz: entrega la respuesta adelantada o, si ya se uso, pide el token de nuevo
+     */
+    private void solicitarToken() {
+        String respuesta;
+        synchronized (this) {
+            respuesta = respuestaToken;
+            respuestaToken = null;
+            if (respuesta == null) {
+                tokenSolicitadoJS = true;
+                if (tokenEnCurso) {
+                    return;
+                }
+                tokenEnCurso = true;
+            }
+        }
+        if (respuesta != null) {
+            ejecutarJS(respuesta);
+        } else {
+            pedirToken();
+        }
+    }
+    
+    /**
+     * Ejecuta la respuesta del token si la interfaz ya la pidio, o la guarda hasta que la pida
+     */
+    private void entregarToken(String respuesta) {
+        synchronized (this) {
+            tokenEnCurso = false;
+            if (!tokenSolicitadoJS) {
+                respuestaToken = respuesta;
+                return;
+            }
+            tokenSolicitadoJS = false;
+        }
+        ejecutarJS(respuesta);
+    }
+    
+    /**
+     * Obtiene el token desde la cache compartida o, si no esta vigente, con el cliente HTTP nativo
+     */
+    private void pedirToken() {
+        final TokenCache cache = EnextBiometria.getTokenCache();
+        cache.obtener(tokenEndpoint, username, password,
+            new BiometriaHttpClient.Callback<TokenCache.Resultado>() {
+                @Override
+                public void onExito(TokenCache.Resultado resultado) {
+                    accessToken = resultado.token;
+                    metricas.marcar(MetricasEtapas.TOKEN_OBTENIDO);
+                    registrarTokenCache(resultado.acierto, cache);
+                    synchronized (BiometriaActivity.this) {
+                        reintentosToken = resultado.reintentos;
+                    }
+                    registrarResiliencia();
+                    entregarToken("onTokenNativo('" + escapeJS(resultado.token) + "')");
+                }
+                
+                @Override
+                public void onError(BiometriaException error) {
+                    registrarResiliencia();
+                    if (colaOffline && "TOKEN_NETWORK_ERROR".equals(error.getCodigo())) {
+                        // Sin red se captura igual; el token se pide al enviar desde la cola
+                        Log.d(TAG, "Sin conexion, la validacion se encolara");
+                        accessToken = null;
+                        entregarToken("onTokenNativo('')");
+                        return;
+                    }
+                    entregarToken("onTokenNativoError('" + escapeJS(error.getCodigo()) + "','" + escapeJS(error.getMessage()) + "')");
+                }
+            });
+    }
+    
+    /**
+     * Registra en el diagnostico si el token vino de la cache y los contadores acumulados
+     */
+    private synchronized void registrarTokenCache(boolean acierto, TokenCache cache) {
+        try {
+            JSONObject tokenCache = new JSONObject();
+            tokenCache.put("acierto", acierto);
+            tokenCache.put("aciertos", cache.getAciertos());
+            tokenCache.put("fallos", cache.getFallos());
+            tokenCache.put("invalidados", cache.getInvalidados());
+            diagnostico.put("tokenCache", tokenCache);
+        } catch (JSONException e) {
+            Log.e(TAG, "Error al registrar cache de token: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Registra en el diagnostico los reintentos del token y el estado del circuit breaker del endpoint de biometria
+     */
+    private synchronized void registrarResiliencia() {
+        try {
+            JSONObject resiliencia = new JSONObject();
+            resiliencia.put("reintentosToken", reintentosToken);
+            resiliencia.put("reintentosTokenTotales", EnextBiometria.getTokenCache().getReintentos());
+            resiliencia.put("circuito", EnextBiometria.getHttpClient().estadoCircuito(biometriaEndpoint));
+            JSONObject limiteTasa = new JSONObject();
+            limiteTasa.put("token", EnextBiometria.getHttpClient().estadoLimitador(tokenEndpoint));
+            limiteTasa.put("biometria", EnextBiometria.getHttpClient().estadoLimitador(biometriaEndpoint));
+            resiliencia.put("limiteTasa", limiteTasa);
+            resiliencia.put("agrupamientoToken", EnextBiometria.getTokenCache().estadoAgrupamiento());
+            diagnostico.put("resiliencia", resiliencia);
+        } catch (JSONException e) {
+            Log.e(TAG, "Error al registrar resiliencia: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Foto aceptada: en modo kiosco se asocia a la persona actual y la pantalla pasa a la siguiente
+     * mientras esta se envia. procesada indica que el recorte y la codificacion ya se aplicaron
+     */
+    private void aceptarFoto(ImagenJpeg imagen, boolean procesada) {
+        Persona persona = null;
+        if (kiosco) {
+            persona = tomarPersonaActual();
+            if (persona == null) {
+                Log.d(TAG, "Foto sin persona en el kiosco, se descarta");
+                imagen.liberar();
+                return;
+            }
+        }
+        ejecutarJS("onFotoAceptada()");
+        prepararYEnviar(persona, imagen, procesada);
+    }
+    
+    /**
+     * Aplica el recorte y la codificacion configurados (en segundo plano) y envia la imagen
+     */
+    private void prepararYEnviar(final Persona persona, final ImagenJpeg imagen, boolean procesada) {
+        if (procesada || !procesador.esNecesario()) {
+            metricas.marcar(MetricasEtapas.CODIFICACION);
+            enviar(persona, imagen);
+            return;
+        }
+        procesamiento.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ProcesadorImagen.Resultado resultado = procesador.procesar(imagen);
+                    registrarImagen(resultado);
+                    metricas.marcar(MetricasEtapas.CODIFICACION);
+                    enviar(persona, resultado.imagen);
+                } catch (IOException | RuntimeException e) {
+                    Log.e(TAG, "Error al procesar la imagen: " + e.getMessage());
+                    imagen.liberar();
+                    if (persona != null) {
+                        entregarResultadoKiosco(persona, null, null,
+                            new BiometriaException("IMAGE_ERROR", "No se pudo procesar la foto"), 0);
+                        return;
+                    }
+                    ejecutarJS("onValidacionNativaError('No se pudo procesar la foto')");
+                }
+            }
+        });
+    }
+    
+    /**
+     * Registra el tamano final, la calidad y el tiempo de codificacion de la imagen enviada
+     */
+    private synchronized void registrarImagen(ProcesadorImagen.Resultado resultado) {
+        try {
+            JSONArray imagenes = diagnostico.optJSONArray("imagenes");
+            if (imagenes == null) {
+                imagenes = new JSONArray();
+                diagnostico.put("imagenes", imagenes);
+            }
+            imagenes.put(resultado.toJSON());
+        } catch (JSONException e) {
+            Log.e(TAG, "Error al registrar imagen: " + e.getMessage());
+        }
+    }
+    
+    private void enviar(Persona persona, ImagenJpeg imagen) {
+        if (persona != null) {
+            enviarImagenKiosco(persona, imagen);
+        } else {
+            enviarImagen(imagen);
+        }
+    }
+    
+    /**
+     * Envia la imagen al endpoint de biometria con el cliente HTTP nativo, segun modoEnvio
+     */
+    private void enviarImagen(ImagenJpeg imagen) {
+        if (colaOffline && accessToken == null) {
+            encolar(Arrays.copyOf(imagen.getDatos(), imagen.getLongitud()), imagen.getTipoMime());
+            imagen.liberar();
+            return;
+        }
+        // Copia para la cola: el buffer de la imagen vuelve al pool al terminar la llamada
+        final byte[] copia = colaOffline ? Arrays.copyOf(imagen.getDatos(), imagen.getLongitud()) : null;
+        final String tipoMime = imagen.getTipoMime();
+        BiometriaHttpClient client = EnextBiometria.getHttpClient();
+        final String modo = client.modoEfectivo(biometriaEndpoint, modoEnvio);
+        final int bytes = imagen.getLongitud();
+        final long inicio = SystemClock.elapsedRealtime();
+        // Si el servidor rechaza el token, se pide otro y la foto se reenvia una vez
+        final TokenCache.Renovador renovador = EnextBiometria.getTokenCache()
+            .renovador(tokenEndpoint, username, password, accessToken);
+        metricas.marcar(MetricasEtapas.SUBIDA_INICIO);
+        client.validarBiometria(biometriaEndpoint, cedula, codDactilar, accessToken, imagen, modoEnvio, sesionId, metricas,
+            renovador, new BiometriaHttpClient.Callback<JSONObject>() {
+                @Override
+                public void onExito(JSONObject respuesta) {
+                    if (cancelada) {
+                        return;
+                    }
+                    accessToken = renovador.getToken();
+                    registrarEnvio(modo, bytes, SystemClock.elapsedRealtime() - inicio, true);
+                    registrarResiliencia();
+                    ejecutarJS("onValidacionNativa('" + escapeJS(respuesta.toString()) + "','"
+                        + escapeJS(accessToken) + "')");
+                }
+                
+                @Override
+                public void onError(BiometriaException error) {
+                    if (cancelada) {
+                        return;
+                    }
+                    registrarResiliencia();
+                    if (BiometriaHttpClient.CIRCUIT_OPEN.equals(error.getCodigo())) {
+                        // El endpoint esta caido: se termina la validacion sin consumir mas intentos
+                        ejecutarJS("sendError('" + error.getCodigo() + "','" + escapeJS(error.getMessage()) + "')");
+                        return;
+                    }
+                    // Solo los envios que llegaron al servidor sirven para estimar el ancho de banda
+                    registrarEnvio(modo, bytes, SystemClock.elapsedRealtime() - inicio,
+                        !"NETWORK_ERROR".equals(error.getCodigo()));
+                    if (copia != null && "NETWORK_ERROR".equals(error.getCodigo())) {
+                        encolar(copia, tipoMime);
+                        return;
+                    }
+                    ejecutarJS("onValidacionNativaError('" + escapeJS(error.getMessage()) + "',"
+                        + error.esTransitorio() + ")");
+                }
+            });
+    }
+    
+    /**
+     * Agrega una persona a la fila del kiosco; si la pantalla la esperaba, empieza su captura
+     */
+    private synchronized void agregarPersona(Persona persona) {
+        if (terminandoKiosco) {
+            return;
+        }
+        personas.add(persona);
+        if (esperandoPersona) {
+            entregarSiguientePersona();
+        }
+    }
+    
+    /**
+     * Pasa a la siguiente persona de la fila o, si no hay, queda esperando con la camara abierta
+     */
+    private synchronized void entregarSiguientePersona() {
+        if (terminandoKiosco || personaActual != null) {
+            return;
+        }
+        Persona persona = personas.poll();
+        if (persona == null) {
+            esperandoPersona = true;
+            return;
+        }
+        esperandoPersona = false;
+        persona.inicio = SystemClock.elapsedRealtime();
+        personaActual = persona;
+        Log.d(TAG, "Kiosco: persona " + persona.id);
+        ejecutarJS("onPersonaKiosco('" + escapeJS(persona.cedula) + "')");
+    }
+    
+    /**
+     * Toma la persona a la que pertenece la foto aceptada; cuenta como envio en curso hasta entregar su resultado
+     */
+    private synchronized Persona tomarPersonaActual() {
+        Persona persona = personaActual;
+        personaActual = null;
+        if (persona != null) {
+            persona.captura = SystemClock.elapsedRealtime();
+            enviosKiosco++;
+        }
+        return persona;
+    }
+    
+    /**
+     * Envia la foto de una persona del kiosco con el token de la cache (renovado en segundo plano)
+     */
+    private void enviarImagenKiosco(final Persona persona, final ImagenJpeg imagen) {
+        // Sin MetricasEtapas: los envios se superponen; cada resultado lleva sus propios tiempos
+        EnextBiometria.getTokenCache().obtener(tokenEndpoint, username, password,
+            new BiometriaHttpClient.Callback<TokenCache.Resultado>() {
+                @Override
+                public void onExito(final TokenCache.Resultado token) {
+                    BiometriaHttpClient client = EnextBiometria.getHttpClient();
+                    final String modo = client.modoEfectivo(biometriaEndpoint, modoEnvio);
+                    final int bytes = imagen.getLongitud();
+                    final long inicio = SystemClock.elapsedRealtime();
+                    final TokenCache.Renovador renovador = EnextBiometria.getTokenCache()
+                        .renovador(tokenEndpoint, username, password, token.token);
+                    client.validarBiometria(biometriaEndpoint, persona.cedula, persona.codDactilar, token.token, imagen,
+                        modoEnvio, sesionId, renovador, new BiometriaHttpClient.Callback<JSONObject>() {
+                            @Override
+                            public void onExito(JSONObject respuesta) {
+                                registrarEnvio(modo, bytes, SystemClock.elapsedRealtime() - inicio, true);
+                                entregarResultadoKiosco(persona, renovador.getToken(), respuesta, null, inicio);
+                            }
+                            
+                            @Override
+                            public void onError(BiometriaException error) {
+                                if (!BiometriaHttpClient.CIRCUIT_OPEN.equals(error.getCodigo())) {
+                                    registrarEnvio(modo, bytes, SystemClock.elapsedRealtime() - inicio,
+                                        !"NETWORK_ERROR".equals(error.getCodigo()));
+                                }
+                                entregarResultadoKiosco(persona, null, null, error, inicio);
+                            }
+                        });
+                }
+                
+                @Override
+                public void onError(BiometriaException error) {
+                    imagen.liberar();
+                    entregarResultadoKiosco(persona, null, null, error, 0);
+                }
+            });
+    }
+    
+    /**
+     * Entrega al plugin el resultado de una persona del kiosco y, si se pidio terminar y era el
+     * ultimo envio en curso, cierra la pantalla
+     */
+    private void entregarResultadoKiosco(Persona persona, String token, JSONObject respuesta,
+                                         BiometriaException error, long inicioSubida) {
+        if (cancelada) {
+            return;
+        }
+        long ahora = SystemClock.elapsedRealtime();
+        try {
+            JSONObject resultado = new JSONObject();
+            resultado.put("tipo", "resultado");
+            resultado.put("sesionId", sesionId);
+            resultado.put("personaId", persona.id);
+            resultado.put("cedula", persona.cedula);
+            resultado.put("exito", error == null);
+            if (error == null) {
+                resultado.put("accessToken", token);
+                resultado.put("biometricData", ResultadoValidacion.datosBiometricos(respuesta));
+            } else {
+                resultado.put("code", error.getCodigo());
+                resultado.put("message", error.getMessage());
+            }
+            resultado.put("timestamp", System.currentTimeMillis());
+            JSONObject tiempos = new JSONObject();
+            tiempos.put("capturaMs", persona.captura - persona.inicio);
+            tiempos.put("subidaMs", inicioSubida > 0 ? ahora - inicioSubida : 0);
+            tiempos.put("totalMs", ahora - persona.inicio);
+            resultado.put("tiempos", tiempos);
+            
+            Bundle datos = new Bundle();
+            datos.putString("resultado", resultado.toString());
+            resultadosKiosco.send(Kiosco.RESULTADO, datos);
+        } catch (JSONException e) {
+            Log.e(TAG, "Error al crear resultado de kiosco: " + e.getMessage());
+        }
+        boolean cerrar;
+        synchronized (this) {
+            enviosKiosco--;
+            cerrar = terminandoKiosco && enviosKiosco == 0;
+        }
+        if (cerrar) {
+            finalizarKiosco();
+        }
+    }
+    
+    /**
+     * Fin del kiosco pedido por el plugin: descarta las personas sin capturar, detiene la camara
+     * y cierra la pantalla al terminar los envios en curso
+     */
+    private void terminarKiosco() {
+        int descartadas;
+        boolean cerrar;
+        synchronized (this) {
+            if (terminandoKiosco) {
+                return;
+            }
+            terminandoKiosco = true;
+            descartadas = personas.size() + (personaActual != null ? 1 : 0);
+            descartadasKiosco = descartadas;
+            personas.clear();
+            personaActual = null;
+            cerrar = enviosKiosco == 0;
+        }
+        Log.d(TAG, "Terminando kiosco, " + descartadas + " personas sin capturar");
+        ejecutarJS("stopCamera()");
+        if (cerrar) {
+            finalizarKiosco();
+        }
+    }
+    
+    private void finalizarKiosco() {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                cerrarCamaraNativa();
+                Intent resultIntent = new Intent();
+                resultIntent.putExtra("sesionId", sesionId);
+                resultIntent.putExtra("descartadas", descartadasKiosco);
+                resultIntent.putExtra("diagnostico", cerrarDiagnostico());
+                resultIntent.putExtra("metricas", metricas.toJSON().toString());
+                terminar(Activity.RESULT_OK, resultIntent);
+            }
+        });
+    }
+    
+    /**
+     * Guarda la validacion en la cola persistente (en segundo plano) y cierra la pantalla con QUEUED.
+     * El resultado llega despues por escucharCola() con el idCola informado.
+     */
+    private void encolar(final byte[] imagen, final String tipoMime) {
+        procesamiento.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (cancelada) {
+                    return;
+                }
+                try {
+                    JSONObject datos = new JSONObject();
+                    datos.put("sesionId", sesionId);
+                    datos.put("cedula", cedula);
+                    datos.put("codDactilar", codDactilar);
+                    datos.put("tokenEndpoint", tokenEndpoint);
+                    datos.put("biometriaEndpoint", biometriaEndpoint);
+                    datos.put("username", username);
+                    datos.put("modoEnvio", modoEnvio);
+                    datos.put("tipoMime", tipoMime);
+                    if (canalResultado != null) {
+                        encolarEnApp(datos, imagen);
+                        return;
+                    }
+                    String idCola = EnextBiometria.getColaOffline(BiometriaActivity.this).encolar(datos, imagen, imagen.length);
+                    terminarEncolada(idCola);
+                } catch (IOException | JSONException e) {
+                    Log.e(TAG, "No se pudo encolar la validacion: " + e.getMessage());
+                    ejecutarJS("onValidacionNativaError('Sin conexion y no se pudo guardar la foto')");
+                }
+            }
+        });
+    }
+    
+    /**
+     * En el proceso ':biometria' la validacion se encola en el proceso de la app, unico que escribe
+     * el journal de la cola; la pantalla se cierra con QUEUED cuando responde con el idCola
+     */
+    private void encolarEnApp(JSONObject datos, byte[] imagen) {
+        Bundle solicitud = new Bundle();
+        solicitud.putString("datos", datos.toString());
+        solicitud.putByteArray("imagen", imagen);
+        solicitud.putParcelable("respuesta", new ResultReceiver(null) {
+            @Override
+            protected void onReceiveResult(int codigo, Bundle resultado) {
+                if (codigo == CanalResultado.ENCOLADA) {
+                    terminarEncolada(resultado.getString("idCola"));
+                } else {
+                    ejecutarJS("onValidacionNativaError('Sin conexion y no se pudo guardar la foto')");
+                }
+            }
+        });
+        canalResultado.send(CanalResultado.ENCOLAR, solicitud);
+    }
+    
+    private void terminarEncolada(final String idCola) {
+        Log.d(TAG, "Validacion encolada: " + idCola);
+        synchronized (this) {
+            try {
+                diagnostico.put("encolada", idCola);
+            } catch (JSONException e) {
+                Log.e(TAG, "Error al registrar encolado: " + e.getMessage());
+            }
+        }
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                cerrarCamaraNativa();
+                Intent resultIntent = new Intent();
+                resultIntent.putExtra("sesionId", sesionId);
+                resultIntent.putExtra("errorCode", "QUEUED");
+                resultIntent.putExtra("errorMessage", "Sin conexion, la validacion se enviara al recuperar la red");
+                resultIntent.putExtra("idCola", idCola);
+                resultIntent.putExtra("diagnostico", cerrarDiagnostico());
+                resultIntent.putExtra("metricas", metricas.toJSON().toString());
+                terminar(Activity.RESULT_CANCELED, resultIntent);
+            }
+        });
+    }
+    
+    /**
+     * Registra el modo, el tamano de la imagen y la duracion de un envio
+     */
+    private synchronized void registrarEnvio(String modo, int bytes, long duracionMs, boolean completo) {
+        if (completo) {
+            long bytesCuerpo = CuerpoValidacion.MODO_JSON.equals(modo) ? CodificadorBase64.longitud(bytes) : bytes;
+            EnextBiometria.getEstimadorRed().registrarEnvio(bytesCuerpo, duracionMs);
+        }
+        try {
+            JSONObject envio = new JSONObject();
+            envio.put("modo", modo);
+            envio.put("bytesImagen", bytes);
+            envio.put("duracionMs", duracionMs);
+            
+            JSONArray envios = diagnostico.optJSONArray("envios");
+            if (envios == null) {
+                envios = new JSONArray();
+                diagnostico.put("envios", envios);
+            }
+            envios.put(envio);
+        } catch (JSONException e) {
+            Log.e(TAG, "Error al registrar envio: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Registra el tiempo de captura y el pico de memoria observado hasta el momento.
+     * buffersAsignados es -1 si no se conoce (captura en el WebView)
+     */
+    private synchronized void registrarCaptura(String modo, long tiempoMs, int bytes, int buffersAsignados) {
+        metricas.marcar(MetricasEtapas.CAPTURA);
+        muestrearHeap();
+        try {
+            JSONObject captura = new JSONObject();
+            captura.put("modo", modo);
+            captura.put("tiempoCapturaMs", tiempoMs);
+            captura.put("bytes", bytes);
+            if (buffersAsignados >= 0) {
+                captura.put("buffersAsignados", buffersAsignados);
+            }
+            if (disparo != null) {
+                captura.put("disparo", disparo);
+                captura.put("esperaMs", esperaDisparoMs);
+                disparo = null;
+            }
+            
+            JSONArray capturas = diagnostico.optJSONArray("capturas");
+            if (capturas == null) {
+                capturas = new JSONArray();
+                diagnostico.put("capturas", capturas);
+            }
+            capturas.put(captura);
+            diagnostico.put("modoCaptura", modo);
+            diagnostico.put("heapPicoBytes", heapPicoBytes);
+            if (detectorRostro != null) {
+                diagnostico.put("deteccionRostro", detectorRostro.getMetricas());
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "Error al registrar captura: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Registra las metricas por cuadro de una rafaga (puntaje, tiempo de evaluacion y cuadro elegido)
+     */
+    private synchronized void registrarRafaga(JSONArray cuadros) {
+        if (cuadros == null) {
+            return;
+        }
+        try {
+            JSONArray rafagas = diagnostico.optJSONArray("rafagas");
+            if (rafagas == null) {
+                rafagas = new JSONArray();
+                diagnostico.put("rafagas", rafagas);
+            }
+            rafagas.put(cuadros);
+        } catch (JSONException e) {
+            Log.e(TAG, "Error al registrar rafaga: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Registra que disparo la captura ('rostro' o 'temporizador') y cuanto se espero desde el boton
+     */
+    private synchronized void registrarDisparo(String disparo, long esperaMs) {
+        this.disparo = disparo;
+        this.esperaDisparoMs = esperaMs;
+    }
+    
+    /**
+     * Actualiza el pico de memoria (heap Java + heap nativo) del proceso y pide una muestra de PSS
+     */
+    private synchronized void muestrearHeap() {
+        monitorPss.muestrear();
+        Runtime runtime = Runtime.getRuntime();
+        long usado = runtime.totalMemory() - runtime.freeMemory() + Debug.getNativeHeapAllocatedSize();
+        if (usado > heapPicoBytes) {
+            heapPicoBytes = usado;
+        }
+    }
+    
+    /**
+     * Agrega al diagnostico el uso de memoria de la pantalla y lo retorna serializado para el resultado
+     */
+    private synchronized String cerrarDiagnostico() {
+        try {
+            JSONObject memoria = new JSONObject();
+            memoria.put("procesoSeparado", canalResultado != null);
+            memoria.put("pssPicoUiKb", monitorPss.getPicoKb());
+            memoria.put("recortes", recortesMemoria);
+            if (recortesMemoria > 0) {
+                memoria.put("nivelMaximo", nivelMemoriaMaximo);
+                memoria.put("resolucionReducida", resolucionReducida);
+            }
+            diagnostico.put("memoria", memoria);
+        } catch (JSONException e) {
+            Log.e(TAG, "Error al registrar memoria: " + e.getMessage());
+        }
+        return diagnostico.toString();
+    }
+    
+    /**
+     * Entrega el resultado al plugin y cierra la pantalla. En el proceso ':biometria' el resultado
+     * completo viaja por el canal y setResult() solo lleva el aviso
+     */
+    private void terminar(int codigo, Intent resultIntent) {
+        if (canalResultado != null) {
+            canalResultado.send(codigo, resultIntent.getExtras());
+            Intent aviso = new Intent();
+            aviso.putExtra("sesionId", sesionId);
+            aviso.putExtra(CanalResultado.EXTRA_ENTREGADO, true);
+            resultIntent = aviso;
+        }
+        setResult(codigo, resultIntent);
+        finish();
+    }
+    
+    /**
+     * Ejecuta JavaScript en el WebView desde cualquier hilo
+     */
+    private void ejecutarJS(final String js) {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                if (webView != null) {
+                    webView.evaluateJavascript(js, null);
+                }
+            }
+        });
     }
 
     /**
-     * Retorna el contenido HTML completo de la interfaz de usuario.
-     * Incluye CSS y JavaScript inline para evitar dependencias de archivos externos.
-     */
-    private String getHtmlContent() {
-        return "<!DOCTYPE html><html><head>" +
-            "<meta charset=\"utf-8\">" +
-            "<meta name=\"viewport\" content=\"initial-scale=1, width=device-width, viewport-fit=cover, user-scalable=no\">" +
-            "<meta http-equiv=\"Content-Security-Policy\" content=\"default-src * 'unsafe-inline' 'unsafe-eval' data: blob:;\">" +
-            "<title>Validacion Biometrica</title>" +
-            "<style>" +
-            // Estilos CSS
-            "*{box-sizing:border-box}body{font-family:-apple-system,BlinkMacSystemFont,'Segoe UI',Roboto,sans-serif;margin:0;padding:0;height:100vh;width:100vw;overflow:hidden;background:#000;color:#333}" +
-            ".page{display:none;position:absolute;top:0;left:0;width:100%;height:100%;background:#f0f2f5}.page.active{display:flex;flex-direction:column;justify-content:center;align-items:center}" +
-            ".content{text-align:center;padding:20px}button{padding:15px;border:none;border-radius:8px;background:#007aff;color:#fff;font-size:1.1rem;font-weight:bold;cursor:pointer}" +
-            "button:disabled{background:#999}#cameraPage{background:#000}" +
-            ".branding-bg{width:100%;height:100%;background:linear-gradient(180deg,#1a237e 0%,#0d47a1 30%,#1565c0 60%,#1976d2 100%);position:relative;display:flex;flex-direction:column;justify-content:center;align-items:center;padding:20px;box-sizing:border-box}" +
-            "#closeCameraBtn{position:absolute;top:15px;left:15px;z-index:20;background:rgba(0,0,0,0.3);border-radius:50%;width:44px;height:44px;font-size:1.5rem;display:flex;align-items:center;justify-content:center;border:none;color:#fff}" +
-            ".camera-title{color:#fff;font-size:1.5rem;font-weight:600;text-shadow:1px 1px 3px rgba(0,0,0,0.4);margin:0 0 15px}" +
-            ".camera-circle{position:relative;width:min(80vw,340px);height:min(80vw,340px);margin:0 auto 10px;border-radius:50%;overflow:hidden;border:4px solid #ffd800;background:#000;display:flex;align-items:center;justify-content:center}" +
-            ".camera-circle::before{content:'';position:absolute;top:-4px;left:-4px;right:-4px;bottom:-4px;border-radius:50%;background:conic-gradient(transparent 0deg,transparent 0deg);z-index:1}" +
-            ".camera-circle.timer-active::before{animation:draw-border 3s linear forwards}" +
-            "@keyframes draw-border{0%{background:conic-gradient(orange 0deg,transparent 0deg)}100%{background:conic-gradient(orange 360deg,transparent 0deg)}}" +
-            ".camera-circle video{width:100%;height:100%;object-fit:cover;z-index:2;position:relative;transform:scaleX(-1)}" +
-            ".camera-bottom-container{height:70px;width:100%;display:flex;align-items:center;justify-content:center;flex-direction:column}" +
-            ".camera-subtitle{color:#fff;font-size:1rem;margin:0}" +
-            "#capture-progress-container{text-align:center;color:#fff;width:100%;display:none}" +
-            "#capture-progress-container p{font-size:1rem;margin-bottom:10px}" +
-            ".progress-bar-outline{width:80%;max-width:300px;height:10px;border:1px solid #fff;border-radius:5px;margin:0 auto;overflow:hidden}" +
-            ".progress-bar-inner{height:100%;width:0;background:#3498db;border-radius:5px}.progress-bar-inner.animating{transition:width 3s linear}" +
-            ".camera-controls{display:flex;justify-content:center;margin-top:15px}" +
-            "#startCaptureBtn{width:auto;padding:12px 40px;font-size:1.2rem;font-weight:600;border-radius:30px;border:2px solid #fff;background:#3498db;box-shadow:0 4px 8px rgba(0,0,0,0.2)}" +
-            "#startCaptureBtn:disabled{background:#95a5a6}" +
-            "#retry-container{display:none;flex-direction:column;align-items:center;margin-top:15px}" +
-            "#retryBtn{padding:12px 28px;background:#d35400;color:#fff;border-radius:6px;border:none;width:auto}" +
-            ".popup{display:none;position:absolute;bottom:50%;left:50%;transform:translate(-50%,200%);background:rgba(0,0,0,0.8);color:#fff;padding:15px 25px;border-radius:10px;z-index:100;text-align:center;flex-direction:column}" +
-            ".spinner{display:none;margin:10px auto 0;border:4px solid rgba(255,255,255,0.3);border-radius:50%;border-top:4px solid #fff;width:30px;height:30px;animation:spin 1s linear infinite}" +
-            "@keyframes spin{0%{transform:rotate(0deg)}100%{transform:rotate(360deg)}}" +
-            ".result-page{display:flex;flex-direction:column;justify-content:center;align-items:center;height:100%;background:#f0f2f5}" +
-            ".result-page h1{font-size:1.8rem;margin:10px 0 5px;color:#333}.result-page p{margin-bottom:10px;color:#666}" +
-            ".result-icon{font-size:40px;width:70px;height:70px;line-height:70px;border-radius:50%;display:flex;align-items:center;justify-content:center}" +
-            ".result-icon.success{background:#34c759;color:#fff}.result-icon.failure{background:#ff3b30;color:#fff}" +
-            ".go-home-btn{margin-top:20px;width:auto;padding:15px 40px}" +
-            ".token-container{word-wrap:break-word;background:#f0f0f0;border-radius:8px;padding:10px 15px;margin:10px 0;width:90%;max-width:500px;text-align:left;color:#333}" +
-            ".token-container p{margin:0 0 5px;font-size:0.9rem;font-weight:600}" +
-            ".token-container code{display:block;background:#e0e0e0;padding:8px;border-radius:4px;font-family:monospace;font-size:0.75rem;word-break:break-all;max-height:80px;overflow-y:auto}" +
-            ".button-group{display:flex;gap:10px;justify-content:center;width:90%;max-width:500px;margin-top:15px}.button-group button{flex:1}" +
-            ".biometric-data{display:grid;grid-template-columns:auto 1fr;gap:5px 12px;padding-top:5px;font-size:0.8rem}" +
-            ".biometric-data strong{text-transform:capitalize;color:#555;font-weight:600}.biometric-data span{color:#111}" +
-            "#loadingPage{background:linear-gradient(180deg,#1a237e 0%,#0d47a1 30%,#1565c0 60%,#1976d2 100%)}#loadingPage .content{color:#fff}" +
-            ".loading-spinner{border:4px solid rgba(255,255,255,0.3);border-radius:50%;border-top:4px solid #ffd800;width:50px;height:50px;animation:spin 1s linear infinite;margin:20px auto}" +
-            "</style></head><body>" +
-            // HTML de la interfaz
-            "<div id=\"loadingPage\" class=\"page active\"><div class=\"content\"><div class=\"loading-spinner\"></div><h2>Iniciando...</h2><p id=\"loadingMessage\">Generando token...</p></div></div>" +
-            "<div id=\"cameraPage\" class=\"page\"><div class=\"branding-bg\"><button id=\"closeCameraBtn\">←</button><h2 class=\"camera-title\">Valida tu identidad</h2>" +
-            "<div class=\"camera-circle\" id=\"cameraCircle\"><video id=\"cameraPreview\" autoplay playsinline muted></video></div>" +
-            "<div class=\"camera-bottom-container\"><p class=\"camera-subtitle\" id=\"cameraSubtitle\">Coloca tu rostro en el circulo</p>" +
-            "<div id=\"capture-progress-container\"><p>Capturando rostro...</p><div class=\"progress-bar-outline\"><div id=\"capture-progress-bar\" class=\"progress-bar-inner\"></div></div></div></div>" +
-            "<div class=\"camera-controls\" id=\"cameraControls\"><button id=\"startCaptureBtn\">Validar</button></div>" +
-            "<div id=\"camera-popup\" class=\"popup\"><p id=\"camera-popup-message\"></p><div class=\"spinner\" id=\"popupSpinner\"></div></div>" +
-            "<div id=\"retry-container\"><button id=\"retryBtn\">Intentar de Nuevo</button></div></div></div>" +
-            "<div id=\"successPage\" class=\"page\"><div class=\"content result-page\"><div class=\"result-icon success\">OK</div><h1>Validacion Exitosa</h1><p>El proceso se completo correctamente.</p>" +
-            "<div class=\"token-container\" id=\"biometricDataContainer\" style=\"display:none\"><p>Datos del Ciudadano:</p><div id=\"biometricDataDisplay\" class=\"biometric-data\"></div></div>" +
-            "<div class=\"token-container\"><p>Access Token:</p><code id=\"accessTokenDisplay\">(Token)</code></div>" +
-            "<div class=\"button-group\"><button class=\"go-home-btn\" id=\"successBtn\">Continuar</button></div></div></div>" +
-            "<div id=\"failurePage\" class=\"page\"><div class=\"content result-page\"><div class=\"result-icon failure\">X</div><h1>Validacion Fallida</h1><p id=\"failureMessage\">No se pudo completar.</p>" +
-            "<div class=\"button-group\"><button class=\"go-home-btn\" id=\"retryValidationBtn\">Reintentar</button><button class=\"go-home-btn\" id=\"cancelBtn\" style=\"background:#ff3b30\">Cancelar</button></div></div></div>" +
-            "<script>" +
-            // JavaScript de la logica
-            "var config=null,validationAttempts=0,MAX_ATTEMPTS=3,cameraStream=null,accessToken=null,pages={},cameraPage={};" +
-            "document.addEventListener('DOMContentLoaded',function(){initDOMElements();setTimeout(tryGetConfig,100)});" +
-            "function onConfigReady(){if(window.BIOMETRIA_CONFIG){config=window.BIOMETRIA_CONFIG;startProcess()}}" +
-            "function tryGetConfig(){if(window.AndroidBiometria){try{var c=AndroidBiometria.getConfig();config=JSON.parse(c);startProcess();return}catch(e){}}if(window.BIOMETRIA_CONFIG){config=window.BIOMETRIA_CONFIG;startProcess();return}setTimeout(tryGetConfig,200)}" +
-            "function initDOMElements(){pages.loading=document.getElementById('loadingPage');pages.camera=document.getElementById('cameraPage');pages.success=document.getElementById('successPage');pages.failure=document.getElementById('failurePage');" +
-            "cameraPage.video=document.getElementById('cameraPreview');cameraPage.closeBtn=document.getElementById('closeCameraBtn');cameraPage.popup=document.getElementById('camera-popup');cameraPage.popupMessage=document.getElementById('camera-popup-message');" +
-            "cameraPage.spinner=document.getElementById('popupSpinner');cameraPage.retryContainer=document.getElementById('retry-container');cameraPage.retryBtn=document.getElementById('retryBtn');cameraPage.startCaptureBtn=document.getElementById('startCaptureBtn');" +
-            "cameraPage.cameraControls=document.getElementById('cameraControls');cameraPage.progressContainer=document.getElementById('capture-progress-container');cameraPage.progressBar=document.getElementById('capture-progress-bar');" +
-            "cameraPage.subtitle=document.getElementById('cameraSubtitle');cameraPage.cameraCircle=document.getElementById('cameraCircle');" +
-            "if(cameraPage.closeBtn)cameraPage.closeBtn.addEventListener('click',cancelValidation);if(cameraPage.startCaptureBtn)cameraPage.startCaptureBtn.addEventListener('click',runCaptureSequence);if(cameraPage.retryBtn)cameraPage.retryBtn.addEventListener('click',runCaptureSequence);" +
-            "var s=document.getElementById('successBtn');if(s)s.addEventListener('click',completeSuccess);var r=document.getElementById('retryValidationBtn');if(r)r.addEventListener('click',retryFromFailure);var c=document.getElementById('cancelBtn');if(c)c.addEventListener('click',cancelValidation)}" +
-            "function startProcess(){if(!config){sendError('CONFIG_ERROR','No config');return}showPage('loading');updateLoadingMessage('Generando token...');fetchAuthToken()}" +
-            "function fetchAuthToken(){var xhr=new XMLHttpRequest();xhr.open('POST',config.tokenEndpoint,true);xhr.setRequestHeader('Content-Type','application/json');" +
-            "xhr.onreadystatechange=function(){if(xhr.readyState===4){if(xhr.status===200){try{var d=JSON.parse(xhr.responseText);if(d.access_token){accessToken=d.access_token;updateLoadingMessage('Iniciando camara...');setTimeout(startCamera,500)}else{sendError('TOKEN_ERROR','Token invalido')}}catch(e){sendError('TOKEN_PARSE_ERROR','Respuesta invalida')}}else{sendError('TOKEN_REQUEST_ERROR','No se pudo obtener token')}}};" +
-            "xhr.onerror=function(){sendError('TOKEN_NETWORK_ERROR','Error de red')};xhr.send(JSON.stringify({username:config.username,password:config.password}))}" +
-            "function startCamera(){showPage('camera');if(cameraStream)stopCamera();cameraPage.startCaptureBtn.style.display='block';cameraPage.startCaptureBtn.disabled=false;cameraPage.retryContainer.style.display='none';cameraPage.progressContainer.style.display='none';cameraPage.subtitle.style.display='block';cameraPage.cameraControls.style.display='flex';hideCameraPopup();" +
-            "navigator.mediaDevices.getUserMedia({video:{facingMode:'user',width:{ideal:1280},height:{ideal:720}},audio:false}).then(function(s){cameraStream=s;cameraPage.video.srcObject=s}).catch(function(e){sendError('CAMERA_ERROR','No se pudo acceder a la camara')})}" +
-            "function stopCamera(){if(cameraStream){cameraStream.getTracks().forEach(function(t){t.stop()});cameraStream=null}}" +
-            "function runCaptureSequence(){cameraPage.startCaptureBtn.style.display='none';cameraPage.cameraControls.style.display='none';cameraPage.retryContainer.style.display='none';cameraPage.subtitle.style.display='none';cameraPage.progressContainer.style.display='block';" +
-            "cameraPage.progressBar.classList.remove('animating');cameraPage.progressBar.style.width='0%';void cameraPage.progressBar.offsetWidth;cameraPage.progressBar.classList.add('animating');cameraPage.progressBar.style.width='100%';" +
-            "cameraPage.cameraCircle.classList.remove('timer-active');void cameraPage.cameraCircle.offsetWidth;cameraPage.cameraCircle.classList.add('timer-active');" +
-            "setTimeout(function(){cameraPage.progressContainer.style.display='none';cameraPage.progressBar.classList.remove('animating');cameraPage.progressBar.style.width='0%';cameraPage.cameraCircle.classList.remove('timer-active');takeAndProcessPhoto()},3000)}" +
-            "function takeAndProcessPhoto(){showCameraPopup('Validando foto...',true);var v=cameraPage.video;if(!v.srcObject){handleApiFailure('Camara no activa');return}" +
-            "var c=document.createElement('canvas');c.width=v.videoWidth;c.height=v.videoHeight;var ctx=c.getContext('2d');ctx.drawImage(v,0,0,c.width,c.height);var b64=c.toDataURL('image/jpeg',0.85);validationAttempts++;" +
-            "var xhr=new XMLHttpRequest();xhr.open('POST',config.biometriaEndpoint,true);xhr.setRequestHeader('Content-Type','application/json');" +
-            "xhr.onreadystatechange=function(){if(xhr.readyState===4){if(xhr.status===200){try{var r=JSON.parse(xhr.responseText);if(r.status==='success'){handleBiometricSuccess(r)}else{handleApiFailure(r.message||'Validacion fallida')}}catch(e){handleApiFailure('Respuesta invalida')}}else{var msg='Error del servidor';try{var er=JSON.parse(xhr.responseText);if(er&&er.message)msg=er.message}catch(e){}handleApiFailure(msg)}}};" +
-            "xhr.onerror=function(){handleApiFailure('Error de red')};xhr.send(JSON.stringify({cedula:config.cedula,cod_dactilar:config.codDactilar,img_base64:b64.split(',')[1],token:accessToken}))}" +
-            "function handleBiometricSuccess(data){stopCamera();var bd=data.datos_RC||data;document.getElementById('accessTokenDisplay').textContent=accessToken;" +
-            "var cont=document.getElementById('biometricDataContainer'),disp=document.getElementById('biometricDataDisplay');if(bd&&typeof bd==='object'){var h='';for(var k in bd){if(bd.hasOwnProperty(k)){var fk=k.replace(/([A-Z])/g,' $1');fk=fk.charAt(0).toUpperCase()+fk.slice(1);h+='<strong>'+fk+':</strong> <span>'+bd[k]+'</span>'}}if(h){disp.innerHTML=h;cont.style.display='block'}}" +
-            "showPage('success');window.validationResult={accessToken:accessToken,biometricData:bd,timestamp:new Date().toISOString()}}" +
-            "function completeSuccess(){if(window.AndroidBiometria&&window.validationResult){AndroidBiometria.onSuccess(window.validationResult.accessToken,JSON.stringify(window.validationResult.biometricData),window.validationResult.timestamp)}}" +
-            "function handleApiFailure(msg){hideCameraPopup();if(validationAttempts>=MAX_ATTEMPTS){stopCamera();document.getElementById('failureMessage').textContent=msg;showPage('failure')}else{showCameraPopup(msg+'\\nIntento '+validationAttempts+'/'+MAX_ATTEMPTS,false);setTimeout(function(){hideCameraPopup();cameraPage.retryContainer.style.display='flex';cameraPage.startCaptureBtn.style.display='none';cameraPage.cameraControls.style.display='none';cameraPage.progressContainer.style.display='none';cameraPage.subtitle.style.display='block'},4000)}}" +
-            "function retryFromFailure(){validationAttempts=0;showPage('loading');updateLoadingMessage('Reiniciando...');setTimeout(startCamera,500)}" +
-            "function cancelValidation(){stopCamera();if(window.AndroidBiometria)AndroidBiometria.onCancel()}" +
-            "function sendError(code,msg){stopCamera();if(window.AndroidBiometria)AndroidBiometria.onError(code,msg)}" +
-            "function showPage(id){for(var k in pages){if(pages[k])pages[k].classList.remove('active')}if(pages[id])pages[id].classList.add('active')}" +
-            "function updateLoadingMessage(msg){var el=document.getElementById('loadingMessage');if(el)el.textContent=msg}" +
-            "function showCameraPopup(msg,spin){cameraPage.popupMessage.textContent=msg;cameraPage.spinner.style.display=spin?'block':'none';cameraPage.popup.style.display='flex'}" +
-            "function hideCameraPopup(){if(cameraPage.popup)cameraPage.popup.style.display='none'}" +
-            "</script></body></html>";
+     * Escapa caracteres especiales para JavaScript
+     */
+    private String escapeJS(String str) {
+        return TextoJS.escapar(str);
     }
 
     /**
@@ -342,11 +1373,13 @@ public class BiometriaActivity extends Activity {
         public void onSuccess(String accessToken, String biometricData, String timestamp) {
             Log.d(TAG, "Validacion exitosa");
             Intent resultIntent = new Intent();
+            resultIntent.putExtra("sesionId", sesionId);
             resultIntent.putExtra("accessToken", accessToken);
             resultIntent.putExtra("biometricData", biometricData);
             resultIntent.putExtra("timestamp", timestamp);
-            setResult(Activity.RESULT_OK, resultIntent);
-            finish();
+            resultIntent.putExtra("diagnostico", cerrarDiagnostico());
+            resultIntent.putExtra("metricas", metricas.toJSON().toString());
+            terminar(Activity.RESULT_OK, resultIntent);
         }
         
         /**
@@ -356,10 +1389,12 @@ public class BiometriaActivity extends Activity {
         public void onError(String errorCode, String errorMessage) {
             Log.d(TAG, "Error: " + errorCode + " - " + errorMessage);
             Intent resultIntent = new Intent();
+            resultIntent.putExtra("sesionId", sesionId);
             resultIntent.putExtra("errorCode", errorCode);
             resultIntent.putExtra("errorMessage", errorMessage);
-            setResult(Activity.RESULT_CANCELED, resultIntent);
-            finish();
+            resultIntent.putExtra("diagnostico", cerrarDiagnostico());
+            resultIntent.putExtra("metricas", metricas.toJSON().toString());
+            terminar(Activity.RESULT_CANCELED, resultIntent);
         }
         
         /**
@@ -368,29 +1403,98 @@ public class BiometriaActivity extends Activity {
         @JavascriptInterface
         public void onCancel() {
             Log.d(TAG, "Validacion cancelada por el usuario");
-            setResult(Activity.RESULT_CANCELED);
-            finish();
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    cancelarSesion();
+                }
+            });
         }
         
         /**
-         * Retorna la configuracion como JSON para el JavaScript
+         * Solicita el token; el resultado llega a onTokenNativo() u onTokenNativoError()
          */
         @JavascriptInterface
-        public String getConfig() {
-            try {
-                JSONObject config = new JSONObject();
-                config.put("cedula", cedula);
-                config.put("codDactilar", codDactilar);
-                config.put("tokenEndpoint", tokenEndpoint);
-                config.put("biometriaEndpoint", biometriaEndpoint);
-                config.put("username", username);
-                config.put("password", password);
-                return config.toString();
-            } catch (Exception e) {
-                Log.e(TAG, "Error al crear configuracion JSON: " + e.getMessage());
-                return "{}";
+        public void solicitarToken() {
+            BiometriaActivity.this.solicitarToken();
+        }
+        
+        /**
+         * Envia una foto capturada en el WebView; el resultado llega a onValidacionNativa()
+         * u onValidacionNativaError()
+         */
+        @JavascriptInterface
+        public void enviarFoto(String imagenBase64) {
+            enviarFotoWebView(ImagenJpeg.desdeBase64(imagenBase64));
+        }
+        
+        /**
+         * Abre la camara nativa con la vista previa en la posicion indicada (pixeles fisicos)
+         */
+        @JavascriptInterface
+        public void iniciarCamaraNativa(final float x, final float y, final float ancho, final float alto) {
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    abrirCamaraNativa(Math.round(x), Math.round(y), Math.round(ancho), Math.round(alto));
+                }
+            });
+        }
+        
+        /**
+         * Detiene la camara nativa
+         */
+        @JavascriptInterface
+        public void detenerCamaraNativa() {
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    cerrarCamaraNativa();
+                }
+            });
+        }
+        
+        /**
+         * Captura una foto con la camara nativa; el resultado llega a onFotoAceptada() u onCalidadRechazada()
+         */
+        @JavascriptInterface
+        public void capturarFotoNativa() {
+            BiometriaActivity.this.capturarFotoNativa();
+        }
+        
+        /**
+         * Registra la metrica de una captura hecha desde el WebView
+         */
+        @JavascriptInterface
+        public void registrarCaptura(String modo, int tiempoMs, int bytes) {
+            BiometriaActivity.this.registrarCaptura(modo, tiempoMs, bytes, -1);
+        }
+        
+        /**
+         * Marca una etapa medida en el JavaScript (camara y primer cuadro en modo webview)
+         */
+        @JavascriptInterface
+        public void registrarEtapa(String etapa) {
+            if (MetricasEtapas.esEtapa(etapa)) {
+                metricas.marcar(etapa);
             }
         }
+        
+        /**
+         * Registra el disparo de la captura antes de tomar la foto
+         */
+        @JavascriptInterface
+        public void registrarDisparo(String disparo, int esperaMs) {
+            BiometriaActivity.this.registrarDisparo(disparo, esperaMs);
+        }
+        
+        /**
+         * Modo kiosco: la pantalla esta lista para capturar a la siguiente persona de la fila
+         */
+        @JavascriptInterface
+        public void pedirPersona() {
+            entregarSiguientePersona();
+        }
     }
 
     /**
@@ -398,8 +1502,65 @@ public class BiometriaActivity extends Activity {
      */
     @Override
     public void onBackPressed() {
-        setResult(Activity.RESULT_CANCELED);
-        super.onBackPressed();
+        Log.d(TAG, "Validacion cancelada con el boton de retroceso");
+        cancelarSesion();
+    }
+
+    /**
+     * Con presion alta mientras la pantalla esta visible libera los buffers retenidos y el WebView
+     * precalentado, y baja la resolucion de la vista previa
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        Log.d(TAG, "onTrimMemory: " + level);
+        // UI_HIDDEN y los niveles de segundo plano no afectan a una captura en curso
+        if (level != TRIM_MEMORY_RUNNING_LOW && level != TRIM_MEMORY_RUNNING_CRITICAL) {
+            return;
+        }
+        liberarMemoria(level);
+    }
+    
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        liberarMemoria(TRIM_MEMORY_COMPLETE);
+    }
+    
+    private void liberarMemoria(int nivel) {
+        synchronized (this) {
+            recortesMemoria++;
+            nivelMemoriaMaximo = Math.max(nivelMemoriaMaximo, nivel);
+        }
+        // Los arreglos en uso vuelven a los pools al terminar; solo se sueltan los libres
+        EnextBiometria.getHttpClient().getBufferPool().vaciar();
+        if (camaraNativa != null) {
+            camaraNativa.liberarBuffers();
+        }
+        PrecalentadorWebView.descartar();
+        reducirResolucion();
+    }
+    
+    /**
+     * Baja la resolucion de la vista previa a ANCHO_MEMORIA_BAJA x ALTO_MEMORIA_BAJA. La camara
+     * nativa se reabre si no hay una captura en curso (si no, la nueva resolucion aplica al
+     * siguiente intento); en el WebView se ajustan las restricciones del track de video
+     */
+    private void reducirResolucion() {
+        if (anchoCaptura <= ANCHO_MEMORIA_BAJA && altoCaptura <= ALTO_MEMORIA_BAJA) {
+            return;
+        }
+        anchoCaptura = Math.min(anchoCaptura, ANCHO_MEMORIA_BAJA);
+        altoCaptura = Math.min(altoCaptura, ALTO_MEMORIA_BAJA);
+        synchronized (this) {
+            resolucionReducida = true;
+        }
+        Log.d(TAG, "Poca memoria, vista previa a " + anchoCaptura + "x" + altoCaptura);
+        if (!MODO_CAPTURA_NATIVO.equals(modoCaptura)) {
+            ejecutarJS("reducirResolucion(" + anchoCaptura + "," + altoCaptura + ")");
+        } else if (camaraNativa != null && !camaraNativa.isCapturando() && areaVistaPrevia != null) {
+            abrirCamaraNativa(areaVistaPrevia[0], areaVistaPrevia[1], areaVistaPrevia[2], areaVistaPrevia[3]);
+        }
     }
 
     /**
@@ -407,9 +1568,16 @@ public class BiometriaActivity extends Activity {
      */
     @Override
     protected void onDestroy() {
+        unregisterReceiver(receptorPlugin);
+        // Ninguna llamada de la sesion sigue corriendo sin la pantalla que espera su resultado
+        EnextBiometria.getHttpClient().cancelar(sesionId);
+        monitorPss.detener();
+        cerrarCamaraNativa();
+        procesamiento.shutdown();
         if (webView != null) {
             webView.destroy();
         }
+        PrecalentadorWebView.alCerrarPantalla(this);
         super.onDestroy();
     }
 }
@@ -0,0 +1,31 @@
+package com.enext.biometria;
+
+import android.os.Build;
+import android.os.Bundle;
+import android.webkit.WebView;
+
+/**
+ * BiometriaActivity en su propio proceso (':biometria', opcion procesoSeparado). La camara, el
+ * WebView de la pantalla y las copias de la imagen no se suman al heap del WebView de la app, y si
+ * el sistema cierra este proceso por memoria la app sigue viva y recibe CANCELLED.
+ *
+ * Los singletons del plugin (cliente HTTP, cache de tokens, precalentador) son por proceso: aqui se
+ * crean vacios y la configuracion de red llega en las opciones. El resultado vuelve por CanalResultado.
+ */
+public class BiometriaActivityProceso extends BiometriaActivity {
+
+    // Sufijo del directorio de datos del WebView: dos procesos no pueden compartir el mismo
+    static final String PROCESO = "biometria";
+
+    private static boolean directorioAsignado;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        // Debe llamarse antes de crear el primer WebView del proceso (Android 9+)
+        if (!directorioAsignado && Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            WebView.setDataDirectorySuffix(PROCESO);
+            directorioAsignado = true;
+        }
+        super.onCreate(savedInstanceState);
+    }
+}
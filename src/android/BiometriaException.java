@@ -0,0 +1,46 @@
+package com.enext.biometria;
+
+/**
+ * Error de validacion con un codigo que se entrega tal cual al JavaScript
+ * (por ejemplo TOKEN_NETWORK_ERROR o CAMERA_ERROR).
+ */
+public class BiometriaException extends Exception {
+
+    private final String codigo;
+    // Fallo de red, timeout o HTTP 5xx/429: puede resolverse reintentando mas tarde
+    private final boolean transitorio;
+    // HTTP 401/403: el servidor rechazo la credencial o el token
+    private final boolean autenticacion;
+
+    public BiometriaException(String codigo, String mensaje) {
+        this(codigo, mensaje, null, false);
+    }
+
+    public BiometriaException(String codigo, String mensaje, Throwable causa) {
+        this(codigo, mensaje, causa, false);
+    }
+
+    public BiometriaException(String codigo, String mensaje, Throwable causa, boolean transitorio) {
+        this(codigo, mensaje, causa, transitorio, false);
+    }
+
+    public BiometriaException(String codigo, String mensaje, Throwable causa, boolean transitorio,
+                              boolean autenticacion) {
+        super(mensaje, causa);
+        this.codigo = codigo;
+        this.transitorio = transitorio;
+        this.autenticacion = autenticacion;
+    }
+
+    public String getCodigo() {
+        return codigo;
+    }
+
+    public boolean esTransitorio() {
+        return transitorio;
+    }
+
+    public boolean esRechazoAutenticacion() {
+        return autenticacion;
+    }
+}
@@ -0,0 +1,643 @@
+package com.enext.biometria;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.enext.biometria.core.Circuito;
+import com.enext.biometria.core.LimitadorTasa;
+import com.enext.biometria.core.ResultadoValidacion;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.EventListener;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Cliente HTTP nativo para los endpoints de token y biometria.
+ * Vive mientras viva el proceso (no depende de BiometriaActivity), por lo que las conexiones
+ * keep-alive (HTTP/2 cuando el servidor lo soporta) se reutilizan entre validaciones.
+ * Cada endpoint tiene un limite de tasa compartido por todas las sesiones del proceso: las llamadas
+ * sin turno esperan en cola y las que esperarian demasiado fallan con RATE_LIMITED.
+ */
+public class BiometriaHttpClient {
+
+    private static final String TAG = "BiometriaHttpClient";
+
+    static final int TIMEOUT_CONEXION_MS = 10000;
+    static final int TIMEOUT_LECTURA_MS = 30000;
+    // Tiempo maximo de cada llamada completa (conexion, envio y respuesta) por endpoint
+    static final int TIMEOUT_TOKEN_MS = 15000;
+    static final int TIMEOUT_BIOMETRIA_MS = 45000;
+
+    // Error entregado sin llamar al servidor mientras el circuito del endpoint de biometria esta abierto
+    static final String CIRCUIT_OPEN = "CIRCUIT_OPEN";
+    // Error entregado sin llamar al servidor cuando la llamada esperaria demasiado por el limite de tasa
+    static final String RATE_LIMITED = "RATE_LIMITED";
+
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+
+    /**
+     * Resultado asincrono de una llamada.
+     */
+    public interface Callback<T> {
+        void onExito(T resultado);
+        void onError(BiometriaException error);
+    }
+
+    /**
+     * Entrega un token nuevo cuando el endpoint de biometria rechaza el enviado (HTTP 401/403).
+     */
+    public interface RenovadorToken {
+        void renovar(Callback<String> callback);
+    }
+
+    // Respuesta del servidor cuando no acepta el tipo de contenido del envio
+    private static final int HTTP_UNSUPPORTED_MEDIA_TYPE = 415;
+    private static final int HTTP_UNAUTHORIZED = 401;
+    private static final int HTTP_FORBIDDEN = 403;
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private final ConnectionPool pool = new ConnectionPool(5, 5, TimeUnit.MINUTES);
+    // Compartido entre reconstrucciones del cliente para poder cancelar cualquier llamada en curso
+    private final Dispatcher dispatcher = new Dispatcher();
+    private final BufferPool buffers = new BufferPool(4);
+    // Endpoints que rechazaron el envio binario: se usa el contrato JSON original
+    private final Set<String> endpointsSoloJson = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    // Circuit breaker por endpoint de biometria
+    private final Map<String, Circuito> circuitos = new ConcurrentHashMap<>();
+    // Limite de tasa por endpoint (token y biometria) y llamadas esperando su turno
+    private final Map<String, LimitadorTasa> limitadores = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<EsperaTasa> esperas = new ConcurrentLinkedQueue<>();
+    private final ScheduledExecutorService programador = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread hilo = new Thread(r, "EnextLimitadorTasa");
+            hilo.setDaemon(true);
+            return hilo;
+        }
+    });
+    // Token y conexion previa: idempotentes, OkHttp reintenta ante fallos de conexion
+    private volatile OkHttpClient client;
+    // Envio de la foto: sin reintento automatico, para no repetir una validacion que el servidor ya recibio
+    private volatile OkHttpClient clientValidacion;
+    private int timeoutConexionMs;
+    private int timeoutLecturaMs;
+    private volatile int timeoutTokenMs = TIMEOUT_TOKEN_MS;
+    private volatile int timeoutBiometriaMs = TIMEOUT_BIOMETRIA_MS;
+    private int umbralCircuito = Circuito.UMBRAL_FALLOS;
+    private long aperturaCircuitoMs = Circuito.APERTURA_MS;
+    private double tasaPorSegundo = LimitadorTasa.TASA_POR_SEGUNDO;
+    private int capacidadTasa = LimitadorTasa.CAPACIDAD;
+    private long esperaMaximaTasaMs = LimitadorTasa.ESPERA_MAXIMA_MS;
+
+    public BiometriaHttpClient() {
+        configurarTimeouts(TIMEOUT_CONEXION_MS, TIMEOUT_LECTURA_MS);
+    }
+
+    /**
+     * Cambia los timeouts de conexion y lectura. El pool de conexiones se conserva.
+     */
+    public synchronized void configurarTimeouts(int conexionMs, int lecturaMs) {
+        if (client != null && conexionMs == timeoutConexionMs && lecturaMs == timeoutLecturaMs) {
+            return;
+        }
+        timeoutConexionMs = conexionMs;
+        timeoutLecturaMs = lecturaMs;
+        client = new OkHttpClient.Builder()
+                .connectionPool(pool)
+                .dispatcher(dispatcher)
+                .connectTimeout(conexionMs, TimeUnit.MILLISECONDS)
+                .readTimeout(lecturaMs, TimeUnit.MILLISECONDS)
+                .writeTimeout(lecturaMs, TimeUnit.MILLISECONDS)
+                .retryOnConnectionFailure(true)
+                .eventListenerFactory(METRICAS)
+                .build();
+        clientValidacion = client.newBuilder().retryOnConnectionFailure(false).build();
+    }
+
+    /**
+     * Cambia el tiempo maximo de las llamadas de token y de biometria (0 = sin limite) y los
+     * parametros del circuit breaker. Si cambian estos ultimos, los circuitos empiezan cerrados.
+     */
+    public synchronized void configurarResiliencia(int tokenMs, int biometriaMs, int umbral, long aperturaMs) {
+        timeoutTokenMs = tokenMs;
+        timeoutBiometriaMs = biometriaMs;
+        if (umbral != umbralCircuito || aperturaMs != aperturaCircuitoMs) {
+            umbralCircuito = umbral;
+            aperturaCircuitoMs = aperturaMs;
+            circuitos.clear();
+        }
+    }
+
+    /**
+     * Indica si el circuito del endpoint esta abierto y aun no admite una llamada de prueba.
+     */
+    public boolean circuitoAbierto(String endpoint) {
+        return Circuito.ABIERTO.equals(circuito(endpoint).getEstado(SystemClock.elapsedRealtime()));
+    }
+
+    /**
+     * Estado del circuito del endpoint para el diagnostico: estado, fallos consecutivos, aperturas
+     * y, si esta abierto, la espera hasta la proxima llamada de prueba.
+     */
+    public JSONObject estadoCircuito(String endpoint) {
+        Circuito circuito = circuito(endpoint);
+        long ahora = SystemClock.elapsedRealtime();
+        JSONObject estado = new JSONObject();
+        try {
+            estado.put("estado", circuito.getEstado(ahora));
+            estado.put("fallosConsecutivos", circuito.getFallosConsecutivos());
+            estado.put("aperturas", circuito.getAperturas());
+            estado.put("esperaRestanteMs", circuito.getEsperaRestante(ahora));
+        } catch (JSONException e) {
+            Log.e(TAG, "Error al informar el circuito: " + e.getMessage());
+        }
+        return estado;
+    }
+
+    /**
+     * Cambia el limite de tasa de cada endpoint (tasa 0 = sin limite). Si cambia, los limitadores
+     * empiezan con la cubeta llena.
+     */
+    public synchronized void configurarLimiteTasa(double porSegundo, int capacidad, long esperaMaximaMs) {
+        if (porSegundo != tasaPorSegundo || capacidad != capacidadTasa || esperaMaximaMs != esperaMaximaTasaMs) {
+            tasaPorSegundo = porSegundo;
+            capacidadTasa = capacidad;
+            esperaMaximaTasaMs = esperaMaximaMs;
+            limitadores.clear();
+        }
+    }
+
+    /**
+     * Estado del limite de tasa del endpoint: llamadas en cola, inmediatas, esperadas y rechazadas,
+     * y la espera promedio y maxima de las que esperaron.
+     */
+    public JSONObject estadoLimitador(String endpoint) {
+        LimitadorTasa limitador = limitador(endpoint);
+        JSONObject estado = new JSONObject();
+        try {
+            estado.put("enEspera", limitador.getEnEspera());
+            estado.put("inmediatas", limitador.getInmediatas());
+            estado.put("esperadas", limitador.getEsperadas());
+            estado.put("rechazadas", limitador.getRechazadas());
+            estado.put("esperaPromedioMs", limitador.getEsperaPromedioMs());
+            estado.put("esperaMaximaMs", limitador.getEsperaMaximaObservadaMs());
+        } catch (JSONException e) {
+            Log.e(TAG, "Error al informar el limite de tasa: " + e.getMessage());
+        }
+        return estado;
+    }
+
+    /**
+     * Estado del limite de tasa de todos los endpoints usados, por endpoint.
+     */
+    public JSONObject estadoLimitadores() {
+        JSONObject estado = new JSONObject();
+        for (String endpoint : limitadores.keySet()) {
+            try {
+                estado.put(endpoint, estadoLimitador(endpoint));
+            } catch (JSONException e) {
+                Log.e(TAG, "Error al informar el limite de tasa: " + e.getMessage());
+            }
+        }
+        return estado;
+    }
+
+    private LimitadorTasa limitador(String endpoint) {
+        LimitadorTasa limitador = limitadores.get(endpoint);
+        if (limitador == null) {
+            synchronized (this) {
+                limitador = limitadores.get(endpoint);
+                if (limitador == null) {
+                    limitador = new LimitadorTasa(tasaPorSegundo, capacidadTasa, esperaMaximaTasaMs);
+                    limitadores.put(endpoint, limitador);
+                }
+            }
+        }
+        return limitador;
+    }
+
+    private Circuito circuito(String endpoint) {
+        Circuito circuito = circuitos.get(endpoint);
+        if (circuito == null) {
+            synchronized (this) {
+                circuito = circuitos.get(endpoint);
+                if (circuito == null) {
+                    circuito = new Circuito(umbralCircuito, aperturaCircuitoMs);
+                    circuitos.put(endpoint, circuito);
+                }
+            }
+        }
+        return circuito;
+    }
+
+    /**
+     * Marca el fin de la subida y la llegada de la respuesta en las llamadas que llevan MetricasEtapas.
+     */
+    private static final EventListener.Factory METRICAS = new EventListener.Factory() {
+        @Override
+        public EventListener create(Call call) {
+            final MetricasEtapas metricas = call.request().tag(MetricasEtapas.class);
+            if (metricas == null) {
+                return EventListener.NONE;
+            }
+            return new EventListener() {
+                @Override
+                public void requestBodyEnd(Call call, long bytes) {
+                    metricas.marcar(MetricasEtapas.SUBIDA_FIN);
+                }
+
+                @Override
+                public void responseHeadersStart(Call call) {
+                    metricas.marcar(MetricasEtapas.RESPUESTA_SERVIDOR);
+                }
+            };
+        }
+    };
+
+    /**
+     * Cuerpo de la solicitud de token. Se arma una vez por credencial y se reutiliza en la solicitud,
+     * los reintentos y las renovaciones. Retorna null si no se pudo armar.
+     */
+    public static RequestBody cuerpoToken(String username, String password) {
+        JSONObject cuerpo = new JSONObject();
+        try {
+            cuerpo.put("username", username);
+            cuerpo.put("password", password);
+        } catch (JSONException e) {
+            Log.e(TAG, "Error al crear cuerpo de token: " + e.getMessage());
+            return null;
+        }
+        return RequestBody.create(cuerpo.toString(), JSON);
+    }
+
+    /**
+     * Solicita un access_token con el cuerpo de cuerpoToken(). El callback de exito recibe
+     * la respuesta completa (access_token y, si el servidor lo informa, expires_in).
+     */
+    public Call obtenerToken(String endpoint, RequestBody credenciales, final Callback<JSONObject> callback) {
+        if (credenciales == null) {
+            callback.onError(new BiometriaException("TOKEN_REQUEST_ERROR", "No se pudo obtener token"));
+            return null;
+        }
+
+        Request request = new Request.Builder().url(endpoint).post(credenciales).build();
+        return enviar(endpoint, request, timeoutTokenMs, true, new Callback<Respuesta>() {
+            @Override
+            public void onExito(Respuesta respuesta) {
+                if (respuesta.codigo != 200) {
+                    callback.onError(new BiometriaException("TOKEN_REQUEST_ERROR", "No se pudo obtener token", null,
+                            esTransitorio(respuesta.codigo), esRechazoAutenticacion(respuesta.codigo)));
+                    return;
+                }
+                try {
+                    JSONObject resultado = new JSONObject(respuesta.cuerpo);
+                    if (resultado.optString("access_token", "").isEmpty()) {
+                        callback.onError(new BiometriaException("TOKEN_ERROR", "Token invalido"));
+                    } else {
+                        callback.onExito(resultado);
+                    }
+                } catch (JSONException e) {
+                    callback.onError(new BiometriaException("TOKEN_PARSE_ERROR", "Respuesta invalida", e));
+                }
+            }
+
+            @Override
+            public void onError(BiometriaException error) {
+                if (RATE_LIMITED.equals(error.getCodigo())) {
+                    callback.onError(error);
+                    return;
+                }
+                callback.onError(new BiometriaException("TOKEN_NETWORK_ERROR", error.getMessage(), error,
+                        error.esTransitorio()));
+            }
+        });
+    }
+
+    /**
+     * Abre una conexion (DNS, TCP y TLS) al host del endpoint para que la primera llamada la encuentre
+     * en el pool. Es un HEAD fuera del limite de tasa cuyo codigo de respuesta no importa; entrega los
+     * ms que tardo. Con el circuito abierto no se llama al servidor.
+     */
+    public void preconectar(String endpoint, final Callback<Long> callback) {
+        if (circuitoAbierto(endpoint)) {
+            callback.onError(new BiometriaException(CIRCUIT_OPEN, "Servicio no disponible", null, false));
+            return;
+        }
+        final long inicio = SystemClock.elapsedRealtime();
+        Request request;
+        try {
+            request = new Request.Builder().url(endpoint).head().build();
+        } catch (IllegalArgumentException e) {
+            callback.onError(new BiometriaException("NETWORK_ERROR", "URL invalida", e, false));
+            return;
+        }
+        client.newCall(request).enqueue(new okhttp3.Callback() {
+            @Override
+            public void onResponse(Call call, Response response) {
+                response.close();
+                long duracion = SystemClock.elapsedRealtime() - inicio;
+                Log.d(TAG, "Conexion previa a " + call.request().url().host() + " en " + duracion + " ms ("
+                        + response.protocol() + ")");
+                callback.onExito(duracion);
+            }
+
+            @Override
+            public void onFailure(Call call, IOException e) {
+                Log.e(TAG, "Conexion previa fallo: " + e.getMessage());
+                callback.onError(new BiometriaException("NETWORK_ERROR", "Error de red", e, true));
+            }
+        });
+    }
+
+    /**
+     * Pool de buffers compartido por la captura y el envio de imagenes.
+     */
+    public BufferPool getBufferPool() {
+        return buffers;
+    }
+
+    /**
+     * Modo de envio que se usara realmente para el endpoint (json si el servidor rechazo el binario).
+     */
+    public String modoEfectivo(String endpoint, String modoEnvio) {
+        if (modoEnvio == null || endpointsSoloJson.contains(endpoint)) {
+            return CuerpoValidacion.MODO_JSON;
+        }
+        return modoEnvio;
+    }
+
+    /**
+     * Cancela las llamadas en cola (incluidas las que esperan su turno por el limite de tasa) o en
+     * curso marcadas con la etiqueta indicada. Sus callbacks reciben NETWORK_ERROR.
+     */
+    public int cancelar(Object etiqueta) {
+        int canceladas = 0;
+        Iterator<EsperaTasa> pendientes = esperas.iterator();
+        while (pendientes.hasNext()) {
+            EsperaTasa espera = pendientes.next();
+            if (etiqueta.equals(espera.request.tag()) && espera.futuro.cancel(false)) {
+                pendientes.remove();
+                espera.limitador.terminarEspera();
+                espera.callback.onError(new BiometriaException("NETWORK_ERROR", "Error de red", null, false));
+                canceladas++;
+            }
+        }
+        for (Call call : dispatcher.queuedCalls()) {
+            if (etiqueta.equals(call.request().tag())) {
+                call.cancel();
+                canceladas++;
+            }
+        }
+        for (Call call : dispatcher.runningCalls()) {
+            if (etiqueta.equals(call.request().tag())) {
+                call.cancel();
+                canceladas++;
+            }
+        }
+        return canceladas;
+    }
+
+    /**
+     * Envia la foto al endpoint de biometria con el modo de envio indicado (json, multipart o binario).
+     * El callback de exito recibe la respuesta del servidor cuando su status es 'success'.
+     * La imagen se libera al pool cuando la llamada termina. La etiqueta (por ejemplo, el id de
+     * la sesion) permite cancelar la llamada con cancelar(). Con el circuito del endpoint abierto
+     * no se llama al servidor y el callback recibe CIRCUIT_OPEN. Retorna null si no se llamo al
+     * servidor o si la llamada espera su turno por el limite de tasa. Si el servidor rechaza el token
+     * (HTTP 401/403) y hay renovador, se pide un token nuevo y la foto se envia una vez mas con el.
+     */
+    public Call validarBiometria(String endpoint, String cedula, String codDactilar, String token,
+                                 ImagenJpeg imagen, String modoEnvio, Object etiqueta,
+                                 RenovadorToken renovador, Callback<JSONObject> callback) {
+        return validarBiometria(endpoint, cedula, codDactilar, token, imagen, modoEnvio, etiqueta, null, renovador,
+                callback);
+    }
+
+    /**
+     * Igual que validarBiometria(), marcando en metricas el fin de la subida y la respuesta del servidor.
+     */
+    public Call validarBiometria(final String endpoint, final String cedula, final String codDactilar,
+                                 final String token, final ImagenJpeg imagen, String modoEnvio,
+                                 final Object etiqueta, final MetricasEtapas metricas,
+                                 final RenovadorToken renovador, final Callback<JSONObject> callback) {
+        final Circuito circuito = circuito(endpoint);
+        if (!circuito.permitir(SystemClock.elapsedRealtime())) {
+            Log.d(TAG, "Circuito abierto para " + endpoint + ", no se envia");
+            imagen.liberar();
+            callback.onError(new BiometriaException(CIRCUIT_OPEN,
+                    "El servicio de validacion no esta disponible, intente mas tarde"));
+            return null;
+        }
+        final String modo = modoEfectivo(endpoint, modoEnvio);
+
+        Request.Builder request = new Request.Builder().url(endpoint).tag(etiqueta);
+        if (metricas != null) {
+            request.tag(MetricasEtapas.class, metricas);
+        }
+        if (CuerpoValidacion.MODO_BINARIO.equals(modo)) {
+            request.post(CuerpoValidacion.binario(imagen))
+                    .header(CuerpoValidacion.CABECERA_CEDULA, cedula)
+                    .header(CuerpoValidacion.CABECERA_COD_DACTILAR, codDactilar)
+                    .header("Authorization", "Bearer " + token);
+        } else if (CuerpoValidacion.MODO_MULTIPART.equals(modo)) {
+            request.post(CuerpoValidacion.multipart(cedula, codDactilar, token, imagen));
+        } else {
+            request.post(CuerpoValidacion.json(cedula, codDactilar, token, imagen, buffers));
+        }
+
+        return enviar(endpoint, request.build(), timeoutBiometriaMs, false, new Callback<Respuesta>() {
+            @Override
+            public void onExito(Respuesta respuesta) {
+                boolean transitorio = esTransitorio(respuesta.codigo);
+                if (transitorio) {
+                    circuito.registrarFallo(SystemClock.elapsedRealtime());
+                } else {
+                    circuito.registrarExito();
+                }
+                if (respuesta.codigo == HTTP_UNSUPPORTED_MEDIA_TYPE && !CuerpoValidacion.MODO_JSON.equals(modo)) {
+                    Log.d(TAG, "El servidor no acepta envio " + modo + ", se usa json");
+                    endpointsSoloJson.add(endpoint);
+                    validarBiometria(endpoint, cedula, codDactilar, token, imagen, CuerpoValidacion.MODO_JSON,
+                            etiqueta, metricas, renovador, callback);
+                    return;
+                }
+                ResultadoValidacion resultado = ResultadoValidacion.interpretar(respuesta.codigo, respuesta.cuerpo);
+                final BiometriaException rechazo = resultado.esExito() ? null
+                        : new BiometriaException(resultado.getCodigoError(), resultado.getMensaje(), null, transitorio,
+                                esRechazoAutenticacion(respuesta.codigo));
+                if (rechazo != null && rechazo.esRechazoAutenticacion() && renovador != null) {
+                    Log.d(TAG, "Token rechazado (HTTP " + respuesta.codigo + "), se renueva y se reenvia");
+                    renovador.renovar(new Callback<String>() {
+                        @Override
+                        public void onExito(String nuevo) {
+                            validarBiometria(endpoint, cedula, codDactilar, nuevo, imagen, modo, etiqueta, metricas,
+                                    null, callback);
+                        }
+
+                        @Override
+                        public void onError(BiometriaException error) {
+                            imagen.liberar();
+                            callback.onError(error);
+                        }
+                    });
+                    return;
+                }
+                imagen.liberar();
+                if (rechazo == null) {
+                    callback.onExito(resultado.getRespuesta());
+                } else {
+                    callback.onError(rechazo);
+                }
+            }
+
+            @Override
+            public void onError(BiometriaException error) {
+                // El limite de tasa es local: no indica que el servidor este fallando
+                if (error.esTransitorio() && !RATE_LIMITED.equals(error.getCodigo())) {
+                    circuito.registrarFallo(SystemClock.elapsedRealtime());
+                }
+                imagen.liberar();
+                callback.onError(error);
+            }
+        });
+    }
+
+    /**
+     * Respuestas que pueden resolverse reintentando mas tarde: errores del servidor y limite de tasa.
+     */
+    private static boolean esTransitorio(int codigoHttp) {
+        return codigoHttp >= 500 || codigoHttp == HTTP_TOO_MANY_REQUESTS;
+    }
+
+    /**
+     * Respuestas que indican una credencial o un token rechazado: el token en cache no sirve.
+     */
+    private static boolean esRechazoAutenticacion(int codigoHttp) {
+        return codigoHttp == HTTP_UNAUTHORIZED || codigoHttp == HTTP_FORBIDDEN;
+    }
+
+    /**
+     * Espera el turno de la solicitud segun el limite de tasa del endpoint y la ejecuta. Si la espera
+     * superaria el maximo, el callback recibe RATE_LIMITED (transitorio). Retorna null si la llamada
+     * quedo esperando o se rechazo. Solo las solicitudes idempotentes se reintentan ante fallos de conexion.
+     */
+    private Call enviar(String endpoint, final Request request, final int timeoutMs, final boolean idempotente,
+                        final Callback<Respuesta> callback) {
+        final LimitadorTasa limitador = limitador(endpoint);
+        long espera = limitador.reservar(SystemClock.elapsedRealtime());
+        if (espera == 0) {
+            return ejecutar(request, timeoutMs, idempotente, callback);
+        }
+        if (espera == LimitadorTasa.RECHAZADA) {
+            Log.d(TAG, "Limite de tasa superado para " + endpoint + " (" + limitador.getEnEspera() + " en espera)");
+            callback.onError(new BiometriaException(RATE_LIMITED,
+                    "Demasiadas solicitudes, intente en unos segundos", null, true));
+            return null;
+        }
+        Log.d(TAG, "Limite de tasa: " + endpoint + " espera " + espera + " ms (" + limitador.getEnEspera() + " en espera)");
+        final EsperaTasa pendiente = new EsperaTasa(request, limitador, callback);
+        synchronized (pendiente) {
+            pendiente.futuro = programador.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (pendiente) {
+                        esperas.remove(pendiente);
+                    }
+                    limitador.terminarEspera();
+                    ejecutar(request, timeoutMs, idempotente, callback);
+                }
+            }, espera, TimeUnit.MILLISECONDS);
+            esperas.add(pendiente);
+        }
+        return null;
+    }
+
+    /**
+     * Ejecuta la solicitud de forma asincrona, con el tiempo maximo indicado para la llamada completa
+     * (0 = sin limite), y entrega el codigo y el cuerpo de la respuesta. Los fallos de red y los
+     * timeouts llegan como NETWORK_ERROR transitorio; las llamadas canceladas, no transitorio.
+     */
+    private Call ejecutar(Request request, int timeoutMs, boolean idempotente, final Callback<Respuesta> callback) {
+        final String url = request.url().toString();
+        final long inicio = System.nanoTime();
+        Call call = (idempotente ? client : clientValidacion).newCall(request);
+        if (timeoutMs > 0) {
+            call.timeout().timeout(timeoutMs, TimeUnit.MILLISECONDS);
+        }
+        call.enqueue(new okhttp3.Callback() {
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (ResponseBody body = response.body()) {
+                    Respuesta respuesta = new Respuesta(response.code(), body != null ? body.string() : "");
+                    Log.d(TAG, "POST " + url + " -> " + response.code() + " (" + response.protocol() + ", "
+                            + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inicio) + " ms)");
+                    callback.onExito(respuesta);
+                } catch (IOException e) {
+                    onFailure(call, e);
+                }
+            }
+
+            @Override
+            public void onFailure(Call call, IOException e) {
+                Log.e(TAG, "POST " + url + " fallo: " + e.getMessage());
+                boolean timeout = e instanceof InterruptedIOException && !call.isCanceled();
+                callback.onError(new BiometriaException("NETWORK_ERROR",
+                        timeout ? "Tiempo de espera agotado" : "Error de red", e, !call.isCanceled()));
+            }
+        });
+        return call;
+    }
+
+    /**
+     * Solicitud esperando su turno por el limite de tasa.
+     */
+    private static class EsperaTasa {
+        final Request request;
+        final LimitadorTasa limitador;
+        final Callback<Respuesta> callback;
+        ScheduledFuture<?> futuro;
+
+        EsperaTasa(Request request, LimitadorTasa limitador, Callback<Respuesta> callback) {
+            this.request = request;
+            this.limitador = limitador;
+            this.callback = callback;
+        }
+    }
+
+    /**
+     * Codigo y cuerpo de una respuesta HTTP.
+     */
+    static class Respuesta {
+        final int codigo;
+        final String cuerpo;
+
+        Respuesta(int codigo, String cuerpo) {
+            this.codigo = codigo;
+            this.cuerpo = cuerpo;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.enext.biometria;
+
+import com.enext.biometria.core.CargaValidacion;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pool acotado de arreglos de bytes reutilizables para imagenes y cuerpos de envio.
+ * Evita asignar un arreglo nuevo por cada captura; cuenta las asignaciones reales.
+ */
+public class BufferPool implements CargaValidacion.Bloques {
+
+    // Los arreglos se asignan en multiplos de este tamano para facilitar su reutilizacion
+    private static final int BLOQUE = 64 * 1024;
+
+    private final int maximo;
+    private final List<byte[]> libres = new ArrayList<>();
+    private int asignaciones;
+
+    public BufferPool(int maximo) {
+        this.maximo = maximo;
+    }
+
+    /**
+     * Entrega un arreglo de al menos la capacidad indicada, reutilizando uno libre si existe.
+     */
+    @Override
+    public synchronized byte[] obtener(int capacidad) {
+        int mejor = -1;
+        for (int i = 0; i < libres.size(); i++) {
+            int largo = libres.get(i).length;
+            if (largo >= capacidad && (mejor < 0 || largo < libres.get(mejor).length)) {
+                mejor = i;
+            }
+        }
+        if (mejor >= 0) {
+            return libres.remove(mejor);
+        }
+        asignaciones++;
+        return new byte[((capacidad + BLOQUE - 1) / BLOQUE) * BLOQUE];
+    }
+
+    /**
+     * Devuelve un arreglo al pool. Si el pool esta lleno se descarta el mas pequeno.
+     */
+    @Override
+    public synchronized void devolver(byte[] arreglo) {
+        if (arreglo == null) {
+            return;
+        }
+        if (libres.size() >= maximo) {
+            int menor = 0;
+            for (int i = 1; i < libres.size(); i++) {
+                if (libres.get(i).length < libres.get(menor).length) {
+                    menor = i;
+                }
+            }
+            if (libres.get(menor).length >= arreglo.length) {
+                return;
+            }
+            libres.remove(menor);
+        }
+        libres.add(arreglo);
+    }
+
+    /**
+     * Libera todos los arreglos retenidos.
+     */
+    public synchronized void vaciar() {
+        libres.clear();
+    }
+
+    /**
+     * Cantidad de arreglos que el pool tuvo que asignar (no reutilizados).
+     */
+    public synchronized int getAsignaciones() {
+        return asignaciones;
+    }
+
+    /**
+     * OutputStream que escribe sobre arreglos del pool, creciendo sin copias intermedias
+     * de ByteArrayOutputStream.toByteArray().
+     */
+    public static class Salida extends OutputStream {
+
+        private final BufferPool pool;
+        private byte[] datos;
+        private int longitud;
+
+        public Salida(BufferPool pool, int capacidadInicial) {
+            this.pool = pool;
+            this.datos = pool.obtener(capacidadInicial);
+        }
+
+        @Override
+        public void write(int b) {
+            asegurar(longitud + 1);
+            datos[longitud++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int desde, int largo) {
+            asegurar(longitud + largo);
+            System.arraycopy(b, desde, datos, longitud, largo);
+            longitud += largo;
+        }
+
+        /**
+         * Descarta el contenido escrito conservando el arreglo.
+         */
+        public void reiniciar() {
+            longitud = 0;
+        }
+
+        public int getLongitud() {
+            return longitud;
+        }
+
+        /**
+         * Entrega el contenido como imagen; el arreglo pasa a ser propiedad de la imagen,
+         * que lo devolvera al pool al liberarse.
+         */
+        public ImagenJpeg aImagen() {
+            ImagenJpeg imagen = new ImagenJpeg(datos, longitud, pool);
+            datos = null;
+            longitud = 0;
+            return imagen;
+        }
+
+        private void asegurar(int capacidad) {
+            if (capacidad <= datos.length) {
+                return;
+            }
+            byte[] nuevo = pool.obtener(Math.max(capacidad, datos.length * 2));
+            System.arraycopy(datos, 0, nuevo, 0, longitud);
+            pool.devolver(datos);
+            datos = nuevo;
+        }
+    }
+}
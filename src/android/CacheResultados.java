@@ -0,0 +1,226 @@
+package com.enext.biometria;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache de corta duracion de validaciones exitosas, para no repetir la camara y la llamada al
+ * servidor cuando la app valida a la misma persona varias veces en pocos minutos.
+ *
+ * La clave es un SHA-256 de endpoint, usuario, cedula y codigo dactilar; el resultado (accessToken,
+ * biometricData y timestamp) se guarda cifrado con CifradoLocal, en memoria y en un archivo que
+ * sobrevive a que el sistema cierre el proceso. Las entradas vencen segun el TTL de cada consulta y
+ * se desalojan por LRU al superar el maximo.
+ */
+class CacheResultados {
+
+    private static final String TAG = "CacheResultados";
+
+    private static final String ARCHIVO = "enext_resultados.cache";
+    private static final String ALIAS_CLAVE = "enext_biometria_resultados";
+    private static final int VERSION = 1;
+
+    static final int MAXIMO_ENTRADAS = 10;
+    // Tope del TTL: un accessToken cacheado mas tiempo probablemente ya vencio en el servidor
+    static final long TTL_MAXIMO_MS = 30 * 60 * 1000;
+
+    /**
+     * Resultado recuperado de la cache.
+     */
+    static class Acierto {
+        final JSONObject resultado;
+        final long edadMs;
+
+        Acierto(JSONObject resultado, long edadMs) {
+            this.resultado = resultado;
+            this.edadMs = edadMs;
+        }
+    }
+
+    private static class Entrada {
+        final long guardadoEn;
+        final byte[] cifrado;
+
+        Entrada(long guardadoEn, byte[] cifrado) {
+            this.guardadoEn = guardadoEn;
+            this.cifrado = cifrado;
+        }
+    }
+
+    private final File archivo;
+    // Orden de acceso: el primero es el menos usado recientemente
+    private final LinkedHashMap<String, Entrada> entradas = new LinkedHashMap<>(16, 0.75f, true);
+    private CifradoLocal cifrado;
+    private boolean cargada;
+    private int aciertos;
+    private int fallos;
+
+    CacheResultados(Context context) {
+        this.archivo = new File(context.getApplicationContext().getNoBackupFilesDir(), ARCHIVO);
+    }
+
+    /**
+     * Clave de cache de una validacion; no contiene la cedula en claro.
+     */
+    static String clave(String biometriaEndpoint, String username, String cedula, String codDactilar) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            byte[] hash = sha.digest((biometriaEndpoint + "\n" + username + "\n" + cedula + "\n"
+                    + codDactilar.toUpperCase()).getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Resultado guardado hace menos de ttlMs, o null. Una entrada vencida o ilegible se elimina.
+     */
+    synchronized Acierto buscar(String clave, long ttlMs) {
+        cargar();
+        Entrada entrada = entradas.get(clave);
+        long edad = entrada != null ? System.currentTimeMillis() - entrada.guardadoEn : -1;
+        if (entrada == null || edad < 0 || edad >= Math.min(ttlMs, TTL_MAXIMO_MS)) {
+            if (entrada != null) {
+                entradas.remove(clave);
+                guardar();
+            }
+            fallos++;
+            return null;
+        }
+        try {
+            JSONObject resultado = new JSONObject(new String(obtenerCifrado().descifrar(entrada.cifrado),
+                    StandardCharsets.UTF_8));
+            aciertos++;
+            return new Acierto(resultado, edad);
+        } catch (IOException | JSONException e) {
+            Log.e(TAG, "Entrada de cache ilegible: " + e.getMessage());
+            entradas.remove(clave);
+            guardar();
+            fallos++;
+            return null;
+        }
+    }
+
+    /**
+     * Guarda el resultado de una validacion exitosa, desalojando las entradas menos usadas.
+     */
+    synchronized void guardar(String clave, JSONObject resultado, int maximo) {
+        cargar();
+        try {
+            byte[] plano = resultado.toString().getBytes(StandardCharsets.UTF_8);
+            entradas.remove(clave);
+            entradas.put(clave, new Entrada(System.currentTimeMillis(), obtenerCifrado().cifrar(plano, plano.length)));
+        } catch (IOException e) {
+            Log.e(TAG, "No se pudo cifrar el resultado: " + e.getMessage());
+            return;
+        }
+        Iterator<String> menosUsadas = entradas.keySet().iterator();
+        while (entradas.size() > Math.max(1, maximo) && menosUsadas.hasNext()) {
+            menosUsadas.next();
+            menosUsadas.remove();
+        }
+        guardar();
+    }
+
+    /**
+     * Elimina todas las entradas, en memoria y en disco.
+     */
+    synchronized void limpiar() {
+        entradas.clear();
+        cargada = true;
+        if (archivo.exists() && !archivo.delete()) {
+            Log.e(TAG, "No se pudo borrar " + archivo.getName());
+        }
+    }
+
+    synchronized JSONObject toJSON() throws JSONException {
+        cargar();
+        JSONObject json = new JSONObject();
+        json.put("entradas", entradas.size());
+        json.put("aciertos", aciertos);
+        json.put("fallos", fallos);
+        return json;
+    }
+
+    private CifradoLocal obtenerCifrado() throws IOException {
+        if (cifrado == null) {
+            cifrado = new CifradoLocal(ALIAS_CLAVE);
+        }
+        return cifrado;
+    }
+
+    private void cargar() {
+        if (cargada) {
+            return;
+        }
+        cargada = true;
+        if (!archivo.exists()) {
+            return;
+        }
+        try (DataInputStream entrada = new DataInputStream(new BufferedInputStream(new FileInputStream(archivo)))) {
+            if (entrada.readInt() != VERSION) {
+                throw new IOException("Version desconocida");
+            }
+            int cantidad = entrada.readInt();
+            for (int i = 0; i < cantidad; i++) {
+                String clave = entrada.readUTF();
+                long guardadoEn = entrada.readLong();
+                byte[] bloque = new byte[entrada.readInt()];
+                entrada.readFully(bloque);
+                entradas.put(clave, new Entrada(guardadoEn, bloque));
+            }
+            Log.d(TAG, "Cache cargada: " + entradas.size() + " entradas");
+        } catch (IOException e) {
+            Log.e(TAG, "Cache danada, se descarta: " + e.getMessage());
+            entradas.clear();
+            archivo.delete();
+        }
+    }
+
+    /**
+     * Reescribe el archivo completo (pocas entradas) en uno temporal y lo reemplaza.
+     */
+    private void guardar() {
+        File temporal = new File(archivo.getPath() + ".tmp");
+        try (DataOutputStream salida = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporal)))) {
+            salida.writeInt(VERSION);
+            salida.writeInt(entradas.size());
+            for (Map.Entry<String, Entrada> entrada : entradas.entrySet()) {
+                salida.writeUTF(entrada.getKey());
+                salida.writeLong(entrada.getValue().guardadoEn);
+                salida.writeInt(entrada.getValue().cifrado.length);
+                salida.write(entrada.getValue().cifrado);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "No se pudo guardar la cache: " + e.getMessage());
+            temporal.delete();
+            return;
+        }
+        if (!temporal.renameTo(archivo)) {
+            Log.e(TAG, "No se pudo reemplazar " + archivo.getName());
+        }
+    }
+}
@@ -0,0 +1,812 @@
+package com.enext.biometria;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.graphics.SurfaceTexture;
+import android.graphics.YuvImage;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CameraMetadata;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Size;
+import android.view.Surface;
+import android.view.TextureView;
+
+import com.enext.biometria.core.PasosImagen;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Captura de camara nativa basada en Camera2.
+ * La vista previa se dibuja en un TextureView y los cuadros se entregan a un hilo de fondo,
+ * donde se convierten y codifican a JPEG sin pasar por el hilo principal del WebView.
+ */
+public class CamaraNativa {
+
+    private static final String TAG = "CamaraNativa";
+
+    // Resolucion por defecto, igual a la que solicita getUserMedia en el modo WebView
+    static final int ANCHO_OBJETIVO = 1280;
+    static final int ALTO_OBJETIVO = 720;
+    private static final int CALIDAD_JPEG = 85;
+
+    // Rafaga por defecto: un solo cuadro
+    static final int CUADROS_RAFAGA = 1;
+    static final int VENTANA_RAFAGA_MS = 400;
+    private static final int HILOS_EVALUACION = 3;
+    // Espera maxima de cerrar() al hilo de la camara
+    private static final long ESPERA_CIERRE_MS = 1000;
+
+    /**
+     * Eventos del ciclo de vida de la camara.
+     */
+    public interface Listener {
+        void onCamaraAbierta();
+        /** Primer cuadro de la vista previa recibido desde la camara (en el hilo de la camara) */
+        void onPrimerCuadro();
+        void onCamaraError(String mensaje);
+    }
+
+    /**
+     * Resultado de una captura.
+     */
+    public interface CapturaCallback {
+        /** calidad es null si no hay control de calidad configurado */
+        void onFotoCapturada(ImagenJpeg imagen, int ancho, int alto, long tiempoMs, EvaluadorCalidad.Resultado calidad);
+        /** La foto no cumple los umbrales de calidad; no se llega a codificar */
+        void onFotoRechazada(EvaluadorCalidad.Resultado calidad);
+        void onCapturaError(String mensaje);
+        /** La camara se cerro antes de completar la captura (CANCELLED) */
+        void onCapturaCancelada();
+    }
+
+    private final Context context;
+    private final Listener listener;
+    private final BufferPool pool;
+
+    private HandlerThread hiloCamara;
+    private Handler handlerCamara;
+    private volatile ExecutorService codificador;
+
+    private TextureView vistaPrevia;
+    private Surface superficiePrevia;
+    private CameraDevice camara;
+    private CameraCaptureSession sesion;
+    private ImageReader lector;
+    private Size tamanoCaptura;
+    private int orientacionSensor;
+    private int anchoObjetivo = ANCHO_OBJETIVO;
+    private int altoObjetivo = ALTO_OBJETIVO;
+
+    private boolean primerCuadroRecibido;
+    // El dispositivo se tomo de CamaraPreabierta en lugar de abrirse aqui
+    private volatile boolean preabierta;
+    private volatile boolean cerrada;
+    private volatile CapturaCallback capturaPendiente;
+    private volatile long inicioCaptura;
+    private volatile DetectorRostro detector;
+    private volatile EvaluadorCalidad evaluador;
+    private volatile ProcesadorImagen procesador;
+
+    // Rafaga: cuadros tomados por captura, evaluados en paralelo con buffers reutilizados
+    private int cuadrosRafaga = CUADROS_RAFAGA;
+    private int ventanaRafagaMs = VENTANA_RAFAGA_MS;
+    private BufferPool cuadros;
+    private volatile ExecutorService evaluadores;
+    private final ConcurrentLinkedQueue<EvaluadorCalidad> puntuadores = new ConcurrentLinkedQueue<>();
+    private List<Cuadro> rafaga = new ArrayList<>();
+    private volatile long proximoCuadro;
+    private volatile JSONArray ultimaRafaga;
+    private volatile ProcesadorImagen.Resultado ultimoProcesado;
+    // Arreglos asignados por los pools desde el inicio de la captura hasta el JPEG
+    private volatile int asignacionesInicio;
+    private volatile int ultimasAsignaciones;
+
+    public CamaraNativa(Context context, BufferPool pool, Listener listener) {
+        this.context = context;
+        this.pool = pool;
+        this.listener = listener;
+    }
+
+    /**
+     * Cambia la resolucion de captura solicitada. Debe llamarse antes de abrir().
+     */
+    public void setResolucionObjetivo(int ancho, int alto) {
+        this.anchoObjetivo = ancho;
+        this.altoObjetivo = alto;
+    }
+
+    /**
+     * Asigna el detector que analiza los cuadros de la vista previa mientras no hay captura pendiente.
+     */
+    public void setDetectorRostro(DetectorRostro detector) {
+        this.detector = detector;
+    }
+
+    /**
+     * Asigna el control de calidad que se aplica a cada foto antes de codificarla.
+     */
+    public void setEvaluadorCalidad(EvaluadorCalidad evaluador) {
+        this.evaluador = evaluador;
+    }
+
+    /**
+     * Asigna el procesador que recorta, escala y codifica el cuadro elegido sin pasar por Bitmap.
+     * Debe admitir NV21; sin procesador el cuadro se codifica completo.
+     */
+    public void setProcesador(ProcesadorImagen procesador) {
+        this.procesador = procesador;
+    }
+
+    /**
+     * Configura la rafaga: cantidad de cuadros por captura y ventana de tiempo en la que se toman.
+     * Debe llamarse antes de abrir().
+     */
+    public void setRafaga(int cuadros, int ventanaMs) {
+        this.cuadrosRafaga = Math.max(1, cuadros);
+        this.ventanaRafagaMs = Math.max(0, ventanaMs);
+    }
+
+    /**
+     * Abre la camara frontal y muestra la vista previa en el TextureView indicado.
+     */
+    public void abrir(TextureView vista) {
+        this.vistaPrevia = vista;
+
+        hiloCamara = new HandlerThread("EnextCamara");
+        hiloCamara.start();
+        handlerCamara = new Handler(hiloCamara.getLooper());
+        codificador = Executors.newSingleThreadExecutor();
+        // Cuadro y rotacion por cuadro de la rafaga, mas el recorte y el escalado del elegido
+        cuadros = new BufferPool(2 * cuadrosRafaga + 2);
+        if (cuadrosRafaga > 1) {
+            int hilos = Math.min(HILOS_EVALUACION, Runtime.getRuntime().availableProcessors() - 1);
+            evaluadores = Executors.newFixedThreadPool(Math.max(1, Math.min(cuadrosRafaga, hilos)));
+        }
+
+        if (vista.isAvailable()) {
+            abrirCamara();
+        } else {
+            vista.setSurfaceTextureListener(new TextureView.SurfaceTextureListener() {
+                @Override
+                public void onSurfaceTextureAvailable(SurfaceTexture superficie, int ancho, int alto) {
+                    abrirCamara();
+                }
+
+                @Override
+                public void onSurfaceTextureSizeChanged(SurfaceTexture superficie, int ancho, int alto) {
+                    ajustarVistaPrevia();
+                }
+
+                @Override
+                public boolean onSurfaceTextureDestroyed(SurfaceTexture superficie) {
+                    return true;
+                }
+
+                @Override
+                public void onSurfaceTextureUpdated(SurfaceTexture superficie) {
+                }
+            });
+        }
+    }
+
+    /**
+     * Solicita la siguiente imagen (o rafaga de imagenes) de la camara y codifica a JPEG en segundo plano
+     * la mejor de ellas.
+     */
+    public void capturar(CapturaCallback callback) {
+        if (cerrada || camara == null || lector == null) {
+            callback.onCapturaError("Camara no activa");
+            return;
+        }
+        inicioCaptura = SystemClock.elapsedRealtime();
+        proximoCuadro = 0;
+        ultimaRafaga = null;
+        ultimoProcesado = null;
+        asignacionesInicio = cuadros.getAsignaciones() + pool.getAsignaciones();
+        capturaPendiente = callback;
+    }
+
+    /**
+     * true si la camara se tomo ya abierta de un precalentamiento.
+     */
+    public boolean isPreabierta() {
+        return preabierta;
+    }
+
+    /**
+     * true mientras hay una captura pendiente.
+     */
+    public boolean isCapturando() {
+        return capturaPendiente != null;
+    }
+
+    /**
+     * Suelta los buffers libres del pool de cuadros (con poca memoria); los que estan en uso
+     * vuelven al pool al terminar la captura.
+     */
+    public void liberarBuffers() {
+        BufferPool actual = cuadros;
+        if (actual != null) {
+            actual.vaciar();
+        }
+    }
+
+    /**
+     * Libera la camara, la sesion de captura y los hilos de fondo. La camara se cierra en su propio
+     * hilo y se espera a que termine antes de detener los ejecutores, para que ningun cuadro llegue a
+     * ellos despues; una captura a medio tomar termina con onCapturaCancelada().
+     */
+    public void cerrar() {
+        cerrada = true;
+        HandlerThread hilo = hiloCamara;
+        if (hilo == null) {
+            liberarCamara();
+        } else {
+            handlerCamara.post(new Runnable() {
+                @Override
+                public void run() {
+                    liberarCamara();
+                }
+            });
+            hilo.quitSafely();
+            try {
+                hilo.join(ESPERA_CIERRE_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (hilo.isAlive()) {
+                Log.e(TAG, "El hilo de la camara no termino en " + ESPERA_CIERRE_MS + " ms");
+            }
+            hiloCamara = null;
+        }
+        ExecutorService actual = codificador;
+        codificador = null;
+        if (actual != null) {
+            actual.shutdown();
+        }
+        actual = evaluadores;
+        evaluadores = null;
+        if (actual != null) {
+            actual.shutdown();
+        }
+    }
+
+    /**
+     * Cierra la sesion, el dispositivo y el lector, y cancela la captura pendiente. Corre en el hilo
+     * de la camara, el mismo que arma la rafaga en procesarImagen().
+     */
+    private void liberarCamara() {
+        CapturaCallback callback = capturaPendiente;
+        capturaPendiente = null;
+        if (sesion != null) {
+            sesion.close();
+            sesion = null;
+        }
+        if (camara != null) {
+            camara.close();
+            camara = null;
+        }
+        if (lector != null) {
+            lector.close();
+            lector = null;
+        }
+        if (superficiePrevia != null) {
+            superficiePrevia.release();
+            superficiePrevia = null;
+        }
+        if (callback != null) {
+            cancelarRafaga(callback);
+        }
+    }
+
+    /**
+     * Devuelve al pool los cuadros de una rafaga incompleta, esperando antes a que terminen de
+     * evaluarse, y avisa la cancelacion.
+     */
+    private void cancelarRafaga(CapturaCallback callback) {
+        List<Cuadro> tomados = rafaga;
+        rafaga = new ArrayList<>();
+        for (Cuadro cuadro : tomados) {
+            if (cuadro.futuro != null) {
+                try {
+                    cuadro.futuro.get();
+                } catch (Exception e) {
+                    Log.e(TAG, "Error al evaluar un cuadro: " + e.getMessage());
+                }
+            }
+            if (cuadro.rotada != null && cuadro.rotada != cuadro.nv21) {
+                cuadros.devolver(cuadro.rotada);
+            }
+            cuadros.devolver(cuadro.nv21);
+        }
+        Log.d(TAG, "Captura cancelada con " + tomados.size() + " cuadros tomados");
+        callback.onCapturaCancelada();
+    }
+
+    @SuppressLint("MissingPermission")
+    private void abrirCamara() {
+        if (cerrada) {
+            return;
+        }
+        try {
+            CameraManager manager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+            String idCamara = buscarCamaraFrontal(manager);
+            if (idCamara == null) {
+                listener.onCamaraError("No hay camara disponible");
+                return;
+            }
+
+            CameraCharacteristics caracteristicas = manager.getCameraCharacteristics(idCamara);
+            Integer orientacion = caracteristicas.get(CameraCharacteristics.SENSOR_ORIENTATION);
+            orientacionSensor = orientacion != null ? orientacion : 270;
+
+            StreamConfigurationMap mapa = caracteristicas.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+            tamanoCaptura = elegirTamano(mapa != null ? mapa.getOutputSizes(ImageFormat.YUV_420_888) : null,
+                    anchoObjetivo, altoObjetivo);
+
+            lector = ImageReader.newInstance(tamanoCaptura.getWidth(), tamanoCaptura.getHeight(),
+                    ImageFormat.YUV_420_888, 2);
+            lector.setOnImageAvailableListener(new ImageReader.OnImageAvailableListener() {
+                @Override
+                public void onImageAvailable(ImageReader reader) {
+                    procesarImagen(reader);
+                }
+            }, handlerCamara);
+
+            // Camara abierta por adelantado con precalentar(): solo falta la sesion de captura
+            final CameraDevice abierta = CamaraPreabierta.tomar(idCamara, estadoCamara);
+            preabierta = abierta != null;
+            if (abierta != null) {
+                handlerCamara.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        estadoCamara.onOpened(abierta);
+                    }
+                });
+            } else {
+                manager.openCamera(idCamara, estadoCamara, handlerCamara);
+            }
+        } catch (CameraAccessException | SecurityException e) {
+            Log.e(TAG, "Error al abrir la camara: " + e.getMessage());
+            listener.onCamaraError("No se pudo acceder a la camara");
+        }
+    }
+
+    private final CameraDevice.StateCallback estadoCamara = new CameraDevice.StateCallback() {
+        @Override
+        public void onOpened(CameraDevice dispositivo) {
+            // Abierta mientras se cerraba: nadie la va a usar
+            if (cerrada) {
+                dispositivo.close();
+                return;
+            }
+            camara = dispositivo;
+            crearSesion();
+        }
+
+        @Override
+        public void onDisconnected(CameraDevice dispositivo) {
+            dispositivo.close();
+            camara = null;
+        }
+
+        @Override
+        public void onError(CameraDevice dispositivo, int error) {
+            Log.e(TAG, "Error de camara: " + error);
+            dispositivo.close();
+            camara = null;
+            listener.onCamaraError("No se pudo acceder a la camara");
+        }
+    };
+
+    private void crearSesion() {
+        try {
+            SurfaceTexture textura = vistaPrevia.getSurfaceTexture();
+            textura.setDefaultBufferSize(tamanoCaptura.getWidth(), tamanoCaptura.getHeight());
+            superficiePrevia = new Surface(textura);
+            vistaPrevia.post(new Runnable() {
+                @Override
+                public void run() {
+                    ajustarVistaPrevia();
+                }
+            });
+
+            camara.createCaptureSession(Arrays.asList(superficiePrevia, lector.getSurface()),
+                    new CameraCaptureSession.StateCallback() {
+                        @Override
+                        public void onConfigured(CameraCaptureSession session) {
+                            if (camara == null) {
+                                return;
+                            }
+                            sesion = session;
+                            try {
+                                CaptureRequest.Builder builder = camara.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+                                builder.addTarget(superficiePrevia);
+                                builder.addTarget(lector.getSurface());
+                                builder.set(CaptureRequest.CONTROL_AF_MODE, CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+                                builder.set(CaptureRequest.CONTROL_AE_MODE, CameraMetadata.CONTROL_AE_MODE_ON);
+                                sesion.setRepeatingRequest(builder.build(), null, handlerCamara);
+                                listener.onCamaraAbierta();
+                            } catch (CameraAccessException e) {
+                                Log.e(TAG, "Error al iniciar la vista previa: " + e.getMessage());
+                                listener.onCamaraError("No se pudo iniciar la vista previa");
+                            }
+                        }
+
+                        @Override
+                        public void onConfigureFailed(CameraCaptureSession session) {
+                            listener.onCamaraError("No se pudo configurar la camara");
+                        }
+                    }, handlerCamara);
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "Error al crear la sesion: " + e.getMessage());
+            listener.onCamaraError("No se pudo configurar la camara");
+        }
+    }
+
+    /**
+     * Recibe cada cuadro de la camara. Si no hay una captura pendiente el cuadro solo se muestrea
+     * para el detector de rostro y se descarta de inmediato para no bloquear el flujo de la vista previa.
+     * Con una captura pendiente se toman los cuadros de la rafaga, espaciados en la ventana configurada.
+     */
+    private void procesarImagen(ImageReader reader) {
+        Image imagen = reader.acquireLatestImage();
+        if (imagen == null) {
+            return;
+        }
+        if (cerrada) {
+            imagen.close();
+            return;
+        }
+        if (!primerCuadroRecibido) {
+            primerCuadroRecibido = true;
+            listener.onPrimerCuadro();
+        }
+
+        final CapturaCallback callback = capturaPendiente;
+        long ahora = SystemClock.elapsedRealtime();
+        if (callback == null || ahora < proximoCuadro) {
+            try {
+                DetectorRostro actual = detector;
+                if (callback == null && actual != null) {
+                    actual.muestrear(imagen, orientacionSensor);
+                }
+            } finally {
+                imagen.close();
+            }
+            return;
+        }
+
+        final Cuadro cuadro = new Cuadro();
+        cuadro.indice = rafaga.size();
+        cuadro.ancho = imagen.getWidth();
+        cuadro.alto = imagen.getHeight();
+        try {
+            cuadro.nv21 = aNv21(imagen, cuadros.obtener(cuadro.ancho * cuadro.alto * 3 / 2));
+        } finally {
+            imagen.close();
+        }
+        rafaga.add(cuadro);
+        ExecutorService evaluacion = evaluadores;
+        if (cuadrosRafaga > 1 && evaluacion != null) {
+            try {
+                cuadro.futuro = evaluacion.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        puntuar(cuadro);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Cerrando: el cuadro se evalua en finalizarCaptura() o vuelve al pool al cancelar
+                Log.d(TAG, "Evaluacion del cuadro rechazada: camara cerrandose");
+            }
+        }
+        proximoCuadro = ahora + (cuadrosRafaga > 1 ? ventanaRafagaMs / (cuadrosRafaga - 1) : 0);
+
+        if (rafaga.size() < cuadrosRafaga) {
+            return;
+        }
+        ExecutorService codificacion = codificador;
+        if (codificacion == null) {
+            // Cerrando: liberarCamara() cancela la rafaga
+            return;
+        }
+        capturaPendiente = null;
+        final List<Cuadro> tomados = rafaga;
+        rafaga = new ArrayList<>();
+        final long inicio = inicioCaptura;
+        try {
+            codificacion.execute(new Runnable() {
+                @Override
+                public void run() {
+                    finalizarCaptura(tomados, callback, inicio);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rafaga = tomados;
+            cancelarRafaga(callback);
+        }
+    }
+
+    /**
+     * Rota el cuadro y calcula sus metricas de calidad (en el pool de evaluacion o en el codificador).
+     * Cada hilo usa su propio evaluador porque el analisis reutiliza buffers internos.
+     */
+    private void puntuar(Cuadro cuadro) {
+        long inicio = SystemClock.elapsedRealtime();
+        rotar(cuadro);
+        EvaluadorCalidad evaluadorCuadro = puntuadores.poll();
+        if (evaluadorCuadro == null) {
+            evaluadorCuadro = evaluador != null ? evaluador.copia() : new EvaluadorCalidad(null);
+        }
+        try {
+            cuadro.calidad = evaluadorCuadro.evaluar(cuadro.rotada, cuadro.anchoFinal, cuadro.altoFinal);
+        } finally {
+            puntuadores.offer(evaluadorCuadro);
+        }
+        cuadro.tiempoMs = SystemClock.elapsedRealtime() - inicio;
+    }
+
+    private void rotar(Cuadro cuadro) {
+        int grados = orientacionSensor;
+        boolean intercambia = grados % 180 != 0;
+        cuadro.anchoFinal = intercambia ? cuadro.alto : cuadro.ancho;
+        cuadro.altoFinal = intercambia ? cuadro.ancho : cuadro.alto;
+        cuadro.rotada = grados % 360 == 0 ? cuadro.nv21
+                : PasosImagen.rotarNv21(cuadro.nv21, cuadro.ancho, cuadro.alto, grados,
+                        cuadros.obtener(cuadro.ancho * cuadro.alto * 3 / 2));
+    }
+
+    /**
+     * Espera la evaluacion de la rafaga, elige el mejor cuadro y codifica solo ese a JPEG.
+     */
+    private void finalizarCaptura(List<Cuadro> tomados, CapturaCallback callback, long inicio) {
+        try {
+            Cuadro mejor = null;
+            for (Cuadro cuadro : tomados) {
+                if (cuadro.futuro != null) {
+                    cuadro.futuro.get();
+                } else if (evaluador != null) {
+                    puntuar(cuadro);
+                } else {
+                    rotar(cuadro);
+                }
+                if (mejor == null || esMejor(cuadro, mejor)) {
+                    mejor = cuadro;
+                }
+            }
+            ultimaRafaga = describirRafaga(tomados, mejor, SystemClock.elapsedRealtime() - inicio);
+
+            // El control de calidad usa la luminancia ya rotada, antes de gastar tiempo en codificar
+            if (evaluador != null && !mejor.calidad.aceptada) {
+                callback.onFotoRechazada(mejor.calidad);
+                return;
+            }
+
+            ImagenJpeg foto;
+            int ancho = mejor.anchoFinal;
+            int alto = mejor.altoFinal;
+            ProcesadorImagen actual = procesador;
+            if (actual != null) {
+                ProcesadorImagen.Resultado resultado = actual.procesarNv21(mejor.rotada, ancho, alto, cuadros);
+                ultimoProcesado = resultado;
+                foto = resultado.imagen;
+                ancho = resultado.ancho;
+                alto = resultado.alto;
+            } else {
+                YuvImage yuv = new YuvImage(mejor.rotada, ImageFormat.NV21, ancho, alto, null);
+                // El JPEG se escribe sobre un buffer del pool que luego se envia sin copias
+                BufferPool.Salida salida = new BufferPool.Salida(pool, ancho * alto / 4);
+                yuv.compressToJpeg(new Rect(0, 0, ancho, alto), CALIDAD_JPEG, salida);
+                foto = salida.aImagen();
+            }
+            ultimasAsignaciones = cuadros.getAsignaciones() + pool.getAsignaciones() - asignacionesInicio;
+
+            callback.onFotoCapturada(foto, ancho, alto,
+                    SystemClock.elapsedRealtime() - inicio, evaluador != null ? mejor.calidad : null);
+        } catch (Exception e) {
+            Log.e(TAG, "Error al codificar la foto: " + e.getMessage());
+            callback.onCapturaError("No se pudo procesar la foto");
+        } finally {
+            for (Cuadro cuadro : tomados) {
+                if (cuadro.rotada != cuadro.nv21) {
+                    cuadros.devolver(cuadro.rotada);
+                }
+                cuadros.devolver(cuadro.nv21);
+            }
+        }
+    }
+
+    /**
+     * Prefiere los cuadros que pasan el control de calidad y, entre ellos, el de mayor puntaje.
+     */
+    private static boolean esMejor(Cuadro cuadro, Cuadro actual) {
+        if (cuadro.calidad == null || actual.calidad == null) {
+            return false;
+        }
+        if (cuadro.calidad.aceptada != actual.calidad.aceptada) {
+            return cuadro.calidad.aceptada;
+        }
+        return cuadro.calidad.getPuntaje() > actual.calidad.getPuntaje();
+    }
+
+    private static JSONArray describirRafaga(List<Cuadro> tomados, Cuadro elegido, long tiempoMs) throws JSONException {
+        if (tomados.size() < 2) {
+            return null;
+        }
+        JSONArray descripcion = new JSONArray();
+        for (Cuadro cuadro : tomados) {
+            JSONObject json = new JSONObject();
+            json.put("indice", cuadro.indice);
+            json.put("nitidez", Math.round(cuadro.calidad.nitidez));
+            json.put("confianzaRostro", Math.round(cuadro.calidad.confianzaRostro * 100) / 100.0);
+            json.put("puntaje", Math.round(cuadro.calidad.getPuntaje()));
+            json.put("tiempoEvaluacionMs", cuadro.tiempoMs);
+            json.put("elegido", cuadro == elegido);
+            descripcion.put(json);
+        }
+        return descripcion;
+    }
+
+    /**
+     * Metricas de la ultima rafaga (un elemento por cuadro), o null si fue una captura simple.
+     */
+    public JSONArray getUltimaRafaga() {
+        return ultimaRafaga;
+    }
+
+    /**
+     * Recorte y codificacion de la ultima foto si los hizo el procesador sobre NV21, o null.
+     */
+    public ProcesadorImagen.Resultado getUltimoProcesado() {
+        return ultimoProcesado;
+    }
+
+    /**
+     * Arreglos que los pools tuvieron que asignar en la ultima captura (0 con los pools ya calientes).
+     */
+    public int getUltimasAsignaciones() {
+        return ultimasAsignaciones;
+    }
+
+    /**
+     * Cuadro tomado durante una captura, con sus buffers del pool.
+     */
+    private static class Cuadro {
+        int indice;
+        int ancho;
+        int alto;
+        int anchoFinal;
+        int altoFinal;
+        byte[] nv21;
+        byte[] rotada;
+        EvaluadorCalidad.Resultado calidad;
+        long tiempoMs;
+        Future<?> futuro;
+    }
+
+    /**
+     * Escala la vista previa para llenar el TextureView sin deformarla (recorte centrado).
+     */
+    private void ajustarVistaPrevia() {
+        if (vistaPrevia == null || tamanoCaptura == null) {
+            return;
+        }
+        float anchoVista = vistaPrevia.getWidth();
+        float altoVista = vistaPrevia.getHeight();
+        if (anchoVista == 0 || altoVista == 0) {
+            return;
+        }
+
+        // La pantalla esta fija en vertical: con el sensor a 90/270 grados el contenido llega rotado
+        boolean intercambia = orientacionSensor % 180 != 0;
+        float anchoContenido = intercambia ? tamanoCaptura.getHeight() : tamanoCaptura.getWidth();
+        float altoContenido = intercambia ? tamanoCaptura.getWidth() : tamanoCaptura.getHeight();
+        float escala = Math.max(anchoVista / anchoContenido, altoVista / altoContenido);
+
+        Matrix matriz = new Matrix();
+        matriz.setScale(anchoContenido * escala / anchoVista, altoContenido * escala / altoVista,
+                anchoVista / 2f, altoVista / 2f);
+        vistaPrevia.setTransform(matriz);
+    }
+
+    static String buscarCamaraFrontal(CameraManager manager) throws CameraAccessException {
+        String[] ids = manager.getCameraIdList();
+        for (String id : ids) {
+            Integer orientacion = manager.getCameraCharacteristics(id).get(CameraCharacteristics.LENS_FACING);
+            if (orientacion != null && orientacion == CameraCharacteristics.LENS_FACING_FRONT) {
+                return id;
+            }
+        }
+        return ids.length > 0 ? ids[0] : null;
+    }
+
+    /**
+     * Elige el tamano mas cercano al objetivo sin superarlo.
+     */
+    private static Size elegirTamano(Size[] opciones, int anchoObjetivo, int altoObjetivo) {
+        if (opciones == null || opciones.length == 0) {
+            return new Size(anchoObjetivo, altoObjetivo);
+        }
+        Size mejor = null;
+        for (Size opcion : opciones) {
+            if (opcion.getWidth() == anchoObjetivo && opcion.getHeight() == altoObjetivo) {
+                return opcion;
+            }
+            if (opcion.getWidth() <= anchoObjetivo && opcion.getHeight() <= altoObjetivo
+                    && (mejor == null || opcion.getWidth() * opcion.getHeight() > mejor.getWidth() * mejor.getHeight())) {
+                mejor = opcion;
+            }
+        }
+        return mejor != null ? mejor : opciones[opciones.length - 1];
+    }
+
+    /**
+     * Convierte una imagen YUV_420_888 a NV21 respetando rowStride y pixelStride de cada plano.
+     */
+    static byte[] aNv21(Image imagen) {
+        return aNv21(imagen, new byte[imagen.getWidth() * imagen.getHeight() * 3 / 2]);
+    }
+
+    /**
+     * Igual que aNv21(Image), escribiendo sobre un arreglo existente (por ejemplo, del pool).
+     */
+    static byte[] aNv21(Image imagen, byte[] nv21) {
+        int ancho = imagen.getWidth();
+        int alto = imagen.getHeight();
+        int tamanoY = ancho * alto;
+        Image.Plane[] planos = imagen.getPlanes();
+
+        ByteBuffer y = planos[0].getBuffer();
+        int pasoFilaY = planos[0].getRowStride();
+        if (pasoFilaY == ancho) {
+            y.get(nv21, 0, tamanoY);
+        } else {
+            for (int fila = 0; fila < alto; fila++) {
+                y.position(fila * pasoFilaY);
+                y.get(nv21, fila * ancho, ancho);
+            }
+        }
+
+        ByteBuffer u = planos[1].getBuffer();
+        ByteBuffer v = planos[2].getBuffer();
+        int pasoFilaUV = planos[1].getRowStride();
+        int pasoPixelUV = planos[1].getPixelStride();
+        int pos = tamanoY;
+        for (int fila = 0; fila < alto / 2; fila++) {
+            int base = fila * pasoFilaUV;
+            for (int col = 0; col < ancho / 2; col++) {
+                int indice = base + col * pasoPixelUV;
+                nv21[pos++] = v.get(indice);
+                nv21[pos++] = u.get(indice);
+            }
+        }
+        return nv21;
+    }
+}
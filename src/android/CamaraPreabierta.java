@@ -0,0 +1,192 @@
+package com.enext.biometria;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+/**
+ * Camara frontal abierta antes de la pantalla (accion precalentar, modoCaptura 'nativo'). En
+ * equipos de gama baja openCamera() tarda cientos de ms; CamaraNativa toma el dispositivo ya
+ * abierto y solo crea la sesion de captura. Si nadie la toma en la duracion indicada se cierra.
+ *
+ * Los callbacks del dispositivo quedan atados al StateCallback con el que se abrio: despues de
+ * tomarla, la desconexion y los errores se reenvian al StateCallback de CamaraNativa.
+ */
+final class CamaraPreabierta {
+
+    private static final String TAG = "CamaraPreabierta";
+
+    /**
+     * Resultado de la apertura.
+     */
+    interface Listener {
+        void onAbierta();
+        void onError(String mensaje);
+    }
+
+    private static HandlerThread hilo;
+    private static Handler handler;
+    private static CameraDevice camara;
+    private static Listener listener;
+    private static boolean cerrando;
+    // StateCallback de quien tomo la camara
+    private static CameraDevice.StateCallback destino;
+    private static final Runnable VENCIMIENTO = new Runnable() {
+        @Override
+        public void run() {
+            Log.d(TAG, "Camara preabierta sin usar, se cierra");
+            cerrar();
+        }
+    };
+
+    private CamaraPreabierta() {
+    }
+
+    /**
+     * Abre la camara frontal y la mantiene abierta duracionMs. Si ya estaba abierta (o abriendose)
+     * solo se extiende su duracion.
+     */
+    @SuppressLint("MissingPermission")
+    static synchronized void abrir(Context context, long duracionMs, Listener nuevo) {
+        if (destino != null || cerrando) {
+            nuevo.onError(destino != null ? "La camara esta en uso" : "La camara se esta cerrando");
+            return;
+        }
+        listener = nuevo;
+        if (hilo != null) {
+            programarCierre(duracionMs);
+            if (camara != null) {
+                nuevo.onAbierta();
+            }
+            return;
+        }
+        try {
+            CameraManager manager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+            String idCamara = CamaraNativa.buscarCamaraFrontal(manager);
+            if (idCamara == null) {
+                nuevo.onError("No hay camara disponible");
+                return;
+            }
+            hilo = new HandlerThread("EnextCamaraPreabierta");
+            hilo.start();
+            handler = new Handler(hilo.getLooper());
+            programarCierre(duracionMs);
+            manager.openCamera(idCamara, ESTADO, handler);
+        } catch (CameraAccessException | SecurityException e) {
+            Log.e(TAG, "No se pudo preabrir la camara: " + e.getMessage());
+            terminarHilo();
+            nuevo.onError("No se pudo acceder a la camara");
+        }
+    }
+
+    /**
+     * Entrega la camara si esta abierta y es la indicada, o null. Desde ese momento quien la toma
+     * es responsable de cerrarla y recibe sus callbacks en estadoCamara.
+     */
+    static synchronized CameraDevice tomar(String idCamara, CameraDevice.StateCallback estadoCamara) {
+        if (camara == null || cerrando || !camara.getId().equals(idCamara)) {
+            return null;
+        }
+        handler.removeCallbacks(VENCIMIENTO);
+        CameraDevice tomada = camara;
+        camara = null;
+        destino = estadoCamara;
+        Log.d(TAG, "Camara preabierta entregada");
+        return tomada;
+    }
+
+    /**
+     * Cierra la camara si sigue sin usarse (o cancela su apertura).
+     */
+    static synchronized void cerrar() {
+        if (hilo == null || destino != null) {
+            return;
+        }
+        cerrando = true;
+        handler.removeCallbacks(VENCIMIENTO);
+        if (camara != null) {
+            camara.close();
+            camara = null;
+        }
+    }
+
+    private static void programarCierre(long duracionMs) {
+        handler.removeCallbacks(VENCIMIENTO);
+        handler.postDelayed(VENCIMIENTO, duracionMs);
+    }
+
+    private static void terminarHilo() {
+        if (hilo != null) {
+            hilo.quitSafely();
+        }
+        hilo = null;
+        handler = null;
+        camara = null;
+        destino = null;
+        cerrando = false;
+    }
+
+    private static final CameraDevice.StateCallback ESTADO = new CameraDevice.StateCallback() {
+        @Override
+        public void onOpened(CameraDevice dispositivo) {
+            Listener avisar;
+            synchronized (CamaraPreabierta.class) {
+                if (cerrando) {
+                    dispositivo.close();
+                    return;
+                }
+                camara = dispositivo;
+                avisar = listener;
+            }
+            Log.d(TAG, "Camara preabierta");
+            avisar.onAbierta();
+        }
+
+        @Override
+        public void onDisconnected(CameraDevice dispositivo) {
+            CameraDevice.StateCallback actual;
+            synchronized (CamaraPreabierta.class) {
+                actual = destino;
+                camara = null;
+            }
+            if (actual != null) {
+                actual.onDisconnected(dispositivo);
+            } else {
+                dispositivo.close();
+            }
+        }
+
+        @Override
+        public void onError(CameraDevice dispositivo, int error) {
+            CameraDevice.StateCallback actual;
+            Listener avisar;
+            synchronized (CamaraPreabierta.class) {
+                actual = destino;
+                avisar = camara == null && !cerrando ? listener : null;
+                camara = null;
+            }
+            if (actual != null) {
+                actual.onError(dispositivo, error);
+                return;
+            }
+            Log.e(TAG, "Error de camara preabierta: " + error);
+            dispositivo.close();
+            if (avisar != null) {
+                avisar.onError("No se pudo acceder a la camara");
+            }
+        }
+
+        @Override
+        public void onClosed(CameraDevice dispositivo) {
+            // Cerrada por quien la tomo, por vencimiento o por error: el hilo ya no se necesita
+            synchronized (CamaraPreabierta.class) {
+                terminarHilo();
+            }
+        }
+    };
+}
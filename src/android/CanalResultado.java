@@ -0,0 +1,101 @@
+package com.enext.biometria;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ResultReceiver;
+import android.util.Log;
+
+import org.json.JSONObject;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Canal entre BiometriaActivityProceso (proceso ':biometria') y el plugin. El resultado completo de
+ * la pantalla (diagnostico, metricas, datos biometricos) llega por este ResultReceiver, una llamada
+ * binder directa al proceso de la app, y no como extras del resultado de la actividad, que pasan
+ * por system_server; setResult() solo lleva el aviso EXTRA_ENTREGADO. Las validaciones que se
+ * encolan sin red tambien pasan por aqui, para que solo el proceso de la app escriba el journal
+ * de ColaOffline.
+ */
+class CanalResultado {
+
+    private static final String TAG = "CanalResultado";
+
+    // Extra del Intent de la pantalla y aviso en su setResult()
+    static final String EXTRA_CANAL = "canalResultado";
+    static final String EXTRA_ENTREGADO = "entregadoPorCanal";
+
+    // Codigos del ResultReceiver: el resultado usa Activity.RESULT_OK / RESULT_CANCELED
+    static final int ENCOLAR = 1;
+    static final int ENCOLADA = 2;
+    static final int ERROR_ENCOLAR = 3;
+
+    /**
+     * Recibe el resultado de la pantalla, reconstruido como el Intent de onActivityResult().
+     */
+    interface Listener {
+        void onResultado(int resultCode, Intent resultado);
+    }
+
+    private final ResultReceiver receptor;
+
+    CanalResultado(Context context, final ExecutorService hilos, final Listener listener) {
+        final Context aplicacion = context.getApplicationContext();
+        this.receptor = new ResultReceiver(new Handler(Looper.getMainLooper())) {
+            @Override
+            protected void onReceiveResult(int codigo, final Bundle datos) {
+                if (codigo == ENCOLAR) {
+                    // ColaOffline.encolar() bloquea hasta escribir en disco
+                    hilos.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            encolar(aplicacion, datos);
+                        }
+                    });
+                    return;
+                }
+                Intent resultado = new Intent();
+                if (datos != null) {
+                    resultado.putExtras(datos);
+                }
+                listener.onResultado(codigo, resultado);
+            }
+        };
+    }
+
+    /**
+     * Receptor que la pantalla recibe en EXTRA_CANAL.
+     */
+    ResultReceiver getReceptor() {
+        return receptor;
+    }
+
+    /**
+     * Guarda en la cola de este proceso la validacion enviada por la pantalla y le responde
+     * ENCOLADA (con el idCola) o ERROR_ENCOLAR por el receptor que vino en los datos.
+     */
+    private static void encolar(Context context, Bundle datos) {
+        ResultReceiver respuesta = datos.getParcelable("respuesta");
+        Bundle resultado = new Bundle();
+        try {
+            byte[] imagen = datos.getByteArray("imagen");
+            String idCola = EnextBiometria.getColaOffline(context).encolar(
+                    new JSONObject(datos.getString("datos")), imagen, imagen.length);
+            resultado.putString("idCola", idCola);
+            respuesta.send(ENCOLADA, resultado);
+        } catch (Exception e) {
+            Log.e(TAG, "No se pudo encolar la validacion: " + e.getMessage());
+            respuesta.send(ERROR_ENCOLAR, resultado);
+        }
+    }
+
+    /**
+     * true si el resultado de la actividad es solo el aviso de un resultado ya enviado por el canal.
+     */
+    static boolean esAviso(Intent intent) {
+        return intent != null && intent.getBooleanExtra(EXTRA_ENTREGADO, false);
+    }
+}
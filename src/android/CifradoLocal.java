@@ -0,0 +1,86 @@
+package com.enext.biometria;
+
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * Cifrado en reposo para los datos que el plugin guarda en disco.
+ * Usa una clave AES-256 del Android Keystore (no exportable) en modo GCM: cada bloque cifrado
+ * lleva su IV aleatorio al inicio y cualquier alteracion se detecta al descifrar.
+ */
+final class CifradoLocal {
+
+    private static final String KEYSTORE = "AndroidKeyStore";
+    private static final String TRANSFORMACION = "AES/GCM/NoPadding";
+    private static final int LARGO_IV = 12;
+    private static final int LARGO_TAG_BITS = 128;
+
+    private final SecretKey clave;
+
+    /**
+     * Obtiene (o crea la primera vez) la clave con el alias indicado.
+     */
+    CifradoLocal(String alias) throws IOException {
+        try {
+            KeyStore almacen = KeyStore.getInstance(KEYSTORE);
+            almacen.load(null);
+            KeyStore.Entry entrada = almacen.getEntry(alias, null);
+            if (entrada instanceof KeyStore.SecretKeyEntry) {
+                clave = ((KeyStore.SecretKeyEntry) entrada).getSecretKey();
+                return;
+            }
+            KeyGenerator generador = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, KEYSTORE);
+            generador.init(new KeyGenParameterSpec.Builder(alias,
+                    KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+                    .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+                    .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+                    .setKeySize(256)
+                    .build());
+            clave = generador.generateKey();
+        } catch (GeneralSecurityException e) {
+            throw new IOException("No se pudo obtener la clave de cifrado", e);
+        }
+    }
+
+    /**
+     * Cifra los datos; el resultado es IV + texto cifrado + tag.
+     */
+    byte[] cifrar(byte[] datos, int largo) throws IOException {
+        try {
+            Cipher cifrador = Cipher.getInstance(TRANSFORMACION);
+            cifrador.init(Cipher.ENCRYPT_MODE, clave);
+            byte[] iv = cifrador.getIV();
+            byte[] salida = new byte[iv.length + cifrador.getOutputSize(largo)];
+            System.arraycopy(iv, 0, salida, 0, iv.length);
+            cifrador.doFinal(datos, 0, largo, salida, iv.length);
+            return salida;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("No se pudo cifrar", e);
+        }
+    }
+
+    /**
+     * Descifra un bloque generado por cifrar(). Falla si el bloque fue alterado o esta incompleto.
+     */
+    byte[] descifrar(byte[] bloque) throws IOException {
+        if (bloque.length <= LARGO_IV) {
+            throw new IOException("Bloque cifrado incompleto");
+        }
+        try {
+            Cipher cifrador = Cipher.getInstance(TRANSFORMACION);
+            cifrador.init(Cipher.DECRYPT_MODE, clave, new GCMParameterSpec(LARGO_TAG_BITS, bloque, 0, LARGO_IV));
+            return cifrador.doFinal(bloque, LARGO_IV, bloque.length - LARGO_IV);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("No se pudo descifrar", e);
+        }
+    }
+}
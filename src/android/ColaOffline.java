@@ -0,0 +1,640 @@
+package com.enext.biometria;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.util.Log;
+
+import com.enext.biometria.core.PoliticaReintento;
+import com.enext.biometria.core.ResultadoValidacion;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cola persistente de validaciones capturadas sin conexion (store-and-forward).
+ *
+ * Cada validacion se agrega a un journal en disco de solo agregado, cifrado con CifradoLocal.
+ * Registros: ALTA (datos + imagen), RESUELTA (resultado del servidor) y ENTREGADA (resultado
+ * entregado al JavaScript). El journal no guarda la contrasena ni el access_token: la contrasena se
+ * pide a Credenciales al enviar, y los envios esperan a reanudar(). Al recuperar la conexion se envian lotes de hasta LOTE validaciones;
+ * si la red falla se reintenta con espera exponencial y jitter. Un registro incompleto al final
+ * del archivo (corte durante la escritura) se descarta al cargar.
+ * Todas las operaciones sobre el journal corren en un unico hilo.
+ */
+public class ColaOffline {
+
+    private static final String TAG = "ColaOffline";
+
+    private static final String ARCHIVO = "enext_cola.journal";
+    private static final String ALIAS_CLAVE = "enext_biometria_cola";
+
+    private static final byte TIPO_ALTA = 1;
+    private static final byte TIPO_RESUELTA = 2;
+    private static final byte TIPO_ENTREGADA = 3;
+
+    static final int LOTE = 4;
+    static final long ESPERA_BASE_MS = 2000;
+    static final long ESPERA_MAXIMA_MS = 5 * 60 * 1000;
+    private static final PoliticaReintento REINTENTO = new PoliticaReintento(ESPERA_BASE_MS, ESPERA_MAXIMA_MS);
+    // Bytes de registros ya entregados a partir de los cuales se reescribe el journal
+    private static final long UMBRAL_COMPACTACION = 4 * 1024 * 1024;
+
+    /**
+     * Recibe el resultado de cada validacion encolada (en el hilo de la cola).
+     */
+    public interface Listener {
+        void onResultado(JSONObject resultado);
+    }
+
+    /**
+     * Contrasena configurada en el plugin para el usuario del endpoint de token (null si no hay).
+     */
+    public interface Credenciales {
+        String password(String tokenEndpoint, String username);
+    }
+
+    /**
+     * Validacion encolada: datos en memoria y ubicacion de sus registros en el journal.
+     */
+    private static class Entrada {
+        String id;
+        JSONObject datos;
+        long posicionAlta;
+        int largoAlta;
+        long posicionResuelta = -1;
+        int largoResuelta;
+        JSONObject resultado;
+        int intentos;
+    }
+
+    private final Context context;
+    private final BiometriaHttpClient client;
+    private final TokenCache tokens;
+    private final Credenciales credenciales;
+    private final File archivo;
+    private final ScheduledExecutorService hilo;
+    private final Random aleatorio = new Random();
+    private final Map<String, Entrada> entradas = new LinkedHashMap<>();
+
+    private CifradoLocal cifrado;
+    private Listener listener;
+    private ScheduledFuture<?> proximoProceso;
+    private int enviosEnCurso;
+    private boolean falloRedEnLote;
+    private int fallosConsecutivos;
+    private long bytesMuertos;
+    // El plugin ya recibio credenciales en esta ejecucion: se puede enviar
+    private boolean reanudada;
+    private volatile int pendientes;
+
+    public ColaOffline(Context context, BiometriaHttpClient client, TokenCache tokens, Credenciales credenciales) {
+        this.context = context.getApplicationContext();
+        this.client = client;
+        this.tokens = tokens;
+        this.credenciales = credenciales;
+        this.archivo = new File(this.context.getNoBackupFilesDir(), ARCHIVO);
+        this.hilo = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "EnextColaOffline");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        hilo.execute(new Runnable() {
+            @Override
+            public void run() {
+                cargar();
+                escucharRed();
+                procesar();
+            }
+        });
+    }
+
+    /**
+     * Indica si quedaron validaciones en el journal de una ejecucion anterior.
+     */
+    static boolean hayJournal(Context context) {
+        return new File(context.getApplicationContext().getNoBackupFilesDir(), ARCHIVO).length() > 0;
+    }
+
+    /**
+     * Habilita los envios: el plugin recibio credenciales y Credenciales puede responder. Hasta
+     * entonces las validaciones (incluidas las de una ejecucion anterior) esperan en el journal.
+     */
+    public void reanudar() {
+        hilo.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!reanudada) {
+                    reanudada = true;
+                    programar(0);
+                }
+            }
+        });
+    }
+
+    /**
+     * Agrega una validacion al journal y retorna su id. Bloquea hasta que el registro esta en disco.
+     * datos: cedula, codDactilar, tokenEndpoint, biometriaEndpoint, username, modoEnvio, tipoMime y
+     * sesionId.
+     */
+    public String encolar(final JSONObject datos, final byte[] imagen, final int largo) throws IOException {
+        try {
+            return hilo.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    Entrada entrada = new Entrada();
+                    entrada.id = UUID.randomUUID().toString();
+                    entrada.datos = datos;
+                    // La contrasena nunca llega al disco; al enviar se pide a Credenciales
+                    datos.remove("password");
+                    datos.put("encoladaEn", System.currentTimeMillis());
+
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream(largo + 1024);
+                    DataOutputStream salida = new DataOutputStream(bytes);
+                    salida.writeByte(TIPO_ALTA);
+                    salida.writeUTF(entrada.id);
+                    byte[] json = datos.toString().getBytes(StandardCharsets.UTF_8);
+                    escribirBloque(salida, json, 0, json.length);
+                    escribirBloque(salida, imagen, 0, largo);
+                    salida.flush();
+
+                    long[] ubicacion = agregar(bytes.toByteArray());
+                    entrada.posicionAlta = ubicacion[0];
+                    entrada.largoAlta = (int) ubicacion[1];
+                    entradas.put(entrada.id, entrada);
+                    actualizarPendientes();
+                    Log.d(TAG, "Validacion encolada: " + entrada.id + " (" + pendientes + " pendientes)");
+                    programar(0);
+                    return entrada.id;
+                }
+            }).get();
+        } catch (Exception e) {
+            Throwable causa = e.getCause() != null ? e.getCause() : e;
+            throw causa instanceof IOException ? (IOException) causa : new IOException(causa);
+        }
+    }
+
+    /**
+     * Registra quien recibe los resultados y le entrega los que estaban esperando.
+     */
+    public void setListener(final Listener nuevo) {
+        hilo.execute(new Runnable() {
+            @Override
+            public void run() {
+                listener = nuevo;
+                for (Entrada entrada : new ArrayList<>(entradas.values())) {
+                    if (entrada.resultado != null) {
+                        entregar(entrada);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Validaciones que aun no tienen respuesta del servidor.
+     */
+    public int getPendientes() {
+        return pendientes;
+    }
+
+    /**
+     * Lee el journal completo y reconstruye el estado. Descarta un registro final incompleto o alterado.
+     */
+    private void cargar() {
+        if (!archivo.exists()) {
+            return;
+        }
+        long posicion = 0;
+        try (DataInputStream entrada = new DataInputStream(new BufferedInputStream(new FileInputStream(archivo)))) {
+            while (true) {
+                int largo;
+                try {
+                    largo = entrada.readInt();
+                } catch (EOFException fin) {
+                    break;
+                }
+                byte[] bloque = new byte[largo];
+                entrada.readFully(bloque);
+                aplicarRegistro(obtenerCifrado().descifrar(bloque), posicion, 4 + largo);
+                posicion += 4 + largo;
+            }
+        } catch (IOException | JSONException e) {
+            Log.e(TAG, "Journal danado desde la posicion " + posicion + ": " + e.getMessage());
+            truncar(posicion);
+        }
+        actualizarPendientes();
+        compactar();
+        Log.d(TAG, "Journal cargado: " + entradas.size() + " validaciones");
+    }
+
+    private void aplicarRegistro(byte[] plano, long posicion, int largo) throws IOException, JSONException {
+        DataInputStream registro = new DataInputStream(new ByteArrayInputStream(plano));
+        byte tipo = registro.readByte();
+        String id = registro.readUTF();
+        if (tipo == TIPO_ALTA) {
+            Entrada entrada = new Entrada();
+            entrada.id = id;
+            entrada.datos = new JSONObject(new String(leerBloque(registro), StandardCharsets.UTF_8));
+            entrada.posicionAlta = posicion;
+            entrada.largoAlta = largo;
+            entradas.put(id, entrada);
+        } else if (tipo == TIPO_RESUELTA) {
+            Entrada entrada = entradas.get(id);
+            if (entrada != null) {
+                entrada.resultado = new JSONObject(new String(leerBloque(registro), StandardCharsets.UTF_8));
+                entrada.posicionResuelta = posicion;
+                entrada.largoResuelta = largo;
+            }
+        } else if (tipo == TIPO_ENTREGADA) {
+            Entrada entrada = entradas.remove(id);
+            if (entrada != null) {
+                bytesMuertos += entrada.largoAlta + entrada.largoResuelta;
+            }
+            bytesMuertos += largo;
+        }
+    }
+
+    /**
+     * Envia el siguiente lote de validaciones pendientes si hay red y no hay otro lote en curso.
+     */
+    private void procesar() {
+        if (enviosEnCurso > 0 || !reanudada) {
+            return;
+        }
+        List<Entrada> lote = new ArrayList<>();
+        for (Entrada entrada : entradas.values()) {
+            if (entrada.resultado == null) {
+                lote.add(entrada);
+                if (lote.size() >= LOTE) {
+                    break;
+                }
+            }
+        }
+        if (lote.isEmpty() || !hayRed()) {
+            return;
+        }
+
+        Log.d(TAG, "Enviando lote de " + lote.size() + " validaciones");
+        falloRedEnLote = false;
+        for (Entrada entrada : lote) {
+            try {
+                byte[][] imagen = new byte[1][];
+                leerAlta(entrada, imagen);
+                enviosEnCurso++;
+                enviar(entrada, imagen[0]);
+            } catch (IOException | JSONException e) {
+                Log.e(TAG, "No se pudo leer la validacion " + entrada.id + ": " + e.getMessage());
+                resolver(entrada, resultadoFallido(entrada, "QUEUE_READ_ERROR", "No se pudo leer la validacion encolada"));
+            }
+        }
+    }
+
+    private void enviar(final Entrada entrada, final byte[] imagen) {
+        final JSONObject datos = entrada.datos;
+        final String tokenEndpoint = datos.optString("tokenEndpoint");
+        final String username = datos.optString("username");
+        final String password = credenciales.password(tokenEndpoint, username);
+        if (password == null) {
+            Log.e(TAG, "Sin credenciales para la validacion " + entrada.id);
+            terminarEnvio(entrada, resultadoFallido(entrada, "CREDENTIALS_NOT_CONFIGURED",
+                    "No hay credenciales configuradas para el usuario de la validacion"));
+            return;
+        }
+        entrada.intentos++;
+        tokens.obtener(tokenEndpoint, username, password,
+            new BiometriaHttpClient.Callback<TokenCache.Resultado>() {
+                @Override
+                public void onExito(final TokenCache.Resultado token) {
+                    ImagenJpeg foto = new ImagenJpeg(imagen, imagen.length, null);
+                    foto.setTipoMime(datos.optString("tipoMime", "image/jpeg"));
+                    final TokenCache.Renovador renovador = tokens.renovador(tokenEndpoint, username, password,
+                        token.token);
+                    client.validarBiometria(datos.optString("biometriaEndpoint"), datos.optString("cedula"),
+                        datos.optString("codDactilar"), token.token, foto,
+                        datos.optString("modoEnvio", CuerpoValidacion.MODO_JSON), entrada.id, renovador,
+                        new BiometriaHttpClient.Callback<JSONObject>() {
+                            @Override
+                            public void onExito(JSONObject respuesta) {
+                                terminarEnvio(entrada, resultadoExitoso(entrada, renovador.getToken(), respuesta));
+                            }
+
+                            @Override
+                            public void onError(BiometriaException error) {
+                                terminarEnvio(entrada, reintentable(error) ? null
+                                        : resultadoFallido(entrada, error.getCodigo(), error.getMessage()));
+                            }
+                        });
+                }
+
+                @Override
+                public void onError(BiometriaException error) {
+                    terminarEnvio(entrada, reintentable(error) ? null
+                            : resultadoFallido(entrada, error.getCodigo(), error.getMessage()));
+                }
+            });
+    }
+
+    /**
+     * Fallos de red, timeouts, HTTP 5xx y circuito abierto: la validacion sigue en la cola.
+     */
+    private static boolean reintentable(BiometriaException error) {
+        return error.esTransitorio() || BiometriaHttpClient.CIRCUIT_OPEN.equals(error.getCodigo());
+    }
+
+    /**
+     * Cierra el envio de una validacion. resultado null indica fallo transitorio: se reintenta despues.
+     */
+    private void terminarEnvio(final Entrada entrada, final JSONObject resultado) {
+        hilo.execute(new Runnable() {
+            @Override
+            public void run() {
+                enviosEnCurso--;
+                if (resultado != null) {
+                    resolver(entrada, resultado);
+                } else {
+                    falloRedEnLote = true;
+                }
+                if (enviosEnCurso > 0) {
+                    return;
+                }
+                if (falloRedEnLote) {
+                    fallosConsecutivos++;
+                    long espera = REINTENTO.espera(fallosConsecutivos, aleatorio);
+                    Log.d(TAG, "Fallo transitorio, reintento en " + espera + " ms");
+                    programar(espera);
+                } else {
+                    fallosConsecutivos = 0;
+                    programar(0);
+                }
+            }
+        });
+    }
+
+    /**
+     * Registra el resultado y lo entrega. El access_token solo viaja en memoria: si el proceso muere
+     * antes de entregarlo, el resultado recuperado del journal llega sin el.
+     */
+    private void resolver(Entrada entrada, JSONObject resultado) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream salida = new DataOutputStream(bytes);
+            salida.writeByte(TIPO_RESUELTA);
+            salida.writeUTF(entrada.id);
+            JSONObject persistido = new JSONObject(resultado.toString());
+            persistido.remove("accessToken");
+            byte[] json = persistido.toString().getBytes(StandardCharsets.UTF_8);
+            escribirBloque(salida, json, 0, json.length);
+            salida.flush();
+            long[] ubicacion = agregar(bytes.toByteArray());
+            entrada.posicionResuelta = ubicacion[0];
+            entrada.largoResuelta = (int) ubicacion[1];
+        } catch (IOException | JSONException e) {
+            // El resultado se entrega igual; si el proceso muere antes, la validacion se reenviara
+            Log.e(TAG, "No se pudo registrar el resultado: " + e.getMessage());
+        }
+        entrada.resultado = resultado;
+        actualizarPendientes();
+        entregar(entrada);
+    }
+
+    private void entregar(Entrada entrada) {
+        if (listener == null) {
+            return;
+        }
+        listener.onResultado(entrada.resultado);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream salida = new DataOutputStream(bytes);
+            salida.writeByte(TIPO_ENTREGADA);
+            salida.writeUTF(entrada.id);
+            salida.flush();
+            long[] ubicacion = agregar(bytes.toByteArray());
+            bytesMuertos += entrada.largoAlta + entrada.largoResuelta + ubicacion[1];
+        } catch (IOException e) {
+            Log.e(TAG, "No se pudo registrar la entrega: " + e.getMessage());
+        }
+        entradas.remove(entrada.id);
+        compactar();
+    }
+
+    private JSONObject resultadoExitoso(Entrada entrada, String token, JSONObject respuesta) {
+        JSONObject resultado = resultadoBase(entrada, "completada");
+        try {
+            resultado.put("accessToken", token);
+            resultado.put("biometricData", ResultadoValidacion.datosBiometricos(respuesta));
+        } catch (JSONException e) {
+            Log.e(TAG, "Error al crear resultado: " + e.getMessage());
+        }
+        return resultado;
+    }
+
+    private JSONObject resultadoFallido(Entrada entrada, String codigo, String mensaje) {
+        JSONObject resultado = resultadoBase(entrada, "fallida");
+        try {
+            resultado.put("code", codigo);
+            resultado.put("message", mensaje);
+        } catch (JSONException e) {
+            Log.e(TAG, "Error al crear resultado: " + e.getMessage());
+        }
+        return resultado;
+    }
+
+    private JSONObject resultadoBase(Entrada entrada, String estado) {
+        JSONObject resultado = new JSONObject();
+        try {
+            resultado.put("idCola", entrada.id);
+            resultado.put("estado", estado);
+            resultado.put("sesionId", entrada.datos.opt("sesionId"));
+            resultado.put("cedula", entrada.datos.optString("cedula"));
+            resultado.put("encoladaEn", entrada.datos.optLong("encoladaEn"));
+            resultado.put("resueltaEn", System.currentTimeMillis());
+            resultado.put("intentos", entrada.intentos);
+        } catch (JSONException e) {
+            Log.e(TAG, "Error al crear resultado: " + e.getMessage());
+        }
+        return resultado;
+    }
+
+    /**
+     * Vacia el journal cuando ya no quedan validaciones, o lo reescribe con los registros vigentes
+     * cuando los registros entregados superan el umbral.
+     */
+    private void compactar() {
+        if (entradas.isEmpty()) {
+            truncar(0);
+            bytesMuertos = 0;
+            return;
+        }
+        if (bytesMuertos < UMBRAL_COMPACTACION || enviosEnCurso > 0) {
+            return;
+        }
+        File temporal = new File(archivo.getPath() + ".tmp");
+        try (RandomAccessFile origen = new RandomAccessFile(archivo, "r");
+             FileOutputStream destino = new FileOutputStream(temporal)) {
+            long posicion = 0;
+            for (Entrada entrada : entradas.values()) {
+                entrada.posicionAlta = copiar(origen, entrada.posicionAlta, entrada.largoAlta, destino, posicion);
+                posicion += entrada.largoAlta;
+                if (entrada.posicionResuelta >= 0) {
+                    entrada.posicionResuelta = copiar(origen, entrada.posicionResuelta, entrada.largoResuelta,
+                            destino, posicion);
+                    posicion += entrada.largoResuelta;
+                }
+            }
+            destino.getFD().sync();
+        } catch (IOException e) {
+            Log.e(TAG, "No se pudo compactar el journal: " + e.getMessage());
+            temporal.delete();
+            return;
+        }
+        if (temporal.renameTo(archivo)) {
+            bytesMuertos = 0;
+            Log.d(TAG, "Journal compactado: " + archivo.length() + " bytes");
+        }
+    }
+
+    private static long copiar(RandomAccessFile origen, long desde, int largo, FileOutputStream destino,
+                               long nuevaPosicion) throws IOException {
+        byte[] registro = new byte[largo];
+        origen.seek(desde);
+        origen.readFully(registro);
+        destino.write(registro);
+        return nuevaPosicion;
+    }
+
+    /**
+     * Lee y descifra el registro ALTA de la entrada; deja la imagen en imagen[0].
+     */
+    private void leerAlta(Entrada entrada, byte[][] imagen) throws IOException, JSONException {
+        byte[] bloque = new byte[entrada.largoAlta - 4];
+        try (RandomAccessFile lector = new RandomAccessFile(archivo, "r")) {
+            lector.seek(entrada.posicionAlta + 4);
+            lector.readFully(bloque);
+        }
+        DataInputStream registro = new DataInputStream(new ByteArrayInputStream(obtenerCifrado().descifrar(bloque)));
+        registro.readByte();
+        registro.readUTF();
+        leerBloque(registro);
+        imagen[0] = leerBloque(registro);
+    }
+
+    /**
+     * Cifra el registro y lo agrega al final del journal con su largo. Retorna {posicion, largo}.
+     */
+    private long[] agregar(byte[] plano) throws IOException {
+        byte[] cifrado = obtenerCifrado().cifrar(plano, plano.length);
+        long posicion = archivo.length();
+        try (FileOutputStream salida = new FileOutputStream(archivo, true)) {
+            DataOutputStream datos = new DataOutputStream(salida);
+            datos.writeInt(cifrado.length);
+            datos.write(cifrado);
+            datos.flush();
+            salida.getFD().sync();
+        }
+        return new long[]{posicion, 4 + cifrado.length};
+    }
+
+    private void truncar(long largo) {
+        try (RandomAccessFile archivoJournal = new RandomAccessFile(archivo, "rw")) {
+            archivoJournal.setLength(largo);
+        } catch (IOException e) {
+            Log.e(TAG, "No se pudo truncar el journal: " + e.getMessage());
+        }
+    }
+
+    private CifradoLocal obtenerCifrado() throws IOException {
+        if (cifrado == null) {
+            cifrado = new CifradoLocal(ALIAS_CLAVE);
+        }
+        return cifrado;
+    }
+
+    private static void escribirBloque(DataOutputStream salida, byte[] datos, int desde, int largo) throws IOException {
+        salida.writeInt(largo);
+        salida.write(datos, desde, largo);
+    }
+
+    private static byte[] leerBloque(DataInputStream entrada) throws IOException {
+        byte[] datos = new byte[entrada.readInt()];
+        entrada.readFully(datos);
+        return datos;
+    }
+
+    private void actualizarPendientes() {
+        int cantidad = 0;
+        for (Entrada entrada : entradas.values()) {
+            if (entrada.resultado == null) {
+                cantidad++;
+            }
+        }
+        pendientes = cantidad;
+    }
+
+    private void programar(long esperaMs) {
+        if (proximoProceso != null) {
+            proximoProceso.cancel(false);
+        }
+        proximoProceso = hilo.schedule(new Runnable() {
+            @Override
+            public void run() {
+                procesar();
+            }
+        }, esperaMs, TimeUnit.MILLISECONDS);
+    }
+
+    private boolean hayRed() {
+        ConnectivityManager connectivity = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        return connectivity == null || connectivity.getActiveNetwork() != null;
+    }
+
+    /**
+     * Al recuperar la conexion se reinicia la espera y se envia de inmediato.
+     */
+    private void escucharRed() {
+        ConnectivityManager connectivity = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivity == null) {
+            return;
+        }
+        connectivity.registerDefaultNetworkCallback(new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network red) {
+                hilo.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        fallosConsecutivos = 0;
+                        programar(0);
+                    }
+                });
+            }
+        });
+    }
+}
@@ -0,0 +1,80 @@
+package com.enext.biometria;
+
+import com.enext.biometria.core.CargaValidacion;
+import com.enext.biometria.core.CuerpoJson;
+
+import java.io.IOException;
+
+import okhttp3.MediaType;
+import okhttp3.MultipartBody;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+/**
+ * Cuerpos OkHttp de la solicitud al endpoint de biometria segun el modo de envio
+ * (el contenido se arma en CargaValidacion y CuerpoJson, del nucleo Java):
+ * <ul>
+ *   <li>json: contrato original {cedula, cod_dactilar, img_base64, token}, con el base64
+ *       generado por bloques directamente sobre la conexion.</li>
+ *   <li>multipart: parte "datos" (JSON sin imagen) y parte "imagen" con los bytes JPEG.</li>
+ *   <li>binario: los bytes JPEG como application/octet-stream; los datos van en cabeceras.</li>
+ * </ul>
+ */
+final class CuerpoValidacion {
+
+    static final String MODO_JSON = "json";
+    static final String MODO_MULTIPART = "multipart";
+    static final String MODO_BINARIO = "binario";
+
+    static final String CABECERA_CEDULA = "X-Cedula";
+    static final String CABECERA_COD_DACTILAR = "X-Cod-Dactilar";
+
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+    private static final MediaType OCTET_STREAM = MediaType.get("application/octet-stream");
+
+    private CuerpoValidacion() {
+    }
+
+    /**
+     * Cuerpo JSON con la imagen en base64. No se construye el string base64 completo:
+     * se codifica por bloques con un buffer reutilizable del pool.
+     */
+    static RequestBody json(String cedula, String codDactilar, String token, ImagenJpeg imagen, BufferPool pool) {
+        return new CuerpoJson(cedula, codDactilar, token, imagen.getDatos(), imagen.getLongitud(), pool);
+    }
+
+    /**
+     * Cuerpo multipart/form-data con los datos en JSON y la imagen como archivo.
+     */
+    static RequestBody multipart(String cedula, String codDactilar, String token, ImagenJpeg imagen) {
+        return new MultipartBody.Builder()
+                .setType(MultipartBody.FORM)
+                .addFormDataPart("datos", null,
+                        RequestBody.create(CargaValidacion.datosMultipart(cedula, codDactilar, token), JSON))
+                .addFormDataPart("imagen", "rostro.jpg", binario(imagen))
+                .build();
+    }
+
+    /**
+     * Cuerpo con los bytes de la imagen tal cual, sin copias.
+     */
+    static RequestBody binario(final ImagenJpeg imagen) {
+        final MediaType tipo = MediaType.parse(imagen.getTipoMime());
+        return new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return tipo != null ? tipo : OCTET_STREAM;
+            }
+
+            @Override
+            public long contentLength() {
+                return imagen.getLongitud();
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                sink.write(imagen.getDatos(), 0, imagen.getLongitud());
+            }
+        };
+    }
+}
@@ -0,0 +1,242 @@
+package com.enext.biometria;
+
+import android.graphics.Bitmap;
+import android.graphics.PointF;
+import android.media.FaceDetector;
+import android.media.Image;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Deteccion de rostro en el dispositivo (sin red) sobre los cuadros de la vista previa.
+ * Usa android.media.FaceDetector sobre una version reducida en escala de grises del plano Y,
+ * en un hilo propio, e informa el estado del encuadre: el rostro debe ser unico, estar centrado
+ * en el circulo guia, tener un tamano adecuado y mantenerse quieto durante N cuadros.
+ */
+public class DetectorRostro {
+
+    private static final String TAG = "DetectorRostro";
+
+    static final String ESTADO_SIN_ROSTRO = "sin_rostro";
+    static final String ESTADO_VARIOS_ROSTROS = "varios_rostros";
+    static final String ESTADO_CENTRAR = "centrar";
+    static final String ESTADO_ACERCAR = "acercar";
+    static final String ESTADO_ALEJAR = "alejar";
+    static final String ESTADO_QUIETO = "quieto";
+    static final String ESTADO_LISTO = "listo";
+
+    static final int CUADROS_ESTABLES = 3;
+
+    // Ancho de la imagen de analisis (FaceDetector requiere ancho par)
+    private static final int ANCHO_ANALISIS = 160;
+    private static final int MAX_ROSTROS = 2;
+
+    // Limites relativos al lado del circulo guia
+    private static final float DESVIO_CENTRO_MAXIMO = 0.12f;
+    private static final float DISTANCIA_OJOS_MINIMA = 0.12f;
+    private static final float DISTANCIA_OJOS_MAXIMA = 0.35f;
+    private static final float MOVIMIENTO_MAXIMO = 0.04f;
+
+    /**
+     * Recibe los cambios de estado del encuadre (en el hilo del detector).
+     */
+    public interface Listener {
+        void onEstadoRostro(String estado);
+    }
+
+    private final Listener listener;
+    private final int cuadrosEstables;
+    private final ExecutorService hilo = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean ocupado = new AtomicBoolean();
+    private final FaceDetector.Face[] rostros = new FaceDetector.Face[MAX_ROSTROS];
+    private final PointF centro = new PointF();
+
+    private int[] pixeles;
+    private int anchoAnalisis;
+    private int altoAnalisis;
+    private Bitmap bitmap;
+    private FaceDetector detector;
+
+    private float xAnterior = -1;
+    private float yAnterior = -1;
+    private int consecutivos;
+    private String estado;
+
+    private int cuadrosAnalizados;
+    private long tiempoTotalMs;
+
+    public DetectorRostro(int cuadrosEstables, Listener listener) {
+        this.cuadrosEstables = Math.max(1, cuadrosEstables);
+        this.listener = listener;
+    }
+
+    /**
+     * Toma una muestra reducida del plano Y del cuadro (en el hilo de la camara) y la analiza
+     * en segundo plano. Si el analisis anterior sigue en curso el cuadro se ignora.
+     * El llamador sigue siendo dueno de la imagen y debe cerrarla.
+     */
+    public void muestrear(Image imagen, int grados) {
+        if (!ocupado.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            reducir(imagen, grados);
+        } catch (RuntimeException e) {
+            ocupado.set(false);
+            Log.e(TAG, "Error al muestrear cuadro: " + e.getMessage());
+            return;
+        }
+        hilo.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    analizar();
+                } finally {
+                    ocupado.set(false);
+                }
+            }
+        });
+    }
+
+    /**
+     * Metricas de deteccion para el diagnostico.
+     */
+    public synchronized JSONObject getMetricas() throws JSONException {
+        JSONObject metricas = new JSONObject();
+        metricas.put("cuadrosAnalizados", cuadrosAnalizados);
+        metricas.put("tiempoPromedioMs", cuadrosAnalizados > 0 ? tiempoTotalMs / cuadrosAnalizados : 0);
+        return metricas;
+    }
+
+    public void cerrar() {
+        hilo.shutdown();
+    }
+
+    /**
+     * Reduce y rota el plano Y a ANCHO_ANALISIS px de ancho, en escala de grises.
+     */
+    private void reducir(Image imagen, int grados) {
+        int ancho = imagen.getWidth();
+        int alto = imagen.getHeight();
+        boolean intercambia = grados % 180 != 0;
+        int anchoRotado = intercambia ? alto : ancho;
+        int altoRotado = intercambia ? ancho : alto;
+
+        int anchoSalida = ANCHO_ANALISIS;
+        int altoSalida = Math.round((float) ANCHO_ANALISIS * altoRotado / anchoRotado) & ~1;
+        if (pixeles == null || anchoSalida != anchoAnalisis || altoSalida != altoAnalisis) {
+            anchoAnalisis = anchoSalida;
+            altoAnalisis = altoSalida;
+            pixeles = new int[anchoSalida * altoSalida];
+        }
+
+        Image.Plane plano = imagen.getPlanes()[0];
+        ByteBuffer y = plano.getBuffer();
+        int pasoFila = plano.getRowStride();
+        for (int oy = 0; oy < altoSalida; oy++) {
+            int ry = oy * altoRotado / altoSalida;
+            for (int ox = 0; ox < anchoSalida; ox++) {
+                int rx = ox * anchoRotado / anchoSalida;
+                int sx;
+                int sy;
+                switch (grados) {
+                    case 90:
+                        sx = ry;
+                        sy = alto - 1 - rx;
+                        break;
+                    case 180:
+                        sx = ancho - 1 - rx;
+                        sy = alto - 1 - ry;
+                        break;
+                    case 270:
+                        sx = ancho - 1 - ry;
+                        sy = rx;
+                        break;
+                    default:
+                        sx = rx;
+                        sy = ry;
+                        break;
+                }
+                int gris = y.get(sy * pasoFila + sx) & 0xff;
+                pixeles[oy * anchoSalida + ox] = 0xff000000 | gris << 16 | gris << 8 | gris;
+            }
+        }
+    }
+
+    private void analizar() {
+        long inicio = SystemClock.elapsedRealtime();
+        if (bitmap == null || bitmap.getWidth() != anchoAnalisis || bitmap.getHeight() != altoAnalisis) {
+            if (bitmap != null) {
+                bitmap.recycle();
+            }
+            bitmap = Bitmap.createBitmap(anchoAnalisis, altoAnalisis, Bitmap.Config.RGB_565);
+            detector = new FaceDetector(anchoAnalisis, altoAnalisis, MAX_ROSTROS);
+        }
+        bitmap.setPixels(pixeles, 0, anchoAnalisis, 0, 0, anchoAnalisis, altoAnalisis);
+
+        int encontrados = detector.findFaces(bitmap, rostros);
+        int validos = 0;
+        FaceDetector.Face rostro = null;
+        for (int i = 0; i < encontrados; i++) {
+            if (rostros[i] != null && rostros[i].confidence() >= FaceDetector.Face.CONFIDENCE_THRESHOLD) {
+                validos++;
+                rostro = rostros[i];
+            }
+        }
+
+        actualizarEstado(validos == 1 ? evaluar(rostro) : validos == 0 ? ESTADO_SIN_ROSTRO : ESTADO_VARIOS_ROSTROS);
+
+        synchronized (this) {
+            cuadrosAnalizados++;
+            tiempoTotalMs += SystemClock.elapsedRealtime() - inicio;
+        }
+    }
+
+    /**
+     * Evalua encuadre, tamano y estabilidad respecto al circulo guia
+     * (cuadrado centrado de lado igual al lado menor de la imagen).
+     */
+    private String evaluar(FaceDetector.Face rostro) {
+        float lado = Math.min(anchoAnalisis, altoAnalisis);
+        rostro.getMidPoint(centro);
+
+        float desvioX = Math.abs(centro.x - anchoAnalisis / 2f) / lado;
+        float desvioY = Math.abs(centro.y - altoAnalisis / 2f) / lado;
+        float distanciaOjos = rostro.eyesDistance() / lado;
+
+        float movimiento = xAnterior < 0 ? 1f
+                : (float) Math.hypot(centro.x - xAnterior, centro.y - yAnterior) / lado;
+        xAnterior = centro.x;
+        yAnterior = centro.y;
+
+        if (desvioX > DESVIO_CENTRO_MAXIMO || desvioY > DESVIO_CENTRO_MAXIMO) {
+            return ESTADO_CENTRAR;
+        }
+        if (distanciaOjos < DISTANCIA_OJOS_MINIMA) {
+            return ESTADO_ACERCAR;
+        }
+        if (distanciaOjos > DISTANCIA_OJOS_MAXIMA) {
+            return ESTADO_ALEJAR;
+        }
+        consecutivos = movimiento <= MOVIMIENTO_MAXIMO ? consecutivos + 1 : 1;
+        return consecutivos >= cuadrosEstables ? ESTADO_LISTO : ESTADO_QUIETO;
+    }
+
+    private void actualizarEstado(String nuevo) {
+        if (!ESTADO_LISTO.equals(nuevo) && !ESTADO_QUIETO.equals(nuevo)) {
+            consecutivos = 0;
+        }
+        if (!nuevo.equals(estado)) {
+            estado = nuevo;
+            listener.onEstadoRostro(nuevo);
+        }
+    }
+}
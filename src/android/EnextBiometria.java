@@ -1,9 +1,19 @@
 package com.enext.biometria;
 
+import android.Manifest;
 import android.app.Activity;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
 import android.content.Intent;
+import android.content.res.Configuration;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
+import com.enext.biometria.core.Circuito;
+import com.enext.biometria.core.LimitadorTasa;
+import com.enext.biometria.core.ResultadoValidacion;
+
 import org.apache.cordova.CordovaPlugin;
 import org.apache.cordova.CallbackContext;
 import org.apache.cordova.PluginResult;
@@ -11,6 +21,9 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * Plugin principal de Enext Biometria para Cordova.
  * Permite la validacion biometrica facial en aplicaciones Cordova.
@@ -19,22 +32,192 @@ public class EnextBiometria extends CordovaPlugin {
 
     private static final String TAG = "EnextBiometria";
     private static final int REQUEST_CODE_BIOMETRIA = 1001;
+    private static final int REQUEST_CODE_KIOSCO = 1002;
     
-    // Callback para retornar resultado al JavaScript
-    private CallbackContext callbackContext;
+    // Sesiones de validacion: cada validar() tiene su propio callback y estado
+    private final GestorSesiones sesiones = new GestorSesiones();
+
+    // Sesion de kiosco en curso (null si no hay)
+    private Kiosco kiosco;
+
+    // Cliente HTTP compartido por todas las validaciones del proceso (pool keep-alive)
+    private static BiometriaHttpClient httpClient;
+
+    // Cache de tokens compartida por todas las validaciones del proceso
+    private static TokenCache tokenCache;
+
+    // Estimacion del ancho de banda de subida a partir de los envios anteriores
+    private static final EstimadorRed estimadorRed = new EstimadorRed();
+
+    // Validaciones guardadas sin conexion, pendientes de envio
+    private static ColaOffline colaOffline;
+
+    // Contrasenas recibidas del JavaScript en esta ejecucion, por tokenEndpoint + usuario (solo en memoria)
+    private static final Map<String, String> credenciales = new ConcurrentHashMap<>();
+
+    // Percentiles por etapa de las ultimas validaciones
+    private static final HistogramaLatencias histograma = new HistogramaLatencias();
+
+    // Resultados recientes cifrados, para no repetir la validacion de la misma persona (opt-in)
+    private static CacheResultados cacheResultados;
+
+    // Pico de PSS del proceso de la app mientras la pantalla corre en ':biometria'
+    private static final MonitorPss monitorPss = new MonitorPss();
+
+    // Memoria de la ultima pantalla (diagnostico.memoria), informada en metricas()
+    private static JSONObject ultimaMemoria;
+
+    // Ultimo precalentamiento (accion precalentar); la siguiente validacion lo consume
+    private static Precalentamiento precalentamiento;
+
+    // Preferencia EnextBiometriaProcesoSeparado de config.xml; la opcion procesoSeparado la reemplaza
+    private boolean procesoSeparado;
+
+    // Clave de cache de la validacion en curso y opciones con las que se guarda su resultado
+    private String claveCache;
+    private String sesionCache;
+    private int maximoCache;
+
+    /**
+     * Retorna el cliente HTTP compartido, creandolo la primera vez.
+     */
+    static synchronized BiometriaHttpClient getHttpClient() {
+        if (httpClient == null) {
+            httpClient = new BiometriaHttpClient();
+        }
+        return httpClient;
+    }
+
+    /**
+     * Retorna el estimador de ancho de banda compartido.
+     */
+    static EstimadorRed getEstimadorRed() {
+        return estimadorRed;
+    }
+
+    /**
+     * Retorna la cache de tokens compartida, creandola la primera vez.
+     */
+    static synchronized TokenCache getTokenCache() {
+        if (tokenCache == null) {
+            tokenCache = new TokenCache(getHttpClient());
+        }
+        return tokenCache;
+    }
+
+    /**
+     * Retorna la cola offline compartida, creandola la primera vez.
+     */
+    static synchronized ColaOffline getColaOffline(Context context) {
+        if (colaOffline == null) {
+            colaOffline = new ColaOffline(context, getHttpClient(), getTokenCache(), new ColaOffline.Credenciales() {
+                @Override
+                public String password(String tokenEndpoint, String username) {
+                    return credenciales.get(tokenEndpoint + "|" + username);
+                }
+            });
+            if (!credenciales.isEmpty()) {
+                colaOffline.reanudar();
+            }
+        }
+        return colaOffline;
+    }
+
+    /**
+     * Recuerda la credencial recibida para que la cola offline la use al enviar (el journal solo guarda
+     * el usuario y los endpoints) y habilita los envios de la cola si ya existe.
+     */
+    private static void registrarCredencial(String tokenEndpoint, String username, String password) {
+        if (tokenEndpoint == null || tokenEndpoint.isEmpty() || username == null || password == null) {
+            return;
+        }
+        credenciales.put(tokenEndpoint + "|" + username, password);
+        synchronized (EnextBiometria.class) {
+            if (colaOffline != null) {
+                colaOffline.reanudar();
+            }
+        }
+    }
+
+    /**
+     * Retorna la cache de resultados compartida, creandola la primera vez.
+     */
+    static synchronized CacheResultados getCacheResultados(Context context) {
+        if (cacheResultados == null) {
+            cacheResultados = new CacheResultados(context);
+        }
+        return cacheResultados;
+    }
+
+    /**
+     * Si quedaron validaciones encoladas de una ejecucion anterior, carga la cola; sus envios esperan a
+     * que el JavaScript entregue credenciales (configurar, precalentar o validar). Con la preferencia
+     * EnextBiometriaPrecalentarWebView en config.xml, precalienta el WebView de la pantalla. Con poca
+     * memoria mientras la app esta en primer plano (TRIM_MEMORY_RUNNING_LOW o _CRITICAL, u onLowMemory)
+     * se sueltan el WebView precalentado y los buffers libres; el WebView se repone al cerrar la pantalla.
+     */
+    @Override
+    protected void pluginInitialize() {
+        Context context = cordova.getActivity().getApplicationContext();
+        if (ColaOffline.hayJournal(context)) {
+            Log.d(TAG, "Retomando cola offline");
+            getColaOffline(context);
+        }
+        procesoSeparado = preferences.getBoolean("EnextBiometriaProcesoSeparado", false);
+        // El WebView precalentado vive en este proceso: no sirve a la pantalla en ':biometria'
+        if (preferences.getBoolean("EnextBiometriaPrecalentarWebView", false) && !procesoSeparado) {
+            PrecalentadorWebView.precalentar(context, true);
+        }
+        context.registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                // UI_HIDDEN y los niveles BACKGROUND/MODERATE/COMPLETE no son presion con la app en uso
+                if (level == TRIM_MEMORY_RUNNING_LOW || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+                    liberar();
+                }
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration configuracion) {
+            }
+
+            @Override
+            public void onLowMemory() {
+                liberar();
+            }
+
+            private void liberar() {
+                PrecalentadorWebView.descartar();
+                getHttpClient().getBufferPool().vaciar();
+            }
+        });
+    }
 
     /**
      * Metodo principal que ejecuta las acciones del plugin.
      */
     @Override
     public boolean execute(String action, JSONArray args, CallbackContext callbackContext) throws JSONException {
-        this.callbackContext = callbackContext;
-
         if ("validar".equals(action)) {
-            return validarBiometria(args);
+            return validarBiometria(args, callbackContext);
         } else if ("cancelar".equals(action)) {
-            return cancelarValidacion();
+            return cancelarValidacion(args.isNull(0) ? null : args.optString(0), callbackContext);
         } else if ("configurar".equals(action)) {
+            return configurar(args.optJSONObject(0), callbackContext);
+        } else if ("escucharCola".equals(action)) {
+            return escucharCola(callbackContext);
+        } else if ("metricas".equals(action)) {
+            return metricas(args.optJSONObject(0), callbackContext);
+        } else if ("iniciarKiosco".equals(action)) {
+            return iniciarKiosco(args, callbackContext);
+        } else if ("siguientePersona".equals(action)) {
+            return siguientePersona(args, callbackContext);
+        } else if ("terminarKiosco".equals(action)) {
+            return terminarKiosco(callbackContext);
+        } else if ("precalentar".equals(action)) {
+            return precalentar(args.optJSONObject(0), callbackContext);
+        } else if ("limpiarCache".equals(action)) {
+            getCacheResultados(cordova.getActivity()).limpiar();
             callbackContext.success();
             return true;
         }
@@ -43,118 +226,733 @@ public class EnextBiometria extends CordovaPlugin {
     }
 
     /**
-     * Inicia el proceso de validacion biometrica.
+     * Aplica la configuracion nativa y, si se solicita, precarga el token en segundo plano.
+     */
+    private boolean configurar(JSONObject opciones, CallbackContext callbackContext) {
+        if (opciones != null) {
+            configurarRed(opciones);
+
+            JSONObject credentials = opciones.optJSONObject("credentials");
+            String tokenEndpoint = opciones.optString("tokenEndpoint", "");
+            if (credentials != null) {
+                registrarCredencial(tokenEndpoint, credentials.optString("username"),
+                        credentials.optString("password"));
+            }
+            if (opciones.optBoolean("precargarToken", false) && credentials != null && !tokenEndpoint.isEmpty()) {
+                Log.d(TAG, "Precargando token");
+                getTokenCache().precargar(tokenEndpoint,
+                        credentials.optString("username"), credentials.optString("password"));
+            }
+            if (opciones.optBoolean("precalentarWebView", false)) {
+                PrecalentadorWebView.precalentar(cordova.getActivity(), true);
+            }
+        }
+        callbackContext.success();
+        return true;
+    }
+
+    /**
+     * Prepara en paralelo, antes de validar(), el permiso de camara (solo se consulta), la conexion
+     * al endpoint de biometria, el token, la camara (modoCaptura 'nativo') y el WebView de la pantalla.
+     * Responde con el estado de cada pieza cuando todas terminaron; si ninguna validacion las usa en
+     * duracionMs, la camara y el WebView se liberan. Con uno vigente responde su estado sin repetirlo.
+     */
+    private boolean precalentar(JSONObject opciones, final CallbackContext callbackContext) throws JSONException {
+        Precalentamiento actual = precalentamiento;
+        if (actual != null && actual.isVigente()) {
+            callbackContext.success(actual.toJSON());
+            return true;
+        }
+        if (opciones == null) {
+            opciones = new JSONObject();
+        }
+        configurarRed(opciones);
+        Context context = cordova.getActivity().getApplicationContext();
+        final Precalentamiento p = new Precalentamiento(
+                opciones.optLong("duracionMs", Precalentamiento.DURACION_MS));
+        precalentamiento = p;
+
+        final String tokenEndpoint = opciones.optString("tokenEndpoint", "");
+        final String biometriaEndpoint = opciones.optString("biometriaEndpoint", "");
+        JSONObject credentials = opciones.optJSONObject("credentials");
+        if (credentials != null) {
+            registrarCredencial(tokenEndpoint, credentials.optString("username"), credentials.optString("password"));
+        }
+        boolean permiso = cordova.hasPermission(Manifest.permission.CAMERA);
+        // En ':biometria' la pantalla no ve el cliente HTTP, la cache ni la camara de este proceso
+        String separado = opciones.optBoolean("procesoSeparado", procesoSeparado) ? "procesoSeparado" : null;
+        String motivoConexion = separado != null ? separado : biometriaEndpoint.isEmpty() ? "sinEndpoint" : null;
+        String motivoToken = separado != null ? separado
+                : tokenEndpoint.isEmpty() || credentials == null ? "sinCredenciales" : null;
+        String motivoCamara = separado != null ? separado
+                : !BiometriaActivity.MODO_CAPTURA_NATIVO.equals(opciones.optString("modoCaptura")) ? "modoWebView"
+                : !permiso ? "sinPermiso" : null;
+
+        // Todas las piezas quedan en curso (u omitidas) antes de lanzar la primera
+        p.iniciar(Precalentamiento.PERMISO);
+        preparar(p, Precalentamiento.CONEXION, motivoConexion);
+        preparar(p, Precalentamiento.TOKEN, motivoToken);
+        preparar(p, Precalentamiento.CAMARA, motivoCamara);
+        preparar(p, Precalentamiento.WEBVIEW, separado);
+        p.setAlTerminar(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    callbackContext.success(p.toJSON());
+                } catch (JSONException e) {
+                    callbackContext.error(e.getMessage());
+                }
+            }
+        });
+
+        p.terminar(Precalentamiento.PERMISO, permiso, permiso ? null : "sinPermiso");
+        if (motivoConexion == null) {
+            getHttpClient().preconectar(biometriaEndpoint, new BiometriaHttpClient.Callback<Long>() {
+                @Override
+                public void onExito(Long duracionMs) {
+                    p.terminar(Precalentamiento.CONEXION, true, null);
+                }
+
+                @Override
+                public void onError(BiometriaException error) {
+                    p.terminar(Precalentamiento.CONEXION, false, error.getCodigo());
+                }
+            });
+        }
+        if (motivoToken == null) {
+            getTokenCache().precargar(tokenEndpoint, credentials.optString("username"),
+                    credentials.optString("password"), new BiometriaHttpClient.Callback<TokenCache.Resultado>() {
+                        @Override
+                        public void onExito(TokenCache.Resultado resultado) {
+                            p.terminar(Precalentamiento.TOKEN, true, null);
+                        }
+
+                        @Override
+                        public void onError(BiometriaException error) {
+                            p.terminar(Precalentamiento.TOKEN, false, error.getCodigo());
+                        }
+                    });
+        }
+        if (motivoCamara == null) {
+            CamaraPreabierta.abrir(context, p.getDuracionMs(), new CamaraPreabierta.Listener() {
+                @Override
+                public void onAbierta() {
+                    p.terminar(Precalentamiento.CAMARA, true, null);
+                }
+
+                @Override
+                public void onError(String mensaje) {
+                    p.terminar(Precalentamiento.CAMARA, false, mensaje);
+                }
+            });
+        }
+        Handler principal = new Handler(Looper.getMainLooper());
+        if (separado == null) {
+            PrecalentadorWebView.precalentar(context, false);
+            // El WebView se crea en el hilo principal: este aviso corre despues
+            principal.post(new Runnable() {
+                @Override
+                public void run() {
+                    p.terminar(Precalentamiento.WEBVIEW, true, null);
+                }
+            });
+        }
+        principal.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                vencerPrecalentamiento(p);
+            }
+        }, p.getDuracionMs());
+        return true;
+    }
+
+    private static void preparar(Precalentamiento p, String pieza, String motivoOmitir) {
+        if (motivoOmitir == null) {
+            p.iniciar(pieza);
+        } else {
+            p.omitir(pieza, motivoOmitir);
+        }
+    }
+
+    /**
+     * Libera la camara y el WebView del precalentamiento si ninguna validacion lo consumio. El token
+     * y la conexion no se liberan: siguen su propio vencimiento en la cache y en el pool.
+     */
+    private static void vencerPrecalentamiento(Precalentamiento p) {
+        if (precalentamiento != p || p.isConsumido()) {
+            return;
+        }
+        Log.d(TAG, "Precalentamiento vencido sin usar");
+        precalentamiento = null;
+        CamaraPreabierta.cerrar();
+        p.liberar(Precalentamiento.CAMARA);
+        PrecalentadorWebView.liberarTemporal();
+        p.liberar(Precalentamiento.WEBVIEW);
+    }
+
+    /**
+     * Aplica los timeouts HTTP, los reintentos del token, los parametros del circuit breaker y el
+     * limite de tasa indicados en las opciones.
+     */
+    static void configurarRed(JSONObject opciones) {
+        BiometriaHttpClient client = getHttpClient();
+        client.configurarTimeouts(
+                opciones.optInt("timeoutConexionMs", BiometriaHttpClient.TIMEOUT_CONEXION_MS),
+                opciones.optInt("timeoutLecturaMs", BiometriaHttpClient.TIMEOUT_LECTURA_MS));
+        client.configurarResiliencia(
+                opciones.optInt("timeoutTokenMs", BiometriaHttpClient.TIMEOUT_TOKEN_MS),
+                opciones.optInt("timeoutBiometriaMs", BiometriaHttpClient.TIMEOUT_BIOMETRIA_MS),
+                opciones.optInt("umbralCircuito", Circuito.UMBRAL_FALLOS),
+                opciones.optLong("aperturaCircuitoMs", Circuito.APERTURA_MS));
+        client.configurarLimiteTasa(
+                opciones.optDouble("limiteTasaPorSegundo", LimitadorTasa.TASA_POR_SEGUNDO),
+                opciones.optInt("rafagaLimiteTasa", LimitadorTasa.CAPACIDAD),
+                opciones.optLong("esperaMaximaLimiteMs", LimitadorTasa.ESPERA_MAXIMA_MS));
+        getTokenCache().configurarReintentos(
+                opciones.optInt("reintentosToken", TokenCache.REINTENTOS),
+                opciones.optInt("esperaReintentoMs", TokenCache.ESPERA_REINTENTO_MS));
+    }
+
+    /**
+     * Inicia el proceso de validacion biometrica en una nueva sesion.
+     * Si ya hay una validacion en curso (por ejemplo, un doble toque) se rechaza sin abrir otra pantalla.
      */
-    private boolean validarBiometria(JSONArray args) throws JSONException {
+    private boolean validarBiometria(JSONArray args, CallbackContext callbackContext) throws JSONException {
         String cedula = args.getString(0);
         String codDactilar = args.getString(1);
         String tokenEndpoint = args.getString(2);
         String biometriaEndpoint = args.getString(3);
         String username = args.getString(4);
         String password = args.getString(5);
+        JSONObject opciones = args.optJSONObject(6);
+        String sesionId = args.isNull(7) ? null : args.optString(7);
+        registrarCredencial(tokenEndpoint, username, password);
 
-        Log.d(TAG, "Iniciando validacion para cedula: " + cedula);
+        long ttlCache = opciones != null ? opciones.optLong("cacheResultadosMs", 0) : 0;
+        String clave = ttlCache > 0 ? CacheResultados.clave(biometriaEndpoint, username, cedula, codDactilar) : null;
+        if (clave != null && entregarDesdeCache(clave, ttlCache, sesionId, callbackContext)) {
+            return true;
+        }
+
+        GestorSesiones.Sesion sesion = iniciarSesion(sesionId, biometriaEndpoint, opciones, callbackContext);
+        if (sesion == null) {
+            return true;
+        }
+
+        Log.d(TAG, "Iniciando validacion " + sesion.getId() + " para cedula: " + cedula);
+        claveCache = clave;
+        sesionCache = sesion.getId();
+        maximoCache = opciones != null ? opciones.optInt("maximoCacheResultados", CacheResultados.MAXIMO_ENTRADAS)
+                : CacheResultados.MAXIMO_ENTRADAS;
 
-        Intent intent = new Intent(cordova.getActivity(), BiometriaActivity.class);
+        Intent intent = crearIntent(sesion, tokenEndpoint, biometriaEndpoint, username, password, opciones,
+                REQUEST_CODE_BIOMETRIA);
         intent.putExtra("cedula", cedula);
         intent.putExtra("codDactilar", codDactilar);
+
+        sesiones.marcarEnCurso(sesion);
+        cordova.startActivityForResult(this, intent, REQUEST_CODE_BIOMETRIA);
+
+        PluginResult pluginResult = new PluginResult(PluginResult.Status.NO_RESULT);
+        pluginResult.setKeepCallback(true);
+        callbackContext.sendPluginResult(pluginResult);
+
+        return true;
+    }
+
+    /**
+     * Entrega el resultado cacheado de la misma persona si tiene menos de ttlMs, sin abrir la pantalla.
+     * Retorna false si no hay uno vigente.
+     */
+    private boolean entregarDesdeCache(String clave, long ttlMs, String sesionId, CallbackContext callbackContext)
+            throws JSONException {
+        CacheResultados.Acierto acierto = getCacheResultados(cordova.getActivity()).buscar(clave, ttlMs);
+        if (acierto == null) {
+            return false;
+        }
+        Log.d(TAG, "Validacion entregada desde la cache (" + acierto.edadMs + " ms)");
+        JSONObject result = acierto.resultado;
+        if (sesionId != null) {
+            result.put("sesionId", sesionId);
+        }
+        result.put("cache", true);
+        result.put("edadCacheMs", acierto.edadMs);
+        callbackContext.success(result);
+        return true;
+    }
+
+    /**
+     * Guarda en la cache (en segundo plano, el cifrado usa el Keystore) el resultado exitoso de la
+     * sesion si se valido con cacheResultadosMs.
+     */
+    private void guardarEnCache(GestorSesiones.Sesion sesion, JSONObject result) throws JSONException {
+        final String clave = claveCache;
+        boolean deLaSesion = clave != null && sesion.getId().equals(sesionCache);
+        claveCache = null;
+        sesionCache = null;
+        if (!deLaSesion) {
+            return;
+        }
+        final JSONObject guardado = new JSONObject();
+        guardado.put("accessToken", result.opt("accessToken"));
+        guardado.put("biometricData", result.opt("biometricData"));
+        guardado.put("timestamp", result.opt("timestamp"));
+        final int maximo = maximoCache;
+        final CacheResultados cache = getCacheResultados(cordova.getActivity());
+        cordova.getThreadPool().execute(new Runnable() {
+            @Override
+            public void run() {
+                cache.guardar(clave, guardado, maximo);
+            }
+        });
+    }
+
+    /**
+     * Aplica la configuracion de red y crea la sesion. Retorna null, despues de entregar el error,
+     * si el circuito del endpoint de biometria esta abierto o ya hay una sesion en curso.
+     */
+    private GestorSesiones.Sesion iniciarSesion(String sesionId, String biometriaEndpoint, JSONObject opciones,
+                                                CallbackContext callbackContext) throws JSONException {
+        if (opciones != null) {
+            configurarRed(opciones);
+        }
+        // Con el endpoint de biometria caido se falla de inmediato, sin abrir la camara
+        if (getHttpClient().circuitoAbierto(biometriaEndpoint)) {
+            Log.d(TAG, "Validacion rechazada: circuito abierto para " + biometriaEndpoint);
+            JSONObject resiliencia = new JSONObject();
+            resiliencia.put("circuito", getHttpClient().estadoCircuito(biometriaEndpoint));
+            JSONObject diagnostico = new JSONObject();
+            diagnostico.put("resiliencia", resiliencia);
+            sendError(callbackContext, sesionId, BiometriaHttpClient.CIRCUIT_OPEN,
+                    "El servicio de validacion no esta disponible, intente mas tarde", diagnostico.toString(), null);
+            return null;
+        }
+
+        GestorSesiones.Sesion sesion = sesiones.iniciar(sesionId, callbackContext);
+        if (sesion == null) {
+            Log.d(TAG, "Validacion rechazada: ya hay una sesion en curso");
+            sendError(callbackContext, sesionId, "SESSION_ACTIVE", "Ya hay una validacion en curso", null, null);
+            return null;
+        }
+
+        if (opciones != null && opciones.optBoolean("perfilAdaptativo", false)) {
+            aplicarPerfilAdaptativo(opciones);
+        }
+        return sesion;
+    }
+
+    /**
+     * Intent de BiometriaActivity con los endpoints, las credenciales y las opciones de la sesion.
+     * Con procesoSeparado abre BiometriaActivityProceso, que devuelve el resultado por un CanalResultado.
+     */
+    private Intent crearIntent(GestorSesiones.Sesion sesion, String tokenEndpoint, String biometriaEndpoint,
+                               String username, String password, JSONObject opciones, final int requestCode)
+            throws JSONException {
+        boolean separado = opciones != null ? opciones.optBoolean("procesoSeparado", procesoSeparado) : procesoSeparado;
+        Precalentamiento previo = precalentamiento;
+        if (previo != null) {
+            // El diagnostico informa que estaba listo al llegar validar()
+            precalentamiento = null;
+            if (opciones == null) {
+                opciones = new JSONObject();
+            }
+            opciones.put("precalentamiento", previo.consumir());
+            boolean nativo = BiometriaActivity.MODO_CAPTURA_NATIVO.equals(opciones.optString("modoCaptura"));
+            if (separado || !nativo) {
+                // getUserMedia u otro proceso no pueden usar la camara abierta aqui
+                CamaraPreabierta.cerrar();
+            }
+            if (separado) {
+                PrecalentadorWebView.liberarTemporal();
+            }
+        }
+        Intent intent = new Intent(cordova.getActivity(),
+                separado ? BiometriaActivityProceso.class : BiometriaActivity.class);
+        if (separado) {
+            CanalResultado canal = new CanalResultado(cordova.getActivity(), cordova.getThreadPool(),
+                    new CanalResultado.Listener() {
+                        @Override
+                        public void onResultado(int resultCode, Intent resultado) {
+                            procesarResultado(requestCode, resultCode, resultado);
+                        }
+                    });
+            intent.putExtra(CanalResultado.EXTRA_CANAL, canal.getReceptor());
+            monitorPss.iniciar();
+        }
         intent.putExtra("tokenEndpoint", tokenEndpoint);
         intent.putExtra("biometriaEndpoint", biometriaEndpoint);
         intent.putExtra("username", username);
         intent.putExtra("password", password);
+        if (opciones != null) {
+            intent.putExtra("opciones", opciones.toString());
+        }
+        intent.putExtra("sesionId", sesion.getId());
+        intent.putExtra("inicioValidacion", sesion.getInicio());
+        return intent;
+    }
 
-        cordova.startActivityForResult(this, intent, REQUEST_CODE_BIOMETRIA);
+    /**
+     * Abre la pantalla en modo kiosco: la camara y el token quedan abiertos y se validan las personas
+     * que lleguen por siguientePersona(). Cada resultado se entrega al callback, que queda abierto,
+     * con tipo 'resultado'; al terminar se entrega tipo 'fin'.
+     */
+    private boolean iniciarKiosco(JSONArray args, CallbackContext callbackContext) throws JSONException {
+        String tokenEndpoint = args.getString(0);
+        String biometriaEndpoint = args.getString(1);
+        String username = args.getString(2);
+        String password = args.getString(3);
+        JSONObject opciones = args.optJSONObject(4);
+        String sesionId = args.isNull(5) ? null : args.optString(5);
+        registrarCredencial(tokenEndpoint, username, password);
+
+        GestorSesiones.Sesion sesion = iniciarSesion(sesionId, biometriaEndpoint, opciones, callbackContext);
+        if (sesion == null) {
+            return true;
+        }
+
+        Log.d(TAG, "Iniciando kiosco " + sesion.getId());
+        kiosco = new Kiosco(cordova.getActivity(), sesion);
+
+        Intent intent = crearIntent(sesion, tokenEndpoint, biometriaEndpoint, username, password, opciones,
+                REQUEST_CODE_KIOSCO);
+        intent.putExtra("kiosco", true);
+        intent.putExtra("resultadosKiosco", kiosco.getReceptor());
+
+        sesiones.marcarEnCurso(sesion);
+        cordova.startActivityForResult(this, intent, REQUEST_CODE_KIOSCO);
 
         PluginResult pluginResult = new PluginResult(PluginResult.Status.NO_RESULT);
         pluginResult.setKeepCallback(true);
         callbackContext.sendPluginResult(pluginResult);
+        return true;
+    }
 
+    /**
+     * Agrega una persona a la fila del kiosco en curso.
+     */
+    private boolean siguientePersona(JSONArray args, CallbackContext callbackContext) throws JSONException {
+        String sesionId = args.isNull(0) ? null : args.optString(0);
+        if (kiosco == null || (sesionId != null && !sesionId.equals(kiosco.getSesion().getId()))) {
+            sendError(callbackContext, sesionId, "KIOSK_NOT_ACTIVE", "No hay un kiosco en curso", null, null);
+            return true;
+        }
+        String personaId = args.getString(3);
+        kiosco.agregarPersona(personaId, args.getString(1), args.getString(2));
+        callbackContext.success(personaId);
         return true;
     }
 
     /**
-     * Cancela la validacion en curso.
+     * Termina el kiosco en curso despues de entregar los envios pendientes.
      */
-    private boolean cancelarValidacion() {
+    private boolean terminarKiosco(CallbackContext callbackContext) {
+        if (kiosco != null) {
+            Log.d(TAG, "Terminando kiosco " + kiosco.getSesion().getId());
+            kiosco.terminar();
+        }
         callbackContext.success();
         return true;
     }
 
     /**
-     * Procesa el resultado de BiometriaActivity.
+     * Cancela la validacion indicada (o la activa si no se indica id): la validacion recibe CANCELLED
+     * de inmediato y BiometriaActivity cancela sus llamadas HTTP, libera la camara y se cierra.
+     */
+    private boolean cancelarValidacion(String sesionId, CallbackContext callbackContext) {
+        GestorSesiones.Sesion sesion = sesiones.buscar(sesionId);
+        if (sesion != null && sesiones.terminar(sesion, GestorSesiones.Estado.CANCELADA)) {
+            Log.d(TAG, "Cancelando validacion " + sesion.getId());
+            if (kiosco != null && kiosco.getSesion() == sesion) {
+                kiosco = null;
+            }
+            Intent cancelar = new Intent(BiometriaActivity.ACCION_CANCELAR);
+            cancelar.setPackage(cordova.getActivity().getPackageName());
+            cancelar.putExtra("sesionId", sesion.getId());
+            cordova.getActivity().sendBroadcast(cancelar);
+            sendError(sesion.getCallback(), sesion.getId(), "CANCELLED", "Validacion cancelada", null,
+                    cerrarMetricas(sesion, null, false));
+        }
+        callbackContext.success();
+        return true;
+    }
+
+    /**
+     * Retorna p50/p95/p99 por etapa de las ultimas validaciones. Con {reiniciar: true} se vacian despues.
+     */
+    private boolean metricas(JSONObject opciones, CallbackContext callbackContext) throws JSONException {
+        JSONObject resumen = histograma.toJSON();
+        if (ultimaMemoria != null) {
+            resumen.put("memoria", ultimaMemoria);
+        }
+        resumen.put("cacheResultados", getCacheResultados(cordova.getActivity()).toJSON());
+        resumen.put("limiteTasa", getHttpClient().estadoLimitadores());
+        resumen.put("agrupamientoToken", getTokenCache().estadoAgrupamiento());
+        if (opciones != null && opciones.optBoolean("reiniciar", false)) {
+            histograma.reiniciar();
+        }
+        callbackContext.success(resumen);
+        return true;
+    }
+
+    /**
+     * Registra el callback que recibe los resultados de las validaciones encoladas.
+     * El callback se mantiene abierto; los resultados previos al registro se entregan en ese momento.
+     */
+    private boolean escucharCola(final CallbackContext callbackContext) {
+        getColaOffline(cordova.getActivity()).setListener(new ColaOffline.Listener() {
+            @Override
+            public void onResultado(JSONObject resultado) {
+                PluginResult pluginResult = new PluginResult(PluginResult.Status.OK, resultado);
+                pluginResult.setKeepCallback(true);
+                callbackContext.sendPluginResult(pluginResult);
+            }
+        });
+        PluginResult pluginResult = new PluginResult(PluginResult.Status.NO_RESULT);
+        pluginResult.setKeepCallback(true);
+        callbackContext.sendPluginResult(pluginResult);
+        return true;
+    }
+
+    /**
+     * Elige el perfil de captura segun la red y lo aplica sobre las opciones de la validacion.
+     * La decision se entrega a BiometriaActivity para incluirla en el resultado.
+     */
+    private void aplicarPerfilAdaptativo(JSONObject opciones) throws JSONException {
+        JSONObject red = estimadorRed.elegirPerfil(cordova.getActivity(),
+                opciones.optInt("tiempoObjetivoSubidaMs", EstimadorRed.TIEMPO_OBJETIVO_MS));
+        Log.d(TAG, "Perfil de captura: " + red.getString("perfil") + " (" + red.getLong("estimadoKbps") + " kbps)");
+
+        opciones.put("recorteRostro", true);
+        opciones.put("anchoCaptura", red.getInt("anchoCaptura"));
+        opciones.put("altoCaptura", red.getInt("altoCaptura"));
+        opciones.put("resolucionObjetivo", red.getInt("resolucionObjetivo"));
+        opciones.put("presupuestoBytes", red.getInt("presupuestoBytes"));
+        opciones.put("formatoImagen", red.getString("formatoImagen"));
+        opciones.put("red", red);
+    }
+
+    /**
+     * Procesa el resultado de BiometriaActivity. Si la pantalla corrio en ':biometria' el resultado ya
+     * llego por CanalResultado y aqui solo llega el aviso; si ese proceso murio, llega sin datos (CANCELLED).
      */
     @Override
     public void onActivityResult(int requestCode, int resultCode, Intent intent) {
         super.onActivityResult(requestCode, resultCode, intent);
+        if (CanalResultado.esAviso(intent)) {
+            return;
+        }
+        procesarResultado(requestCode, resultCode, intent);
+    }
 
-        if (requestCode == REQUEST_CODE_BIOMETRIA) {
-            if (resultCode == Activity.RESULT_OK) {
-                handleSuccess(intent);
+    private void procesarResultado(int requestCode, int resultCode, Intent intent) {
+        registrarMemoria(intent);
+        if (requestCode == REQUEST_CODE_KIOSCO) {
+            terminarSesionKiosco(resultCode, intent);
+        } else if (requestCode == REQUEST_CODE_BIOMETRIA) {
+            GestorSesiones.Sesion sesion = sesiones.buscar(intent != null ? intent.getStringExtra("sesionId") : null);
+            boolean exito = resultCode == Activity.RESULT_OK;
+            if (sesion == null || !sesiones.terminar(sesion,
+                    exito ? GestorSesiones.Estado.COMPLETADA : GestorSesiones.Estado.FALLIDA)) {
+                // La sesion ya fue cancelada y su resultado entregado
+                Log.d(TAG, "Resultado ignorado de una sesion terminada");
+                return;
+            }
+            if (exito) {
+                handleSuccess(sesion, intent);
             } else {
-                handleError(intent);
+                handleError(sesion, intent);
             }
         }
     }
 
+    /**
+     * Guarda la memoria informada por la pantalla para metricas() y, si corrio en otro proceso,
+     * le agrega el pico de PSS del proceso de la app durante la sesion.
+     */
+    private static void registrarMemoria(Intent intent) {
+        boolean separado = monitorPss.isActivo();
+        long picoApp = monitorPss.detener();
+        String texto = intent != null ? intent.getStringExtra("diagnostico") : null;
+        if (texto == null || texto.isEmpty()) {
+            return;
+        }
+        try {
+            JSONObject diagnostico = new JSONObject(texto);
+            JSONObject memoria = diagnostico.optJSONObject("memoria");
+            if (memoria == null) {
+                return;
+            }
+            if (separado) {
+                memoria.put("pssPicoAppKb", picoApp);
+                intent.putExtra("diagnostico", diagnostico.toString());
+            }
+            ultimaMemoria = memoria;
+        } catch (JSONException e) {
+            Log.e(TAG, "Diagnostico invalido: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Cierra la sesion de kiosco al cerrarse la pantalla y entrega el resultado 'fin' (o el error que la cerro).
+     */
+    private void terminarSesionKiosco(int resultCode, Intent intent) {
+        Kiosco terminado = kiosco;
+        kiosco = null;
+        if (terminado == null) {
+            return;
+        }
+        GestorSesiones.Sesion sesion = terminado.getSesion();
+        boolean exito = resultCode == Activity.RESULT_OK;
+        if (!sesiones.terminar(sesion, exito ? GestorSesiones.Estado.COMPLETADA : GestorSesiones.Estado.FALLIDA)) {
+            Log.d(TAG, "Resultado ignorado de un kiosco terminado");
+            return;
+        }
+        if (!exito) {
+            handleError(sesion, intent);
+            return;
+        }
+        try {
+            JSONObject fin = new JSONObject();
+            fin.put("tipo", "fin");
+            fin.put("sesionId", sesion.getId());
+            fin.put("procesadas", terminado.getEntregados());
+            fin.put("descartadas", intent.getIntExtra("descartadas", 0));
+            adjuntarDiagnostico(fin, intent);
+            fin.put("metricas", cerrarMetricas(sesion, intent, false));
+            sesion.getCallback().success(fin);
+        } catch (JSONException e) {
+            Log.e(TAG, "Error al crear JSON: " + e.getMessage());
+            sendError(sesion.getCallback(), sesion.getId(), "PARSE_ERROR", "Error al procesar resultado", null, null);
+        }
+    }
+
     /**
      * Maneja el resultado exitoso de la validacion.
      */
-    private void handleSuccess(Intent intent) {
+    private void handleSuccess(GestorSesiones.Sesion sesion, Intent intent) {
         try {
             JSONObject result = new JSONObject();
+            result.put("sesionId", sesion.getId());
             result.put("accessToken", intent.getStringExtra("accessToken"));
             
-            String biometricDataStr = intent.getStringExtra("biometricData");
-            if (biometricDataStr != null && !biometricDataStr.isEmpty()) {
-                try {
-                    JSONObject biometricData = new JSONObject(biometricDataStr);
-                    result.put("biometricData", biometricData);
-                } catch (JSONException e) {
-                    result.put("biometricData", biometricDataStr);
-                }
+            Object biometricData = ResultadoValidacion.leerDatosBiometricos(intent.getStringExtra("biometricData"));
+            if (biometricData != null) {
+                result.put("biometricData", biometricData);
             }
             
             result.put("timestamp", intent.getStringExtra("timestamp"));
+            guardarEnCache(sesion, result);
+            adjuntarDiagnostico(result, intent);
+            result.put("metricas", cerrarMetricas(sesion, intent, true));
 
             Log.d(TAG, "Validacion exitosa");
-            callbackContext.success(result);
+            sesion.getCallback().success(result);
             
         } catch (JSONException e) {
             Log.e(TAG, "Error al crear JSON: " + e.getMessage());
-            sendError("PARSE_ERROR", "Error al procesar resultado");
+            sendError(sesion.getCallback(), sesion.getId(), "PARSE_ERROR", "Error al procesar resultado", null, null);
+        }
+    }
+
+    /**
+     * Agrega al resultado las metricas de captura reportadas por BiometriaActivity.
+     */
+    private void adjuntarDiagnostico(JSONObject result, Intent intent) throws JSONException {
+        String diagnostico = intent.getStringExtra("diagnostico");
+        if (diagnostico != null && !diagnostico.isEmpty()) {
+            result.put("diagnostico", new JSONObject(diagnostico));
         }
     }
 
     /**
      * Maneja el resultado de error o cancelacion.
      */
-    private void handleError(Intent intent) {
+    private void handleError(GestorSesiones.Sesion sesion, Intent intent) {
         if (intent != null) {
             String errorCode = intent.getStringExtra("errorCode");
             String errorMessage = intent.getStringExtra("errorMessage");
             
             if (errorCode != null) {
                 Log.d(TAG, "Error: " + errorCode + " - " + errorMessage);
-                sendError(errorCode, errorMessage != null ? errorMessage : "Error en validacion");
+                try {
+                    // Las cancelaciones y las validaciones encoladas no representan la latencia de una validacion
+                    boolean medible = !"CANCELLED".equals(errorCode) && !"QUEUED".equals(errorCode);
+                    JSONObject error = crearError(sesion.getId(), errorCode,
+                            errorMessage != null ? errorMessage : "Error en validacion",
+                            intent.getStringExtra("diagnostico"), cerrarMetricas(sesion, intent, medible));
+                    if (intent.hasExtra("idCola")) {
+                        error.put("idCola", intent.getStringExtra("idCola"));
+                    }
+                    sesion.getCallback().error(error);
+                } catch (JSONException e) {
+                    sesion.getCallback().error("Error desconocido");
+                }
                 return;
             }
         }
         
         Log.d(TAG, "Validacion cancelada");
-        sendError("CANCELLED", "Validacion cancelada");
+        sendError(sesion.getCallback(), sesion.getId(), "CANCELLED", "Validacion cancelada", null,
+                cerrarMetricas(sesion, intent, false));
     }
 
     /**
-     * Envia un error al callback de JavaScript.
+     * Completa las metricas de etapas informadas por BiometriaActivity con la entrega del resultado
+     * y, si la validacion es representativa, las agrega a los histogramas.
      */
-    private void sendError(String code, String message) {
+    private JSONObject cerrarMetricas(GestorSesiones.Sesion sesion, Intent intent, boolean registrar) {
+        MetricasEtapas metricas = MetricasEtapas.desdeJSON(sesion.getInicio(),
+                intent != null ? intent.getStringExtra("metricas") : null);
+        metricas.marcar(MetricasEtapas.RESULTADO_ENTREGADO);
+        if (registrar) {
+            histograma.registrar(metricas, leerArranque(intent));
+        }
+        return metricas.toJSON();
+    }
+
+    /**
+     * Origen del WebView de la pantalla (diagnostico.arranque.webView), o null si no se informo.
+     */
+    private static String leerArranque(Intent intent) {
+        String diagnostico = intent != null ? intent.getStringExtra("diagnostico") : null;
+        if (diagnostico == null) {
+            return null;
+        }
+        try {
+            JSONObject arranque = new JSONObject(diagnostico).optJSONObject("arranque");
+            return arranque != null ? arranque.optString("webView", null) : null;
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Envia un error al callback de JavaScript incluyendo, si existen, el diagnostico de la captura
+     * y las metricas de etapas.
+     */
+    private void sendError(CallbackContext callbackContext, String sesionId, String code, String message,
+                           String diagnostico, JSONObject metricas) {
         try {
-            JSONObject error = new JSONObject();
-            error.put("code", code);
-            error.put("message", message);
-            callbackContext.error(error);
+            callbackContext.error(crearError(sesionId, code, message, diagnostico, metricas));
         } catch (JSONException e) {
             callbackContext.error("Error desconocido");
         }
     }
+
+    private JSONObject crearError(String sesionId, String code, String message, String diagnostico,
+                                  JSONObject metricas) throws JSONException {
+        JSONObject error = new JSONObject();
+        error.put("code", code);
+        if (sesionId != null) {
+            error.put("sesionId", sesionId);
+        }
+        error.put("message", message);
+        if (diagnostico != null && !diagnostico.isEmpty()) {
+            error.put("diagnostico", new JSONObject(diagnostico));
+        }
+        if (metricas != null) {
+            error.put("metricas", metricas);
+        }
+        return error;
+    }
 }
@@ -0,0 +1,134 @@
+package com.enext.biometria;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Estima el ancho de banda de subida a partir del tipo de red y de la duracion de los envios
+ * anteriores, y elige el perfil de captura/codificacion que mantiene la subida bajo el tiempo objetivo.
+ */
+public class EstimadorRed {
+
+    static final int TIEMPO_OBJETIVO_MS = 2000;
+
+    // Peso de la muestra mas reciente en el promedio movil exponencial
+    private static final double PESO_MUESTRA = 0.3;
+    // El ancho de banda informado por el sistema es teorico; se descuenta al no haber muestras propias
+    private static final double FACTOR_ENLACE = 0.5;
+
+    /**
+     * Perfiles de captura y codificacion, de mayor a menor calidad.
+     * El tamano esperado se usa para estimar el tiempo de subida.
+     */
+    public enum Perfil {
+        ALTA("alta", 1280, 720, 0, 0, "jpeg", 150 * 1024),
+        MEDIA("media", 1280, 720, 480, 60 * 1024, "jpeg", 60 * 1024),
+        BAJA("baja", 640, 480, 320, 25 * 1024, "jpeg", 25 * 1024),
+        MINIMA("minima", 640, 480, 240, 12 * 1024, "webp", 12 * 1024);
+
+        public final String nombre;
+        public final int anchoCaptura;
+        public final int altoCaptura;
+        public final int resolucionObjetivo;
+        public final int presupuestoBytes;
+        public final String formato;
+        public final int bytesEsperados;
+
+        Perfil(String nombre, int anchoCaptura, int altoCaptura, int resolucionObjetivo, int presupuestoBytes,
+               String formato, int bytesEsperados) {
+            this.nombre = nombre;
+            this.anchoCaptura = anchoCaptura;
+            this.altoCaptura = altoCaptura;
+            this.resolucionObjetivo = resolucionObjetivo;
+            this.presupuestoBytes = presupuestoBytes;
+            this.formato = formato;
+            this.bytesEsperados = bytesEsperados;
+        }
+
+        long tiempoEsperadoMs(double kbps) {
+            return Math.round(bytesEsperados * 8 / kbps);
+        }
+    }
+
+    private double throughputKbps;
+    private int muestras;
+
+    /**
+     * Registra la duracion de un envio. La duracion incluye el procesamiento del servidor,
+     * por lo que la estimacion resultante es conservadora.
+     */
+    public synchronized void registrarEnvio(long bytes, long duracionMs) {
+        if (bytes <= 0 || duracionMs <= 0) {
+            return;
+        }
+        double kbps = bytes * 8.0 / duracionMs;
+        throughputKbps = muestras == 0 ? kbps : PESO_MUESTRA * kbps + (1 - PESO_MUESTRA) * throughputKbps;
+        muestras++;
+    }
+
+    /**
+     * Elige el perfil para la red actual y retorna la decision con los datos usados.
+     */
+    public JSONObject elegirPerfil(Context context, int tiempoObjetivoMs) throws JSONException {
+        String tipo = "desconocida";
+        int enlaceKbps = 0;
+
+        ConnectivityManager connectivity = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivity != null) {
+            Network red = connectivity.getActiveNetwork();
+            NetworkCapabilities capacidades = red != null ? connectivity.getNetworkCapabilities(red) : null;
+            if (capacidades == null) {
+                tipo = "sin_red";
+            } else {
+                enlaceKbps = capacidades.getLinkUpstreamBandwidthKbps();
+                if (capacidades.hasTransport(NetworkCapabilities.TRANSPORT_WIFI)) {
+                    tipo = "wifi";
+                } else if (capacidades.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR)) {
+                    tipo = "celular";
+                } else if (capacidades.hasTransport(NetworkCapabilities.TRANSPORT_ETHERNET)) {
+                    tipo = "ethernet";
+                }
+            }
+        }
+
+        double observadoKbps;
+        synchronized (this) {
+            observadoKbps = muestras > 0 ? throughputKbps : 0;
+        }
+        double estimadoKbps;
+        if (observadoKbps > 0) {
+            estimadoKbps = observadoKbps;
+        } else if (enlaceKbps > 0) {
+            estimadoKbps = enlaceKbps * FACTOR_ENLACE;
+        } else {
+            estimadoKbps = "celular".equals(tipo) ? 384 : 1000;
+        }
+
+        Perfil elegido = Perfil.MINIMA;
+        for (Perfil perfil : Perfil.values()) {
+            if (perfil.tiempoEsperadoMs(estimadoKbps) <= tiempoObjetivoMs) {
+                elegido = perfil;
+                break;
+            }
+        }
+
+        JSONObject decision = new JSONObject();
+        decision.put("tipo", tipo);
+        decision.put("enlaceKbps", enlaceKbps);
+        decision.put("throughputKbps", Math.round(observadoKbps));
+        decision.put("estimadoKbps", Math.round(estimadoKbps));
+        decision.put("perfil", elegido.nombre);
+        decision.put("tiempoEsperadoMs", elegido.tiempoEsperadoMs(estimadoKbps));
+        decision.put("anchoCaptura", elegido.anchoCaptura);
+        decision.put("altoCaptura", elegido.altoCaptura);
+        decision.put("resolucionObjetivo", elegido.resolucionObjetivo);
+        decision.put("presupuestoBytes", elegido.presupuestoBytes);
+        decision.put("formatoImagen", elegido.formato);
+        return decision;
+    }
+}
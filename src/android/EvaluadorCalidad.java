@@ -0,0 +1,251 @@
+package com.enext.biometria;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.FaceDetector;
+import android.os.SystemClock;
+
+import com.enext.biometria.core.PasosImagen;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+
+/**
+ * Control de calidad local de la foto antes de enviarla al servidor.
+ * Sobre la region del circulo guia (reducida a ~LADO_ANALISIS px) calcula nitidez (varianza del
+ * laplaciano de la luminancia), brillo, contraste y tamano del rostro, y rechaza las fotos que
+ * no cumplen los umbrales para no gastar un intento de validacion.
+ *
+ * Umbrales (todos opcionales): nitidezMinima, brilloMinimo, brilloMaximo, contrasteMinimo, rostroMinimo.
+ */
+public class EvaluadorCalidad {
+
+    static final String MOTIVO_BORROSA = "BORROSA";
+    static final String MOTIVO_OSCURA = "OSCURA";
+    static final String MOTIVO_SOBREEXPUESTA = "SOBREEXPUESTA";
+    static final String MOTIVO_BAJO_CONTRASTE = "BAJO_CONTRASTE";
+    static final String MOTIVO_SIN_ROSTRO = "SIN_ROSTRO";
+    static final String MOTIVO_ROSTRO_PEQUENO = "ROSTRO_PEQUENO";
+
+    // Lado aproximado de la muestra analizada
+    private static final int LADO_ANALISIS = 240;
+    private static final int MAX_ROSTROS = 2;
+
+    static final double NITIDEZ_MINIMA = 50;
+    static final double BRILLO_MINIMO = 60;
+    static final double BRILLO_MAXIMO = 210;
+    static final double CONTRASTE_MINIMO = 20;
+    // Distancia entre ojos relativa al lado del circulo guia
+    static final double ROSTRO_MINIMO = 0.12;
+
+    /**
+     * Metricas de una foto y resultado del control.
+     */
+    public static class Resultado {
+        public double nitidez;
+        public double brillo;
+        public double contraste;
+        public int rostros;
+        public double tamanoRostro;
+        public double confianzaRostro;
+        public long tiempoMs;
+        public boolean aceptada = true;
+        public String motivo;
+
+        /**
+         * Puntaje para elegir el mejor cuadro de una rafaga: nitidez ponderada por la confianza
+         * del detector, que baja con el rostro girado o los ojos cerrados.
+         */
+        public double getPuntaje() {
+            return nitidez * (rostros == 1 ? 0.5 + confianzaRostro : 0.25);
+        }
+
+        /**
+         * Indicacion para el usuario segun el motivo de rechazo
+         */
+        public String getSugerencia() {
+            if (MOTIVO_BORROSA.equals(motivo)) {
+                return "La foto salio borrosa, mantente quieto";
+            } else if (MOTIVO_OSCURA.equals(motivo)) {
+                return "Hay poca luz, busca un lugar mas iluminado";
+            } else if (MOTIVO_SOBREEXPUESTA.equals(motivo)) {
+                return "Hay demasiada luz, evita la luz directa";
+            } else if (MOTIVO_BAJO_CONTRASTE.equals(motivo)) {
+                return "La imagen tiene poco contraste, mejora la iluminacion";
+            } else if (MOTIVO_SIN_ROSTRO.equals(motivo)) {
+                return "No se detecta tu rostro, colocalo en el circulo sin cubrirlo";
+            } else if (MOTIVO_ROSTRO_PEQUENO.equals(motivo)) {
+                return "Acerca tu rostro al circulo";
+            }
+            return "";
+        }
+
+        public JSONObject toJSON() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("nitidez", Math.round(nitidez));
+            json.put("brillo", Math.round(brillo));
+            json.put("contraste", Math.round(contraste));
+            json.put("rostros", rostros);
+            json.put("tamanoRostro", Math.round(tamanoRostro * 1000) / 1000.0);
+            json.put("confianzaRostro", Math.round(confianzaRostro * 100) / 100.0);
+            json.put("tiempoMs", tiempoMs);
+            json.put("aceptada", aceptada);
+            if (motivo != null) {
+                json.put("motivo", motivo);
+            }
+            return json;
+        }
+    }
+
+    private final double nitidezMinima;
+    private final double brilloMinimo;
+    private final double brilloMaximo;
+    private final double contrasteMinimo;
+    private final double rostroMinimo;
+    private final JSONObject umbrales;
+
+    private final FaceDetector.Face[] rostros = new FaceDetector.Face[MAX_ROSTROS];
+    private int[] muestra;
+    private Bitmap bitmap;
+    private FaceDetector detector;
+
+    public EvaluadorCalidad(JSONObject umbrales) {
+        if (umbrales == null) {
+            umbrales = new JSONObject();
+        }
+        this.umbrales = umbrales;
+        this.nitidezMinima = umbrales.optDouble("nitidezMinima", NITIDEZ_MINIMA);
+        this.brilloMinimo = umbrales.optDouble("brilloMinimo", BRILLO_MINIMO);
+        this.brilloMaximo = umbrales.optDouble("brilloMaximo", BRILLO_MAXIMO);
+        this.contrasteMinimo = umbrales.optDouble("contrasteMinimo", CONTRASTE_MINIMO);
+        this.rostroMinimo = umbrales.optDouble("rostroMinimo", ROSTRO_MINIMO);
+    }
+
+    /**
+     * Nuevo evaluador con los mismos umbrales, para evaluar en paralelo desde otro hilo.
+     */
+    public EvaluadorCalidad copia() {
+        return new EvaluadorCalidad(umbrales);
+    }
+
+    /**
+     * Evalua una foto a partir de su plano de luminancia (por ejemplo, el inicio de un buffer NV21).
+     */
+    public synchronized Resultado evaluar(byte[] luma, int ancho, int alto) {
+        long inicio = SystemClock.elapsedRealtime();
+
+        // Region del circulo guia: cuadrado centrado, muestreado con paso fijo
+        int lado = Math.min(ancho, alto);
+        int paso = Math.max(1, lado / LADO_ANALISIS);
+        int n = (lado / paso) & ~1;
+        int x0 = (ancho - n * paso) / 2;
+        int y0 = (alto - n * paso) / 2;
+        if (muestra == null || muestra.length != n * n) {
+            muestra = new int[n * n];
+        }
+
+        long suma = 0;
+        long sumaCuadrados = 0;
+        for (int fila = 0; fila < n; fila++) {
+            int base = (y0 + fila * paso) * ancho + x0;
+            for (int col = 0; col < n; col++) {
+                int valor = luma[base + col * paso] & 0xff;
+                muestra[fila * n + col] = valor;
+                suma += valor;
+                sumaCuadrados += valor * valor;
+            }
+        }
+        int total = n * n;
+        Resultado resultado = new Resultado();
+        resultado.brillo = (double) suma / total;
+        resultado.contraste = Math.sqrt(Math.max(0, (double) sumaCuadrados / total - resultado.brillo * resultado.brillo));
+        resultado.nitidez = PasosImagen.varianzaLaplaciano(muestra, n);
+        detectarRostro(n, resultado);
+
+        resultado.motivo = motivoRechazo(resultado);
+        resultado.aceptada = resultado.motivo == null;
+        resultado.tiempoMs = SystemClock.elapsedRealtime() - inicio;
+        return resultado;
+    }
+
+    /**
+     * Evalua una foto ya codificada (modo WebView). Se decodifica submuestreada al tamano de analisis.
+     */
+    public Resultado evaluar(ImagenJpeg imagen) throws IOException {
+        BitmapFactory.Options limites = new BitmapFactory.Options();
+        limites.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(imagen.getDatos(), 0, imagen.getLongitud(), limites);
+        BitmapFactory.Options opciones = new BitmapFactory.Options();
+        opciones.inSampleSize = 1;
+        int lado = Math.min(limites.outWidth, limites.outHeight);
+        while (lado / (opciones.inSampleSize * 2) >= LADO_ANALISIS) {
+            opciones.inSampleSize *= 2;
+        }
+        Bitmap decodificado = BitmapFactory.decodeByteArray(imagen.getDatos(), 0, imagen.getLongitud(), opciones);
+        if (decodificado == null) {
+            throw new IOException("No se pudo decodificar la imagen");
+        }
+        int ancho = decodificado.getWidth();
+        int alto = decodificado.getHeight();
+        int[] pixeles = new int[ancho * alto];
+        decodificado.getPixels(pixeles, 0, ancho, 0, 0, ancho, alto);
+        decodificado.recycle();
+
+        byte[] luma = new byte[ancho * alto];
+        PasosImagen.lumaDesdeArgb(pixeles, pixeles.length, luma);
+        return evaluar(luma, ancho, alto);
+    }
+
+    private void detectarRostro(int n, Resultado resultado) {
+        if (bitmap == null || bitmap.getWidth() != n) {
+            if (bitmap != null) {
+                bitmap.recycle();
+            }
+            bitmap = Bitmap.createBitmap(n, n, Bitmap.Config.RGB_565);
+            detector = new FaceDetector(n, n, MAX_ROSTROS);
+        }
+        for (int i = 0; i < muestra.length; i++) {
+            int g = muestra[i];
+            muestra[i] = 0xff000000 | g << 16 | g << 8 | g;
+        }
+        bitmap.setPixels(muestra, 0, n, 0, 0, n, n);
+
+        int encontrados = detector.findFaces(bitmap, rostros);
+        for (int i = 0; i < encontrados; i++) {
+            FaceDetector.Face rostro = rostros[i];
+            if (rostro == null || rostro.confidence() < FaceDetector.Face.CONFIDENCE_THRESHOLD) {
+                continue;
+            }
+            resultado.rostros++;
+            double tamano = rostro.eyesDistance() / n;
+            if (tamano > resultado.tamanoRostro) {
+                resultado.tamanoRostro = tamano;
+                resultado.confianzaRostro = rostro.confidence();
+            }
+        }
+    }
+
+    private String motivoRechazo(Resultado resultado) {
+        if (resultado.brillo < brilloMinimo) {
+            return MOTIVO_OSCURA;
+        }
+        if (resultado.brillo > brilloMaximo) {
+            return MOTIVO_SOBREEXPUESTA;
+        }
+        if (resultado.contraste < contrasteMinimo) {
+            return MOTIVO_BAJO_CONTRASTE;
+        }
+        if (resultado.rostros == 0) {
+            return MOTIVO_SIN_ROSTRO;
+        }
+        if (resultado.tamanoRostro < rostroMinimo) {
+            return MOTIVO_ROSTRO_PEQUENO;
+        }
+        if (resultado.nitidez < nitidezMinima) {
+            return MOTIVO_BORROSA;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,113 @@
+package com.enext.biometria;
+
+import android.os.SystemClock;
+
+import org.apache.cordova.CallbackContext;
+
+import java.util.UUID;
+
+/**
+ * Sesiones de validacion: cada llamada a validar() tiene un id, un estado y su propio callback,
+ * de modo que cancelar() u otras acciones no reemplazan el callback de la validacion en curso.
+ * Solo puede haber una sesion activa a la vez (la camara y la pantalla son unicas).
+ */
+public class GestorSesiones {
+
+    /**
+     * Estados de una sesion. Los estados finales se alcanzan una sola vez, por lo que el
+     * resultado se entrega exactamente una vez aunque la cancelacion y el resultado se crucen.
+     */
+    public enum Estado {
+        INICIADA, EN_CURSO, COMPLETADA, FALLIDA, CANCELADA;
+
+        boolean esFinal() {
+            return this == COMPLETADA || this == FALLIDA || this == CANCELADA;
+        }
+    }
+
+    /**
+     * Una validacion con su callback.
+     */
+    public static class Sesion {
+        private final String id;
+        private final CallbackContext callback;
+        // Momento de la llamada a validar(), base de las MetricasEtapas
+        private final long inicio = SystemClock.elapsedRealtime();
+        private Estado estado = Estado.INICIADA;
+
+        Sesion(String id, CallbackContext callback) {
+            this.id = id;
+            this.callback = callback;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public CallbackContext getCallback() {
+            return callback;
+        }
+
+        public long getInicio() {
+            return inicio;
+        }
+
+        public synchronized Estado getEstado() {
+            return estado;
+        }
+    }
+
+    private Sesion activa;
+
+    /**
+     * Crea la sesion si no hay otra activa. Retorna null si ya hay una validacion en curso.
+     * Si no se indica id se genera uno.
+     */
+    public synchronized Sesion iniciar(String id, CallbackContext callback) {
+        if (activa != null) {
+            return null;
+        }
+        activa = new Sesion(id != null && !id.isEmpty() ? id : UUID.randomUUID().toString(), callback);
+        return activa;
+    }
+
+    /**
+     * Sesion activa con el id indicado, o la sesion activa si el id es null.
+     */
+    public synchronized Sesion buscar(String id) {
+        if (activa == null || (id != null && !id.isEmpty() && !id.equals(activa.id))) {
+            return null;
+        }
+        return activa;
+    }
+
+    /**
+     * Marca la sesion como en curso (pantalla de captura abierta).
+     */
+    public synchronized boolean marcarEnCurso(Sesion sesion) {
+        synchronized (sesion) {
+            if (sesion.estado != Estado.INICIADA) {
+                return false;
+            }
+            sesion.estado = Estado.EN_CURSO;
+            return true;
+        }
+    }
+
+    /**
+     * Lleva la sesion a un estado final. Retorna false si ya habia terminado, en cuyo caso
+     * el llamador no debe entregar otro resultado.
+     */
+    public synchronized boolean terminar(Sesion sesion, Estado estadoFinal) {
+        synchronized (sesion) {
+            if (sesion.estado.esFinal()) {
+                return false;
+            }
+            sesion.estado = estadoFinal;
+        }
+        if (activa == sesion) {
+            activa = null;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,119 @@
+package com.enext.biometria;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Latencias de las ultimas validaciones por etapa, en un buffer circular de tamano fijo
+ * (las validaciones mas antiguas se descartan). Calcula p50, p95 y p99 bajo demanda.
+ */
+public class HistogramaLatencias {
+
+    static final int CAPACIDAD = 256;
+
+    /**
+     * Buffer circular de una etapa.
+     */
+    private static class Muestras {
+        final long[] valores = new long[CAPACIDAD];
+        int siguiente;
+        int cantidad;
+
+        void agregar(long valor) {
+            valores[siguiente] = valor;
+            siguiente = (siguiente + 1) % CAPACIDAD;
+            if (cantidad < CAPACIDAD) {
+                cantidad++;
+            }
+        }
+    }
+
+    private final Map<String, Muestras> etapas = new LinkedHashMap<>();
+    // Primer cuadro de la interfaz (uiVisible - inicioActividad) por origen del WebView: frio, caliente, precalentado
+    private final Map<String, Muestras> arranques = new LinkedHashMap<>();
+    private long validaciones;
+
+    public HistogramaLatencias() {
+        for (String etapa : MetricasEtapas.ETAPAS) {
+            etapas.put(etapa, new Muestras());
+        }
+    }
+
+    /**
+     * Agrega las etapas de una validacion terminada.
+     */
+    public synchronized void registrar(MetricasEtapas metricas, String arranque) {
+        validaciones++;
+        Map<String, Long> marcas = metricas.getMarcas();
+        for (Map.Entry<String, Long> marca : marcas.entrySet()) {
+            Muestras muestras = etapas.get(marca.getKey());
+            if (muestras != null) {
+                muestras.agregar(marca.getValue());
+            }
+        }
+        Long inicio = marcas.get(MetricasEtapas.INICIO_ACTIVIDAD);
+        Long visible = marcas.get(MetricasEtapas.UI_VISIBLE);
+        if (arranque != null && inicio != null && visible != null) {
+            Muestras muestras = arranques.get(arranque);
+            if (muestras == null) {
+                muestras = new Muestras();
+                arranques.put(arranque, muestras);
+            }
+            muestras.agregar(visible - inicio);
+        }
+    }
+
+    public synchronized void reiniciar() {
+        validaciones = 0;
+        for (String etapa : MetricasEtapas.ETAPAS) {
+            etapas.put(etapa, new Muestras());
+        }
+        arranques.clear();
+    }
+
+    /**
+     * {validaciones, capacidad, etapas: {etapa: {muestras, p50, p95, p99, max}}, arranque: {origen: {...}}}.
+     * Las etapas van en ms desde validar(); el arranque, en ms desde la apertura de la pantalla hasta el
+     * primer cuadro de la interfaz. Las series sin muestras se omiten.
+     */
+    public synchronized JSONObject toJSON() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("validaciones", validaciones);
+        json.put("capacidad", CAPACIDAD);
+        json.put("etapas", resumir(etapas));
+        json.put("arranque", resumir(arranques));
+        return json;
+    }
+
+    private static JSONObject resumir(Map<String, Muestras> series) throws JSONException {
+        JSONObject resumen = new JSONObject();
+        for (Map.Entry<String, Muestras> serie : series.entrySet()) {
+            Muestras muestras = serie.getValue();
+            if (muestras.cantidad == 0) {
+                continue;
+            }
+            long[] ordenadas = Arrays.copyOf(muestras.valores, muestras.cantidad);
+            Arrays.sort(ordenadas);
+            JSONObject percentiles = new JSONObject();
+            percentiles.put("muestras", ordenadas.length);
+            percentiles.put("p50", percentil(ordenadas, 50));
+            percentiles.put("p95", percentil(ordenadas, 95));
+            percentiles.put("p99", percentil(ordenadas, 99));
+            percentiles.put("max", ordenadas[ordenadas.length - 1]);
+            resumen.put(serie.getKey(), percentiles);
+        }
+        return resumen;
+    }
+
+    /**
+     * Percentil por rango mas cercano sobre valores ordenados.
+     */
+    private static long percentil(long[] ordenadas, int p) {
+        int rango = (int) Math.ceil(p / 100.0 * ordenadas.length);
+        return ordenadas[Math.max(0, rango - 1)];
+    }
+}
@@ -0,0 +1,56 @@
+package com.enext.biometria;
+
+import android.util.Base64;
+
+/**
+ * Imagen codificada (JPEG u otro formato) lista para enviarse. Los bytes pueden vivir en un
+ * arreglo del BufferPool mas grande que la imagen; solo son validos los primeros {@code longitud}.
+ */
+public class ImagenJpeg {
+
+    private final byte[] datos;
+    private final int longitud;
+    private final BufferPool pool;
+    private String tipoMime = "image/jpeg";
+    private boolean liberada;
+
+    ImagenJpeg(byte[] datos, int longitud, BufferPool pool) {
+        this.datos = datos;
+        this.longitud = longitud;
+        this.pool = pool;
+    }
+
+    /**
+     * Crea una imagen a partir del base64 entregado por el WebView (sin pool).
+     */
+    public static ImagenJpeg desdeBase64(String base64) {
+        byte[] datos = Base64.decode(base64, Base64.DEFAULT);
+        return new ImagenJpeg(datos, datos.length, null);
+    }
+
+    public byte[] getDatos() {
+        return datos;
+    }
+
+    public int getLongitud() {
+        return longitud;
+    }
+
+    public String getTipoMime() {
+        return tipoMime;
+    }
+
+    public void setTipoMime(String tipoMime) {
+        this.tipoMime = tipoMime;
+    }
+
+    /**
+     * Devuelve el arreglo al pool. Debe llamarse cuando el envio termina.
+     */
+    public synchronized void liberar() {
+        if (!liberada && pool != null) {
+            pool.devolver(datos);
+        }
+        liberada = true;
+    }
+}
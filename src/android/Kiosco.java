@@ -0,0 +1,138 @@
+package com.enext.biometria;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ResultReceiver;
+import android.util.Log;
+
+import org.apache.cordova.PluginResult;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lado del plugin de una sesion de kiosco: una sola BiometriaActivity valida a varias personas
+ * seguidas con la camara y el token abiertos. Las personas se envian a la pantalla por broadcast
+ * (restringido al paquete) y los resultados vuelven por un ResultReceiver, uno por persona, al
+ * callback de JavaScript que queda abierto. Las personas agregadas antes de que la pantalla
+ * avise LISTO se guardan y se envian en ese momento.
+ */
+class Kiosco {
+
+    private static final String TAG = "Kiosco";
+
+    // Broadcasts del plugin a BiometriaActivity
+    static final String ACCION_PERSONA = "com.enext.biometria.KIOSCO_PERSONA";
+    static final String ACCION_TERMINAR = "com.enext.biometria.KIOSCO_TERMINAR";
+
+    // Codigos del ResultReceiver de BiometriaActivity al plugin
+    static final int LISTO = 1;
+    static final int RESULTADO = 2;
+
+    private final Context context;
+    private final GestorSesiones.Sesion sesion;
+    private final ResultReceiver receptor;
+    // Broadcasts pendientes hasta que la pantalla registre su receptor
+    private final List<Intent> pendientes = new ArrayList<>();
+    private boolean listo;
+    private int entregados;
+
+    Kiosco(Context context, GestorSesiones.Sesion sesion) {
+        this.context = context.getApplicationContext();
+        this.sesion = sesion;
+        this.receptor = new ResultReceiver(new Handler(Looper.getMainLooper())) {
+            @Override
+            protected void onReceiveResult(int codigo, Bundle datos) {
+                if (codigo == LISTO) {
+                    marcarListo();
+                } else if (codigo == RESULTADO) {
+                    entregarResultado(datos.getString("resultado"));
+                }
+            }
+        };
+    }
+
+    GestorSesiones.Sesion getSesion() {
+        return sesion;
+    }
+
+    /**
+     * Receptor que BiometriaActivity recibe en el Intent para devolver los resultados.
+     */
+    ResultReceiver getReceptor() {
+        return receptor;
+    }
+
+    /**
+     * Agrega una persona a la fila de la pantalla.
+     */
+    void agregarPersona(String personaId, String cedula, String codDactilar) {
+        Intent persona = crearBroadcast(ACCION_PERSONA);
+        persona.putExtra("personaId", personaId);
+        persona.putExtra("cedula", cedula);
+        persona.putExtra("codDactilar", codDactilar);
+        enviar(persona);
+    }
+
+    /**
+     * Pide a la pantalla que termine: descarta las personas sin capturar, espera los envios en
+     * curso y cierra. El callback recibe entonces el resultado 'fin'.
+     */
+    void terminar() {
+        enviar(crearBroadcast(ACCION_TERMINAR));
+    }
+
+    /**
+     * Resultados de personas entregados al JavaScript.
+     */
+    synchronized int getEntregados() {
+        return entregados;
+    }
+
+    private Intent crearBroadcast(String accion) {
+        Intent intent = new Intent(accion);
+        intent.setPackage(context.getPackageName());
+        intent.putExtra("sesionId", sesion.getId());
+        return intent;
+    }
+
+    private synchronized void enviar(Intent intent) {
+        if (!listo) {
+            pendientes.add(intent);
+            return;
+        }
+        context.sendBroadcast(intent);
+    }
+
+    private synchronized void marcarListo() {
+        Log.d(TAG, "Pantalla de kiosco lista, " + pendientes.size() + " pendientes");
+        listo = true;
+        for (Intent intent : pendientes) {
+            context.sendBroadcast(intent);
+        }
+        pendientes.clear();
+    }
+
+    private void entregarResultado(String resultado) {
+        if (sesion.getEstado().esFinal()) {
+            // La sesion ya termino (por ejemplo, cancelada): el JavaScript no espera mas resultados
+            Log.d(TAG, "Resultado de kiosco ignorado de una sesion terminada");
+            return;
+        }
+        try {
+            PluginResult pluginResult = new PluginResult(PluginResult.Status.OK, new JSONObject(resultado));
+            pluginResult.setKeepCallback(true);
+            sesion.getCallback().sendPluginResult(pluginResult);
+            synchronized (this) {
+                entregados++;
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "Resultado de kiosco invalido: " + e.getMessage());
+        }
+    }
+}
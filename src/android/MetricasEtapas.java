@@ -0,0 +1,122 @@
+package com.enext.biometria;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Marcas de tiempo de las etapas de una validacion, en ms desde la llamada a validar().
+ * Se usa el reloj monotono (elapsedRealtime), comun al plugin y a BiometriaActivity.
+ * Si una etapa se repite (por ejemplo, un reintento de captura) se conserva la ultima marca.
+ */
+public class MetricasEtapas {
+
+    private static final String TAG = "MetricasEtapas";
+
+    static final String INICIO_ACTIVIDAD = "inicioActividad";
+    static final String UI_VISIBLE = "uiVisible";
+    static final String WEBVIEW_LISTO = "webViewListo";
+    static final String CONFIG_INYECTADA = "configInyectada";
+    static final String TOKEN_OBTENIDO = "tokenObtenido";
+    static final String CAMARA_ABIERTA = "camaraAbierta";
+    static final String PRIMER_CUADRO = "primerCuadro";
+    static final String CAPTURA = "captura";
+    static final String CODIFICACION = "codificacion";
+    static final String SUBIDA_INICIO = "subidaInicio";
+    static final String SUBIDA_FIN = "subidaFin";
+    static final String RESPUESTA_SERVIDOR = "respuestaServidor";
+    static final String RESULTADO_ENTREGADO = "resultadoEntregado";
+
+    // Orden en que se informan las etapas
+    static final String[] ETAPAS = {
+        INICIO_ACTIVIDAD, UI_VISIBLE, WEBVIEW_LISTO, CONFIG_INYECTADA, TOKEN_OBTENIDO, CAMARA_ABIERTA, PRIMER_CUADRO,
+        CAPTURA, CODIFICACION, SUBIDA_INICIO, SUBIDA_FIN, RESPUESTA_SERVIDOR, RESULTADO_ENTREGADO
+    };
+
+    private final long inicio;
+    private final Map<String, Long> marcas = new LinkedHashMap<>();
+
+    /**
+     * inicio: elapsedRealtime() al llamar a validar()
+     */
+    public MetricasEtapas(long inicio) {
+        this.inicio = inicio;
+    }
+
+    /**
+     * Reconstruye las metricas enviadas por BiometriaActivity en el resultado.
+     */
+    public static MetricasEtapas desdeJSON(long inicio, String json) {
+        MetricasEtapas metricas = new MetricasEtapas(inicio);
+        if (json == null || json.isEmpty()) {
+            return metricas;
+        }
+        try {
+            JSONObject etapas = new JSONObject(json);
+            Iterator<String> nombres = etapas.keys();
+            while (nombres.hasNext()) {
+                String nombre = nombres.next();
+                metricas.marcas.put(nombre, etapas.getLong(nombre));
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "Metricas invalidas: " + e.getMessage());
+        }
+        return metricas;
+    }
+
+    /**
+     * Indica si el nombre corresponde a una etapa conocida.
+     */
+    static boolean esEtapa(String nombre) {
+        for (String etapa : ETAPAS) {
+            if (etapa.equals(nombre)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized void marcar(String etapa) {
+        marcas.put(etapa, SystemClock.elapsedRealtime() - inicio);
+    }
+
+    /**
+     * Marca la etapa solo la primera vez.
+     */
+    public synchronized void marcarPrimera(String etapa) {
+        if (!marcas.containsKey(etapa)) {
+            marcar(etapa);
+        }
+    }
+
+    /**
+     * Etapas registradas, en orden de la validacion: {etapa: ms desde validar()}.
+     */
+    public synchronized JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        try {
+            for (String etapa : ETAPAS) {
+                Long ms = marcas.get(etapa);
+                if (ms != null) {
+                    json.put(etapa, ms);
+                }
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "Error al crear metricas: " + e.getMessage());
+        }
+        return json;
+    }
+
+    /**
+     * Copia de las marcas para alimentar los histogramas.
+     */
+    synchronized Map<String, Long> getMarcas() {
+        return new LinkedHashMap<>(marcas);
+    }
+}
@@ -0,0 +1,93 @@
+package com.enext.biometria;
+
+import android.os.Debug;
+import android.util.Log;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pico de PSS (memoria fisica proporcional, en KB) del proceso mientras dura una pantalla o una
+ * sesion. Debug.getPss() lee /proc/self/smaps y puede tardar decenas de ms, por eso se muestrea en
+ * un hilo propio cada INTERVALO_MS y, a pedido, en los momentos de mayor uso (la captura).
+ */
+final class MonitorPss {
+
+    private static final String TAG = "MonitorPss";
+
+    static final long INTERVALO_MS = 1000;
+
+    private ScheduledExecutorService hilo;
+    private long picoKb;
+    private int muestras;
+
+    /**
+     * Empieza a muestrear; reinicia el pico si ya se habia usado.
+     */
+    synchronized void iniciar() {
+        if (hilo != null) {
+            return;
+        }
+        picoKb = 0;
+        muestras = 0;
+        hilo = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "EnextMonitorPss");
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+        hilo.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                registrar(Debug.getPss());
+            }
+        }, 0, INTERVALO_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Pide una muestra inmediata, sin bloquear al llamador.
+     */
+    synchronized void muestrear() {
+        if (hilo == null) {
+            return;
+        }
+        hilo.execute(new Runnable() {
+            @Override
+            public void run() {
+                registrar(Debug.getPss());
+            }
+        });
+    }
+
+    /**
+     * Deja de muestrear y retorna el pico observado.
+     */
+    synchronized long detener() {
+        if (hilo != null) {
+            hilo.shutdownNow();
+            hilo = null;
+            Log.d(TAG, "PSS pico " + picoKb + " KB en " + muestras + " muestras");
+        }
+        return picoKb;
+    }
+
+    synchronized boolean isActivo() {
+        return hilo != null;
+    }
+
+    synchronized long getPicoKb() {
+        return picoKb;
+    }
+
+    private synchronized void registrar(long pssKb) {
+        muestras++;
+        if (pssKb > picoKb) {
+            picoKb = pssKb;
+        }
+    }
+}
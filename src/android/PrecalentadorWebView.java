@@ -0,0 +1,143 @@
+package com.enext.biometria;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.MutableContextWrapper;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+import android.webkit.WebSettings;
+import android.webkit.WebView;
+import android.webkit.WebViewClient;
+
+/**
+ * WebView de BiometriaActivity creado antes de abrir la pantalla. El primer WebView del proceso
+ * carga Chromium y arranca el proceso de renderizado, que en equipos de gama baja toma cientos de
+ * ms; precalentarlo lo saca del arranque de la pantalla. Se crea con un MutableContextWrapper del
+ * contexto de la aplicacion y carga la interfaz sin iniciarla; la actividad lo toma, le asigna su
+ * contexto y vuelve a cargar la interfaz con el renderizador ya activo. Todo en el hilo principal.
+ */
+final class PrecalentadorWebView {
+
+    private static final String TAG = "PrecalentadorWebView";
+
+    // Origen del WebView de la pantalla, informado en diagnostico.arranque y en metricas()
+    static final String PRECALENTADO = "precalentado";
+    static final String FRIO = "frio";
+    static final String CALIENTE = "caliente";
+
+    private static WebView precalentado;
+    // Reponer el WebView precalentado al cerrar cada pantalla
+    private static boolean reponer;
+    // Ya se creo un WebView en este proceso (Chromium cargado)
+    private static boolean proveedorIniciado;
+
+    private PrecalentadorWebView() {
+    }
+
+    /**
+     * Crea el WebView precalentado si no existe. Con reponer, se crea otro al cerrar cada pantalla.
+     */
+    static void precalentar(Context context, final boolean reponerSiempre) {
+        final Context aplicacion = context.getApplicationContext();
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                reponer = reponer || reponerSiempre;
+                if (precalentado != null) {
+                    return;
+                }
+                long inicio = SystemClock.elapsedRealtime();
+                boolean frio = !proveedorIniciado;
+                WebView webView = crear(new MutableContextWrapper(aplicacion));
+                webView.setWebViewClient(new WebViewClient() {
+                    @Override
+                    public WebResourceResponse shouldInterceptRequest(WebView view, WebResourceRequest request) {
+                        return RecursosUI.interceptar(aplicacion, request.getUrl());
+                    }
+                });
+                // Sin la configuracion de BiometriaActivity la interfaz carga el DOM y el script pero no se inicia
+                webView.loadUrl(RecursosUI.URL_UI);
+                precalentado = webView;
+                Log.d(TAG, "WebView precalentado en " + (SystemClock.elapsedRealtime() - inicio) + " ms"
+                        + (frio ? " (primer WebView del proceso)" : ""));
+            }
+        });
+    }
+
+    /**
+     * Entrega el WebView precalentado a la actividad, o null si no hay uno.
+     */
+    static WebView tomar(Activity activity) {
+        WebView webView = precalentado;
+        if (webView == null) {
+            return null;
+        }
+        precalentado = null;
+        ((MutableContextWrapper) webView.getContext()).setBaseContext(activity);
+        return webView;
+    }
+
+    /**
+     * Crea un WebView con la configuracion comun de la interfaz.
+     */
+    static WebView crear(Context context) {
+        WebView webView = new WebView(context);
+        proveedorIniciado = true;
+        WebSettings settings = webView.getSettings();
+        settings.setJavaScriptEnabled(true);
+        settings.setDomStorageEnabled(true);
+        settings.setMediaPlaybackRequiresUserGesture(false);
+        settings.setDatabaseEnabled(true);
+        settings.setCacheMode(WebSettings.LOAD_DEFAULT);
+        return webView;
+    }
+
+    /**
+     * Origen de un WebView nuevo: FRIO si sera el primero del proceso, CALIENTE si Chromium ya esta cargado.
+     */
+    static String tipoNuevo() {
+        return proveedorIniciado ? CALIENTE : FRIO;
+    }
+
+    /**
+     * Llamado al cerrar la pantalla: prepara el WebView de la siguiente si se pidio reponerlo.
+     */
+    static void alCerrarPantalla(Context context) {
+        if (reponer) {
+            precalentar(context, false);
+        }
+    }
+
+    /**
+     * Libera el WebView creado por precalentar() al vencer, salvo que se haya pedido reponerlo
+     * (preferencia o configurar()), en cuyo caso se mantiene.
+     */
+    static void liberarTemporal() {
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                if (!reponer && precalentado != null) {
+                    precalentado.destroy();
+                    precalentado = null;
+                    Log.d(TAG, "WebView precalentado vencido");
+                }
+            }
+        });
+    }
+
+    /**
+     * Libera el WebView precalentado (por ejemplo, con poca memoria). Si se pidio reponerlo, se vuelve
+     * a crear al cerrar la siguiente pantalla.
+     */
+    static void descartar() {
+        if (precalentado != null) {
+            precalentado.destroy();
+            precalentado = null;
+            Log.d(TAG, "WebView precalentado descartado");
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.enext.biometria;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Estado de un precalentamiento especulativo (accion 'precalentar'): el permiso de camara, la
+ * conexion al endpoint de biometria, el token, la camara y el WebView se preparan en paralelo
+ * antes de validar() y quedan listos durante un tiempo acotado. validar() lo consume y el
+ * diagnostico informa que piezas estaban listas en ese momento.
+ */
+class Precalentamiento {
+
+    private static final String TAG = "Precalentamiento";
+
+    static final long DURACION_MS = 30000;
+    static final long DURACION_MAXIMA_MS = 120000;
+
+    // Piezas
+    static final String PERMISO = "permiso";
+    static final String CONEXION = "conexion";
+    static final String TOKEN = "token";
+    static final String CAMARA = "camara";
+    static final String WEBVIEW = "webView";
+
+    // Estados de cada pieza
+    static final String EN_CURSO = "enCurso";
+    static final String LISTO = "listo";
+    static final String ERROR = "error";
+    static final String OMITIDO = "omitido";
+    // Estaba lista pero se libero al vencer el precalentamiento
+    static final String LIBERADO = "liberado";
+
+    private static class Pieza {
+        String estado = EN_CURSO;
+        long listoMs = -1;
+        String detalle;
+    }
+
+    private final long inicio = SystemClock.elapsedRealtime();
+    private final long duracionMs;
+    private final Map<String, Pieza> piezas = new LinkedHashMap<>();
+    private Runnable alTerminar;
+    private boolean consumido;
+
+    Precalentamiento(long duracionMs) {
+        this.duracionMs = Math.max(0, Math.min(duracionMs, DURACION_MAXIMA_MS));
+    }
+
+    long getDuracionMs() {
+        return duracionMs;
+    }
+
+    /**
+     * Se ejecuta una vez, cuando ninguna pieza queda en curso (de inmediato si ya no queda ninguna).
+     */
+    void setAlTerminar(Runnable alTerminar) {
+        synchronized (this) {
+            if (hayEnCurso()) {
+                this.alTerminar = alTerminar;
+                return;
+            }
+        }
+        alTerminar.run();
+    }
+
+    synchronized void iniciar(String pieza) {
+        piezas.put(pieza, new Pieza());
+    }
+
+    synchronized void omitir(String pieza, String motivo) {
+        Pieza omitida = new Pieza();
+        omitida.estado = OMITIDO;
+        omitida.detalle = motivo;
+        piezas.put(pieza, omitida);
+    }
+
+    /**
+     * Marca el fin de una pieza; detalle es el motivo del error (null si quedo lista).
+     */
+    void terminar(String pieza, boolean lista, String detalle) {
+        Runnable avisar = null;
+        synchronized (this) {
+            Pieza actual = piezas.get(pieza);
+            if (actual == null || !EN_CURSO.equals(actual.estado)) {
+                return;
+            }
+            actual.estado = lista ? LISTO : ERROR;
+            actual.listoMs = SystemClock.elapsedRealtime() - inicio;
+            actual.detalle = detalle;
+            Log.d(TAG, pieza + " " + actual.estado + " en " + actual.listoMs + " ms"
+                    + (detalle != null ? " (" + detalle + ")" : ""));
+            if (alTerminar != null && !hayEnCurso()) {
+                avisar = alTerminar;
+                alTerminar = null;
+            }
+        }
+        if (avisar != null) {
+            avisar.run();
+        }
+    }
+
+    /**
+     * Al vencer: la pieza lista cuyo recurso se libero deja de contarse como lista.
+     */
+    synchronized void liberar(String pieza) {
+        Pieza actual = piezas.get(pieza);
+        if (actual != null && LISTO.equals(actual.estado)) {
+            actual.estado = LIBERADO;
+        }
+    }
+
+    /**
+     * true si una validacion ya lo tomo: lo preparado pasa a ser suyo y no se libera al vencer.
+     */
+    synchronized boolean isConsumido() {
+        return consumido;
+    }
+
+    synchronized boolean isVigente() {
+        return !consumido && SystemClock.elapsedRealtime() - inicio < duracionMs;
+    }
+
+    /**
+     * Informe para el diagnostico de la validacion que lo usa: edad, si seguia vigente y, por
+     * pieza, su estado en ese momento. Despues de consumirlo deja de estar vigente.
+     */
+    synchronized JSONObject consumir() throws JSONException {
+        JSONObject informe = toJSON();
+        JSONArray listas = new JSONArray();
+        for (Map.Entry<String, Pieza> pieza : piezas.entrySet()) {
+            if (LISTO.equals(pieza.getValue().estado)) {
+                listas.put(pieza.getKey());
+            }
+        }
+        informe.put("listasAlValidar", listas);
+        consumido = true;
+        return informe;
+    }
+
+    synchronized JSONObject toJSON() throws JSONException {
+        long edad = SystemClock.elapsedRealtime() - inicio;
+        JSONObject json = new JSONObject();
+        json.put("edadMs", edad);
+        json.put("duracionMs", duracionMs);
+        json.put("vigente", !consumido && edad < duracionMs);
+        JSONObject estados = new JSONObject();
+        for (Map.Entry<String, Pieza> pieza : piezas.entrySet()) {
+            JSONObject estado = new JSONObject();
+            estado.put("estado", pieza.getValue().estado);
+            if (pieza.getValue().listoMs >= 0) {
+                estado.put("listoMs", pieza.getValue().listoMs);
+            }
+            if (pieza.getValue().detalle != null) {
+                estado.put("detalle", pieza.getValue().detalle);
+            }
+            estados.put(pieza.getKey(), estado);
+        }
+        json.put("piezas", estados);
+        return json;
+    }
+
+    private boolean hayEnCurso() {
+        for (Pieza pieza : piezas.values()) {
+            if (EN_CURSO.equals(pieza.estado)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,285 @@
+package com.enext.biometria;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.enext.biometria.core.BusquedaCalidad;
+import com.enext.biometria.core.PasosImagen;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+
+/**
+ * Etapa previa al envio: recorta la imagen a la region del circulo guia, la reduce a la
+ * resolucion objetivo y busca la calidad de codificacion que cumple el presupuesto de bytes.
+ *
+ * Opciones (todas opcionales): recorteRostro, resolucionObjetivo, presupuestoBytes, formatoImagen.
+ *
+ * Con la camara nativa y formato JPEG el recorte y el escalado se hacen sobre el cuadro NV21 con
+ * buffers del pool y se codifica una sola vez (procesarNv21); el resto pasa por Bitmap (procesar).
+ */
+public class ProcesadorImagen {
+
+    private static final String TAG = "ProcesadorImagen";
+
+    static final String FORMATO_JPEG = "jpeg";
+    static final String FORMATO_WEBP = "webp";
+
+    // Ruta de procesamiento informada en el diagnostico
+    static final String RUTA_NV21 = "nv21";
+    static final String RUTA_BITMAP = "bitmap";
+
+    private static final int CALIDAD_POR_DEFECTO = 85;
+    private static final int CALIDAD_MAXIMA = 90;
+    private static final int CALIDAD_MINIMA = 30;
+
+    /**
+     * Imagen final y metricas de la codificacion.
+     */
+    public static class Resultado {
+        public ImagenJpeg imagen;
+        public String formato;
+        public String ruta;
+        public int ancho;
+        public int alto;
+        public int calidad;
+        public int codificaciones;
+        public boolean dentroPresupuesto = true;
+        public long tiempoMs;
+        // Arreglos que los pools tuvieron que asignar y Bitmaps creados durante el procesamiento
+        public int buffersAsignados;
+        public int bitmaps;
+
+        public JSONObject toJSON() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("formato", formato);
+            json.put("ruta", ruta);
+            json.put("ancho", ancho);
+            json.put("alto", alto);
+            json.put("bytes", imagen.getLongitud());
+            json.put("calidad", calidad);
+            json.put("codificaciones", codificaciones);
+            json.put("dentroPresupuesto", dentroPresupuesto);
+            json.put("tiempoCodificacionMs", tiempoMs);
+            JSONObject asignaciones = new JSONObject();
+            asignaciones.put("buffers", buffersAsignados);
+            asignaciones.put("bitmaps", bitmaps);
+            json.put("asignaciones", asignaciones);
+            return json;
+        }
+    }
+
+    private final boolean recorteRostro;
+    private final int resolucionObjetivo;
+    private final int presupuestoBytes;
+    private final String formato;
+    private final BufferPool pool;
+
+    public ProcesadorImagen(JSONObject opciones, BufferPool pool) {
+        this.recorteRostro = opciones.optBoolean("recorteRostro", false);
+        this.resolucionObjetivo = opciones.optInt("resolucionObjetivo", 0);
+        this.presupuestoBytes = opciones.optInt("presupuestoBytes", 0);
+        this.formato = FORMATO_WEBP.equals(opciones.optString("formatoImagen")) ? FORMATO_WEBP : FORMATO_JPEG;
+        this.pool = pool;
+    }
+
+    /**
+     * Indica si hay alguna transformacion configurada; si no, la imagen se envia tal cual.
+     */
+    public boolean esNecesario() {
+        return recorteRostro || resolucionObjetivo > 0 || presupuestoBytes > 0 || !FORMATO_JPEG.equals(formato);
+    }
+
+    /**
+     * Indica si la imagen puede procesarse sobre el cuadro NV21 de la camara nativa (solo JPEG:
+     * YuvImage no codifica WebP).
+     */
+    public boolean admiteNv21() {
+        return FORMATO_JPEG.equals(formato);
+    }
+
+    /**
+     * Procesa la imagen capturada. La imagen original se libera al terminar.
+     */
+    public Resultado procesar(ImagenJpeg original) throws IOException {
+        long inicio = SystemClock.elapsedRealtime();
+        int asignacionesInicio = pool.getAsignaciones();
+        Resultado resultado = new Resultado();
+        final Bitmap bitmap = decodificarRegion(original, resultado);
+        original.liberar();
+
+        resultado.formato = formato;
+        resultado.ruta = RUTA_BITMAP;
+        resultado.ancho = bitmap.getWidth();
+        resultado.alto = bitmap.getHeight();
+
+        final Bitmap.CompressFormat formatoCompresion = formatoCompresion();
+        final BufferPool.Salida salida = new BufferPool.Salida(pool, presupuestoBytes > 0 ? presupuestoBytes : 64 * 1024);
+        codificar(new BusquedaCalidad.Codificador() {
+            @Override
+            public int codificar(int calidad) {
+                salida.reiniciar();
+                bitmap.compress(formatoCompresion, calidad, salida);
+                return salida.getLongitud();
+            }
+        }, resultado);
+        bitmap.recycle();
+
+        resultado.imagen = salida.aImagen();
+        resultado.imagen.setTipoMime(FORMATO_WEBP.equals(formato) ? "image/webp" : "image/jpeg");
+        resultado.buffersAsignados = pool.getAsignaciones() - asignacionesInicio;
+        return terminar(resultado, inicio);
+    }
+
+    /**
+     * Procesa un cuadro NV21 ya rotado sin pasar por Bitmap: recorta y escala sobre arreglos de
+     * cuadros y codifica el JPEG directo sobre un buffer del pool de envio. El cuadro no se modifica.
+     */
+    public Resultado procesarNv21(byte[] nv21, int ancho, int alto, BufferPool cuadros) throws IOException {
+        long inicio = SystemClock.elapsedRealtime();
+        int asignacionesInicio = pool.getAsignaciones() + cuadros.getAsignaciones();
+        byte[] recorte = null;
+        byte[] escalado = null;
+        try {
+            byte[] actual = nv21;
+            if (recorteRostro) {
+                int lado = Math.min(ancho, alto) & ~1;
+                recorte = PasosImagen.recortarNv21(actual, ancho, alto, (ancho - lado) / 2, (alto - lado) / 2,
+                        lado, lado, cuadros.obtener(lado * lado * 3 / 2));
+                actual = recorte;
+                ancho = lado;
+                alto = lado;
+            }
+            int ladoMayor = Math.max(ancho, alto);
+            if (resolucionObjetivo > 0 && ladoMayor > resolucionObjetivo) {
+                float escala = (float) resolucionObjetivo / ladoMayor;
+                int anchoEscalado = Math.max(2, Math.round(ancho * escala) & ~1);
+                int altoEscalado = Math.max(2, Math.round(alto * escala) & ~1);
+                escalado = PasosImagen.escalarNv21(actual, ancho, alto, anchoEscalado, altoEscalado,
+                        cuadros.obtener(anchoEscalado * altoEscalado * 3 / 2));
+                actual = escalado;
+                ancho = anchoEscalado;
+                alto = altoEscalado;
+            }
+
+            Resultado resultado = new Resultado();
+            resultado.formato = FORMATO_JPEG;
+            resultado.ruta = RUTA_NV21;
+            resultado.ancho = ancho;
+            resultado.alto = alto;
+
+            final YuvImage yuv = new YuvImage(actual, ImageFormat.NV21, ancho, alto, null);
+            final Rect region = new Rect(0, 0, ancho, alto);
+            final BufferPool.Salida salida = new BufferPool.Salida(pool,
+                    presupuestoBytes > 0 ? presupuestoBytes : ancho * alto / 4);
+            codificar(new BusquedaCalidad.Codificador() {
+                @Override
+                public int codificar(int calidad) {
+                    salida.reiniciar();
+                    yuv.compressToJpeg(region, calidad, salida);
+                    return salida.getLongitud();
+                }
+            }, resultado);
+
+            resultado.imagen = salida.aImagen();
+            resultado.buffersAsignados = pool.getAsignaciones() + cuadros.getAsignaciones() - asignacionesInicio;
+            return terminar(resultado, inicio);
+        } finally {
+            cuadros.devolver(recorte);
+            cuadros.devolver(escalado);
+        }
+    }
+
+    /**
+     * Codifica con la calidad por defecto o, con presupuesto, con la mayor calidad que entra en el.
+     */
+    private void codificar(BusquedaCalidad.Codificador codificador, Resultado resultado) throws IOException {
+        if (presupuestoBytes > 0) {
+            // Busqueda binaria de la mayor calidad que entra en el presupuesto
+            BusquedaCalidad busqueda = BusquedaCalidad.buscar(codificador, presupuestoBytes, CALIDAD_MINIMA, CALIDAD_MAXIMA);
+            resultado.calidad = busqueda.calidad;
+            resultado.codificaciones = busqueda.codificaciones;
+            resultado.dentroPresupuesto = busqueda.dentroPresupuesto;
+        } else {
+            resultado.calidad = CALIDAD_POR_DEFECTO;
+            codificador.codificar(resultado.calidad);
+            resultado.codificaciones = 1;
+        }
+    }
+
+    private Resultado terminar(Resultado resultado, long inicio) {
+        resultado.tiempoMs = SystemClock.elapsedRealtime() - inicio;
+        Log.d(TAG, "Imagen " + resultado.ancho + "x" + resultado.alto + " " + resultado.formato + " (" + resultado.ruta
+                + ") q" + resultado.calidad + " = " + resultado.imagen.getLongitud() + " bytes en " + resultado.tiempoMs
+                + " ms, " + resultado.buffersAsignados + " buffers y " + resultado.bitmaps + " bitmaps asignados");
+        return resultado;
+    }
+
+    /**
+     * Decodifica solo la region del circulo guia (cuadrado centrado, igual que object-fit:cover)
+     * con el submuestreo mas agresivo que conserve la resolucion objetivo.
+     */
+    private Bitmap decodificarRegion(ImagenJpeg original, Resultado resultado) throws IOException {
+        BitmapRegionDecoder decodificador = BitmapRegionDecoder.newInstance(
+                original.getDatos(), 0, original.getLongitud(), false);
+        try {
+            int ancho = decodificador.getWidth();
+            int alto = decodificador.getHeight();
+            Rect region;
+            if (recorteRostro) {
+                int lado = Math.min(ancho, alto);
+                int x = (ancho - lado) / 2;
+                int y = (alto - lado) / 2;
+                region = new Rect(x, y, x + lado, y + lado);
+            } else {
+                region = new Rect(0, 0, ancho, alto);
+            }
+
+            int ladoMayor = Math.max(region.width(), region.height());
+            BitmapFactory.Options opciones = new BitmapFactory.Options();
+            opciones.inSampleSize = 1;
+            if (resolucionObjetivo > 0) {
+                while (ladoMayor / (opciones.inSampleSize * 2) >= resolucionObjetivo) {
+                    opciones.inSampleSize *= 2;
+                }
+            }
+
+            Bitmap bitmap = decodificador.decodeRegion(region, opciones);
+            if (bitmap == null) {
+                throw new IOException("No se pudo decodificar la imagen");
+            }
+            resultado.bitmaps++;
+            int ladoActual = Math.max(bitmap.getWidth(), bitmap.getHeight());
+            if (resolucionObjetivo > 0 && ladoActual > resolucionObjetivo) {
+                float escala = (float) resolucionObjetivo / ladoActual;
+                Bitmap escalado = Bitmap.createScaledBitmap(bitmap,
+                        Math.round(bitmap.getWidth() * escala), Math.round(bitmap.getHeight() * escala), true);
+                bitmap.recycle();
+                bitmap = escalado;
+                resultado.bitmaps++;
+            }
+            return bitmap;
+        } finally {
+            decodificador.recycle();
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private Bitmap.CompressFormat formatoCompresion() {
+        if (!FORMATO_WEBP.equals(formato)) {
+            return Bitmap.CompressFormat.JPEG;
+        }
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.R
+                ? Bitmap.CompressFormat.WEBP_LOSSY
+                : Bitmap.CompressFormat.WEBP;
+    }
+}
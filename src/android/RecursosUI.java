@@ -0,0 +1,83 @@
+package com.enext.biometria;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+import android.webkit.WebResourceResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Interfaz HTML de BiometriaActivity servida desde los assets. El hook del plugin la minifica a
+ * partir de www/biometria.html; aqui se lee una sola vez por proceso y se entrega desde memoria
+ * al WebView, bajo un origen https (contexto seguro para getUserMedia) reservado para assets.
+ */
+final class RecursosUI {
+
+    private static final String TAG = "RecursosUI";
+
+    static final String HOST = "appassets.androidplatform.net";
+    // www/biometria.html lo repite (ORIGEN_UI) para aceptar solo los mensajes de la app
+    static final String ORIGEN = "https://" + HOST;
+    static final String RUTA_UI = "/enext-biometria/biometria.html";
+    static final String URL_UI = ORIGEN + RUTA_UI;
+
+    // Ubicacion en los assets donde los hooks after_plugin_install/after_prepare dejan el HTML minificado
+    private static final String ASSET_UI = "www/plugins/enext-biometria/biometria.html";
+
+    // El HTML no cambia mientras vive el proceso: el WebView puede reutilizar su copia
+    private static final String CACHE_CONTROL = "max-age=31536000, immutable";
+
+    private static byte[] html;
+
+    private RecursosUI() {
+    }
+
+    /**
+     * HTML minificado de la interfaz; se lee de los assets la primera vez.
+     */
+    static synchronized byte[] getHtml(Context context) throws IOException {
+        if (html == null) {
+            long inicio = System.nanoTime();
+            InputStream entrada = context.getAssets().open(ASSET_UI);
+            try {
+                ByteArrayOutputStream salida = new ByteArrayOutputStream(32 * 1024);
+                byte[] bloque = new byte[8 * 1024];
+                int leidos;
+                while ((leidos = entrada.read(bloque)) != -1) {
+                    salida.write(bloque, 0, leidos);
+                }
+                html = salida.toByteArray();
+            } finally {
+                entrada.close();
+            }
+            Log.d(TAG, "Interfaz leida de los assets: " + html.length + " bytes en "
+                    + (System.nanoTime() - inicio) / 1000000 + " ms");
+        }
+        return html;
+    }
+
+    /**
+     * Respuesta para las solicitudes del WebView a la interfaz; null para cualquier otra URL.
+     */
+    static WebResourceResponse interceptar(Context context, Uri url) {
+        if (url == null || !HOST.equals(url.getHost()) || !RUTA_UI.equals(url.getPath())) {
+            return null;
+        }
+        Map<String, String> cabeceras = new HashMap<>();
+        cabeceras.put("Cache-Control", CACHE_CONTROL);
+        try {
+            return new WebResourceResponse("text/html", "UTF-8", 200, "OK", cabeceras,
+                    new ByteArrayInputStream(getHtml(context)));
+        } catch (IOException e) {
+            Log.e(TAG, "No se pudo leer la interfaz: " + e.getMessage());
+            return new WebResourceResponse("text/plain", "UTF-8", 404, "Not Found", new HashMap<String, String>(),
+                    new ByteArrayInputStream(new byte[0]));
+        }
+    }
+}
@@ -0,0 +1,478 @@
+package com.enext.biometria;
+
+import android.os.SystemClock;
+import android.util.Base64;
+import android.util.Log;
+
+import com.enext.biometria.core.PoliticaReintento;
+import com.enext.biometria.core.SolicitudCompartida;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.RequestBody;
+
+/**
+ * Cache de access_token por endpoint + usuario, compartida por todo el proceso.
+ * Respeta la expiracion del token (expires_in o claim exp del JWT) y lo renueva en segundo plano
+ * poco antes de expirar mientras siga en uso. La solicitud del token es idempotente: los fallos
+ * transitorios (red, timeout, HTTP 5xx) se reintentan con espera exponencial. Las solicitudes
+ * simultaneas de la misma credencial se agrupan en una sola llamada (single-flight): los demas
+ * solicitantes esperan su resultado. Un token rechazado por el servidor (HTTP 401/403) se descarta
+ * con invalidar() sin esperar su expiracion.
+ */
+public class TokenCache {
+
+    private static final String TAG = "TokenCache";
+
+    // Vigencia asumida cuando el servidor no informa expiracion
+    private static final long VIGENCIA_POR_DEFECTO_MS = 60000;
+    // Margen antes de la expiracion para renovar en segundo plano
+    private static final long MARGEN_RENOVACION_MS = 30000;
+    // Margen minimo para considerar un token vigente al entregarlo
+    private static final long MARGEN_USO_MS = 5000;
+
+    // Reintentos de la solicitud del token ante fallos transitorios
+    static final int REINTENTOS = 2;
+    static final int ESPERA_REINTENTO_MS = 500;
+    private static final long ESPERA_REINTENTO_MAXIMA_MS = 8000;
+
+    /**
+     * Token entregado al solicitante, indicando si vino de la cache y cuantos reintentos requirio.
+     */
+    public static class Resultado {
+        public final String token;
+        public final boolean acierto;
+        public final int reintentos;
+
+        Resultado(String token, boolean acierto, int reintentos) {
+            this.token = token;
+            this.acierto = acierto;
+            this.reintentos = reintentos;
+        }
+    }
+
+    private static class Entrada {
+        final String endpoint;
+        final String username;
+        final String password;
+        // Cuerpo de la solicitud de token, armado una sola vez
+        final RequestBody credenciales;
+        volatile String token;
+        volatile long expiraEn;
+        volatile boolean usadaDesdeRenovacion;
+        ScheduledFuture<?> renovacion;
+        // Solicitantes de la llamada en curso
+        final SolicitudCompartida<BiometriaHttpClient.Callback<Resultado>> enCurso = new SolicitudCompartida<>();
+
+        Entrada(String endpoint, String username, String password) {
+            this.endpoint = endpoint;
+            this.username = username;
+            this.password = password;
+            this.credenciales = BiometriaHttpClient.cuerpoToken(username, password);
+        }
+
+        boolean vigente() {
+            return token != null && SystemClock.elapsedRealtime() + MARGEN_USO_MS < expiraEn;
+        }
+    }
+
+    private final BiometriaHttpClient httpClient;
+    private final Map<String, Entrada> entradas = new ConcurrentHashMap<>();
+    private final AtomicInteger aciertos = new AtomicInteger();
+    private final AtomicInteger fallos = new AtomicInteger();
+    private final AtomicInteger reintentos = new AtomicInteger();
+    private final AtomicInteger solicitudes = new AtomicInteger();
+    private final AtomicInteger agrupadas = new AtomicInteger();
+    private final AtomicInteger invalidados = new AtomicInteger();
+    private final AtomicInteger esperando = new AtomicInteger();
+    private final AtomicInteger esperandoMaximo = new AtomicInteger();
+    private final AtomicLong esperaAgrupadasMs = new AtomicLong();
+    private final Random aleatorio = new Random();
+    private volatile int reintentosMaximos = REINTENTOS;
+    private volatile PoliticaReintento politicaReintento =
+            new PoliticaReintento(ESPERA_REINTENTO_MS, ESPERA_REINTENTO_MAXIMA_MS);
+    private final ScheduledExecutorService programador = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread hilo = new Thread(r, "EnextTokenCache");
+            hilo.setDaemon(true);
+            return hilo;
+        }
+    });
+
+    public TokenCache(BiometriaHttpClient httpClient) {
+        this.httpClient = httpClient;
+    }
+
+    /**
+     * Cambia la cantidad de reintentos ante fallos transitorios y la espera antes del primero.
+     */
+    public void configurarReintentos(int cantidad, long esperaBaseMs) {
+        reintentosMaximos = Math.max(0, cantidad);
+        politicaReintento = new PoliticaReintento(esperaBaseMs, Math.max(esperaBaseMs, ESPERA_REINTENTO_MAXIMA_MS));
+    }
+
+    /**
+     * Entrega un token vigente desde la cache o lo solicita al servidor.
+     */
+    public void obtener(String endpoint, String username, String password,
+                        final BiometriaHttpClient.Callback<Resultado> callback) {
+        final Entrada entrada = entrada(endpoint, username, password);
+        if (entrada.vigente()) {
+            entrada.usadaDesdeRenovacion = true;
+            aciertos.incrementAndGet();
+            callback.onExito(new Resultado(entrada.token, true, 0));
+            return;
+        }
+
+        fallos.incrementAndGet();
+        compartir(entrada, new BiometriaHttpClient.Callback<Resultado>() {
+            @Override
+            public void onExito(Resultado resultado) {
+                entrada.usadaDesdeRenovacion = true;
+                callback.onExito(resultado);
+            }
+
+            @Override
+            public void onError(BiometriaException error) {
+                callback.onError(error);
+            }
+        });
+    }
+
+    /**
+     * Descarta el token en cache de la credencial y su renovacion programada: la siguiente solicitud
+     * lo pide al servidor. Una llamada en curso no se interrumpe.
+     */
+    public void invalidar(String endpoint, String username) {
+        invalidar(endpoint, username, null);
+    }
+
+    /**
+     * Igual que invalidar(), salvo que el token en cache ya no sea el rechazado (otra solicitud lo
+     * renovo mientras tanto). rechazado null descarta cualquier token.
+     */
+    void invalidar(String endpoint, String username, String rechazado) {
+        Entrada entrada = entradas.get(endpoint + "|" + username);
+        if (entrada != null) {
+            descartar(entrada, rechazado);
+        }
+    }
+
+    private void descartar(Entrada entrada, String rechazado) {
+        synchronized (entrada) {
+            if (entrada.token == null || (rechazado != null && !rechazado.equals(entrada.token))) {
+                return;
+            }
+            entrada.token = null;
+            entrada.expiraEn = 0;
+            if (entrada.renovacion != null) {
+                entrada.renovacion.cancel(false);
+                entrada.renovacion = null;
+            }
+        }
+        invalidados.incrementAndGet();
+        Log.d(TAG, "Token invalidado");
+    }
+
+    /**
+     * Renovador para validarBiometria() a partir del token ya entregado a la credencial.
+     */
+    public Renovador renovador(String endpoint, String username, String password, String token) {
+        return new Renovador(endpoint, username, password, token);
+    }
+
+    /**
+     * Ante un token rechazado por el endpoint de biometria, lo invalida y pide otro. getToken() es el
+     * ultimo token entregado, el que corresponde a la respuesta exitosa.
+     */
+    public class Renovador implements BiometriaHttpClient.RenovadorToken {
+        private final String endpoint;
+        private final String username;
+        private final String password;
+        private volatile String token;
+
+        Renovador(String endpoint, String username, String password, String token) {
+            this.endpoint = endpoint;
+            this.username = username;
+            this.password = password;
+            this.token = token;
+        }
+
+        @Override
+        public void renovar(final BiometriaHttpClient.Callback<String> callback) {
+            invalidar(endpoint, username, token);
+            obtener(endpoint, username, password, new BiometriaHttpClient.Callback<Resultado>() {
+                @Override
+                public void onExito(Resultado resultado) {
+                    token = resultado.token;
+                    callback.onExito(resultado.token);
+                }
+
+                @Override
+                public void onError(BiometriaException error) {
+                    callback.onError(error);
+                }
+            });
+        }
+
+        public String getToken() {
+            return token;
+        }
+    }
+
+    /**
+     * Solicita el token en segundo plano para que este listo al llamar a validar().
+     */
+    public void precargar(String endpoint, String username, String password) {
+        precargar(endpoint, username, password, null);
+    }
+
+    /**
+     * Igual que precargar(), avisando cuando el token esta en la cache (de inmediato si ya estaba
+     * vigente). No cuenta como acierto ni como fallo de la cache.
+     */
+    public void precargar(String endpoint, String username, String password,
+                          final BiometriaHttpClient.Callback<Resultado> callback) {
+        Entrada entrada = entrada(endpoint, username, password);
+        if (entrada.vigente()) {
+            if (callback != null) {
+                callback.onExito(new Resultado(entrada.token, true, 0));
+            }
+            return;
+        }
+        compartir(entrada, new BiometriaHttpClient.Callback<Resultado>() {
+            @Override
+            public void onExito(Resultado resultado) {
+                Log.d(TAG, "Token precargado");
+                if (callback != null) {
+                    callback.onExito(resultado);
+                }
+            }
+
+            @Override
+            public void onError(BiometriaException error) {
+                Log.e(TAG, "No se pudo precargar el token: " + error.getMessage());
+                if (callback != null) {
+                    callback.onError(error);
+                }
+            }
+        });
+    }
+
+    public int getAciertos() {
+        return aciertos.get();
+    }
+
+    public int getFallos() {
+        return fallos.get();
+    }
+
+    /**
+     * Reintentos de solicitudes de token realizados desde el inicio del proceso.
+     */
+    public int getReintentos() {
+        return reintentos.get();
+    }
+
+    /**
+     * Solicitudes de token enviadas al servidor (sin contar reintentos).
+     */
+    public int getSolicitudes() {
+        return solicitudes.get();
+    }
+
+    /**
+     * Tokens descartados antes de expirar porque el servidor los rechazo.
+     */
+    public int getInvalidados() {
+        return invalidados.get();
+    }
+
+    /**
+     * Solicitudes que se sumaron a una llamada en curso en lugar de hacer la propia.
+     */
+    public int getAgrupadas() {
+        return agrupadas.get();
+    }
+
+    /**
+     * Estado del agrupamiento: solicitudes al servidor, agrupadas, solicitantes esperando ahora y
+     * el maximo observado, y la espera promedio de las agrupadas.
+     */
+    public JSONObject estadoAgrupamiento() {
+        JSONObject estado = new JSONObject();
+        try {
+            int agrupadasTotal = agrupadas.get();
+            estado.put("solicitudes", solicitudes.get());
+            estado.put("agrupadas", agrupadasTotal);
+            estado.put("esperando", esperando.get());
+            estado.put("esperandoMaximo", esperandoMaximo.get());
+            estado.put("esperaPromedioMs", agrupadasTotal > 0 ? esperaAgrupadasMs.get() / agrupadasTotal : 0);
+        } catch (JSONException e) {
+            Log.e(TAG, "Error al informar el agrupamiento: " + e.getMessage());
+        }
+        return estado;
+    }
+
+    private Entrada entrada(String endpoint, String username, String password) {
+        String clave = endpoint + "|" + username;
+        Entrada entrada = entradas.get(clave);
+        if (entrada == null || !entrada.password.equals(password)) {
+            entrada = new Entrada(endpoint, username, password);
+            entradas.put(clave, entrada);
+        }
+        return entrada;
+    }
+
+    /**
+     * Solicita el token, o se suma a la solicitud en curso de la misma entrada. Todos los
+     * solicitantes reciben el mismo resultado (o error) cuando la llamada termina.
+     */
+    private void compartir(final Entrada entrada, BiometriaHttpClient.Callback<Resultado> callback) {
+        if (!entrada.enCurso.sumar(callback, SystemClock.elapsedRealtime())) {
+            agrupadas.incrementAndGet();
+            int ahora = esperando.incrementAndGet();
+            esperandoMaximo.set(Math.max(esperandoMaximo.get(), ahora));
+            Log.d(TAG, "Token en curso, solicitud agrupada (" + entrada.enCurso.getEsperando() + " agrupadas)");
+            return;
+        }
+        solicitudes.incrementAndGet();
+        solicitar(entrada, 0, new BiometriaHttpClient.Callback<Resultado>() {
+            @Override
+            public void onExito(Resultado resultado) {
+                for (BiometriaHttpClient.Callback<Resultado> solicitante : terminarCompartida(entrada)) {
+                    solicitante.onExito(resultado);
+                }
+            }
+
+            @Override
+            public void onError(BiometriaException error) {
+                for (BiometriaHttpClient.Callback<Resultado> solicitante : terminarCompartida(entrada)) {
+                    solicitante.onError(error);
+                }
+            }
+        });
+    }
+
+    private List<BiometriaHttpClient.Callback<Resultado>> terminarCompartida(Entrada entrada) {
+        SolicitudCompartida.Grupo<BiometriaHttpClient.Callback<Resultado>> grupo =
+                entrada.enCurso.terminar(SystemClock.elapsedRealtime());
+        esperaAgrupadasMs.addAndGet(grupo.esperaAgrupadosMs);
+        esperando.addAndGet(-grupo.agrupados);
+        return grupo.solicitantes;
+    }
+
+    /**
+     * Solicita el token al servidor; intento es la cantidad de reintentos ya realizados.
+     */
+    private void solicitar(final Entrada entrada, final int intento,
+                           final BiometriaHttpClient.Callback<Resultado> callback) {
+        httpClient.obtenerToken(entrada.endpoint, entrada.credenciales,
+                new BiometriaHttpClient.Callback<JSONObject>() {
+                    @Override
+                    public void onExito(JSONObject respuesta) {
+                        String token = respuesta.optString("access_token");
+                        long vigenciaMs = calcularVigencia(respuesta, token);
+                        synchronized (entrada) {
+                            entrada.token = token;
+                            entrada.expiraEn = SystemClock.elapsedRealtime() + vigenciaMs;
+                            programarRenovacion(entrada, vigenciaMs);
+                        }
+                        callback.onExito(new Resultado(token, false, intento));
+                    }
+
+                    @Override
+                    public void onError(BiometriaException error) {
+                        if (error.esRechazoAutenticacion()) {
+                            // Credencial rechazada: el token anterior tampoco deberia seguir en uso
+                            descartar(entrada, null);
+                        }
+                        if (!error.esTransitorio() || intento >= reintentosMaximos) {
+                            callback.onError(error);
+                            return;
+                        }
+                        long espera = politicaReintento.espera(intento + 1, aleatorio);
+                        Log.d(TAG, "Fallo transitorio del token (" + error.getMessage() + "), reintento en "
+                                + espera + " ms");
+                        reintentos.incrementAndGet();
+                        programador.schedule(new Runnable() {
+                            @Override
+                            public void run() {
+                                solicitar(entrada, intento + 1, callback);
+                            }
+                        }, espera, TimeUnit.MILLISECONDS);
+                    }
+                });
+    }
+
+    /**
+     * Programa la renovacion poco antes de expirar. Solo se renueva si el token se uso
+     * desde la ultima renovacion, para no generar trafico en dispositivos inactivos.
+     */
+    private void programarRenovacion(final Entrada entrada, long vigenciaMs) {
+        if (entrada.renovacion != null) {
+            entrada.renovacion.cancel(false);
+        }
+        long espera = vigenciaMs - Math.min(MARGEN_RENOVACION_MS, vigenciaMs / 4);
+        entrada.usadaDesdeRenovacion = false;
+        entrada.renovacion = programador.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (!entrada.usadaDesdeRenovacion) {
+                    Log.d(TAG, "Token sin uso reciente, no se renueva");
+                    return;
+                }
+                compartir(entrada, new BiometriaHttpClient.Callback<Resultado>() {
+                    @Override
+                    public void onExito(Resultado resultado) {
+                        Log.d(TAG, "Token renovado en segundo plano");
+                    }
+
+                    @Override
+                    public void onError(BiometriaException error) {
+                        Log.e(TAG, "No se pudo renovar el token: " + error.getMessage());
+                    }
+                });
+            }
+        }, espera, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Vigencia del token en ms: expires_in de la respuesta, claim exp del JWT o un valor por defecto.
+     */
+    static long calcularVigencia(JSONObject respuesta, String token) {
+        long expiresIn = respuesta.optLong("expires_in", 0);
+        if (expiresIn > 0) {
+            return expiresIn * 1000;
+        }
+
+        String[] partes = token.split("\\.");
+        if (partes.length == 3) {
+            try {
+                byte[] payload = Base64.decode(partes[1], Base64.URL_SAFE | Base64.NO_WRAP | Base64.NO_PADDING);
+                long exp = new JSONObject(new String(payload, StandardCharsets.UTF_8)).optLong("exp", 0);
+                if (exp > 0) {
+                    return Math.max(0, exp * 1000 - System.currentTimeMillis());
+                }
+            } catch (IllegalArgumentException | JSONException e) {
+                Log.d(TAG, "Token sin claim exp legible");
+            }
+        }
+        return VIGENCIA_POR_DEFECTO_MS;
+    }
+}
@@ -17,7 +17,30 @@ var EnextBiometria = {
     config: {
         tokenEndpoint: 'https://tokens.enext.ltd/token',
         biometriaEndpoint: 'https://biometrico.enext.ltd/validarbiometria',
-        credentials: null  // El cliente debe configurar sus credenciales
+        credentials: null,  // El cliente debe configurar sus credenciales
+        modoCaptura: 'webview',  // 'webview' (getUserMedia + canvas) o 'nativo' (Camera2)
+        modoEnvio: 'json',  // 'json' (contrato original), 'multipart' o 'binario'
+        deteccionRostro: false,  // Disparar la captura al detectar el rostro estable (solo modoCaptura 'nativo')
+        cuadrosEstables: 3,  // Cuadros analizados consecutivos con el rostro quieto antes de capturar
+        cuadrosRafaga: 1,  // Cuadros por captura en modo nativo; se envia solo el mejor
+        ventanaRafagaMs: 400,  // Ventana en la que se toman los cuadros de la rafaga
+        validarCalidad: false,  // Rechazar localmente fotos borrosas, oscuras o sin rostro
+        umbralesCalidad: null,  // {nitidezMinima, brilloMinimo, brilloMaximo, contrasteMinimo, rostroMinimo}
+        recorteRostro: false,  // Recortar la imagen a la region del circulo guia
+        resolucionObjetivo: 0,  // Lado mayor de la imagen enviada en px (0 = sin reducir)
+        presupuestoBytes: 0,  // Tamano maximo de la imagen enviada (0 = sin limite)
+        formatoImagen: 'jpeg',  // 'jpeg' o 'webp'
+        perfilAdaptativo: false,  // Elegir resolucion/calidad/formato segun el ancho de banda medido
+        tiempoObjetivoSubidaMs: 2000,  // Tiempo de subida esperado maximo con perfilAdaptativo
+        colaOffline: false,  // Sin conexion, guardar la validacion y enviarla al recuperar la red
+        timeoutConexionMs: 10000,
+        timeoutLecturaMs: 30000,
+        timeoutTokenMs: 15000,  // Tiempo maximo de la llamada de token completa (0 = sin limite)
+        timeoutBiometriaMs: 45000,  // Tiempo maximo de la llamada de validacion completa (0 = sin limite)
+        reintentosToken: 2,  // Reintentos del token ante fallos de red, timeout o HTTP 5xx
+        esperaReintentoMs: 500,  // Espera antes del primer reintento; se duplica en cada uno
+        umbralCircuito: 5,  // Fallos consecutivos del endpoint de biometria que abren el circuito
+        aperturaCircuitoMs: 30000  // Tiempo que el circuito queda abierto antes de probar de nuevo
     },
 
     /**
@@ -30,6 +53,40 @@ var EnextBiometria = {
      * @param {Object} options.credentials - Credenciales (OBLIGATORIO)
      * @param {string} options.credentials.username - Nombre de usuario
      * @param {string} options.credentials.password - Contraseña
+     * @param {string} options.modoCaptura - 'webview' (por defecto) o 'nativo' (opcional)
+     * @param {string} options.modoEnvio - 'json' (por defecto), 'multipart' o 'binario' (opcional)
+     * @param {boolean} options.deteccionRostro - Capturar al detectar el rostro estable, modo nativo (opcional)
+     * @param {number} options.cuadrosEstables - Cuadros estables requeridos para capturar (opcional)
+     * @param {number} options.cuadrosRafaga - Cuadros por captura en modo nativo (opcional)
+     * @param {number} options.ventanaRafagaMs - Ventana de la rafaga en ms (opcional)
+     * @param {boolean} options.validarCalidad - Control de calidad local antes del envio (opcional)
+     * @param {Object} options.umbralesCalidad - Umbrales del control de calidad (opcional)
+     * @param {boolean} options.recorteRostro - Recortar a la region del circulo guia (opcional)
+     * @param {number} options.resolucionObjetivo - Lado mayor de la imagen enviada en px (opcional)
+     * @param {number} options.presupuestoBytes - Tamano maximo de la imagen enviada en bytes (opcional)
+     * @param {string} options.formatoImagen - 'jpeg' (por defecto) o 'webp' (opcional)
+     * @param {boolean} options.perfilAdaptativo - Elegir el perfil de captura segun la red (opcional)
+     * @param {number} options.tiempoObjetivoSubidaMs - Tiempo de subida objetivo en ms (opcional)
+     * @param {boolean} options.colaOffline - Encolar la validacion si no hay conexion (opcional)
+     * @param {number} options.timeoutConexionMs - Timeout de conexion HTTP en ms (opcional)
+     * @param {number} options.timeoutLecturaMs - Timeout de lectura HTTP en ms (opcional)
+     * @param {number} options.timeoutTokenMs - Tiempo maximo de la llamada de token en ms (opcional)
+     * @param {number} options.timeoutBiometriaMs - Tiempo maximo de la llamada de validacion en ms (opcional)
+     * @param {number} options.reintentosToken - Reintentos del token ante fallos transitorios (opcional)
+     * @param {number} options.esperaReintentoMs - Espera antes del primer reintento del token en ms (opcional)
+     * @param {number} options.umbralCircuito - Fallos consecutivos que abren el circuito (opcional)
+     * @param {number} options.aperturaCircuitoMs - Tiempo con el circuito abierto en ms (opcional)
+     * @param {number} options.limiteTasaPorSegundo - Llamadas por segundo a cada endpoint; 0 sin limite (opcional)
+     * @param {number} options.rafagaLimiteTasa - Llamadas seguidas permitidas antes de aplicar el limite (opcional)
+     * @param {number} options.esperaMaximaLimiteMs - Espera maxima por turno antes de fallar con RATE_LIMITED (opcional)
+     * @param {boolean} options.precargarToken - Obtener el token en segundo plano de inmediato (opcional)
+     * @param {boolean} options.precalentarWebView - Crear de inmediato el WebView de la pantalla de validacion (opcional)
+     * @param {number} options.cacheResultadosMs - Reutilizar por este tiempo la validacion exitosa de la misma persona (opcional)
+     * @param {number} options.maximoCacheResultados - Personas que recuerda la cache de resultados (opcional)
+     * @param {boolean} options.procesoSeparado - Abrir la pantalla en su propio proceso (':biometria'); por defecto
+     *     la preferencia EnextBiometriaProcesoSeparado de config.xml (opcional)
+     * @param {Function} onSuccess - Callback de exito (opcional)
+     * @param {Function} onError - Callback de error (opcional)
      * 
      * @example
      * EnextBiometria.configurar({
@@ -39,7 +96,7 @@ var EnextBiometria = {
      *     }
      * });
      */
-    configurar: function(options) {
+    configurar: function(options, onSuccess, onError) {
         if (options.tokenEndpoint) {
             this.config.tokenEndpoint = options.tokenEndpoint;
         }
@@ -49,6 +106,118 @@ var EnextBiometria = {
         if (options.credentials) {
             this.config.credentials = options.credentials;
         }
+        if (options.modoCaptura) {
+            this.config.modoCaptura = options.modoCaptura;
+        }
+        if (options.modoEnvio) {
+            this.config.modoEnvio = options.modoEnvio;
+        }
+        if (options.recorteRostro !== undefined) {
+            this.config.recorteRostro = !!options.recorteRostro;
+        }
+        if (options.resolucionObjetivo !== undefined) {
+            this.config.resolucionObjetivo = options.resolucionObjetivo;
+        }
+        if (options.deteccionRostro !== undefined) {
+            this.config.deteccionRostro = !!options.deteccionRostro;
+        }
+        if (options.cuadrosEstables) {
+            this.config.cuadrosEstables = options.cuadrosEstables;
+        }
+        if (options.cuadrosRafaga) {
+            this.config.cuadrosRafaga = options.cuadrosRafaga;
+        }
+        if (options.ventanaRafagaMs !== undefined) {
+            this.config.ventanaRafagaMs = options.ventanaRafagaMs;
+        }
+        if (options.validarCalidad !== undefined) {
+            this.config.validarCalidad = !!options.validarCalidad;
+        }
+        if (options.umbralesCalidad) {
+            this.config.umbralesCalidad = options.umbralesCalidad;
+        }
+        if (options.presupuestoBytes !== undefined) {
+            this.config.presupuestoBytes = options.presupuestoBytes;
+        }
+        if (options.formatoImagen) {
+            this.config.formatoImagen = options.formatoImagen;
+        }
+        if (options.perfilAdaptativo !== undefined) {
+            this.config.perfilAdaptativo = !!options.perfilAdaptativo;
+        }
+        if (options.tiempoObjetivoSubidaMs) {
+            this.config.tiempoObjetivoSubidaMs = options.tiempoObjetivoSubidaMs;
+        }
+        if (options.colaOffline !== undefined) {
+            this.config.colaOffline = !!options.colaOffline;
+        }
+        if (options.timeoutConexionMs) {
+            this.config.timeoutConexionMs = options.timeoutConexionMs;
+        }
+        if (options.timeoutLecturaMs) {
+            this.config.timeoutLecturaMs = options.timeoutLecturaMs;
+        }
+        if (options.timeoutTokenMs !== undefined) {
+            this.config.timeoutTokenMs = options.timeoutTokenMs;
+        }
+        if (options.timeoutBiometriaMs !== undefined) {
+            this.config.timeoutBiometriaMs = options.timeoutBiometriaMs;
+        }
+        if (options.reintentosToken !== undefined) {
+            this.config.reintentosToken = options.reintentosToken;
+        }
+        if (options.esperaReintentoMs !== undefined) {
+            this.config.esperaReintentoMs = options.esperaReintentoMs;
+        }
+        if (options.umbralCircuito !== undefined) {
+            this.config.umbralCircuito = options.umbralCircuito;
+        }
+        if (options.aperturaCircuitoMs !== undefined) {
+            this.config.aperturaCircuitoMs = options.aperturaCircuitoMs;
+        }
+        if (options.limiteTasaPorSegundo !== undefined) {
+            this.config.limiteTasaPorSegundo = options.limiteTasaPorSegundo;
+        }
+        if (options.rafagaLimiteTasa !== undefined) {
+            this.config.rafagaLimiteTasa = options.rafagaLimiteTasa;
+        }
+        if (options.esperaMaximaLimiteMs !== undefined) {
+            this.config.esperaMaximaLimiteMs = options.esperaMaximaLimiteMs;
+        }
+        if (options.cacheResultadosMs !== undefined) {
+            this.config.cacheResultadosMs = options.cacheResultadosMs;
+        }
+        if (options.maximoCacheResultados) {
+            this.config.maximoCacheResultados = options.maximoCacheResultados;
+        }
+        if (options.procesoSeparado !== undefined) {
+            this.config.procesoSeparado = !!options.procesoSeparado;
+        }
+
+        // Aplicar la configuracion nativa (timeouts, reintentos, circuit breaker y precarga del token)
+        exec(
+            onSuccess || function() {},
+            onError || function() {},
+            'EnextBiometria',
+            'configurar',
+            [{
+                tokenEndpoint: this.config.tokenEndpoint,
+                credentials: this.config.credentials,
+                timeoutConexionMs: this.config.timeoutConexionMs,
+                timeoutLecturaMs: this.config.timeoutLecturaMs,
+                timeoutTokenMs: this.config.timeoutTokenMs,
+                timeoutBiometriaMs: this.config.timeoutBiometriaMs,
+                reintentosToken: this.config.reintentosToken,
+                esperaReintentoMs: this.config.esperaReintentoMs,
+                umbralCircuito: this.config.umbralCircuito,
+                aperturaCircuitoMs: this.config.aperturaCircuitoMs,
+                limiteTasaPorSegundo: this.config.limiteTasaPorSegundo,
+                rafagaLimiteTasa: this.config.rafagaLimiteTasa,
+                esperaMaximaLimiteMs: this.config.esperaMaximaLimiteMs,
+                precargarToken: !!options.precargarToken,
+                precalentarWebView: !!options.precalentarWebView
+            }]
+        );
     },
 
     /**
@@ -58,8 +227,10 @@ var EnextBiometria = {
      * @param {Object} datos - Datos del ciudadano
      * @param {string} datos.cedula - Numero de cedula (10 digitos)
      * @param {string} datos.codDactilar - Codigo dactilar (10 caracteres, ej: V3331V2222)
-     * @param {Function} onSuccess - Callback de exito con {accessToken, biometricData, timestamp}
-     * @param {Function} onError - Callback de error con {code, message}
+     * @param {Function} onSuccess - Callback de exito con {sesionId, accessToken, biometricData, timestamp, cache,
+     *     edadCacheMs, diagnostico, metricas}; cache es true si el resultado vino de la cache de resultados
+     * @param {Function} onError - Callback de error con {code, message, sesionId, idCola, diagnostico, metricas}
+     * @returns {string} Id de la sesion de validacion, para usar con cancelar()
      * 
      * @example
      * // Primero configurar credenciales
@@ -79,6 +250,8 @@ var EnextBiometria = {
      * );
      */
     validar: function(datos, onSuccess, onError) {
+        var sesionId = 'sesion-' + Date.now().toString(36) + '-' + Math.random().toString(36).slice(2, 8);
+
         // Validar que las credenciales esten configuradas
         if (!this.config.credentials || !this.config.credentials.username || !this.config.credentials.password) {
             if (onError) {
@@ -90,35 +263,11 @@ var EnextBiometria = {
             return;
         }
 
-        // Validar que se proporcionen los datos requeridos
-        if (!datos || !datos.cedula || !datos.codDactilar) {
-            if (onError) {
-                onError({
-                    code: 'INVALID_PARAMS',
-                    message: 'Se requiere cedula y codigo dactilar'
-                });
-            }
-            return;
-        }
-
-        // Validar formato de cedula (10 digitos)
-        if (!/^\d{10}$/.test(datos.cedula)) {
-            if (onError) {
-                onError({
-                    code: 'INVALID_CEDULA',
-                    message: 'La cedula debe tener 10 digitos'
-                });
-            }
-            return;
-        }
-
-        // Validar codigo dactilar (10 caracteres: letra + 4 digitos + letra + 4 digitos)
-        if (!/^[A-Z]\d{4}[A-Z]\d{4}$/.test(datos.codDactilar.toUpperCase())) {
+        // Validar cedula y codigo dactilar
+        var errorDatos = this._validarDatos(datos);
+        if (errorDatos) {
             if (onError) {
-                onError({
-                    code: 'INVALID_COD_DACTILAR',
-                    message: 'El codigo dactilar debe tener 10 caracteres (ej: V3331V2222)'
-                });
+                onError(errorDatos);
             }
             return;
         }
@@ -130,7 +279,9 @@ var EnextBiometria = {
             this.config.tokenEndpoint,
             this.config.biometriaEndpoint,
             this.config.credentials.username,
-            this.config.credentials.password
+            this.config.credentials.password,
+            this._opcionesNativas(),
+            sesionId
         ];
 
         // Ejecutar plugin nativo
@@ -139,9 +290,14 @@ var EnextBiometria = {
                 // Exito - formatear resultado
                 if (onSuccess) {
                     onSuccess({
+                        sesionId: result.sesionId || sesionId,
                         accessToken: result.accessToken,
                         biometricData: result.biometricData || null,
-                        timestamp: result.timestamp || new Date().toISOString()
+                        timestamp: result.timestamp || new Date().toISOString(),
+                        cache: !!result.cache,
+                        edadCacheMs: result.edadCacheMs || 0,
+                        diagnostico: result.diagnostico || null,
+                        metricas: result.metricas || null
                     });
                 }
             },
@@ -150,7 +306,11 @@ var EnextBiometria = {
                 if (onError) {
                     onError({
                         code: error.code || 'UNKNOWN_ERROR',
-                        message: error.message || 'Error desconocido en la validacion'
+                        message: error.message || 'Error desconocido en la validacion',
+                        sesionId: error.sesionId || sesionId,
+                        idCola: error.idCola || null,
+                        diagnostico: error.diagnostico || null,
+                        metricas: error.metricas || null
                     });
                 }
             },
@@ -158,16 +318,246 @@ var EnextBiometria = {
             'validar',
             args
         );
+        return sesionId;
+    },
+
+    /**
+     * Inicia el modo kiosco: una sola pantalla valida a varias personas seguidas, con la camara
+     * y el token abiertos. Las personas se agregan con siguientePersona(); mientras se envia la
+     * foto de una persona ya se captura la siguiente. onResultado se invoca una vez por persona y,
+     * al terminar con terminarKiosco(), una ultima vez con tipo 'fin'.
+     * IMPORTANTE: Debe llamar a configurar() primero para establecer las credenciales.
+     * 
+     * @param {Function} onResultado - Recibe {tipo: 'resultado', sesionId, personaId, cedula, exito,
+     *     accessToken, biometricData, code, message, timestamp, tiempos: {capturaMs, subidaMs, totalMs}}
+     *     por persona y {tipo: 'fin', sesionId, procesadas, descartadas, diagnostico, metricas} al terminar
+     * @param {Function} onError - Callback de error de la sesion (camara, token, cancelacion)
+     * @returns {string} Id de la sesion de kiosco, para usar con cancelar()
+     * 
+     * @example
+     * EnextBiometria.iniciarKiosco(function(r) {
+     *     if (r.tipo === 'resultado') {
+     *         console.log(r.cedula, r.exito ? 'validada' : r.message);
+     *     }
+     * }, function(error) {
+     *     console.error('Error:', error.message);
+     * });
+     * EnextBiometria.siguientePersona({ cedula: '1234567890', codDactilar: 'V3331V2222' });
+     */
+    iniciarKiosco: function(onResultado, onError) {
+        var sesionId = 'kiosco-' + Date.now().toString(36) + '-' + Math.random().toString(36).slice(2, 8);
+
+        // Validar que las credenciales esten configuradas
+        if (!this.config.credentials || !this.config.credentials.username || !this.config.credentials.password) {
+            if (onError) {
+                onError({
+                    code: 'CREDENTIALS_NOT_CONFIGURED',
+                    message: 'Debe configurar las credenciales antes de iniciar el kiosco. Use EnextBiometria.configurar()'
+                });
+            }
+            return;
+        }
+
+        exec(
+            onResultado,
+            function(error) {
+                if (onError) {
+                    onError({
+                        code: error.code || 'UNKNOWN_ERROR',
+                        message: error.message || 'Error desconocido en el kiosco',
+                        sesionId: error.sesionId || sesionId,
+                        diagnostico: error.diagnostico || null,
+                        metricas: error.metricas || null
+                    });
+                }
+            },
+            'EnextBiometria',
+            'iniciarKiosco',
+            [
+                this.config.tokenEndpoint,
+                this.config.biometriaEndpoint,
+                this.config.credentials.username,
+                this.config.credentials.password,
+                this._opcionesNativas(),
+                sesionId
+            ]
+        );
+        return sesionId;
+    },
+
+    /**
+     * Agrega una persona a la fila del kiosco. Se captura cuando la pantalla termina con la anterior.
+     * 
+     * @param {Object} datos - {cedula, codDactilar, personaId (opcional)}
+     * @param {Function} onSuccess - Recibe el personaId con el que llegara su resultado (opcional)
+     * @param {Function} onError - Callback de error, KIOSK_NOT_ACTIVE si no hay kiosco (opcional)
+     * @returns {string} personaId
+     */
+    siguientePersona: function(datos, onSuccess, onError) {
+        var errorDatos = this._validarDatos(datos);
+        if (errorDatos) {
+            if (onError) {
+                onError(errorDatos);
+            }
+            return;
+        }
+        var personaId = datos.personaId || 'persona-' + Date.now().toString(36) + '-' + Math.random().toString(36).slice(2, 6);
+        exec(onSuccess || function() {}, onError || function() {}, 'EnextBiometria', 'siguientePersona',
+            [null, datos.cedula, datos.codDactilar.toUpperCase(), personaId]);
+        return personaId;
+    },
+
+    /**
+     * Termina el kiosco: descarta las personas que no llegaron a capturarse, espera los envios en
+     * curso y cierra la pantalla. El callback de iniciarKiosco() recibe entonces el resultado 'fin'.
+     * 
+     * @param {Function} onSuccess - Callback de exito (opcional)
+     * @param {Function} onError - Callback de error (opcional)
+     */
+    terminarKiosco: function(onSuccess, onError) {
+        exec(onSuccess || function() {}, onError || function() {}, 'EnextBiometria', 'terminarKiosco', []);
+    },
+
+    /**
+     * Prepara en paralelo lo que validar() necesita cuando la pantalla biometrica es probablemente
+     * la siguiente: consulta el permiso de camara, abre la conexion al endpoint de biometria, obtiene
+     * el token, crea el WebView de la pantalla y, con modoCaptura 'nativo', abre la camara. Lo
+     * preparado espera hasta duracionMs; la siguiente validacion lo usa e informa en
+     * diagnostico.precalentamiento que piezas estaban listas. Usa la configuracion de configurar().
+     * 
+     * @param {Object} opciones - {duracionMs} (opcional; por defecto 30000, maximo 120000)
+     * @param {Function} onSuccess - Recibe {edadMs, duracionMs, vigente, piezas: {permiso, conexion, token,
+     *     camara, webView: {estado: 'listo'|'error'|'omitido'|'enCurso', listoMs, detalle}}} al terminar todas
+     * @param {Function} onError - Callback de error (opcional)
+     */
+    precalentar: function(opciones, onSuccess, onError) {
+        if (typeof opciones === 'function') {
+            onError = onSuccess;
+            onSuccess = opciones;
+            opciones = null;
+        }
+        var args = this._opcionesNativas();
+        args.tokenEndpoint = this.config.tokenEndpoint;
+        args.biometriaEndpoint = this.config.biometriaEndpoint;
+        args.credentials = this.config.credentials;
+        if (opciones && opciones.duracionMs) {
+            args.duracionMs = opciones.duracionMs;
+        }
+        exec(onSuccess || function() {}, onError || function() {}, 'EnextBiometria', 'precalentar', [args]);
     },
 
     /**
-     * Cancela el proceso de validacion en curso.
+     * Cancela una validacion: su callback de error recibe CANCELLED de inmediato, se abortan las
+     * llamadas de red en curso y se libera la camara.
      * 
+     * @param {string} sesionId - Id retornado por validar() (opcional; por defecto la validacion activa)
      * @param {Function} onSuccess - Callback de exito
      * @param {Function} onError - Callback de error
      */
-    cancelar: function(onSuccess, onError) {
-        exec(onSuccess, onError, 'EnextBiometria', 'cancelar', []);
+    cancelar: function(sesionId, onSuccess, onError) {
+        if (typeof sesionId === 'function') {
+            onError = onSuccess;
+            onSuccess = sesionId;
+            sesionId = null;
+        }
+        exec(onSuccess, onError, 'EnextBiometria', 'cancelar', [sesionId || null]);
+    },
+
+    /**
+     * Recibe los resultados de las validaciones encoladas sin conexion (error QUEUED en validar()).
+     * El callback se invoca una vez por validacion, incluidas las que se resolvieron antes de
+     * registrarlo (por ejemplo, en una ejecucion anterior de la app).
+     * 
+     * @param {Function} callback - Recibe {idCola, sesionId, cedula, estado: 'completada'|'fallida',
+     *     accessToken, biometricData, code, message, intentos, encoladaEn, resueltaEn}
+     * @param {Function} onError - Callback de error (opcional)
+     */
+    escucharCola: function(callback, onError) {
+        exec(callback, onError || function() {}, 'EnextBiometria', 'escucharCola', []);
+    },
+
+    /**
+     * Percentiles (p50, p95, p99) de la latencia de cada etapa en las ultimas validaciones,
+     * en ms desde la llamada a validar().
+     * 
+     * @param {Object} opciones - {reiniciar: true} vacia los histogramas despues de leerlos (opcional)
+     * @param {Function} onSuccess - Recibe {validaciones, capacidad, etapas: {etapa: {muestras, p50, p95, p99, max}},
+     *     cacheResultados: {entradas, aciertos, fallos}, limiteTasa: {endpoint: {enEspera, ...}},
+     *     agrupamientoToken: {solicitudes, agrupadas, esperando, ...}}
+     * @param {Function} onError - Callback de error (opcional)
+     */
+    metricas: function(opciones, onSuccess, onError) {
+        if (typeof opciones === 'function') {
+            onError = onSuccess;
+            onSuccess = opciones;
+            opciones = null;
+        }
+        exec(onSuccess, onError || function() {}, 'EnextBiometria', 'metricas', [opciones || {}]);
+    },
+
+    /**
+     * Borra la cache de resultados (por ejemplo, al cerrar la sesion del usuario en la app).
+     * 
+     * @param {Function} onSuccess - Callback de exito (opcional)
+     * @param {Function} onError - Callback de error (opcional)
+     */
+    limpiarCacheResultados: function(onSuccess, onError) {
+        exec(onSuccess || function() {}, onError || function() {}, 'EnextBiometria', 'limpiarCache', []);
+    },
+
+    /**
+     * Verifica la cedula y el codigo dactilar. Retorna el error para onError o null si son validos.
+     */
+    _validarDatos: function(datos) {
+        if (!datos || !datos.cedula || !datos.codDactilar) {
+            return { code: 'INVALID_PARAMS', message: 'Se requiere cedula y codigo dactilar' };
+        }
+        // Cedula de 10 digitos
+        if (!/^\d{10}$/.test(datos.cedula)) {
+            return { code: 'INVALID_CEDULA', message: 'La cedula debe tener 10 digitos' };
+        }
+        // Codigo dactilar de 10 caracteres: letra + 4 digitos + letra + 4 digitos
+        if (!/^[A-Z]\d{4}[A-Z]\d{4}$/.test(datos.codDactilar.toUpperCase())) {
+            return { code: 'INVALID_COD_DACTILAR', message: 'El codigo dactilar debe tener 10 caracteres (ej: V3331V2222)' };
+        }
+        return null;
+    },
+
+    /**
+     * Opciones de captura, envio y red que recibe la pantalla nativa.
+     */
+    _opcionesNativas: function() {
+        return {
+            modoCaptura: this.config.modoCaptura,
+            modoEnvio: this.config.modoEnvio,
+            deteccionRostro: this.config.deteccionRostro,
+            cuadrosEstables: this.config.cuadrosEstables,
+            cuadrosRafaga: this.config.cuadrosRafaga,
+            ventanaRafagaMs: this.config.ventanaRafagaMs,
+            validarCalidad: this.config.validarCalidad,
+            umbralesCalidad: this.config.umbralesCalidad,
+            recorteRostro: this.config.recorteRostro,
+            resolucionObjetivo: this.config.resolucionObjetivo,
+            presupuestoBytes: this.config.presupuestoBytes,
+            formatoImagen: this.config.formatoImagen,
+            perfilAdaptativo: this.config.perfilAdaptativo,
+            tiempoObjetivoSubidaMs: this.config.tiempoObjetivoSubidaMs,
+            colaOffline: this.config.colaOffline,
+            timeoutConexionMs: this.config.timeoutConexionMs,
+            timeoutLecturaMs: this.config.timeoutLecturaMs,
+            timeoutTokenMs: this.config.timeoutTokenMs,
+            timeoutBiometriaMs: this.config.timeoutBiometriaMs,
+            reintentosToken: this.config.reintentosToken,
+            esperaReintentoMs: this.config.esperaReintentoMs,
+            umbralCircuito: this.config.umbralCircuito,
+            aperturaCircuitoMs: this.config.aperturaCircuitoMs,
+            limiteTasaPorSegundo: this.config.limiteTasaPorSegundo,
+            rafagaLimiteTasa: this.config.rafagaLimiteTasa,
+            esperaMaximaLimiteMs: this.config.esperaMaximaLimiteMs,
+            cacheResultadosMs: this.config.cacheResultadosMs,
+            maximoCacheResultados: this.config.maximoCacheResultados,
+            procesoSeparado: this.config.procesoSeparado
+        };
     },
 
     /**